@@ -0,0 +1,155 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares the JSON results of a benchmark run (-rf json) with a baseline in the same format, e.g. the checked-in
+ * baseline.json, and exits with status 1 if a benchmark regressed by more than the threshold.
+ *
+ * A benchmark regresses when its score is worse than the baseline score by more than the threshold, a fraction of
+ * the baseline score (0.2 by default), and by more than the error of both scores. Lower scores are better for the
+ * time modes and higher scores are better for throughput. Benchmarks that are missing from either file are reported
+ * but do not fail the comparison.
+ *
+ * Run with: java -cp target/benchmarks.jar org.opencds.cqf.tooling.benchmarks.BenchmarkComparison
+ *      -results=jmh-result.json [-baseline=baseline.json] [-threshold=0.2]
+ */
+public class BenchmarkComparison {
+
+    public static final double DEFAULT_THRESHOLD = 0.2;
+
+    public static void main(String[] args) throws IOException {
+        String resultsPath = null;
+        String baselinePath = "baseline.json";
+        double threshold = DEFAULT_THRESHOLD;
+        for (String arg : args) {
+            String[] flagAndValue = arg.split("=");
+            if (flagAndValue.length < 2) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            String flag = flagAndValue[0];
+            String value = flagAndValue[1];
+
+            switch (flag.replace("-", "").toLowerCase()) {
+                case "results": case "r": resultsPath = value; break; // -results (-r)
+                case "baseline": case "b": baselinePath = value; break; // -baseline (-b)
+                case "threshold": case "t": threshold = Double.parseDouble(value); break; // -threshold (-t)
+                default: throw new IllegalArgumentException("Unknown flag: " + flag);
+            }
+        }
+        if (resultsPath == null) {
+            throw new IllegalArgumentException("The path to the results of a benchmark run is required as -results=");
+        }
+
+        int regressions = compare(load(Paths.get(baselinePath)), load(Paths.get(resultsPath)), threshold);
+        if (regressions > 0) {
+            System.out.println(String.format("%d benchmark(s) regressed by more than %.0f%%", regressions, threshold * 100));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the comparison of each benchmark
+     * @return the number of benchmarks that regressed
+     */
+    public static int compare(Map<String, Score> baseline, Map<String, Score> results, double threshold) {
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            Score score = entry.getValue();
+            Score baselineScore = baseline.get(entry.getKey());
+            if (baselineScore == null) {
+                System.out.println(String.format("NEW        %s: %s", entry.getKey(), score));
+                continue;
+            }
+            if (!score.unit.equals(baselineScore.unit)) {
+                System.out.println(String.format("SKIPPED    %s: %s, baseline %s in different units", entry.getKey(), score, baselineScore));
+                continue;
+            }
+
+            double change = (score.value - baselineScore.value) / baselineScore.value;
+            double worse = score.higherIsBetter ? -change : change;
+            boolean significant = Math.abs(score.value - baselineScore.value) > score.error + baselineScore.error;
+            String status = "OK";
+            if (worse > threshold && significant) {
+                status = "REGRESSED";
+                regressions++;
+            }
+            else if (worse < -threshold && significant) {
+                status = "IMPROVED";
+            }
+            System.out.println(String.format("%-10s %s: %s, baseline %s (%+.1f%%)", status, entry.getKey(), score, baselineScore, change * 100));
+        }
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.println(String.format("MISSING    %s", key));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Reads the results of a benchmark run in the JMH JSON format
+     * @return the score of each benchmark, keyed by the benchmark name, mode and parameters
+     */
+    public static Map<String, Score> load(Path path) throws IOException {
+        JsonArray runs;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            runs = JsonParser.parseReader(reader).getAsJsonArray();
+        }
+
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonElement element : runs) {
+            JsonObject run = element.getAsJsonObject();
+            String mode = run.get("mode").getAsString();
+            StringBuilder key = new StringBuilder(run.get("benchmark").getAsString()).append(" [").append(mode);
+            if (run.has("params")) {
+                Map<String, String> params = new TreeMap<>();
+                for (Map.Entry<String, JsonElement> param : run.getAsJsonObject("params").entrySet()) {
+                    params.put(param.getKey(), param.getValue().getAsString());
+                }
+                params.forEach((name, value) -> key.append(", ").append(name).append("=").append(value));
+            }
+            key.append("]");
+
+            JsonObject metric = run.getAsJsonObject("primaryMetric");
+            JsonElement error = metric.get("scoreError");
+            scores.put(key.toString(), new Score(metric.get("score").getAsDouble(),
+                    error == null || !error.isJsonPrimitive() || !error.getAsJsonPrimitive().isNumber() ? 0 : error.getAsDouble(),
+                    metric.get("scoreUnit").getAsString(), mode.equals("thrpt")));
+        }
+        return scores;
+    }
+
+    public static class Score {
+        private final double value;
+        private final double error;
+        private final String unit;
+        private final boolean higherIsBetter;
+
+        public Score(double value, double error, String unit, boolean higherIsBetter) {
+            this.value = value;
+            // a single iteration has no error, which JMH reports as NaN
+            this.error = Double.isNaN(error) ? 0 : error;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f +/- %.3f %s", value, error, unit);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.utilities.BundleUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Bundling the resources of an IG with BundleUtils.bundleArtifacts, as done for test cases and the bundled artifacts
+ * of a refresh. The resources are read once, so only the bundling is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BundleBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int size;
+
+    private SyntheticIg ig;
+    private FhirContext fhirContext;
+    private List<IBaseResource> resources;
+
+    @Setup
+    public void setUp() {
+        ig = SyntheticIg.create(size).writeResources();
+        fhirContext = ResourceUtils.getFhirContext(ResourceUtils.FhirVersion.R4);
+        resources = IOUtils.readResources(IOUtils.getFilePaths(ig.getResourcesPath().toString(), true), fhirContext);
+    }
+
+    @TearDown
+    public void tearDown() {
+        IOUtils.clearCaches();
+        ig.delete();
+    }
+
+    @Benchmark
+    public Object bundleArtifacts() {
+        return BundleUtils.bundleArtifacts("synthetic-ig-bundle", resources, fhirContext, false);
+    }
+}
@@ -0,0 +1,158 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.elm_modelinfo.r1.TypeInfo;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.opencds.cqf.tooling.modelinfo.ClassInfoBuilder;
+import org.opencds.cqf.tooling.modelinfo.ClassInfoBuilds;
+import org.opencds.cqf.tooling.modelinfo.fhir.FHIRClassInfoBuilder;
+import org.opencds.cqf.tooling.modelinfo.qicore.QICoreClassInfoBuilder;
+import org.opencds.cqf.tooling.modelinfo.uscore.USCoreClassInfoBuilder;
+import org.opencds.cqf.tooling.utilities.CanonicalUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+
+/**
+ * Building the ClassInfos of a model the way StructureDefinitionToModelInfo does (build followed by afterBuild),
+ * excluding the time taken to load the conformance resources, sequentially and on several threads.
+ *
+ * FHIR is built from the R4 structure definitions bundled with HAPI. USCore and QICore are built from those and a
+ * synthetic profile for each profile id of the builder that is not a base structure definition: a constraint on the
+ * base resource whose name the id names (Observation otherwise), with the snapshot of that resource. The first
+ * profile of each resource is named after the resource, as in the published IGs, so that content references resolve.
+ * The synthetic profiles have none of the slices and extensions of the published profiles, so they measure the
+ * traversal of the profiles rather than reproduce the published model info.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ClassInfoBuilderBenchmark {
+
+    // the names of the published profiles that the builders refer to
+    private static final Map<String, String> PROFILE_NAMES = Map.of("us-core-observation-lab", "LaboratoryResultObservationProfile");
+
+    @Param({ "FHIR", "USCore", "QICore" })
+    public String model;
+
+    @Param({ "1", "4" })
+    public int threadCount;
+
+    private Map<String, StructureDefinition> structureDefinitions;
+    private PrintStream out;
+
+    @Setup
+    public void setUp() {
+        structureDefinitions = new LinkedHashMap<>();
+        for (IBaseResource resource : new DefaultProfileValidationSupport(FhirContext.forR4Cached()).fetchAllStructureDefinitions()) {
+            StructureDefinition sd = (StructureDefinition) resource;
+            structureDefinitions.putIfAbsent(CanonicalUtils.getTail(sd.getUrl()), sd);
+        }
+        switch (model) {
+            case "FHIR": break;
+            case "USCore": addSyntheticProfiles(USCoreClassInfoBuilder.PROFILES, "USCore"); break;
+            case "QICore": addSyntheticProfiles(QICoreClassInfoBuilder.PROFILES, "QICore"); break;
+            default: throw new IllegalArgumentException("Unknown model: " + model);
+        }
+
+        // The builders log every element they visit
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public Map<String, TypeInfo> build() {
+        ClassInfoBuilder builder;
+        switch (model) {
+            case "FHIR": builder = new FHIRClassInfoBuilder(structureDefinitions); break;
+            case "USCore": builder = new USCoreClassInfoBuilder(structureDefinitions); break;
+            case "QICore": builder = new QICoreClassInfoBuilder(structureDefinitions); break;
+            default: throw new IllegalArgumentException("Unknown model: " + model);
+        }
+        builder.setThreadCount(threadCount);
+        return ClassInfoBuilds.build(builder);
+    }
+
+    private void addSyntheticProfiles(List<String> profileIds, String modelPrefix) {
+        List<StructureDefinition> resources = new ArrayList<>();
+        for (StructureDefinition sd : structureDefinitions.values()) {
+            if (sd.getKind() == StructureDefinition.StructureDefinitionKind.RESOURCE
+                    && sd.getDerivation() == StructureDefinition.TypeDerivationRule.SPECIALIZATION && !sd.getAbstract()) {
+                resources.add(sd);
+            }
+        }
+
+        Set<String> profiledTypes = new HashSet<>();
+        for (String id : profileIds) {
+            if (structureDefinitions.containsKey(id)) {
+                continue;
+            }
+            StructureDefinition base = getBaseResource(id, resources);
+            String name = PROFILE_NAMES.getOrDefault(id, profiledTypes.add(base.getType())
+                    ? modelPrefix + base.getType() : modelPrefix + toName(id.replaceFirst("^(us-core|qicore)-", "")));
+            StructureDefinition profile = base.copy();
+            String canonicalBase = id.startsWith("qicore-") ? "http://hl7.org/fhir/us/qicore" : "http://hl7.org/fhir/us/core";
+            profile.setId(id);
+            profile.setUrl(canonicalBase + "/StructureDefinition/" + id);
+            profile.setName(name);
+            profile.setDerivation(StructureDefinition.TypeDerivationRule.CONSTRAINT);
+            profile.setBaseDefinition(base.getUrl());
+            profile.getDifferential().getElement().clear();
+            structureDefinitions.put(id, profile);
+        }
+    }
+
+    // The resource with the longest name that the id (without the prefix of its IG) starts with, e.g.
+    // DiagnosticReport for qicore-diagnosticreport-lab, and Observation for vital signs profiles such as bmi
+    private StructureDefinition getBaseResource(String id, List<StructureDefinition> resources) {
+        String name = id.replaceFirst("^(us-core|qicore)-", "").replace("-", "");
+        StructureDefinition base = structureDefinitions.get("Observation");
+        int length = 0;
+        for (StructureDefinition sd : resources) {
+            String type = sd.getType().toLowerCase();
+            if (name.startsWith(type) && type.length() > length) {
+                base = sd;
+                length = type.length();
+            }
+        }
+        return base;
+    }
+
+    private static String toName(String id) {
+        StringBuilder name = new StringBuilder();
+        for (String part : id.split("-")) {
+            name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.fhir.ucum.UcumEssenceService;
+import org.fhir.ucum.UcumException;
+import org.fhir.ucum.UcumService;
+import org.hl7.fhir.r5.context.IWorkerContext.ILoggingService;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.opencds.cqf.tooling.npm.LibraryLoader;
+import org.opencds.cqf.tooling.processor.CqlProcessor;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Translating the CQL of an IG with CqlProcessor. translate translates every library, as a RefreshIG run does,
+ * translateChangedLibrary retranslates a single library after a change, as the watch mode of RefreshIG does.
+ * The libraries only depend on the FHIR model, so no NPM packages are loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CqlTranslationBenchmark {
+
+    @Param({ "10", "100" })
+    public int size;
+
+    private SyntheticIg ig;
+    private UcumService ucumService;
+    private List<String> changedFiles;
+    private CqlProcessor translatedProcessor;
+
+    @Setup
+    public void setUp() throws UcumException {
+        ig = SyntheticIg.create(size);
+        List<String> paths = ig.writeCql();
+        ucumService = new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
+        changedFiles = Collections.singletonList(paths.get(paths.size() - 1));
+        translatedProcessor = translateAll();
+        if (translatedProcessor.getAllFileInformation().size() != paths.size()) {
+            throw new IllegalStateException(String.format("Expected %d translated libraries but found %d",
+                    paths.size(), translatedProcessor.getAllFileInformation().size()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        IOUtils.clearCaches();
+        ig.delete();
+    }
+
+    @Benchmark
+    public Collection<CqlProcessor.CqlSourceFileInformation> translate() {
+        return translateAll().getAllFileInformation();
+    }
+
+    @Benchmark
+    public Collection<CqlProcessor.CqlSourceFileInformation> translateChangedLibrary() {
+        translatedProcessor.execute(changedFiles);
+        return translatedProcessor.getAllFileInformation();
+    }
+
+    private CqlProcessor translateAll() {
+        IOUtils.clearCaches();
+        CqlProcessor processor = new CqlProcessor((List<NpmPackage>) null,
+                Collections.singletonList(ig.getCqlPath().toString()), new LibraryLoader(SyntheticIg.FHIR_VERSION),
+                new QuietLoggingService(), ucumService, null, null);
+        processor.execute();
+        return processor;
+    }
+
+    private static class QuietLoggingService implements ILoggingService {
+        @Override
+        public void logMessage(String message) {
+        }
+
+        @Override
+        public void logDebugMessage(LogCategory category, String message) {
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencds.cqf.tooling.dateroller.DataDateRollerOperation;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rolling the dates of test data with the RollTestsDataDates operation. The operation rewrites the files in place,
+ * so the data is regenerated before each invocation, which makes this a single shot benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class DataDateRollerBenchmark {
+
+    @Param({ "10", "100" })
+    public int size;
+
+    private SyntheticIg ig;
+    private String[] args;
+
+    @Setup
+    public void setUp() {
+        ig = SyntheticIg.create(size);
+        args = new String[] { "-RollTestsDataDates", "-ip=" + ig.getDateRollerPath(), "-v=" + ResourceUtils.FhirVersion.R4 };
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreData() {
+        // the rolled resources are cached by IOUtils, which would otherwise be rolled again
+        IOUtils.clearCaches();
+        ig.writeDateRollerData();
+    }
+
+    @TearDown
+    public void tearDown() {
+        IOUtils.clearCaches();
+        ig.delete();
+    }
+
+    @Benchmark
+    public void rollTestsDataDates() {
+        new DataDateRollerOperation().execute(args);
+    }
+}
@@ -0,0 +1,88 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.hl7.fhir.r4.model.ElementDefinition;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.opencds.cqf.tooling.acceleratorkit.DifferentialElementIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a profile differential from a synthetic data dictionary of elementCount data elements, the way the
+ * acceleratorkit Processor.ensureElement does: the intermediate path elements, the element itself and its choices
+ * element are looked up by id before being added. linearScan looks elements up by scanning the differential (the
+ * previous Processor behavior), indexed uses a DifferentialElementIndex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DifferentialElementIndexBenchmark {
+
+    @Param({ "1000", "5000" })
+    public int elementCount;
+
+    @Benchmark
+    public StructureDefinition linearScan() {
+        return build(false);
+    }
+
+    @Benchmark
+    public StructureDefinition indexed() {
+        return build(true);
+    }
+
+    private StructureDefinition build(boolean indexed) {
+        StructureDefinition sd = new StructureDefinition();
+        DifferentialElementIndex index = new DifferentialElementIndex(sd);
+        BiFunction<StructureDefinition, String, ElementDefinition> lookup = indexed
+                ? (x, id) -> index.getElementById(id)
+                : DifferentialElementIndexBenchmark::scan;
+
+        addIfMissing(sd, index, lookup, "Observation", indexed);
+        for (int i = 0; i < elementCount; i++) {
+            String component = "Observation.component:c" + (i / 10);
+            addIfMissing(sd, index, lookup, component, indexed);
+            addIfMissing(sd, index, lookup, component + ".code", indexed);
+            addIfMissing(sd, index, lookup, component + ".value" + i, indexed);
+            lookup.apply(sd, component + ".value" + i + ".choices");
+        }
+        return sd;
+    }
+
+    private static void addIfMissing(StructureDefinition sd, DifferentialElementIndex index,
+            BiFunction<StructureDefinition, String, ElementDefinition> lookup, String id, boolean indexed) {
+        if (lookup.apply(sd, id) == null) {
+            ElementDefinition ed = new ElementDefinition();
+            ed.setId(id);
+            ed.setPath(id);
+            if (indexed) {
+                index.add(ed);
+            }
+            else {
+                sd.getDifferential().addElement(ed);
+            }
+        }
+    }
+
+    private static ElementDefinition scan(StructureDefinition sd, String id) {
+        for (ElementDefinition ed : sd.getDifferential().getElement()) {
+            if (ed.getId().equals(id)) {
+                return ed;
+            }
+        }
+        return null;
+    }
+}
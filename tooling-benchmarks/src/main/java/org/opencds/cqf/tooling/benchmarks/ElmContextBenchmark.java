@@ -0,0 +1,73 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.hl7.elm.r1.ContextDef;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.opencds.cqf.tooling.cql_generation.builder.VmrToFhirElmBuilder;
+import org.opencds.cqf.tooling.cql_generation.builder.VmrToModelElmBuilder;
+import org.opencds.cqf.tooling.cql_generation.context.ElmContext;
+import org.opencds.cqf.tooling.cql_generation.context.LibraryBuilderServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Starting libraryCount libraries with ElmContext.newLibraryBuilder, as the CQL generation from Drools rules does.
+ * Each library is started, given the FHIR model, a Patient context and the FHIRHelpers include, then built.
+ * perLibraryServices loads the model, library and UCUM services for every library (the previous behavior),
+ * sharedServices shares one LibraryBuilderServices across the libraries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ElmContextBenchmark {
+
+    @Param({ "10", "50" })
+    public int libraryCount;
+
+    private VmrToModelElmBuilder modelBuilder;
+
+    @Setup
+    public void setUp() {
+        modelBuilder = new VmrToFhirElmBuilder("4.0.0", new DecimalFormat("#.#"));
+    }
+
+    @Benchmark
+    public ElmContext perLibraryServices() {
+        ElmContext context = null;
+        for (int i = 0; i < libraryCount; i++) {
+            context = new ElmContext(modelBuilder);
+            buildLibrary(context, i);
+        }
+        return context;
+    }
+
+    @Benchmark
+    public ElmContext sharedServices() {
+        ElmContext context = new ElmContext(modelBuilder, new LibraryBuilderServices(modelBuilder));
+        for (int i = 0; i < libraryCount; i++) {
+            buildLibrary(context, i);
+        }
+        return context;
+    }
+
+    private static void buildLibrary(ElmContext context, int i) {
+        VersionedIdentifier identifier = new VersionedIdentifier().withId("Benchmark" + i).withVersion("1.0.0");
+        context.newLibraryBuilder(Pair.of(identifier, new ContextDef().withName("Patient")));
+        context.buildLibrary();
+    }
+}
@@ -0,0 +1,72 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Scanning the resource directories of an IG and reading the resources in them, which every refresh starts with.
+ * readResources parses every file, readResourcesCached measures the lookups once IOUtils has cached them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IOUtilsBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int size;
+
+    private SyntheticIg ig;
+    private FhirContext fhirContext;
+    private List<String> paths;
+
+    @Setup
+    public void setUp() {
+        ig = SyntheticIg.create(size).writeResources();
+        fhirContext = ResourceUtils.getFhirContext(ResourceUtils.FhirVersion.R4);
+        paths = IOUtils.getFilePaths(ig.getResourcesPath().toString(), true);
+        IOUtils.clearCaches();
+    }
+
+    @TearDown
+    public void tearDown() {
+        IOUtils.clearCaches();
+        ig.delete();
+    }
+
+    @Benchmark
+    public List<String> getFilePaths() {
+        return IOUtils.getFilePaths(ig.getResourcesPath().toString(), true);
+    }
+
+    @Benchmark
+    public List<IBaseResource> readResources() {
+        IOUtils.clearCaches();
+        return IOUtils.readResources(paths, fhirContext);
+    }
+
+    @Benchmark
+    public List<IBaseResource> readResourcesCached() {
+        return IOUtils.readResources(paths, fhirContext);
+    }
+}
@@ -0,0 +1,230 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates the content of a synthetic R4 IG in a temporary directory, so that the benchmarks run against fixtures of
+ * a known, configurable size rather than whatever happens to be checked in. The size is the number of artifacts of
+ * each kind that is generated:
+ *
+ * input/resources       size patients, each with 4 observations, spread over directories of 100 resources
+ * input/cql             a Common library and size libraries that include it
+ * input/tests/measure   test cases for size / 10 + 1 measures, size test cases in total, each a patient and 4 observations
+ * input/dateroller      size transaction bundles of a patient and 4 observations, with dataDateRoller extensions
+ *                       whose dates are due to be rolled
+ */
+public class SyntheticIg {
+
+    public static final String FHIR_VERSION = "4.0.1";
+
+    static final String DATA_DATE_ROLLER_URL = "http://fhir.org/guides/cdc/opioid-cds/StructureDefinition/dataDateRoller";
+
+    private static final int OBSERVATIONS_PER_PATIENT = 4;
+    private static final int RESOURCES_PER_DIRECTORY = 100;
+
+    private final Path root;
+    private final int size;
+
+    private SyntheticIg(Path root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static SyntheticIg create(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The size of a synthetic IG must be at least 1: " + size);
+        }
+        try {
+            return new SyntheticIg(Files.createTempDirectory("synthetic-ig-" + size + "-"), size);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Path getResourcesPath() {
+        return root.resolve("input/resources");
+    }
+
+    public Path getCqlPath() {
+        return root.resolve("input/cql");
+    }
+
+    public Path getTestsPath() {
+        return root.resolve("input/tests");
+    }
+
+    public Path getDateRollerPath() {
+        return root.resolve("input/dateroller");
+    }
+
+    public SyntheticIg writeResources() {
+        for (int i = 0; i < size; i++) {
+            Path directory = getResourcesPath().resolve("group-" + (i / RESOURCES_PER_DIRECTORY));
+            String patientId = "patient-" + i;
+            write(directory.resolve("Patient-" + patientId + ".json"), patient(patientId));
+            for (int j = 0; j < OBSERVATIONS_PER_PATIENT; j++) {
+                String observationId = patientId + "-observation-" + j;
+                write(directory.resolve("Observation-" + observationId + ".json"), observation(observationId, patientId, "2021-06-01", false));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the paths of the CQL files, Common first
+     */
+    public List<String> writeCql() {
+        List<String> paths = new ArrayList<>();
+        Path common = getCqlPath().resolve("Common.cql");
+        write(common, String.join("\n",
+                "library Common version '1.0.0'",
+                "",
+                "using FHIR version '" + FHIR_VERSION + "'",
+                "",
+                "context Patient",
+                "",
+                "define \"Final Observations\":",
+                "  [Observation] O where O.status.value = 'final'",
+                ""));
+        paths.add(common.toString());
+        for (int i = 0; i < size; i++) {
+            Path library = getCqlPath().resolve("Library" + i + ".cql");
+            write(library, String.join("\n",
+                    "library Library" + i + " version '1.0.0'",
+                    "",
+                    "using FHIR version '" + FHIR_VERSION + "'",
+                    "",
+                    "include Common version '1.0.0' called Common",
+                    "",
+                    "parameter \"Threshold\" Integer default " + i,
+                    "",
+                    "context Patient",
+                    "",
+                    "define \"Observation Count\":",
+                    "  Count(Common.\"Final Observations\")",
+                    "",
+                    "define \"Above Threshold\":",
+                    "  \"Observation Count\" > \"Threshold\"",
+                    "",
+                    "define \"Recent Observations\":",
+                    "  Common.\"Final Observations\" O",
+                    "    where O.issued.value after @2020-01-01T00:00:00.0",
+                    "",
+                    "define \"Is Female\":",
+                    "  Patient.gender.value = 'female'",
+                    ""));
+            paths.add(library.toString());
+        }
+        return paths;
+    }
+
+    public SyntheticIg writeTestCases() {
+        for (int i = 0; i < size; i++) {
+            String patientId = "test-" + i;
+            Path testCase = getTestsPath().resolve("measure/Measure" + (i / 10)).resolve(patientId);
+            write(testCase.resolve("Patient/" + patientId + ".json"), patient(patientId));
+            for (int j = 0; j < OBSERVATIONS_PER_PATIENT; j++) {
+                String observationId = patientId + "-observation-" + j;
+                write(testCase.resolve("Observation/" + observationId + ".json"), observation(observationId, patientId, "2021-06-01", false));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes (or rewrites) the date roller input, so that a benchmark that rolls the dates in place can restore it
+     * before each invocation.
+     */
+    public SyntheticIg writeDateRollerData() {
+        for (int i = 0; i < size; i++) {
+            String patientId = "roller-" + i;
+            StringBuilder entries = new StringBuilder();
+            entries.append(entry(patient(patientId)));
+            for (int j = 0; j < OBSERVATIONS_PER_PATIENT; j++) {
+                entries.append(",\n").append(entry(observation(patientId + "-observation-" + j, patientId, "2020-01-01", true)));
+            }
+            write(getDateRollerPath().resolve("bundle-" + patientId + ".json"), String.join("\n",
+                    "{",
+                    "  \"resourceType\": \"Bundle\",",
+                    "  \"id\": \"bundle-" + patientId + "\",",
+                    "  \"type\": \"transaction\",",
+                    "  \"entry\": [",
+                    entries.toString(),
+                    "  ]",
+                    "}"));
+        }
+        return this;
+    }
+
+    public void delete() {
+        FileUtils.deleteQuietly(root.toFile());
+    }
+
+    private static String patient(String id) {
+        return String.join("\n",
+                "{",
+                "  \"resourceType\": \"Patient\",",
+                "  \"id\": \"" + id + "\",",
+                "  \"name\": [ { \"family\": \"Synthetic\", \"given\": [ \"" + id + "\" ] } ],",
+                "  \"gender\": \"female\",",
+                "  \"birthDate\": \"1970-01-01\"",
+                "}");
+    }
+
+    private static String observation(String id, String patientId, String date, boolean dataDateRoller) {
+        return String.join("\n",
+                "{",
+                "  \"resourceType\": \"Observation\",",
+                "  \"id\": \"" + id + "\",",
+                dataDateRoller ? dataDateRollerExtension(date) : "",
+                "  \"status\": \"final\",",
+                "  \"code\": { \"coding\": [ { \"system\": \"http://loinc.org\", \"code\": \"8867-4\", \"display\": \"Heart rate\" } ] },",
+                "  \"subject\": { \"reference\": \"Patient/" + patientId + "\" },",
+                "  \"effectiveDateTime\": \"" + date + "\",",
+                "  \"issued\": \"" + date + "T12:00:00.000Z\",",
+                "  \"valueQuantity\": { \"value\": 72, \"unit\": \"beats/minute\", \"system\": \"http://unitsofmeasure.org\", \"code\": \"/min\" }",
+                "}");
+    }
+
+    private static String dataDateRollerExtension(String dateLastUpdated) {
+        return String.join("\n",
+                "  \"extension\": [ {",
+                "    \"url\": \"" + DATA_DATE_ROLLER_URL + "\",",
+                "    \"extension\": [",
+                "      { \"url\": \"dateLastUpdated\", \"valueDateTime\": \"" + dateLastUpdated + "\" },",
+                "      { \"url\": \"frequency\", \"valueDuration\": { \"value\": 30.0, \"unit\": \"days\", \"system\": \"http://unitsofmeasure.org\", \"code\": \"d\" } }",
+                "    ]",
+                "  } ],");
+    }
+
+    private static String entry(String resource) {
+        return "    { \"resource\": " + resource.replace("\n", "\n    ") + " }";
+    }
+
+    private static void write(Path path, String content) {
+        try {
+            Files.createDirectories(path.getParent());
+            Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.opencds.cqf.tooling.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencds.cqf.tooling.processor.TestCaseProcessor;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Refreshing the test case bundles of an IG with TestCaseProcessor.refreshTestCases, reading the test case resources
+ * from disk each time as a RefreshIG run does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TestCaseRefreshBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int size;
+
+    private SyntheticIg ig;
+    private FhirContext fhirContext;
+
+    @Setup
+    public void setUp() {
+        ig = SyntheticIg.create(size).writeTestCases();
+        fhirContext = ResourceUtils.getFhirContext(ResourceUtils.FhirVersion.R4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        IOUtils.clearCaches();
+        ig.delete();
+    }
+
+    @Benchmark
+    public void refreshTestCases() {
+        IOUtils.clearCaches();
+        new TestCaseProcessor().refreshTestCases(ig.getTestsPath().toString(), IOUtils.Encoding.JSON, fhirContext);
+    }
+}
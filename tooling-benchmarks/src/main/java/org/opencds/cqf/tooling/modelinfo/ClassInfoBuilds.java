@@ -0,0 +1,23 @@
+package org.opencds.cqf.tooling.modelinfo;
+
+import java.util.Map;
+
+import org.hl7.elm_modelinfo.r1.TypeInfo;
+
+/**
+ * Lets the benchmarks run the protected steps of a ClassInfoBuilder from outside the modelinfo package.
+ */
+public final class ClassInfoBuilds {
+
+    private ClassInfoBuilds() {
+    }
+
+    /**
+     * Builds the ClassInfos the way StructureDefinitionToModelInfo does, build followed by afterBuild.
+     */
+    public static Map<String, TypeInfo> build(ClassInfoBuilder builder) {
+        Map<String, TypeInfo> typeInfos = builder.build();
+        builder.afterBuild();
+        return typeInfos;
+    }
+}
@@ -0,0 +1,87 @@
+package org.opencds.cqf.tooling.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.opencds.cqf.tooling.Operation;
+
+/**
+ * Forwards an operation to a running daemon (see {@link DaemonOperation}) and relays its output and exit status,
+ * e.g. -DaemonClient -RefreshIG -ini=ig.ini. The client flags must precede the operation. The client authenticates with
+ * the token the daemon wrote for its port, and must run in the daemon's working directory.
+ */
+class DaemonClientOperation extends Operation {
+
+    @Override
+    public void execute(String[] args) {
+        int port = DaemonOperation.DEFAULT_PORT;
+        boolean stop = false;
+        int i = 0;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-DaemonClient")) continue;
+            String[] flagAndValue = arg.split("=");
+            String flag = flagAndValue[0].replace("-", "").toLowerCase();
+            if (flag.equals("stop")) {
+                stop = true; // -stop
+            }
+            else if ((flag.equals("port") || flag.equals("p")) && flagAndValue.length == 2) {
+                port = DaemonOperation.parsePort(flagAndValue[1]); // -port (-p)
+            }
+            else {
+                break;
+            }
+        }
+
+        String[] operationArgs = stop ? new String[0] : Arrays.copyOfRange(args, i, args.length);
+        if (!stop && operationArgs.length == 0) {
+            throw new IllegalArgumentException("An operation to forward to the daemon is required, e.g. -DaemonClient -RefreshIG -ini=ig.ini");
+        }
+
+        Path tokenPath = DaemonOperation.getTokenPath(port);
+        String token;
+        try {
+            token = new String(Files.readAllBytes(tokenPath), StandardCharsets.UTF_8);
+        }
+        catch (NoSuchFileException e) {
+            throw new RuntimeException(String.format("No daemon token found at %s, start a daemon with -Daemon -port=%d", tokenPath, port));
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Error reading the daemon token: " + e.getMessage());
+        }
+
+        int status;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            request.writeUTF(token);
+            request.writeUTF(System.getProperty("user.dir"));
+            request.writeInt(operationArgs.length);
+            for (String arg : operationArgs) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            status = DaemonOperation.readResponse(socket.getInputStream(), System.out, System.err);
+        }
+        catch (ConnectException e) {
+            throw new RuntimeException(String.format("No daemon is listening on port %d, start one with -Daemon -port=%d", port, port));
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Error communicating with the daemon: " + e.getMessage());
+        }
+
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+}
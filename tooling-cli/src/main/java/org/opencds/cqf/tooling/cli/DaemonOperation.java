@@ -0,0 +1,408 @@
+package org.opencds.cqf.tooling.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import joptsimple.OptionException;
+
+import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.processor.argument.RefreshIGArgumentProcessor;
+import org.opencds.cqf.tooling.processor.ProcessorStateCache;
+import org.opencds.cqf.tooling.utilities.Metrics;
+
+/**
+ * Runs operations on behalf of DaemonClient invocations, so that the JVM and the state that is expensive to build
+ * (FHIR contexts, the NPM packages of each IG, the UCUM service) are shared by successive runs, e.g. repeated
+ * -RefreshIG runs in an editor or CI loop. See {@link ProcessorStateCache} for what is cached and when it is reloaded.
+ *
+ * The daemon listens on a loopback socket and runs one request at a time. The output of the operation is forwarded
+ * to the client, and System.exit calls made by the operation end the request rather than the daemon.
+ *
+ * Operations run with the permissions of the user that started the daemon, so the daemon writes a random token to a
+ * file only that user can read (see {@link #getTokenPath(int)}) and rejects requests that do not present it.
+ * Relative paths are resolved against the daemon's working directory, so requests from clients running in another
+ * directory are rejected rather than run against different files. A client that connects but does not send its
+ * request within {@link #REQUEST_TIMEOUT_MILLIS} is dropped, so it cannot hold up the requests queued behind it, and
+ * -RefreshIG -watch is rejected because it runs until it is interrupted.
+ *
+ * Protocol: a request is the token and the client's working directory followed by the argument count and the
+ * arguments, written with DataOutputStream.writeUTF; a request with no arguments stops the daemon. The response is a
+ * sequence of frames, each a type byte followed by an int, which is the length of the data that follows for output
+ * frames and the exit status for the final EXIT frame.
+ */
+class DaemonOperation extends Operation {
+
+    static final int DEFAULT_PORT = 7727;
+    static final int REQUEST_TIMEOUT_MILLIS = 10000;
+
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    @Override
+    public void execute(String[] args) {
+        int port = DEFAULT_PORT;
+        for (String arg : args) {
+            if (arg.equals("-Daemon")) continue;
+            String[] flagAndValue = arg.split("=");
+            if (flagAndValue.length < 2) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            String flag = flagAndValue[0];
+            String value = flagAndValue[1];
+
+            switch (flag.replace("-", "").toLowerCase()) {
+                case "port": case "p": port = parsePort(value); break; // -port (-p)
+                default: throw new IllegalArgumentException("Unknown flag: " + flag);
+            }
+        }
+
+        ExitGuard exitGuard = ExitGuard.install();
+        ProcessorStateCache stateCache = ProcessorStateCache.enable();
+        Path tokenPath = getTokenPath(port);
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            String token = writeToken(tokenPath);
+            System.out.println(String.format("cqf-tooling daemon listening on %s:%d", serverSocket.getInetAddress().getHostAddress(), port));
+            boolean running = true;
+            while (running) {
+                try (Socket socket = serverSocket.accept()) {
+                    running = handle(socket, token, stateCache, exitGuard);
+                }
+                catch (SocketTimeoutException e) {
+                    System.err.println("Dropped a client that did not send its request within " + REQUEST_TIMEOUT_MILLIS + " ms");
+                }
+                catch (IOException e) {
+                    // a client that goes away does not stop the daemon
+                    e.printStackTrace();
+                }
+            }
+            System.out.println("cqf-tooling daemon stopped");
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Error running daemon on port " + port + ": " + e.getMessage());
+        }
+        finally {
+            ProcessorStateCache.disable();
+            try {
+                Files.deleteIfExists(tokenPath);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static int parsePort(String value) {
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port: " + value);
+        }
+    }
+
+    /**
+     * @return the file the daemon listening on the port writes its token to, in the user home
+     */
+    static Path getTokenPath(int port) {
+        return Paths.get(System.getProperty("user.home"), ".cqf-tooling", "daemon-" + port + ".token");
+    }
+
+    /**
+     * Writes a new random token to a file that only the current user can read or write.
+     */
+    private static String writeToken(Path tokenPath) throws IOException {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+
+        Files.createDirectories(tokenPath.getParent());
+        Files.deleteIfExists(tokenPath);
+        if (tokenPath.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tokenPath, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        else {
+            Files.createFile(tokenPath);
+            AclFileAttributeView aclView = Files.getFileAttributeView(tokenPath, AclFileAttributeView.class);
+            if (aclView == null) {
+                Files.delete(tokenPath);
+                throw new IOException("Unable to restrict access to the daemon token file " + tokenPath);
+            }
+            aclView.setAcl(Collections.singletonList(AclEntry.newBuilder()
+                    .setType(AclEntryType.ALLOW)
+                    .setPrincipal(Files.getOwner(tokenPath))
+                    .setPermissions(EnumSet.of(AclEntryPermission.READ_DATA, AclEntryPermission.WRITE_DATA, AclEntryPermission.APPEND_DATA,
+                            AclEntryPermission.READ_ATTRIBUTES, AclEntryPermission.WRITE_ATTRIBUTES, AclEntryPermission.READ_NAMED_ATTRS,
+                            AclEntryPermission.WRITE_NAMED_ATTRS, AclEntryPermission.READ_ACL, AclEntryPermission.WRITE_ACL,
+                            AclEntryPermission.DELETE, AclEntryPermission.SYNCHRONIZE))
+                    .build()));
+        }
+        Files.write(tokenPath, token.toString().getBytes(StandardCharsets.UTF_8));
+        return token.toString();
+    }
+
+    private boolean handle(Socket socket, String token, ProcessorStateCache stateCache, ExitGuard exitGuard) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream response = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        // only the request is read, the operation itself is not subject to the timeout
+        socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+
+        if (!MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            System.err.println("Rejected a request with an invalid token");
+            writeError(response, "Invalid daemon token, the daemon may have been restarted");
+            return true;
+        }
+        String workingDirectory = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        if (args.length == 0) {
+            writeExit(response, 0);
+            return false;
+        }
+        if (!isWorkingDirectory(workingDirectory)) {
+            writeError(response, String.format("The daemon resolves relative paths against its working directory %s, not %s. "
+                    + "Run the client from %s or start a daemon in %s.", System.getProperty("user.dir"), workingDirectory,
+                    System.getProperty("user.dir"), workingDirectory));
+            return true;
+        }
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream clientOut = new PrintStream(new FrameOutputStream(response, STDOUT), true, StandardCharsets.UTF_8);
+        PrintStream clientErr = new PrintStream(new FrameOutputStream(response, STDERR), true, StandardCharsets.UTF_8);
+        int status = 0;
+        out.println(String.format("Running %s", String.join(" ", args)));
+        long start = System.nanoTime();
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        exitGuard.running = true;
+        try {
+            stateCache.beginRun();
+            run(args);
+        }
+        catch (ExitException e) {
+            status = e.status;
+        }
+        catch (RuntimeException | LinkageError | AssertionError e) {
+            e.printStackTrace();
+            status = 1;
+        }
+        finally {
+            exitGuard.running = false;
+            clientOut.flush();
+            clientErr.flush();
+            System.setOut(out);
+            System.setErr(err);
+        }
+        out.println(String.format("Finished %s with status %d in %,d ms", args[0], status, (System.nanoTime() - start) / 1000000));
+        writeExit(response, status);
+        return true;
+    }
+
+    private void run(String[] args) {
+        String operation = args[0];
+        if (!operation.startsWith("-")) {
+            throw new IllegalArgumentException("Invalid operation: " + operation);
+        }
+        if (operation.equals("-Daemon") || operation.equals("-DaemonClient")) {
+            throw new IllegalArgumentException("Operation not supported by the daemon: " + operation);
+        }
+        if (operation.equals("-RefreshIG") && isWatch(args)) {
+            throw new IllegalArgumentException("-watch is not supported by the daemon, it would keep the daemon from serving other requests. "
+                    + "Run -RefreshIG -watch without the daemon client.");
+        }
+        // -metrics covers a single request
+        String metricsPath = Main.getMetricsPath(args);
+        if (metricsPath == null) {
+            OperationFactory.createOperation(operation.substring(1)).execute(args);
+            return;
+        }
+        Metrics.enable();
+        try {
+            OperationFactory.createOperation(operation.substring(1)).execute(Main.removeMetricsFlag(args));
+        }
+        finally {
+            Main.writeMetrics(metricsPath);
+            Metrics.disable();
+        }
+    }
+
+    private static boolean isWatch(String[] args) {
+        try {
+            return new RefreshIGArgumentProcessor().build().parse(args).has(RefreshIGArgumentProcessor.WATCH_OPTIONS[0]);
+        }
+        catch (OptionException e) {
+            // invalid arguments are reported by the operation
+            return false;
+        }
+    }
+
+    private static boolean isWorkingDirectory(String workingDirectory) {
+        Path daemonDirectory = Paths.get(System.getProperty("user.dir"));
+        Path clientDirectory = Paths.get(workingDirectory);
+        try {
+            return Files.isSameFile(daemonDirectory, clientDirectory);
+        }
+        catch (IOException e) {
+            return daemonDirectory.toAbsolutePath().normalize().equals(clientDirectory.toAbsolutePath().normalize());
+        }
+    }
+
+    private static void writeError(DataOutputStream response, String message) throws IOException {
+        byte[] data = (message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        synchronized (response) {
+            response.writeByte(STDERR);
+            response.writeInt(data.length);
+            response.write(data);
+        }
+        writeExit(response, 1);
+    }
+
+    private static void writeExit(DataOutputStream response, int status) throws IOException {
+        synchronized (response) {
+            response.writeByte(EXIT);
+            response.writeInt(status);
+            response.flush();
+        }
+    }
+
+    /**
+     * Reads the frames of a response, copying output to out and err, and returns the exit status.
+     */
+    static int readResponse(InputStream inputStream, OutputStream out, OutputStream err) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        byte[] buffer = new byte[8192];
+        while (true) {
+            byte type = in.readByte();
+            int value = in.readInt();
+            if (type == EXIT) {
+                out.flush();
+                err.flush();
+                return value;
+            }
+            OutputStream target = type == STDERR ? err : out;
+            for (int remaining = value; remaining > 0; ) {
+                int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Daemon closed the connection");
+                }
+                target.write(buffer, 0, read);
+                remaining -= read;
+            }
+            target.flush();
+        }
+    }
+
+    /**
+     * Writes everything written to it as frames of the given type. Worker threads of an operation may write
+     * concurrently, so frames are written under the response lock.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream response;
+        private final byte type;
+
+        private FrameOutputStream(DataOutputStream response, byte type) {
+            this.response = response;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (response) {
+                response.writeByte(type);
+                response.writeInt(len);
+                response.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (response) {
+                response.flush();
+            }
+        }
+    }
+
+    private static class ExitException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        private ExitException(int status) {
+            super("System.exit(" + status + ") called by operation");
+            this.status = status;
+        }
+    }
+
+    /**
+     * Turns System.exit calls made while a request is running into an ExitException. Installing a security manager
+     * is not possible on every runtime, in which case an operation that exits stops the daemon.
+     */
+    private static class ExitGuard extends SecurityManager {
+        private volatile boolean running;
+
+        static ExitGuard install() {
+            ExitGuard exitGuard = new ExitGuard();
+            try {
+                System.setSecurityManager(exitGuard);
+            }
+            catch (UnsupportedOperationException | SecurityException e) {
+                System.err.println("Unable to intercept System.exit, operations that exit will stop the daemon: " + e.getMessage());
+            }
+            return exitGuard;
+        }
+
+        @Override
+        public void checkPermission(Permission perm) {
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+        }
+
+        @Override
+        public void checkExit(int status) {
+            if (running) {
+                throw new ExitException(status);
+            }
+        }
+    }
+}
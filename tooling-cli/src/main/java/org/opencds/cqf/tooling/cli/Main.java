@@ -1,5 +1,12 @@
 package org.opencds.cqf.tooling.cli;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencds.cqf.tooling.utilities.Metrics;
+
 /*
 
     The purpose of this project is to provide tooling for several CDS use cases including Implementation Guide and Measure authoring. See below for
@@ -17,6 +24,9 @@ package org.opencds.cqf.tooling.cli;
             - If an output directory path is specified in the params, it MUST NOT have any spaces
         - The default encoding for org.opencds.cqf.qdm.output is JSON
             - XML is also supported
+        - Any operation accepts -metrics=<path>, which writes the timing spans and counters recorded during the run (e.g. the
+          phases of a refresh, the translation time of each library, the resources parsed and bytes written) to the path
+          when the process exits, in the Chrome trace event format (open with chrome://tracing or https://ui.perfetto.dev)
 
     This project provides tooling for the following use cases:
         - QDM to QiCore mapping generation
@@ -26,7 +36,7 @@ package org.opencds.cqf.tooling.cli;
               for the QiCore implementation guide
 
         - QiCore QUICK page generation
-            - command: mvn exec:java -Dexec.args="[-QiCoreQUICK] [path to QiCore output directory] (output directory path)"
+            - command: mvn exec:java -Dexec.args="[-QiCoreQUICK] [path to QiCore output directory] (output directory path) (-threads | -t) (-incremental | -inc)"
             - /Users/christopherschuler/Documents/workspace/harmoniq/repos/qi-core/output
 
         - VSAC Excel spreadsheet to FHIR ValueSet resource conversion
@@ -92,6 +102,14 @@ package org.opencds.cqf.tooling.cli;
             - command: mvn exec:java -Dexec.args"-RefreshLibrary -ini -fv|fhir-version -lp|libraryPath (-ss|-stamp)
             - Example: mvn exec:java -Dexec.args="-RefreshLibrary -ini=C:\Users\Bryn\Documents\Src\HL7\sample-ig\ig.ini -fv=fhir4 -lp=C:\Users\Bryn\Documents\Src\HL7\sample-ig\input\examples\Library-example.json" -ss=false
 
+        - Refresh IG
+            - command: mvn exec:java -Dexec.args="-RefreshIG -ini (-rp|resourcepath) (-e|encoding) (-elm) (-d) (-t) (-p) (-v) (-ss|-stamp) (-ts|-timestamp) (-w|-watch) (-wd|-watch-debounce)"
+            - Example: mvn exec:java -Dexec.args="-RefreshIG -ini=/Users/adam/Src/cqframework/opioid-cds-r4/ig.ini -t -d -p -watch"
+            - With -watch, the operation keeps running after the refresh and watches the cql, input/resources and input/tests
+                directories. When files change, only the changed CQL and the CQL that includes it is translated again, and only
+                the affected libraries, measures and test cases are refreshed. Bundles are not rebuilt.
+            - The -wd is the number of milliseconds without further changes to wait before refreshing. Defaults to 500.
+
         - Bundle Resources
             - mvn exec:java -Dexec.args="[-BundleResources] [-pathtodirectory | -ptd] (-outputpath | -op) (-version | -v) (-encoding | -e) (-bundleid | -bid) "
             - Example: mvn exec:java -Dexec.args="-BundleResources -ptd=/Users/adam/Src/cqframework/opioid-cds-r4/quickstartcontent -op=/Users/adam/Src/cqframework/opioid-cds-r4/quickstartcontentbundle -v=r4"
@@ -124,12 +142,14 @@ package org.opencds.cqf.tooling.cli;
             - Accepts Bundles with .json or .xml extensions
 
         - MAT Bundle extraction
-        	- mvn exec:java -Dexec.args="[-ExtractMatBundle] [Bundle file path] (-v)
+        	- mvn exec:java -Dexec.args="[-ExtractMatBundle] [Bundle file path] (-v) [-elm] [-stream | -s] [-threads | -t]
         	- Example: mvn exec:java -Dexec.args="-ExtractMatBundle /Users/mholck/Development/ecqm-content-r4/bundles/mat/EXM124/EXM124.json -v=r4"
         	- This tooling extracts out the resources and CQL from a MAT export bundle and puts them in the appropriate directories
         	- Accepts Bundles with .json or .xml extensions
         	- version = FHIR version { stu3, r4 }
                 Default version: r4
+        	- -elm=true also extracts the ELM content of the Libraries to the elm directory
+        	- -stream=true reads the entries of a .json bundle one at a time rather than reading the whole bundle, for large exports
 
         - Generate StructureDefinitions from ModelInfo
             - command: mvn exec:java -Dexec.args="[-GenerateSDs] [path to modelinfo xml] (-outputpath | -op) (-encoding | -e)"
@@ -176,6 +196,7 @@ package org.opencds.cqf.tooling.cli;
         - VmrToFhirTransformer
             - command: mvn exec: java -Dexec.args="-VmrToFhir -ifp=./src/test/resources/org/opencds/cqf/tooling/operation/VmrToFhir -op=./src/test/resources/org/opencds/cqf/tooling/operation/VmrToFhir/vMROutput.xml -e=xml"
             - this tooling transforms vMR data to FHIR data
+            - -ifp may also be a directory of vMR files, or a file holding several cdsOutput documents, and -th=<n> transforms the documents on n threads
 
         - EnsureExecutableValueSet
             - command: mvn exec: java -Dexec.args="-EnsureExecutableValueSet [-valuesetpath | -vsp] (-outputpath | -op) (-declarecpg | -cpg) (-force | -f)"
@@ -191,7 +212,7 @@ package org.opencds.cqf.tooling.cli;
             - The -skipversion flag indicates that code system versions that are present in the expansion should not be expressed in the inferred compose
 
         - PostmanCollection
-            - command: mvn exec: java -Dexec.args="-PostmanCollection (-pathtobundledir | -ptbd) (-outputpath | -op) (-version | -v) [-host] [-path] [-protocol] [-name]"
+            - command: mvn exec: java -Dexec.args="-PostmanCollection (-pathtobundledir | -ptbd) (-outputpath | -op) (-version | -v) [-host] [-path] [-protocol] [-name] [-threads | -t]"
             - This tooling generates a postman collection based on the measure transaction bundle
             - The operation expects -ptbd is a directory containing one or more directories each of them contains measure output bundle
             - The -op is the output directory for collection
@@ -200,9 +221,10 @@ package org.opencds.cqf.tooling.cli;
             - The -path is the server path after base ex, "-path=cqf-ruler-r4/fhir/"
             - The -protocol can be http or https
             - The -name is the name for the postman collection
+            - The -t is the number of threads used to read the bundles. Defaults to the number of available processors.
 
         - TransformErsd
-            - command: mvn exec: java -Dexec.args="-TransformErsd (-pathtobundle | -ptb) (-outputpath | -op) [-pathtoplandefinition | -ptpd] [-encoding | -e]"
+            - command: mvn exec: java -Dexec.args="-TransformErsd (-pathtobundle | -ptb) (-outputpath | -op) [-pathtoplandefinition | -ptpd] [-encoding | -e] [-threads | -t]"
             - This Operation transforms a US eCR eRSD version 1 bundle to eRSD version 2
             - The operation expects -ptb is a path to a file containing the source eRSD v1 bundle
             - The -op is the output directory for output v2
@@ -215,6 +237,24 @@ package org.opencds.cqf.tooling.cli;
                 The "encoding" argument can be specified multiple times and the transformer will output a bundle for each encoding.
                 So if you want both json and xml bundles, you would specify both -e=json and -e=xml. If no encoding argument
                 is supplied, the transformer will assume "json" as the default and output a single JSON-encoded bundle.
+            - The -t is the number of threads used to validate the bundle entries. Defaults to the number of available processors.
+
+        - Daemon
+            - command: mvn exec: java -Dexec.args="-Daemon (-port | -p)"
+            - This Operation starts a long-lived process that runs operations forwarded by -DaemonClient, keeping the FHIR contexts,
+                the NPM packages of each IG, the CQL models of each CQL folder and the UCUM service warm between runs
+            - The daemon listens on the loopback interface; -p defaults to 7727
+            - The daemon writes a token to ~/.cqf-tooling/daemon-{port}.token, readable only by the user that started it,
+                and runs only requests that present it
+            - The NPM packages of an IG are reloaded when the IG resource or the package cache folders change
+            - Relative paths are resolved against the daemon's working directory, so only requests from clients running in
+                that directory are accepted
+
+        - DaemonClient
+            - command: mvn exec: java -Dexec.args="-DaemonClient (-port | -p) (-stop) [operation] {operation args}"
+            - This Operation forwards the operation and its arguments to a running daemon and relays its output and exit status
+            - Example: -DaemonClient -RefreshIG -ini=ig.ini
+            - The -stop flag stops the daemon
 
         */
 
@@ -232,6 +272,46 @@ public class Main {
             throw new IllegalArgumentException("Invalid operation: " + operation);
         }
 
+        String metricsPath = getMetricsPath(args);
+        if (metricsPath != null) {
+            args = removeMetricsFlag(args);
+            Metrics.enable();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> writeMetrics(metricsPath)));
+        }
+
         OperationFactory.createOperation(operation.substring(1)).execute(args);
     }
+
+    /**
+     * @return the value of the -metrics flag that follows the operation, or null if there is none
+     */
+    static String getMetricsPath(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String[] flagAndValue = args[i].split("=", 2);
+            if (flagAndValue.length == 2 && flagAndValue[0].replace("-", "").equalsIgnoreCase("metrics")) {
+                return flagAndValue[1];
+            }
+        }
+        return null;
+    }
+
+    static String[] removeMetricsFlag(String[] args) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (i == 0 || !args[i].split("=", 2)[0].replace("-", "").equalsIgnoreCase("metrics")) {
+                result.add(args[i]);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    static void writeMetrics(String metricsPath) {
+        try {
+            Metrics.writeTrace(metricsPath);
+            System.out.println("Metrics written to " + new File(metricsPath).getAbsolutePath());
+        }
+        catch (IOException e) {
+            System.err.println(String.format("Error writing metrics to %s: %s", metricsPath, e.getMessage()));
+        }
+    }
 }
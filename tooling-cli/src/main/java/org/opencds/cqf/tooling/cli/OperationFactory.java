@@ -133,6 +133,10 @@ class OperationFactory {
                 return new ProfilesToSpreadsheet();
             case "QICoreElementsToSpreadsheet":
                 return new QICoreElementsToSpreadsheet();
+            case "Daemon":
+                return new DaemonOperation();
+            case "DaemonClient":
+                return new DaemonClientOperation();
             default:
                 throw new IllegalArgumentException("Invalid operation: " + operationName);
         }
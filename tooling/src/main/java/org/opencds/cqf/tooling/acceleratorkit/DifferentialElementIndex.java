@@ -0,0 +1,95 @@
+package org.opencds.cqf.tooling.acceleratorkit;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.ElementDefinition;
+import org.hl7.fhir.r4.model.StructureDefinition;
+
+/**
+ * Id and path index over the differential elements of a StructureDefinition, so that looking up an element while
+ * building a profile does not require scanning the differential. Elements added through the index keep it in sync;
+ * if the differential is modified directly the index is rebuilt on the next lookup.
+ */
+public class DifferentialElementIndex {
+    private final StructureDefinition structureDefinition;
+    private List<ElementDefinition> elements;
+    // The first element in the differential with a given id/path, matching a front-to-back scan
+    private final Map<String, ElementDefinition> elementsById = new HashMap<>();
+    private final Map<String, ElementDefinition> elementsByPath = new HashMap<>();
+    private int indexedCount = -1;
+
+    public DifferentialElementIndex(StructureDefinition structureDefinition) {
+        this.structureDefinition = structureDefinition;
+    }
+
+    public ElementDefinition getElementById(String id) {
+        ensureIndexed();
+        return elementsById.get(id);
+    }
+
+    public ElementDefinition getElementByPath(String path) {
+        ensureIndexed();
+        return elementsByPath.get(path);
+    }
+
+    /**
+     * Returns the position of the first element with the given path, or -1 if there is no such element.
+     */
+    public int indexOfPath(String path) {
+        ElementDefinition element = getElementByPath(path);
+        if (element == null) {
+            return -1;
+        }
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void add(ElementDefinition element) {
+        ensureIndexed();
+        elements.add(element);
+        index(element);
+        indexedCount++;
+    }
+
+    public void add(int position, ElementDefinition element) {
+        ensureIndexed();
+        elements.add(position, element);
+        if (position == elements.size() - 1
+                || (!elementsById.containsKey(element.getId()) && !elementsByPath.containsKey(element.getPath()))) {
+            index(element);
+            indexedCount++;
+        }
+        else {
+            // The new element may now precede an element with the same id or path, so reindex on the next lookup
+            indexedCount = -1;
+        }
+    }
+
+    private void ensureIndexed() {
+        List<ElementDefinition> current = structureDefinition.getDifferential().getElement();
+        if (current != elements || current.size() != indexedCount) {
+            elements = current;
+            elementsById.clear();
+            elementsByPath.clear();
+            for (ElementDefinition element : elements) {
+                index(element);
+            }
+            indexedCount = elements.size();
+        }
+    }
+
+    private void index(ElementDefinition element) {
+        if (element.getId() != null) {
+            elementsById.putIfAbsent(element.getId(), element);
+        }
+        if (element.getPath() != null) {
+            elementsByPath.putIfAbsent(element.getPath(), element);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -93,6 +94,8 @@ public class Processor extends Operation {
     private Map<String, List<DictionaryElement>> elementsByProfileId = new LinkedHashMap<String, List<DictionaryElement>>();
     private Map<String, List<StructureDefinition>> profilesByActivityId = new LinkedHashMap<String, List<StructureDefinition>>();
     private Map<String, List<StructureDefinition>> profilesByParentProfile = new LinkedHashMap<String, List<StructureDefinition>>();
+    // Keyed by identity; kept in sync as elements are added to the differentials of the generated profiles
+    private Map<StructureDefinition, DifferentialElementIndex> differentialIndexes = new IdentityHashMap<StructureDefinition, DifferentialElementIndex>();
     private List<CodeSystem> codeSystems = new ArrayList<CodeSystem>();
     private List<Questionnaire> questionnaires = new ArrayList<Questionnaire>();
     private List<ValueSet> valueSets = new ArrayList<ValueSet>();
@@ -234,6 +237,7 @@ public class Processor extends Operation {
         profileExtensions = new ArrayList<>();
         extensions = new ArrayList<>();
         profiles = new ArrayList<>();
+        differentialIndexes = new IdentityHashMap<>();
         codeSystems = new ArrayList<>();
         questionnaires = new ArrayList<>();
         valueSets = new ArrayList<>();
@@ -292,15 +296,12 @@ public class Processor extends Operation {
         //writeIgResourceFragments(scopePath);
     }
 
+    private DifferentialElementIndex getDifferentialIndex(StructureDefinition sd) {
+        return differentialIndexes.computeIfAbsent(sd, DifferentialElementIndex::new);
+    }
+
     private ElementDefinition getDifferentialElement(StructureDefinition sd, String elementId) {
-        ElementDefinition element = null;
-        for (ElementDefinition ed : sd.getDifferential().getElement()) {
-            if (ed.getId().equals(elementId)) {
-                element = ed;
-                break;
-            }
-        }
-        return element;
+        return getDifferentialIndex(sd).getElementById(elementId);
     }
 
     private void attachExtensions() {
@@ -338,7 +339,7 @@ public class Processor extends Operation {
 
                     extensionElement.setType(typeRefList);
 
-                    profile.getDifferential().addElement(extensionElement);
+                    getDifferentialIndex(profile).add(extensionElement);
                     applyDataElementToElementDefinition(profileElementExtension.getElement(), profile, extensionElement);
                 }
             }
@@ -1677,22 +1678,16 @@ public class Processor extends Operation {
     }
 
     private int getElementIndex(StructureDefinition sd, String path) {
-        for (int i = 0; i < sd.getDifferential().getElement().size(); i++) {
-            if (sd.getDifferential().getElement().get(i).getPath().equals(path)) {
-                return i;
-            }
-        }
-
-        return -1;
+        return getDifferentialIndex(sd).indexOfPath(path);
     }
 
     private void addAfter(StructureDefinition sd, ElementDefinition ed, String afterPath) {
         int targetIndex = getElementIndex(sd, afterPath);
         if (targetIndex >= 0) {
-            sd.getDifferential().getElement().add(targetIndex + 1, ed);
+            getDifferentialIndex(sd).add(targetIndex + 1, ed);
         }
         else {
-            sd.getDifferential().getElement().add(ed);
+            getDifferentialIndex(sd).add(ed);
         }
     }
 
@@ -1722,7 +1717,7 @@ public class Processor extends Operation {
             case "ServiceRequest.locationReference": addAfter(sd, ed, "ServiceRequest.authoredOn"); break;
             case "Procedure.code": addAfter(sd, ed, "Procedure"); break;
             case "Procedure.statusReason": addAfter(sd, ed, "Procedure"); break;
-            default: sd.getDifferential().addElement(ed); break;
+            default: getDifferentialIndex(sd).add(ed); break;
         }
     }
 
@@ -13,6 +13,7 @@ import org.opencds.cqf.tooling.Operation;
 import org.opencds.cqf.tooling.casereporting.validation.UsPublicHealthValidatorModule;
 import org.opencds.cqf.tooling.parameter.TransformErsdParameters;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,9 +28,9 @@ public class ErsdTransformer extends Operation {
     private static final Logger logger = LoggerFactory.getLogger(ErsdTransformer.class);
     private static final String PUBLISHER = "Association of Public Health Laboratories (APHL)";
     private static final String RCTCLIBRARYURL = "http://ersd.aimsplatform.org/fhir/Library/rctc";
+    private static FhirValidator sharedValidator;
     private FhirContext ctx;
     private FhirValidator validator;
-    private IValidatorModule module = new UsPublicHealthValidatorModule();
     private final String usPhPlanDefinitionProfileUrl = "http://hl7.org/fhir/us/ecr/StructureDefinition/us-ph-plandefinition";
     private final String usPhSpecificationLibraryProfileUrl = "http://hl7.org/fhir/us/ecr/StructureDefinition/us-ph-specification-library";
     private final String usPhTriggeringValueSetLibraryProfileUrl = "http://hl7.org/fhir/us/ecr/StructureDefinition/us-ph-triggering-valueset-library";
@@ -39,11 +40,27 @@ public class ErsdTransformer extends Operation {
     private Period effectivePeriod;
 
     public ErsdTransformer() {
-        ctx = FhirContext.forR4();
-        validator = ctx.newValidator();
-        // validator.setValidateAgainstStandardSchema(true);
-        // validator.setValidateAgainstStandardSchematron(true);
-        validator.registerValidatorModule(module);
+        ctx = FhirContext.forR4Cached();
+        validator = getSharedValidator();
+    }
+
+    /**
+     * The validator is thread safe and holds no state between validations, so a single instance is shared by every
+     * transformer and by the threads validating the bundle entries. It is warmed up on creation with a validation of
+     * each of the resource types the transformer validates, so the first entries of a run do not pay for that.
+     */
+    private static synchronized FhirValidator getSharedValidator() {
+        if (sharedValidator == null) {
+            FhirValidator validator = FhirContext.forR4Cached().newValidator();
+            // validator.setValidateAgainstStandardSchema(true);
+            // validator.setValidateAgainstStandardSchematron(true);
+            validator.registerValidatorModule(new UsPublicHealthValidatorModule());
+            validator.validateWithResult(new PlanDefinition());
+            validator.validateWithResult(new Library());
+            validator.validateWithResult(new ValueSet());
+            sharedValidator = validator;
+        }
+        return sharedValidator;
     }
 
     @Override
@@ -81,6 +98,7 @@ public class ErsdTransformer extends Operation {
                         throw new IllegalArgumentException("Invalid encoding: " + value);
                     }
                 case "prettyprintoutput": case "ppo": params.prettyPrintOutput = Boolean.parseBoolean(value); break; // -prettyprintoutput (-ppo)
+                case "threads": case "t": params.threadCount = Integer.parseInt(value); break; // -threads (-t)
                 default: throw new IllegalArgumentException("Unknown flag: " + flag);
             }
         }
@@ -121,7 +139,7 @@ public class ErsdTransformer extends Operation {
         }
 
         Library specificationLibrary = createSpecificationLibrary();
-        resolveRelatedArtifacts(sourceBundle, specificationLibrary);
+        resolveRelatedArtifacts(sourceBundle, specificationLibrary, params.threadCount);
         Bundle specificationBundle = resolveSpecificationBundle(sourceBundle, specificationLibrary);
 
         if (params.outputFileEncodings == null) {
@@ -132,7 +150,7 @@ public class ErsdTransformer extends Operation {
         }
 
         for (IOUtils.Encoding encoding: params.outputFileEncodings) {
-            IOUtils.writeBundle(specificationBundle, params.outputPath, encoding, FhirContext.forR4Cached(), params.outputFileName, params.prettyPrintOutput);
+            IOUtils.writeBundle(specificationBundle, params.outputPath, encoding, ctx, params.outputFileName, params.prettyPrintOutput);
         }
     }
 
@@ -233,23 +251,60 @@ public class ErsdTransformer extends Operation {
         return specificationLibrary;
     }
 
-    private void resolveRelatedArtifacts(Bundle bundle, Library specificationLibrary) {
-        bundle.getEntry().stream()
-                .filter(x -> x.hasResource() && x.getResource().fhirType().equals("PlanDefinition"))
-                .forEach(x -> resolvePlanDefinition((PlanDefinition) x.getResource(), specificationLibrary));
-        bundle.getEntry().stream()
-                .filter(x -> x.hasResource() && x.getResource().fhirType().equals("Library"))
-                .forEach( x -> resolveTriggeringValueSetLibrary((Library) x.getResource(), specificationLibrary, bundle));
-        bundle.getEntry().stream()
-                .filter(x -> x.hasResource() && x.getResource().fhirType().equals("ValueSet"))
-                .forEach(x -> resolveTriggeringValueSet((ValueSet) x.getResource(), specificationLibrary));
+    /**
+     * Resolves the PlanDefinitions, then the Libraries, then the ValueSets of the bundle. The entries are validated
+     * concurrently on threadCount workers, while each entry is resolved on the calling thread in that same order, so
+     * the related artifacts of the specification library come out as they would sequentially.
+     */
+    private void resolveRelatedArtifacts(Bundle bundle, Library specificationLibrary, int threadCount) {
+        List<Resource> resources = new ArrayList<>();
+        for (String resourceType : new String[] { "PlanDefinition", "Library", "ValueSet" }) {
+            bundle.getEntry().stream()
+                    .filter(x -> x.hasResource() && x.getResource().fhirType().equals(resourceType))
+                    .forEach(x -> resources.add(x.getResource()));
+        }
+
+        ThreadUtils.forEachOrdered(resources, threadCount, res -> new ValidatedResource(res, validate(res)), validated -> {
+            if (validated.resource instanceof PlanDefinition) {
+                resolvePlanDefinition((PlanDefinition) validated.resource, validated.result, specificationLibrary);
+            }
+            else if (validated.resource instanceof Library) {
+                resolveTriggeringValueSetLibrary((Library) validated.resource, validated.result, specificationLibrary, bundle);
+            }
+            else {
+                resolveTriggeringValueSet((ValueSet) validated.resource, validated.result, specificationLibrary);
+            }
+        });
     }
 
-    private IBaseOperationOutcome resolvePlanDefinition(PlanDefinition res, Library specificationLibrary) {
-        if (!resolveProfile(res, usPhPlanDefinitionProfileUrl)) {
-            res.getMeta().addProfile(usPhPlanDefinitionProfileUrl);
+    private ValidationResult validate(Resource res) {
+        String profile;
+        if (res instanceof PlanDefinition) {
+            profile = usPhPlanDefinitionProfileUrl;
+        }
+        else if (res instanceof Library) {
+            profile = usPhTriggeringValueSetLibraryProfileUrl;
+        }
+        else {
+            profile = usPhTriggeringValueSetProfileUrl;
         }
-        ValidationResult result = validator.validateWithResult(res);
+        if (!resolveProfile(res, profile)) {
+            res.getMeta().addProfile(profile);
+        }
+        return validator.validateWithResult(res);
+    }
+
+    private static class ValidatedResource {
+        private final Resource resource;
+        private final ValidationResult result;
+
+        private ValidatedResource(Resource resource, ValidationResult result) {
+            this.resource = resource;
+            this.result = result;
+        }
+    }
+
+    private IBaseOperationOutcome resolvePlanDefinition(PlanDefinition res, ValidationResult result, Library specificationLibrary) {
         boolean isValid = true;
         for (SingleValidationMessage message : result.getMessages()) {
             if (message.getSeverity().equals(ResultSeverityEnum.ERROR)) {
@@ -291,12 +346,8 @@ public class ErsdTransformer extends Operation {
         return resolvedProfile;
     }
 
-    private IBaseOperationOutcome resolveTriggeringValueSetLibrary(Library res, Library specificationLibrary,
-            Bundle bundle) {
-        if (!resolveProfile(res, usPhTriggeringValueSetLibraryProfileUrl)) {
-            res.getMeta().addProfile(usPhTriggeringValueSetLibraryProfileUrl);
-        }
-        ValidationResult result = validator.validateWithResult(res);
+    private IBaseOperationOutcome resolveTriggeringValueSetLibrary(Library res, ValidationResult result,
+            Library specificationLibrary, Bundle bundle) {
         boolean isValid = true;
         for (SingleValidationMessage message : result.getMessages()) {
             if (message.getSeverity().equals(ResultSeverityEnum.ERROR)) {
@@ -340,11 +391,7 @@ public class ErsdTransformer extends Operation {
         return null;
     }
 
-    private IBaseOperationOutcome resolveTriggeringValueSet(ValueSet res, Library specificationLibrary) {
-        if (!resolveProfile(res, usPhTriggeringValueSetProfileUrl)) {
-            res.getMeta().addProfile(usPhTriggeringValueSetProfileUrl);
-        }
-        ValidationResult result = validator.validateWithResult(res);
+    private IBaseOperationOutcome resolveTriggeringValueSet(ValueSet res, ValidationResult result, Library specificationLibrary) {
         boolean isValid = true;
         for (SingleValidationMessage message : result.getMessages()) {
             if (message.getSeverity().equals(ResultSeverityEnum.ERROR)) {
@@ -0,0 +1,132 @@
+package org.opencds.cqf.tooling.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Holds the software system Devices of a run, e.g. a RefreshIG or the bundling of test cases, so that the Devices
+ * stamped onto many Libraries, Measures and bundle entries are each read and written once rather than once per entry.
+ *
+ * The first Device requested in a run resolves the Devices in the device paths of the IG, parsing each once. Devices
+ * are then looked up and updated in memory by id, and every Device that was updated is written once when the
+ * outermost run ends. Runs nest, so a processor can begin a run whether or not it is called as part of a larger one,
+ * and a helper called outside any run writes its Device immediately, as before.
+ *
+ * SoftwareSystemDeviceRegistry.beginRun();
+ * try { ... } finally { SoftwareSystemDeviceRegistry.endRun(); }
+ */
+public class SoftwareSystemDeviceRegistry {
+
+    private static final Map<String, RegisteredDevice> devices = new LinkedHashMap<>();
+    private static boolean resolved;
+    private static IOUtils.Encoding newDeviceEncoding = IOUtils.Encoding.JSON;
+    private static int runDepth;
+
+    public static synchronized void beginRun() {
+        runDepth++;
+    }
+
+    /**
+     * Ends a run, writing the updated Devices and discarding the registry if it is the outermost run
+     */
+    public static synchronized void endRun() {
+        if (runDepth > 0) {
+            runDepth--;
+        }
+        if (runDepth == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * @return the Device with the given id, from the device paths of the IG or as updated during this run, or null if
+     * there is none
+     */
+    public static synchronized IBaseResource getDevice(String deviceId, FhirContext fhirContext) {
+        if (!resolved) {
+            resolve(fhirContext);
+        }
+        RegisteredDevice registered = devices.get(deviceId);
+        return registered == null ? null : registered.device;
+    }
+
+    /**
+     * Records a new or updated Device, to be written at the end of the run. A Device that was not read from the IG is
+     * written to the given directory.
+     */
+    public static synchronized void putDevice(IBaseResource device, String outputDirectory, FhirContext fhirContext) {
+        if (!resolved) {
+            resolve(fhirContext);
+        }
+        String deviceId = device.getIdElement().getIdPart();
+        RegisteredDevice registered = devices.get(deviceId);
+        if (registered == null) {
+            registered = new RegisteredDevice(outputDirectory, newDeviceEncoding);
+            devices.put(deviceId, registered);
+        }
+        registered.device = device;
+        registered.fhirContext = fhirContext;
+        registered.updated = true;
+    }
+
+    /**
+     * Discards the Devices of the current run without writing them
+     */
+    public static synchronized void clear() {
+        devices.clear();
+        resolved = false;
+        newDeviceEncoding = IOUtils.Encoding.JSON;
+    }
+
+    private static void resolve(FhirContext fhirContext) {
+        for (String path : IOUtils.getDevicePaths(fhirContext)) {
+            // NOTE: New Devices are written as XML if the IG has any XML Devices.
+            if (path.endsWith("xml")) {
+                newDeviceEncoding = IOUtils.Encoding.XML;
+            }
+
+            IBaseResource resource = IOUtils.readResourceUncached(path, fhirContext);
+            // NOTE: Takes the first device that matches on ID.
+            if (resource != null && "Device".equals(resource.fhirType())) {
+                String deviceId = resource.getIdElement().getIdPart();
+                if (!devices.containsKey(deviceId)) {
+                    RegisteredDevice registered = new RegisteredDevice(path, IOUtils.getEncoding(path));
+                    registered.device = resource;
+                    devices.put(deviceId, registered);
+                }
+            }
+        }
+        resolved = true;
+    }
+
+    private static void flush() {
+        try {
+            for (RegisteredDevice registered : devices.values()) {
+                if (registered.updated) {
+                    IOUtils.writeResource(registered.device, registered.outputPath, registered.encoding, registered.fhirContext);
+                }
+            }
+        }
+        finally {
+            clear();
+        }
+    }
+
+    private static class RegisteredDevice {
+        private final String outputPath;
+        private final IOUtils.Encoding encoding;
+        private IBaseResource device;
+        private FhirContext fhirContext;
+        private boolean updated;
+
+        private RegisteredDevice(String outputPath, IOUtils.Encoding encoding) {
+            this.outputPath = outputPath;
+            this.encoding = encoding;
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package org.opencds.cqf.tooling.common.r4;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -20,13 +17,11 @@ import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.StringType;
 import org.opencds.cqf.tooling.common.BaseCqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.common.CqfmSoftwareSystem;
-import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.JsonParser;
-import ca.uhn.fhir.parser.XmlParser;
 
 
 public class CqfmSoftwareSystemHelper extends BaseCqfmSoftwareSystemHelper {
@@ -76,68 +71,41 @@ public class CqfmSoftwareSystemHelper extends BaseCqfmSoftwareSystemHelper {
             String systemDeviceId = system.getName();
             String systemReference = "Device/" + systemDeviceId;
 
-            // Is a device defined in devicePaths? If so, get it.
-            Device device = null;
-            String deviceOutputPath = getRootDir() + devicePath;
-            IOUtils.Encoding deviceOutputEncoding = IOUtils.Encoding.JSON;
-            for (String path : IOUtils.getDevicePaths(fhirContext)) {
-                DomainResource resourceInPath;
-                if (path.endsWith("xml")) {
-                    deviceOutputEncoding = IOUtils.Encoding.XML;
-                    XmlParser xmlParser = (XmlParser)fhirContext.newXmlParser();
-                    try (FileReader reader = new FileReader(new File(path))) {
-                        resourceInPath = (DomainResource) xmlParser.parseResource(reader);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        throw new RuntimeException("Error parsing " + e.getLocalizedMessage());
-                    }
-                }
-                else {
-                    JsonParser jsonParser = (JsonParser)fhirContext.newJsonParser();
-                    try (FileReader reader = new FileReader(new File(path))) {
-                        resourceInPath = (DomainResource) jsonParser.parseResource(reader);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        throw new RuntimeException("Error parsing " + e.getLocalizedMessage());
-                    }
-                }
+            // Is a device defined in devicePaths or already updated in this run? If so, get it.
+            Device device;
+            SoftwareSystemDeviceRegistry.beginRun();
+            try {
+                device = (Device) SoftwareSystemDeviceRegistry.getDevice(systemDeviceId, fhirContext);
 
-                // NOTE: Takes the first device that matches on ID.
-                if (resourceInPath.getResourceType().toString().toLowerCase().equals("device")) {
-                    Device prospectDevice = (Device)resourceInPath;
-                    if (prospectDevice.getIdElement().getIdPart().equals(systemDeviceId)) {
-                        device = (Device)resourceInPath;
-                        deviceOutputPath = path;
-                        break;
-                    }
+                /* Create the device if one doesn't already exist */
+                if (device == null) {
+                    logger.debug("Creating Device");
+                    device = createSoftwareSystemDevice(system);
                 }
-            }
 
-            /* Create the device if one doesn't already exist */
-            if (device == null) {
-                logger.debug("Creating Device");
-                device = createSoftwareSystemDevice(system);
+                /* Ensure that device has the current/proposed version */
+                Device.DeviceVersionComponent proposedVersion = new Device.DeviceVersionComponent(new StringType(system.getVersion()));
+                List<Device.DeviceVersionComponent> proposedVersionList = new ArrayList<Device.DeviceVersionComponent>();
+                proposedVersionList.add(proposedVersion);
+                device.setVersion(proposedVersionList);
+
+                /* Ensure that device has a name */
+                Device.DeviceDeviceNameComponent proposedName = new Device.DeviceDeviceNameComponent();
+                proposedName.setName(system.getName());
+                proposedName.setType(Device.DeviceNameType.MANUFACTURERNAME);
+                device.getDeviceName().clear();
+                device.addDeviceName(proposedName);
+
+                /* Ensure that device has a manufacturer */
+                device.setManufacturer(system.getManufacturer());
+
+                /* Persist the new/updated Device, once at the end of the run */
+                EnsureDevicePath();
+                SoftwareSystemDeviceRegistry.putDevice(device, getRootDir() + devicePath, fhirContext);
+            }
+            finally {
+                SoftwareSystemDeviceRegistry.endRun();
             }
-
-            /* Ensure that device has the current/proposed version */
-            Device.DeviceVersionComponent proposedVersion = new Device.DeviceVersionComponent(new StringType(system.getVersion()));
-            List<Device.DeviceVersionComponent> proposedVersionList = new ArrayList<Device.DeviceVersionComponent>();
-            proposedVersionList.add(proposedVersion);
-            device.setVersion(proposedVersionList);
-
-            /* Ensure that device has a name */
-            Device.DeviceDeviceNameComponent proposedName = new Device.DeviceDeviceNameComponent();
-            proposedName.setName(system.getName());
-            proposedName.setType(Device.DeviceNameType.MANUFACTURERNAME);
-            device.getDeviceName().clear();
-            device.addDeviceName(proposedName);
-
-            /* Ensure that device has a manufacturer */
-            device.setManufacturer(system.getManufacturer());
-
-            /* Persist the new/updated Device */
-            EnsureDevicePath();
-            IOUtils.writeResource(device, deviceOutputPath, deviceOutputEncoding, fhirContext);
 
             /* Extension */
             final List<Extension> extensions = resource.getExtension();
@@ -1,8 +1,5 @@
 package org.opencds.cqf.tooling.common.stu3;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -18,11 +15,9 @@ import org.hl7.fhir.dstu3.model.Resource;
 import org.hl7.fhir.dstu3.model.ResourceType;
 import org.opencds.cqf.tooling.common.BaseCqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.common.CqfmSoftwareSystem;
-import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.JsonParser;
-import ca.uhn.fhir.parser.XmlParser;
 
 public class CqfmSoftwareSystemHelper extends BaseCqfmSoftwareSystemHelper {
 
@@ -69,54 +64,27 @@ public class CqfmSoftwareSystemHelper extends BaseCqfmSoftwareSystemHelper {
             String systemDeviceId = system.getName();
             String systemReference = "Device/" + systemDeviceId;
 
-            // Is a device defined in devicePaths? If so, get it.
-            Device device = null;
-            String deviceOutputPath = getRootDir() + devicePath;
-            IOUtils.Encoding deviceOutputEncoding = IOUtils.Encoding.JSON;
-            for (String path : IOUtils.getDevicePaths(fhirContext)) {
-                DomainResource resourceInPath;
-                if (path.endsWith("xml")) {
-                    deviceOutputEncoding = IOUtils.Encoding.XML;
-                    XmlParser xmlParser = (XmlParser)fhirContext.newXmlParser();
-                    try (FileReader reader = new FileReader(new File(path))) {
-                        resourceInPath = (DomainResource) xmlParser.parseResource(reader);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        throw new RuntimeException("Error parsing " + e.getLocalizedMessage());
-                    }
-                }
-                else {
-                    JsonParser jsonParser = (JsonParser)fhirContext.newJsonParser();
-                    try (FileReader reader = new FileReader(new File(path))) {
-                        resourceInPath = (DomainResource) jsonParser.parseResource(reader);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        throw new RuntimeException("Error parsing " + e.getLocalizedMessage());
-                    }
-                }
+            // Is a device defined in devicePaths or already updated in this run? If so, get it.
+            Device device;
+            SoftwareSystemDeviceRegistry.beginRun();
+            try {
+                device = (Device) SoftwareSystemDeviceRegistry.getDevice(systemDeviceId, fhirContext);
 
-                // NOTE: Takes the first device that matches on ID and Version.
-                if (resourceInPath.getResourceType().toString().toLowerCase().equals("device")) {
-                    Device prospectDevice = (Device)resourceInPath;
-                    if (prospectDevice.getIdElement().getIdPart().equals(systemDeviceId)) {
-                        device = (Device) resourceInPath;
-                        deviceOutputPath = path;
-                        break;
-                    }
+                /* Create the device if one doesn't already exist */
+                if (device == null) {
+                    device = createSoftwareSystemDevice(system);
                 }
-            }
 
-            /* Create the device if one doesn't already exist */
-            if (device == null) {
-                device = createSoftwareSystemDevice(system);
-            }
+                /* Ensure that device has the current/proposed version */
+                device.setVersion(system.getVersion());
 
-            /* Ensure that device has the current/proposed version */
-            device.setVersion(system.getVersion());
-
-            /* Persist the new/updated Device */
-            EnsureDevicePath();
-            IOUtils.writeResource(device, deviceOutputPath, deviceOutputEncoding, fhirContext);
+                /* Persist the new/updated Device, once at the end of the run */
+                EnsureDevicePath();
+                SoftwareSystemDeviceRegistry.putDevice(device, getRootDir() + devicePath, fhirContext);
+            }
+            finally {
+                SoftwareSystemDeviceRegistry.endRun();
+            }
 
             /* Extension */
             final List<Extension> extensions = resource.getExtension();
@@ -10,10 +10,6 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
 import org.cqframework.cql.cql2elm.LibraryBuilder;
 import org.cqframework.cql.cql2elm.LibraryManager;
-import org.cqframework.cql.cql2elm.ModelManager;
-import org.fhir.ucum.UcumEssenceService;
-import org.fhir.ucum.UcumException;
-import org.fhir.ucum.UcumService;
 import org.hl7.elm.r1.ContextDef;
 import org.hl7.elm.r1.Expression;
 import org.hl7.elm.r1.ExpressionRef;
@@ -42,8 +38,19 @@ public class ElmContext {
     //libraryName , elmLibrary
     public Map<String, Library> libraries = new HashMap<String, Library>();
 
+    private final LibraryBuilderServices services;
+
     public ElmContext(VmrToModelElmBuilder modelBuilder) {
+        this(modelBuilder, new LibraryBuilderServices(modelBuilder));
+    }
+
+    /**
+     * @param modelBuilder modelBuilder
+     * @param services model, library and UCUM services shared with other contexts of the same generation run
+     */
+    public ElmContext(VmrToModelElmBuilder modelBuilder, LibraryBuilderServices services) {
         this.modelBuilder = modelBuilder;
+        this.services = services;
     }
 
     /**
@@ -51,25 +58,19 @@ public class ElmContext {
      * @param libraryInfo libraryInfo
      */
     public void newLibraryBuilder(Pair<VersionedIdentifier, ContextDef> libraryInfo) {
-        ModelManager modelManager = new ModelManager();
-        LibraryManager libraryManager = new LibraryManager(modelManager);
-        libraryManager.getLibrarySourceLoader().registerProvider(modelBuilder.getLibrarySourceProvider());
-        // this.setTranslatorOptions(CqlTranslatorOptions.defaultOptions());
-        try {
-            UcumService ucumService = new UcumEssenceService(
-                    UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
-            this.libraryBuilder = new LibraryBuilder(modelManager, libraryManager, ucumService);
-            this.libraryBuilder.setTranslatorOptions(CqlTranslatorOptions.defaultOptions());
-            this.libraryBuilder.setLibraryIdentifier(libraryInfo.getLeft());
-            this.libraryBuilder.getModel(new UsingDef().withUri(modelBuilder.getModelUri())
-                    .withLocalIdentifier(modelBuilder.getModelIdentifier()).withVersion(modelBuilder.getModelVersion()));
-            this.libraryBuilder.addContext(libraryInfo.getRight());
-            libraryBuilder.addInclude(modelBuilder.getIncludeHelper());
-            this.libraryBuilder.beginTranslation();
-        } catch (UcumException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
+        LibraryManager libraryManager = services.getLibraryManager();
+        this.libraryBuilder = new LibraryBuilder(libraryManager.getModelManager(), libraryManager, services.getUcumService());
+        this.libraryBuilder.setTranslatorOptions(CqlTranslatorOptions.defaultOptions());
+        this.libraryBuilder.setLibraryIdentifier(libraryInfo.getLeft());
+        this.libraryBuilder.getModel(new UsingDef().withUri(modelBuilder.getModelUri())
+                .withLocalIdentifier(modelBuilder.getModelIdentifier()).withVersion(modelBuilder.getModelVersion()));
+        this.libraryBuilder.addContext(libraryInfo.getRight());
+        libraryBuilder.addInclude(modelBuilder.getIncludeHelper());
+        this.libraryBuilder.beginTranslation();
+    }
+
+    public LibraryBuilderServices getServices() {
+        return services;
     }
 
     /**
@@ -0,0 +1,69 @@
+package org.opencds.cqf.tooling.cql_generation.context;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.fhir.ucum.UcumEssenceService;
+import org.fhir.ucum.UcumException;
+import org.fhir.ucum.UcumService;
+import org.hl7.cql.model.ModelIdentifier;
+import org.opencds.cqf.tooling.cql_generation.builder.VmrToModelElmBuilder;
+
+/**
+ * Holds the model, library and UCUM services used to build Elm Libraries so that they are loaded once per generation
+ * run rather than once per Library.
+ * The UCUM service and the loaded models are shared by every thread. ModelManager and LibraryManager keep
+ * unsynchronized caches, so each thread gets its own pair backed by the shared model cache.
+ */
+public class LibraryBuilderServices {
+    private final VmrToModelElmBuilder modelBuilder;
+    private final Map<ModelIdentifier, Model> models = new ConcurrentHashMap<ModelIdentifier, Model>();
+    private final ThreadLocal<LibraryManager> libraryManagers = ThreadLocal.withInitial(this::newLibraryManager);
+    private volatile UcumService ucumService;
+
+    public LibraryBuilderServices(VmrToModelElmBuilder modelBuilder) {
+        this.modelBuilder = modelBuilder;
+    }
+
+    /**
+     * @return the LibraryManager for the calling thread
+     */
+    public LibraryManager getLibraryManager() {
+        return libraryManagers.get();
+    }
+
+    /**
+     * @return the ModelManager for the calling thread
+     */
+    public ModelManager getModelManager() {
+        return getLibraryManager().getModelManager();
+    }
+
+    public UcumService getUcumService() {
+        if (ucumService == null) {
+            synchronized (this) {
+                if (ucumService == null) {
+                    try {
+                        ucumService = new UcumEssenceService(
+                                UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
+                    } catch (UcumException e) {
+                        e.printStackTrace();
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+        return ucumService;
+    }
+
+    private LibraryManager newLibraryManager() {
+        ModelManager modelManager = new ModelManager(models);
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(modelBuilder.getLibrarySourceProvider());
+        libraryManager.setUcumService(getUcumService());
+        return libraryManager;
+    }
+}
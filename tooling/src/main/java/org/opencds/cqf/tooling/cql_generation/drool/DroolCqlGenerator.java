@@ -3,11 +3,18 @@ package org.opencds.cqf.tooling.cql_generation.drool;
 import java.io.File;
 import java.net.URI;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import javax.xml.bind.JAXBException;
 
+import org.cdsframework.dto.ConditionCriteriaRelDTO;
 import org.cdsframework.dto.ConditionDTO;
 import org.hl7.elm.r1.Library;
 import org.hl7.elm.r1.VersionedIdentifier;
@@ -16,6 +23,8 @@ import org.opencds.cqf.tooling.cql_generation.IOUtil;
 import org.opencds.cqf.tooling.cql_generation.builder.VmrToFhirElmBuilder;
 import org.opencds.cqf.tooling.cql_generation.builder.VmrToModelElmBuilder;
 import org.opencds.cqf.tooling.cql_generation.context.ElmContext;
+import org.opencds.cqf.tooling.cql_generation.context.LibraryBuilderServices;
+import org.opencds.cqf.tooling.cql_generation.drool.converter.LibraryConverter;
 import org.opencds.cqf.tooling.cql_generation.drool.serialization.Deserializer;
 import org.opencds.cqf.tooling.cql_generation.drool.serialization.Serializer;
 import org.opencds.cqf.tooling.cql_generation.drool.traversal.DepthFirstDroolTraverser;
@@ -24,6 +33,7 @@ import org.opencds.cqf.tooling.cql_generation.drool.visitor.DroolToElmVisitor;
 import org.opencds.cqf.tooling.cql_generation.drool.visitor.DroolToElmVisitor.CQLTYPES;
 import org.opencds.cqf.tooling.cql_generation.drool.visitor.ElmToCqlVisitor;
 import org.opencds.cqf.tooling.cql_generation.drool.visitor.Visitor;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,14 +46,32 @@ import org.slf4j.LoggerFactory;
  * @since   2021-02-24 
  */
 public class DroolCqlGenerator implements CqlGenerator {
+    // number of conditions visited together when generating with more than one thread
+    private static final int CONDITION_BATCH_SIZE = 8;
+
     private Logger logger = LoggerFactory.getLogger(this.getClass());
     private CQLTYPES type;
     private File cqlOutput;
+    private int threadCount = 1;
+    private boolean streamOutput = false;
+    private LibraryConverter libraryConverter = new LibraryConverter();
 
     public DroolCqlGenerator(CQLTYPES type) {
         this.type = type;
     }
 
+    /**
+     * @param type Elm Library granularity
+     * @param threadCount number of threads used to visit the conditions, with 1 the conditions are visited sequentially
+     * @param streamOutput when writing to file, write each Library as soon as it has been generated rather than holding
+     *                     every Library until the generation run completes
+     */
+    public DroolCqlGenerator(CQLTYPES type, int threadCount, boolean streamOutput) {
+        this.type = type;
+        this.threadCount = threadCount;
+        this.streamOutput = streamOutput;
+    }
+
     @Override
     public void generateAndWriteToFile(String inputPath, String outputPath, String fhirVersion) {
         File input = new File(inputPath);
@@ -54,7 +82,7 @@ public class DroolCqlGenerator implements CqlGenerator {
         this.cqlOutput = new File(output.getAbsolutePath() + "/cql");
         cqlOutput.mkdirs();
         VmrToModelElmBuilder modelBuilder = resolveModel(fhirVersion);
-        ElmContext context = readAndGenerateCQL(input, modelBuilder);
+        ElmContext context = readAndGenerateCQL(input, modelBuilder, fhirVersion, output);
         writeElm(context, modelBuilder, output);
     }
 
@@ -62,7 +90,7 @@ public class DroolCqlGenerator implements CqlGenerator {
     public Map<String, Library> generate(String inputPath, String fhirVersion) {
         File input = new File(inputPath);
         VmrToModelElmBuilder modelBuilder = resolveModel(fhirVersion);
-        ElmContext context = readAndGenerateCQL(input, modelBuilder);
+        ElmContext context = readAndGenerateCQL(input, modelBuilder, fhirVersion, null);
         return context.libraries;
     }
 
@@ -73,7 +101,7 @@ public class DroolCqlGenerator implements CqlGenerator {
         this.cqlOutput = new File(output.getAbsolutePath() + "/cql");
         cqlOutput.mkdirs();
         VmrToModelElmBuilder modelBuilder = resolveModel(fhirVersion);
-        ElmContext context = readAndGenerateCQL(file, modelBuilder);
+        ElmContext context = readAndGenerateCQL(file, modelBuilder, fhirVersion, output);
         writeElm(context, modelBuilder, output);  
     }
 
@@ -81,64 +109,157 @@ public class DroolCqlGenerator implements CqlGenerator {
     public Map<String, Library> generate(URI inputURI, String fhirVersion) {
         File file = new File(inputURI.getPath());
         VmrToModelElmBuilder modelBuilder = resolveModel(fhirVersion);
-        ElmContext context = readAndGenerateCQL(file, modelBuilder);
+        ElmContext context = readAndGenerateCQL(file, modelBuilder, fhirVersion, null);
         return context.libraries;
     }
 
-    private ElmContext readAndGenerateCQL(File input, VmrToModelElmBuilder modelBuilder) {
+    private ElmContext readAndGenerateCQL(File input, VmrToModelElmBuilder modelBuilder, String fhirVersion, File elmOutput) {
         Deserializer deserializer = new Deserializer(input);
-        List<ConditionDTO> conditions = deserializer.deserialize();
-        return doVisit(conditions, modelBuilder);
+        return doVisit(deserializer.iterator(), modelBuilder, fhirVersion, elmOutput);
     }
 
-    private ElmContext doVisit(List<ConditionDTO> rootNode, VmrToModelElmBuilder modelBuilder) {
-        Visitor visitor = new DroolToElmVisitor(type, modelBuilder);
+    /**
+     * Visits the conditions in batches, each with its own {@link DroolToElmVisitor Visitor} and {@link ElmContext ElmContext}.
+     * Conditions are pulled from the iterator as batches are formed, so the whole input is never held in memory.
+     * Batches are merged in input order, so the generated Libraries do not depend on the number of threads.
+     * Each Library is written once, and when streaming output is written as soon as its batch completes rather than
+     * being kept in the returned context.
+     */
+    private ElmContext doVisit(Iterator<ConditionDTO> rootNode, VmrToModelElmBuilder modelBuilder, String fhirVersion, File elmOutput) {
+        LibraryBuilderServices services = new LibraryBuilderServices(modelBuilder);
+        ElmContext context = new ElmContext(modelBuilder, services);
+        boolean writeLibraries = streamOutput && elmOutput != null;
+        Serializer serializer = writeLibraries ? new Serializer(Library.class) : null;
+        ThreadUtils.forEachOrdered(partition(rootNode, fhirVersion), threadCount,
+            batch -> visitBatch(batch, fhirVersion, services),
+            batchContext -> {
+                batchContext.libraries.forEach((name, library) -> {
+                    if (writeLibraries) {
+                        writeElm(serializer, modelBuilder, name, library, elmOutput);
+                    } else {
+                        context.libraries.put(name, library);
+                    }
+                });
+                batchContext.cqlStrings.forEach(cql -> {
+                    if (!writeLibraries) {
+                        context.cqlStrings.push(cql);
+                    }
+                    if (cqlOutput != null) {
+                        writeCql(cql, cqlOutput);
+                    }
+                });
+            });
+        return context;
+    }
+
+    private ElmContext visitBatch(ConditionBatch batch, String fhirVersion, LibraryBuilderServices services) {
+        // each batch gets its own model builder as the DecimalFormat it parses with is not thread safe
+        VmrToModelElmBuilder modelBuilder = resolveModel(fhirVersion);
+        Visitor visitor = new DroolToElmVisitor(type, modelBuilder, services, batch.libraryIndexes);
         // visitor = new HtmlFileVisitor(outputPath);
         DroolTraverser<Visitor> traverser = new DepthFirstDroolTraverser<Visitor>(visitor);
-        ElmContext context = traverser.traverse(rootNode);
+        ElmContext context = traverser.traverse(batch.conditions);
         context.libraries.values().forEach(library -> {
             ElmToCqlVisitor elmVisitor = new ElmToCqlVisitor();
             elmVisitor.visitLibrary(library, context);
             context.cqlStrings.push(elmVisitor.getOutput());
-            writeCql(context, cqlOutput);
         });
         return context;
     }
 
+    private Iterable<ConditionBatch> partition(Iterator<ConditionDTO> conditions, String fhirVersion) {
+        if (threadCount <= 1 && !streamOutput) {
+            // a single visitor, fed each condition as it is read
+            return Collections.singletonList(new ConditionBatch(conditions, null));
+        }
+        // the batches are formed on the calling thread in input order, so the indexes in the inferred names of the
+        // Libraries are assigned here, as the single visitor would assign them
+        VmrToModelElmBuilder modelBuilder = resolveModel(fhirVersion);
+        Set<String> libraryNames = new HashSet<String>();
+        return () -> new Iterator<ConditionBatch>() {
+            @Override
+            public boolean hasNext() {
+                return conditions.hasNext();
+            }
+
+            @Override
+            public ConditionBatch next() {
+                List<ConditionDTO> batchConditions = new ArrayList<ConditionDTO>(CONDITION_BATCH_SIZE);
+                while (conditions.hasNext() && batchConditions.size() < CONDITION_BATCH_SIZE) {
+                    batchConditions.add(conditions.next());
+                }
+                if (batchConditions.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                List<Integer> libraryIndexes = new ArrayList<Integer>();
+                for (ConditionDTO condition : batchConditions) {
+                    assignLibraryIndexes(condition, modelBuilder, libraryNames, libraryIndexes);
+                }
+                return new ConditionBatch(batchConditions.iterator(), libraryIndexes);
+            }
+        };
+    }
+
+    /**
+     * Mirrors the Libraries DepthFirstDroolTraverser starts for a condition and the names DroolToElmVisitor infers for
+     * them. A single visitor numbers each Library one more than the number of distinct names among the Libraries it has
+     * built, so a Library whose name repeats an earlier one does not advance the numbering.
+     */
+    private void assignLibraryIndexes(ConditionDTO condition, VmrToModelElmBuilder modelBuilder, Set<String> libraryNames, List<Integer> libraryIndexes) {
+        if (type == CQLTYPES.CONDITION) {
+            int libraryIndex = libraryNames.size() + 1;
+            libraryNames.add(libraryConverter.adapt(condition, modelBuilder, libraryIndex).getLeft().getId());
+            libraryIndexes.add(libraryIndex);
+        }
+        else if (type == CQLTYPES.CONDITIONREL && condition.getConditionCriteriaRelDTOs() != null) {
+            for (ConditionCriteriaRelDTO rel : condition.getConditionCriteriaRelDTOs()) {
+                if (!rel.getConditionCriteriaPredicateDTOs().isEmpty()
+                        && !rel.getName().toLowerCase().contains("not yet implemented")) {
+                    int libraryIndex = libraryNames.size() + 1;
+                    libraryNames.add(libraryConverter.adapt(rel, modelBuilder, libraryIndex).getLeft().getId());
+                    libraryIndexes.add(libraryIndex);
+                }
+            }
+        }
+    }
+
     private VmrToModelElmBuilder resolveModel(String fhirVersion) {
         return new VmrToFhirElmBuilder(fhirVersion, new DecimalFormat("#.#"));
     }
 
-    private void writeCql(ElmContext context, File outpuDirectory) {
-        context.cqlStrings.forEach(cql -> {
-            if (outpuDirectory.isDirectory()) {
-                VersionedIdentifier vi = new VersionedIdentifier();
-                vi.setId(getIdFromSource(cql));
-                vi.setVersion(getVersionFromSource(cql));
-                File outputFile = new File(outpuDirectory.getAbsolutePath() + "/" + vi.getId() + "-" + vi.getVersion() + ".cql");
-                IOUtil.writeToFile(outputFile, cql);
-            } else {
-                throw new IllegalArgumentException("Output directory is not a directory: " + outpuDirectory.getAbsolutePath());
-            }
-        });
+    private void writeCql(String cql, File outpuDirectory) {
+        if (outpuDirectory.isDirectory()) {
+            VersionedIdentifier vi = new VersionedIdentifier();
+            vi.setId(getIdFromSource(cql));
+            vi.setVersion(getVersionFromSource(cql));
+            File outputFile = new File(outpuDirectory.getAbsolutePath() + "/" + vi.getId() + "-" + vi.getVersion() + ".cql");
+            IOUtil.writeToFile(outputFile, cql);
+        } else {
+            throw new IllegalArgumentException("Output directory is not a directory: " + outpuDirectory.getAbsolutePath());
+        }
     }
 
     private void writeElm(ElmContext context, VmrToModelElmBuilder modelBuilder, File outpuDirectory) {
+        if (context.libraries.isEmpty()) {
+            return;
+        }
         Serializer serializer = new Serializer(Library.class);
-        context.libraries.entrySet().stream().forEach(entry -> {
-            logger.info(entry.getKey());
-            try {
-                String elm = serializer.convertToXml(modelBuilder.of.createLibrary(entry.getValue()), serializer.getJaxbContext());
-                if (outpuDirectory.isDirectory()) {
-                    File outputFile = new File(outpuDirectory.getAbsolutePath() + "/" + entry.getKey() + ".xml");
-                    IOUtil.writeToFile(outputFile, elm);
-                } else {
-                    throw new IllegalArgumentException("Output directory is not a directory: " + outpuDirectory.getAbsolutePath());
-                }
-            } catch (JAXBException e) {
-                e.printStackTrace();
+        context.libraries.entrySet().stream().forEach(entry -> writeElm(serializer, modelBuilder, entry.getKey(), entry.getValue(), outpuDirectory));
+    }
+
+    private void writeElm(Serializer serializer, VmrToModelElmBuilder modelBuilder, String libraryName, Library library, File outpuDirectory) {
+        logger.info(libraryName);
+        try {
+            String elm = serializer.convertToXml(modelBuilder.of.createLibrary(library), serializer.getJaxbContext());
+            if (outpuDirectory.isDirectory()) {
+                File outputFile = new File(outpuDirectory.getAbsolutePath() + "/" + libraryName + ".xml");
+                IOUtil.writeToFile(outputFile, elm);
+            } else {
+                throw new IllegalArgumentException("Output directory is not a directory: " + outpuDirectory.getAbsolutePath());
             }
-        });
+        } catch (JAXBException e) {
+            e.printStackTrace();
+        }
     }
 
     private String getIdFromSource(String cql) {
@@ -155,4 +276,14 @@ public class DroolCqlGenerator implements CqlGenerator {
     private String getVersionFromSource(String cql) {
         return cql.split("version")[1].split("'")[1];
     }
+
+    private static class ConditionBatch {
+        private final Iterator<ConditionDTO> conditions;
+        private final List<Integer> libraryIndexes;
+
+        ConditionBatch(Iterator<ConditionDTO> conditions, List<Integer> libraryIndexes) {
+            this.conditions = conditions;
+            this.libraryIndexes = libraryIndexes;
+        }
+    }
 }
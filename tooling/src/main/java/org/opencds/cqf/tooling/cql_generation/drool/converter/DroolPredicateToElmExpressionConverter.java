@@ -2,6 +2,7 @@ package org.opencds.cqf.tooling.cql_generation.drool.converter;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -68,7 +69,8 @@ public class DroolPredicateToElmExpressionConverter {
      */
     private boolean startedFunction = false;
 
-    public static Set<String> valueSetIds = new HashSet<String>();
+    // shared by the visitors of every condition batch, which may run concurrently
+    public static Set<String> valueSetIds = Collections.synchronizedSet(new HashSet<String>());
     private Logger logger;
     private Map<String, Marker> markers = new HashMap<String, Marker>();
 
@@ -3,11 +3,15 @@ package org.opencds.cqf.tooling.cql_generation.drool.serialization;
 import java.io.File;
 import java.io.IOException;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -54,43 +58,102 @@ public class Deserializer {
         return conditions;
     }
 
-    public List<Object> deserialize(String nodeName, Class<?> objectClass) {
-        List<Object> objects = new LinkedList<Object>();
-        JsonNode jsonNode = null;
+    /**
+     * Reads the top level array of {@link ConditionDTO ConditionDTOs} one condition at a time rather than binding the
+     * whole export up front, so only the condition being read is held in memory.
+     * The parser is closed once the end of the array is reached.
+     * @return iterator over the conditions in the file
+     */
+    public Iterator<ConditionDTO> iterator() {
         try {
-            jsonNode = objectMapper.readTree(JsonFactory.builder().build().createParser(file));
+            JsonParser parser = objectMapper.getFactory().createParser(file);
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                parser.close();
+                throw new IllegalArgumentException("Expected an array of conditions in " + file.getAbsolutePath());
+            }
+            return new ConditionIterator(parser);
         } catch (IOException e) {
-            // TODO Auto-generated catch block
             e.printStackTrace();
+            throw new RuntimeException("Error reading conditions from " + file.getAbsolutePath(), e);
         }
-        if (jsonNode != null) {
-            List<JsonNode> nodes = jsonNode.findValues(nodeName);
-            for (JsonNode node : nodes) {
-                if (node.isArray()) {
-                    node.forEach(item -> {
-                        Object nodeObject = null;
-                        try {
-                            nodeObject = objectMapper.treeToValue(item, objectClass);
-                            objects.add(nodeObject);
-                        } catch (JsonProcessingException e) {
-                            // TODO Auto-generated catch block
-                            e.printStackTrace();
-                        }
-                    });
-                } else {
-                    if (node != null) {
-                        Object nodeObject = null;
-                        try {
-                            nodeObject = objectMapper.treeToValue(node, objectClass);
-                            objects.add(nodeObject);
-                        } catch (JsonProcessingException e) {
-                            // TODO Auto-generated catch block
-                            e.printStackTrace();
+    }
+
+    /**
+     * Deserializes every value of the given field name, wherever it occurs in the file. Array values contribute each
+     * of their items. The file is read with a streaming parser, so only the value being bound is held in memory
+     * rather than the tree of the whole file.
+     * @param nodeName field name to search for
+     * @param objectClass type to bind each value to
+     * @return the bound values
+     */
+    public List<Object> deserialize(String nodeName, Class<?> objectClass) {
+        List<Object> objects = new LinkedList<Object>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(file)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && nodeName.equals(parser.getCurrentName())) {
+                    if (parser.nextToken() == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            readValue(parser, objectClass, objects);
                         }
+                    } else {
+                        readValue(parser, objectClass, objects);
                     }
                 }
             }
+        } catch (IOException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
         }
         return objects;
     }
+
+    private void readValue(JsonParser parser, Class<?> objectClass, List<Object> objects) throws IOException {
+        JsonNode node = parser.readValueAsTree();
+        try {
+            objects.add(objectMapper.treeToValue(node, objectClass));
+        } catch (JsonProcessingException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        }
+    }
+
+    private class ConditionIterator implements Iterator<ConditionDTO> {
+        private final JsonParser parser;
+        private JsonToken nextToken;
+
+        ConditionIterator(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextToken == null && !parser.isClosed()) {
+                try {
+                    nextToken = parser.nextToken();
+                    if (nextToken == JsonToken.END_ARRAY || nextToken == null) {
+                        parser.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    throw new RuntimeException("Error reading conditions from " + file.getAbsolutePath(), e);
+                }
+            }
+            return !parser.isClosed();
+        }
+
+        @Override
+        public ConditionDTO next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            nextToken = null;
+            try {
+                return objectMapper.readValue(parser, ConditionDTO.class);
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException("Error reading conditions from " + file.getAbsolutePath(), e);
+            }
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package org.opencds.cqf.tooling.cql_generation.drool.traversal;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Stack;
 
@@ -42,6 +44,13 @@ public class DepthFirstDroolTraverser<T> extends DroolTraverser<Visitor> {
         return this.visitor.visit(rootNode);
     }
 
+    @Override
+    public ElmContext traverse(Iterator<ConditionDTO> conditions) {
+        conditions.forEachRemaining(node -> traverse(node));
+        // the conditions have already been visited and released
+        return this.visitor.visit(Collections.<ConditionDTO>emptyList());
+    }
+
     @Override
     protected void traverse(ConditionDTO conditionDTO) {
         this.visitor.peek(conditionDTO);
@@ -1,5 +1,6 @@
 package org.opencds.cqf.tooling.cql_generation.drool.traversal;
 
+import java.util.Iterator;
 import java.util.List;
 
 import org.cdsframework.dto.CdsCodeDTO;
@@ -31,6 +32,14 @@ public abstract class DroolTraverser<T> {
 
     public abstract ElmContext traverse(List<ConditionDTO> rootNode);
 
+    /**
+     * Traverses each condition as the iterator provides it, so conditions that are read incrementally do not all need
+     * to be held in memory.
+     * @param conditions conditions
+     * @return the resulting ElmContext
+     */
+    public abstract ElmContext traverse(Iterator<ConditionDTO> conditions);
+
     protected abstract void traverse(ConditionDTO conditionDTO);
 
 	protected abstract void traverse(ConditionCriteriaRelDTO conditionCriteriaRel);
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.cql_generation.drool.visitor;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -24,6 +25,7 @@ import org.hl7.elm.r1.ExpressionRef;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.opencds.cqf.tooling.cql_generation.builder.VmrToModelElmBuilder;
 import org.opencds.cqf.tooling.cql_generation.context.ElmContext;
+import org.opencds.cqf.tooling.cql_generation.context.LibraryBuilderServices;
 import org.opencds.cqf.tooling.cql_generation.drool.converter.DefinitionConverter;
 import org.opencds.cqf.tooling.cql_generation.drool.converter.DroolPredicateToElmExpressionConverter;
 import org.opencds.cqf.tooling.cql_generation.drool.converter.LibraryConverter;
@@ -58,6 +60,7 @@ public class DroolToElmVisitor implements Visitor {
     private LibraryConverter libraryAdapter = new LibraryConverter();
     private Logger logger;
     private Map<String, Marker> markers = new HashMap<String, Marker>();
+    private Iterator<Integer> libraryIndexes = null;
 
     /**
      * Default to CONDITION granularity.
@@ -82,6 +85,23 @@ public class DroolToElmVisitor implements Visitor {
         logger = LoggerFactory.getLogger(this.getClass());
     }
 
+    /**
+     * Used when the conditions are visited in batches.
+     * @param type granularity of the libraries
+     * @param modelBuilder modelBuilder
+     * @param services model, library and UCUM services shared by the batches of a generation run
+     * @param libraryIndexes indexes used when inferring the names of the libraries the visitor starts, in the order they
+     *                       are started, or null to number the libraries from those the visitor has built
+     */
+    public DroolToElmVisitor(Enum<CQLTYPES> type, VmrToModelElmBuilder modelBuilder, LibraryBuilderServices services, List<Integer> libraryIndexes) {
+        this.type = type;
+        this.modelBuilder = modelBuilder;
+        this.libraryIndexes = libraryIndexes == null ? null : libraryIndexes.iterator();
+        context = new ElmContext(modelBuilder, services);
+        expressionBodyAdapter = new DroolPredicateToElmExpressionConverter(modelBuilder);
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
 
     @Override
     public void visit(CriteriaPredicatePartConceptDTO predicatePartConcepts) {
@@ -187,7 +207,7 @@ public class DroolToElmVisitor implements Visitor {
     public void peek(ConditionCriteriaRelDTO conditionCriteriaRel) {
         if (this.type != null && this.type.equals(CQLTYPES.CONDITIONREL)) {
             logger.debug("Adapting Library Identifier");
-            Pair<VersionedIdentifier, ContextDef> libraryInfo = libraryAdapter.adapt(conditionCriteriaRel, modelBuilder, context.libraries.size() + 1);
+            Pair<VersionedIdentifier, ContextDef> libraryInfo = libraryAdapter.adapt(conditionCriteriaRel, modelBuilder, nextLibraryIndex());
             logger.debug("Initializing new LibraryBuilder");
             context.newLibraryBuilder(libraryInfo);
         } else {
@@ -233,7 +253,7 @@ public class DroolToElmVisitor implements Visitor {
     public void peek(ConditionDTO conditionDTO) {
         if (this.type != null && this.type.equals(CQLTYPES.CONDITION)) {
             logger.debug("Adapting Library Identifier");
-            Pair<VersionedIdentifier, ContextDef> libraryInfo = libraryAdapter.adapt(conditionDTO, modelBuilder, context.libraries.size() + 1);
+            Pair<VersionedIdentifier, ContextDef> libraryInfo = libraryAdapter.adapt(conditionDTO, modelBuilder, nextLibraryIndex());
             logger.debug("Initializing new LibraryBuilder");
             context.newLibraryBuilder(libraryInfo);
         } else {
@@ -246,4 +266,11 @@ public class DroolToElmVisitor implements Visitor {
     public ElmContext visit(List<ConditionDTO> rootNode) {
         return context;
     }
+
+    private int nextLibraryIndex() {
+        if (libraryIndexes != null && libraryIndexes.hasNext()) {
+            return libraryIndexes.next();
+        }
+        return context.libraries.size() + 1;
+    }
 }
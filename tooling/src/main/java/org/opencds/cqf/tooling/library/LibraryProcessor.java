@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.google.common.base.Strings;
@@ -25,6 +26,7 @@ import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opencds.cqf.tooling.utilities.LogUtils;
+import org.opencds.cqf.tooling.utilities.Metrics;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
 
 import ca.uhn.fhir.context.FhirContext;
@@ -55,6 +57,13 @@ public class LibraryProcessor extends BaseProcessor {
         return refreshIgLibraryContent(parentContext, outputEncoding, null, versioned, fhirContext, shouldApplySoftwareSystemStamp);
     }
     public List<String> refreshIgLibraryContent(BaseProcessor parentContext, Encoding outputEncoding, String libraryOutputDirectory, Boolean versioned, FhirContext fhirContext, Boolean shouldApplySoftwareSystemStamp) {
+        return refreshIgLibraryContent(parentContext, outputEncoding, libraryOutputDirectory, versioned, fhirContext, shouldApplySoftwareSystemStamp, null);
+    }
+    /*
+    Refreshes only the libraries with the given names, if libraryNames is not null. The CQL of these libraries must
+    have been translated by CqlProcessor.execute(Collection) beforehand.
+     */
+    public List<String> refreshIgLibraryContent(BaseProcessor parentContext, Encoding outputEncoding, String libraryOutputDirectory, Boolean versioned, FhirContext fhirContext, Boolean shouldApplySoftwareSystemStamp, Set<String> libraryNames) {
         System.out.println("Refreshing libraries...");
         // ArrayList<String> refreshedLibraryNames = new ArrayList<String>();
 
@@ -84,6 +93,7 @@ public class LibraryProcessor extends BaseProcessor {
         params.encoding = outputEncoding;
         params.versioned = versioned;
         params.shouldApplySoftwareSystemStamp = shouldApplySoftwareSystemStamp;
+        params.libraryNames = libraryNames;
         return libraryProcessor.refreshLibraryContent(params);
     }
 
@@ -111,6 +121,11 @@ public class LibraryProcessor extends BaseProcessor {
 
     protected boolean versioned;
 
+    /*
+    The names of the libraries to refresh, or null to translate all CQL and refresh all libraries
+     */
+    protected Set<String> libraryNames;
+
     /*
     Refreshes generated content in the given library.
     The name element of the library resource is used to find the cql file (filename = <name>.cql)
@@ -185,7 +200,10 @@ public class LibraryProcessor extends BaseProcessor {
     }
 
     private List<Library> internalRefreshGeneratedContent(List<Library> sourceLibraries) {
-        getCqlProcessor().execute();
+        // A selective refresh uses the translation of the changed CQL made by CqlProcessor.execute(Collection)
+        if (libraryNames == null) {
+            getCqlProcessor().execute();
+        }
 
         // For each CQL file, ensure that there is a Library resource with a matching name and version
         for (CqlProcessor.CqlSourceFileInformation fileInfo : getCqlProcessor().getAllFileInformation()) {
@@ -220,7 +238,10 @@ public class LibraryProcessor extends BaseProcessor {
 
         List<Library> resources = new ArrayList<Library>();
         for (Library library : sourceLibraries) {
-            resources.add(refreshGeneratedContent(library));
+            if (libraryNames == null || libraryNames.contains(library.getName())) {
+                resources.add(Metrics.time("LibraryProcessor.refreshLibrary", "library", library.getName(), () -> refreshGeneratedContent(library)));
+                Metrics.increment("LibraryProcessor.librariesRefreshed");
+            }
         }
         return resources;
     }
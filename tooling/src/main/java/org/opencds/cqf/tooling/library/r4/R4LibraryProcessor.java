@@ -13,6 +13,7 @@ import org.hl7.fhir.convertors.conv40_50.VersionConvertor_40_50;
 import org.hl7.fhir.r4.formats.FormatUtilities;
 import org.hl7.fhir.r4.model.Library;
 import org.hl7.fhir.r4.model.Resource;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 import org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.library.LibraryProcessor;
 import org.opencds.cqf.tooling.parameter.RefreshLibraryParameters;
@@ -146,13 +147,20 @@ public class R4LibraryProcessor extends LibraryProcessor {
         fhirContext = params.fhirContext;
         encoding = params.encoding;
         versioned = params.versioned;
+        libraryNames = params.libraryNames;
 
         R4LibraryProcessor.cqfmHelper = new CqfmSoftwareSystemHelper(rootDir);
 
-        if (!Strings.isNullOrEmpty(params.libraryOutputDirectory)) {
-            return refreshLibraries(libraryPath, params.libraryOutputDirectory, encoding, params.shouldApplySoftwareSystemStamp);
-        } else {
-            return refreshLibraries(libraryPath, encoding, params.shouldApplySoftwareSystemStamp);
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            if (!Strings.isNullOrEmpty(params.libraryOutputDirectory)) {
+                return refreshLibraries(libraryPath, params.libraryOutputDirectory, encoding, params.shouldApplySoftwareSystemStamp);
+            } else {
+                return refreshLibraries(libraryPath, encoding, params.shouldApplySoftwareSystemStamp);
+            }
+        }
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
         }
     }
 }
@@ -14,6 +14,7 @@ import org.hl7.fhir.convertors.conv30_50.VersionConvertor_30_50;
 import org.hl7.fhir.dstu3.model.Library;
 import org.hl7.fhir.dstu3.model.RelatedArtifact;
 import org.hl7.fhir.dstu3.model.Resource;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 import org.opencds.cqf.tooling.common.stu3.CqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.library.LibraryProcessor;
 import org.opencds.cqf.tooling.parameter.RefreshLibraryParameters;
@@ -142,13 +143,20 @@ public class STU3LibraryProcessor extends LibraryProcessor {
         libraryPath = params.libraryPath;
         fhirContext = params.fhirContext;
         versioned = params.versioned;
+        libraryNames = params.libraryNames;
 
         STU3LibraryProcessor.cqfmHelper = new CqfmSoftwareSystemHelper(rootDir);
 
-        if (!Strings.isNullOrEmpty(params.libraryOutputDirectory)) {
-            return refreshLibraries(libraryPath, params.libraryOutputDirectory, params.shouldApplySoftwareSystemStamp);
-        } else {
-            return refreshLibraries(libraryPath, params.shouldApplySoftwareSystemStamp);
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            if (!Strings.isNullOrEmpty(params.libraryOutputDirectory)) {
+                return refreshLibraries(libraryPath, params.libraryOutputDirectory, params.shouldApplySoftwareSystemStamp);
+            } else {
+                return refreshLibraries(libraryPath, params.shouldApplySoftwareSystemStamp);
+            }
+        }
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
         }
     }
 }
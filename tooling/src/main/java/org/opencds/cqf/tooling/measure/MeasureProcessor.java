@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.FilenameUtils;
 import org.cqframework.cql.cql2elm.CqlCompilerException;
@@ -28,6 +29,7 @@ import org.opencds.cqf.tooling.utilities.CanonicalUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.opencds.cqf.tooling.utilities.LogUtils;
+import org.opencds.cqf.tooling.utilities.Metrics;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +50,13 @@ public class MeasureProcessor extends BaseProcessor {
     }
 
     public List<String> refreshIgMeasureContent(BaseProcessor parentContext, Encoding outputEncoding, String measureOutputDirectory, Boolean versioned, FhirContext fhirContext, String measureToRefreshPath, Boolean shouldApplySoftwareSystemStamp) {
+        return refreshIgMeasureContent(parentContext, outputEncoding, measureOutputDirectory, versioned, fhirContext, measureToRefreshPath, shouldApplySoftwareSystemStamp, null);
+    }
+
+    /*
+    Refreshes only the measures whose primary library has one of the given names, if libraryNames is not null
+     */
+    public List<String> refreshIgMeasureContent(BaseProcessor parentContext, Encoding outputEncoding, String measureOutputDirectory, Boolean versioned, FhirContext fhirContext, String measureToRefreshPath, Boolean shouldApplySoftwareSystemStamp, Set<String> libraryNames) {
 
         System.out.println("Refreshing measures...");
 
@@ -72,6 +81,7 @@ public class MeasureProcessor extends BaseProcessor {
         params.encoding = outputEncoding;
         params.versioned = versioned;
         params.measureOutputDirectory = measureOutputDirectory;
+        params.libraryNames = libraryNames;
         List<String> contentList = measureProcessor.refreshMeasureContent(params);
 
         if (!measureProcessor.getIdentifiers().isEmpty()) {
@@ -251,6 +261,7 @@ public class MeasureProcessor extends BaseProcessor {
 
     protected boolean versioned;
     protected FhirContext fhirContext;
+    protected Set<String> libraryNames;
 
     public List<String> refreshMeasureContent(RefreshMeasureParameters params) {
         return new ArrayList<String>();
@@ -264,11 +275,21 @@ public class MeasureProcessor extends BaseProcessor {
         // for each Measure, refresh the measure based on the primary measure library
         List<Measure> resources = new ArrayList<Measure>();
         for (Measure measure : sourceMeasures) {
-            resources.add(refreshGeneratedContent(measure));
+            if (libraryNames == null || (measure.hasLibrary() && libraryNames.contains(getPrimaryLibraryName(measure)))) {
+                resources.add(Metrics.time("MeasureProcessor.refreshMeasure", "measure", measure.getName(), () -> refreshGeneratedContent(measure)));
+                Metrics.increment("MeasureProcessor.measuresRefreshed");
+            }
         }
         return resources;
     }
 
+    private String getPrimaryLibraryName(Measure measure) {
+        if (measure.getLibrary().size() != 1) {
+            return null;
+        }
+        return CanonicalUtils.toVersionedIdentifier(measure.getLibrary().get(0).getValue()).getId();
+    }
+
     private Measure refreshGeneratedContent(Measure measure) {
         MeasureRefreshProcessor processor = new MeasureRefreshProcessor();
         LibraryManager libraryManager = getCqlProcessor().getLibraryManager();
@@ -3,6 +3,7 @@ package org.opencds.cqf.tooling.measure.r4;
 import org.hl7.fhir.convertors.advisors.impl.BaseAdvisor_40_50;
 import org.hl7.fhir.convertors.conv40_50.VersionConvertor_40_50;
 import org.hl7.fhir.r4.formats.FormatUtilities;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 import org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.measure.MeasureProcessor;
 import org.opencds.cqf.tooling.parameter.RefreshMeasureParameters;
@@ -134,13 +135,20 @@ public class R4MeasureProcessor extends MeasureProcessor {
         fhirContext = params.fhirContext;
         encoding = params.encoding;
         versioned = params.versioned;
+        libraryNames = params.libraryNames;
 
         R4MeasureProcessor.cqfmHelper = new CqfmSoftwareSystemHelper(rootDir);
 
-        if (measureOutputDirectory != null) {
-            return refreshMeasures(measurePath, measureOutputDirectory, encoding);
-        } else {
-            return refreshMeasures(measurePath, encoding);
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            if (measureOutputDirectory != null) {
+                return refreshMeasures(measurePath, measureOutputDirectory, encoding);
+            } else {
+                return refreshMeasures(measurePath, encoding);
+            }
+        }
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
         }
     }
 }
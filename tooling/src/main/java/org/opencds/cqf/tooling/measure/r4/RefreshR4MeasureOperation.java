@@ -9,6 +9,7 @@ import java.util.Optional;
 import com.google.common.base.Strings;
 
 import org.hl7.fhir.r4.model.Measure;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 import org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.operation.RefreshGeneratedContentOperation;
 import org.opencds.cqf.tooling.utilities.IOUtils;
@@ -45,14 +46,20 @@ public class RefreshR4MeasureOperation extends RefreshGeneratedContentOperation
 
     @Override
     public void refreshGeneratedContent() {
-        File measureDir = new File(this.getPathToMeasures());
-        if (measureDir.isDirectory()) {
-            for (File f : Optional.ofNullable(measureDir.listFiles()).<NoSuchElementException>orElseThrow(() -> new NoSuchElementException())) {
-                refreshMeasureFromFile(f);
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            File measureDir = new File(this.getPathToMeasures());
+            if (measureDir.isDirectory()) {
+                for (File f : Optional.ofNullable(measureDir.listFiles()).<NoSuchElementException>orElseThrow(() -> new NoSuchElementException())) {
+                    refreshMeasureFromFile(f);
+                }
+            }
+            else if (measureDir.isFile()){
+                refreshMeasureFromFile(measureDir);
             }
         }
-        else if (measureDir.isFile()){
-            refreshMeasureFromFile(measureDir);
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
         }
     }
 
@@ -7,6 +7,7 @@ import ca.uhn.fhir.parser.XmlParser;
 
 import org.apache.commons.io.FilenameUtils;
 import org.hl7.fhir.dstu3.model.Measure;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 import org.opencds.cqf.tooling.common.stu3.CqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.operation.RefreshGeneratedContentOperation;
 import org.opencds.cqf.tooling.utilities.IOUtils;
@@ -48,14 +49,20 @@ public class RefreshStu3MeasureOperation extends RefreshGeneratedContentOperatio
 
     @Override
     public void refreshGeneratedContent() {
-        File measureDir = new File(this.getPathToMeasures());
-        if (measureDir.isDirectory()) {
-            for (File f : Optional.ofNullable(measureDir.listFiles()).<NoSuchElementException>orElseThrow(() -> new NoSuchElementException())) {
-                refreshMeasureFromFile(f);
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            File measureDir = new File(this.getPathToMeasures());
+            if (measureDir.isDirectory()) {
+                for (File f : Optional.ofNullable(measureDir.listFiles()).<NoSuchElementException>orElseThrow(() -> new NoSuchElementException())) {
+                    refreshMeasureFromFile(f);
+                }
+            }
+            else if (measureDir.isFile()){
+                refreshMeasureFromFile(measureDir);
             }
         }
-        else if (measureDir.isFile()){
-            refreshMeasureFromFile(measureDir);
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
         }
     }
 
@@ -1,17 +1,24 @@
 package org.opencds.cqf.tooling.modelinfo;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-
-import com.google.common.io.Files;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
@@ -30,6 +37,7 @@ import org.hl7.fhir.r4.model.SearchParameter;
 import org.hl7.fhir.r4.model.StructureDefinition;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.opencds.cqf.tooling.utilities.CanonicalUtils;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
@@ -37,7 +45,8 @@ import ca.uhn.fhir.parser.IParser;
 public class Atlas {
 
     public Atlas() {
-        resources = new HashMap<>();
+        // insertion ordered, so that a cache written from it can be reindexed with the same first-wins semantics
+        resources = new LinkedHashMap<>();
         capabilityStatements = new HashMap<>();
         compartmentDefinitions = new HashMap<>();
         structureDefinitions = new HashMap<>();
@@ -50,39 +59,78 @@ public class Atlas {
         namingSystems = new HashMap<>();
     }
 
+    /**
+     * Creates an Atlas whose resources are read from the given cache. Each type of resource is read the first time
+     * it is requested, so resource types a build does not use (e.g. terminology) are never read.
+     * @param cache an AtlasCache that is current for the paths being loaded
+     */
+    public Atlas(AtlasCache cache) {
+        this();
+        this.cache = cache;
+        this.uncachedTypes.addAll(CONFORMANCE_RESOURCE_TYPES);
+    }
+
+    static final List<ResourceType> CONFORMANCE_RESOURCE_TYPES = Arrays.asList(ResourceType.CapabilityStatement,
+            ResourceType.CompartmentDefinition, ResourceType.StructureDefinition, ResourceType.OperationDefinition,
+            ResourceType.SearchParameter, ResourceType.ImplementationGuide, ResourceType.CodeSystem,
+            ResourceType.ValueSet, ResourceType.ConceptMap, ResourceType.NamingSystem);
+
+    private AtlasCache cache;
+    private int threadCount = ThreadUtils.getDefaultThreadCount();
+    // IParser instances are not thread safe
+    private final ThreadLocal<IParser> parsers = ThreadLocal.withInitial(() -> FhirContext.forR4Cached().newJsonParser());
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount number of threads used to parse conformance resource files, 1 to parse them sequentially
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+    private final Set<ResourceType> uncachedTypes = EnumSet.noneOf(ResourceType.class);
+
     private Map<String, Resource> resources;
     public Map<String, Resource> getResources() {
+        CONFORMANCE_RESOURCE_TYPES.forEach(this::readFromCache);
         return resources;
     }
 
     private Map<String, CapabilityStatement> capabilityStatements;
     public Map<String, CapabilityStatement> getCapabilityStatements() {
+        readFromCache(ResourceType.CapabilityStatement);
         return capabilityStatements;
     }
 
     private Map<String, CompartmentDefinition> compartmentDefinitions;
     public Map<String, CompartmentDefinition> getCompartmentDefinitions() {
+        readFromCache(ResourceType.CompartmentDefinition);
         return compartmentDefinitions;
     }
 
     private Map<String, StructureDefinition> structureDefinitions;
     public Map<String, StructureDefinition> getStructureDefinitions() {
+        readFromCache(ResourceType.StructureDefinition);
         return structureDefinitions;
     }
 
     private Map<String, OperationDefinition> operationDefinitions;
     public Map<String, OperationDefinition> getOperationDefinitions() {
+        readFromCache(ResourceType.OperationDefinition);
         return operationDefinitions;
     }
 
     private Map<String, SearchParameter> searchParameters;
     public Map<String, SearchParameter> getSearchParameters() {
+        readFromCache(ResourceType.SearchParameter);
         return searchParameters;
     }
 
     public SearchParameter resolveSearchParameter(String resourceTypeName, String searchParameterName) {
         Optional<SearchParameter> result =
-            searchParameters.values().stream().filter(x -> x.getBase().stream().anyMatch(t -> t.toString().equals(resourceTypeName))
+            getSearchParameters().values().stream().filter(x -> x.getBase().stream().anyMatch(t -> t.toString().equals(resourceTypeName))
                 && x.getName().equals(searchParameterName)).findFirst();
 
         return result.isPresent() ? result.get() : null;
@@ -90,26 +138,31 @@ public class Atlas {
 
     private Map<String, ImplementationGuide> implementationGuides;
     public Map<String, ImplementationGuide> getImplementationGuides() {
+        readFromCache(ResourceType.ImplementationGuide);
         return implementationGuides;
     }
 
     private Map<String, CodeSystem> codeSystems;
     public Map<String, CodeSystem> getCodeSystems() {
+        readFromCache(ResourceType.CodeSystem);
         return codeSystems;
     }
 
     private Map<String, ValueSet> valueSets;
     public Map<String, ValueSet> getValueSets() {
+        readFromCache(ResourceType.ValueSet);
         return valueSets;
     }
 
     private Map<String, ConceptMap> conceptMaps;
     public Map<String, ConceptMap> getConceptMaps() {
+        readFromCache(ResourceType.ConceptMap);
         return conceptMaps;
     }
 
     private Map<String, NamingSystem> namingSystems;
     public Map<String, NamingSystem> getNamingSystems() {
+        readFromCache(ResourceType.NamingSystem);
         return namingSystems;
     }
 
@@ -121,6 +174,48 @@ public class Atlas {
         }
     }
 
+    /**
+     * @param resourceType one of the conformance resource types held by the Atlas
+     * @return the resources of that type by canonical url, in the order they were indexed
+     */
+    Map<String, Resource> getResources(ResourceType resourceType) {
+        Map<String, Resource> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Resource> entry : getResources().entrySet()) {
+            if (entry.getValue().getResourceType() == resourceType) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readFromCache(ResourceType resourceType) {
+        if (cache == null || !uncachedTypes.remove(resourceType)) {
+            return;
+        }
+
+        Map<String, ? extends Resource> index;
+        switch (resourceType) {
+            case CapabilityStatement: index = capabilityStatements; break;
+            case CompartmentDefinition: index = compartmentDefinitions; break;
+            case StructureDefinition: index = structureDefinitions; break;
+            case OperationDefinition: index = operationDefinitions; break;
+            case SearchParameter: index = searchParameters; break;
+            case ImplementationGuide: index = implementationGuides; break;
+            case CodeSystem: index = codeSystems; break;
+            case ValueSet: index = valueSets; break;
+            case ConceptMap: index = conceptMaps; break;
+            case NamingSystem: index = namingSystems; break;
+            default: throw new IllegalArgumentException("Unexpected resource type: " + resourceType);
+        }
+
+        // Duplicates were reported when the cache was written, so only the first resource with an id is kept here
+        for (Map.Entry<String, Resource> entry : cache.read(resourceType).entrySet()) {
+            resources.put(entry.getKey(), entry.getValue());
+            ((Map<String, Resource>)index).putIfAbsent(CanonicalUtils.getTail(entry.getKey()), entry.getValue());
+        }
+    }
+
     private String urlToId(String url) {
         int index = url.lastIndexOf("/StructureDefinition/");
         if (index > -1) {
@@ -345,27 +440,26 @@ public class Atlas {
     private void readConformanceResourcesFromFolder(String path) {
         Collection<File> files = getFiles(path);
 
-        IParser parser = FhirContext.forR4Cached().newJsonParser();
-
-        // List<StructureDefinition> objects = new ArrayList<StructureDefinition>();
-
-        for (File f : files) {
+        // Files are parsed concurrently but indexed on this thread in file order, so duplicate resolution and the
+        // duplicate diagnostics are the same as for a sequential load
+        ThreadUtils.forEachOrdered(files, threadCount, this::readConformanceResources, resources -> {
+            for (IBaseResource resource : resources) {
+                indexResource(resource);
+            }
+        });
+    }
 
-            try {
-                String content = Files.asCharSource(f, Charset.forName("UTF-8")).read();
-                IBaseResource resource = parser.parseResource(content);
+    private List<IBaseResource> readConformanceResources(File f) {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+            IBaseResource resource = parsers.get().parseResource(reader);
 
-                if (resource instanceof Bundle) {
-                    for (IBaseResource R : unrollBundles((Bundle)resource)) {
-                        indexResource(R);
-                    }
-                }
-                else {
-                    indexResource(resource);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (resource instanceof Bundle) {
+                return unrollBundles((Bundle)resource);
             }
+            return Collections.singletonList(resource);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
         }
     }
 
@@ -0,0 +1,162 @@
+package org.opencds.cqf.tooling.modelinfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
+
+import ca.uhn.fhir.util.VersionUtil;
+
+/**
+ * A snapshot of the conformance resources indexed by an {@link Atlas}, so that repeated model info builds over the
+ * same spec and IG folders do not parse every definition file again.
+ *
+ * The cache is a directory holding one file per resource type, each a serialized map of canonical url to resource in
+ * the order the Atlas indexed them, plus a fingerprint file. The fingerprint is a hash over the resource paths, the
+ * name and content hash of every input file and the HAPI version, so any change to the inputs (or to the serialized
+ * form of the model classes) invalidates the cache.
+ */
+public class AtlasCache {
+    private static final String FORMAT_VERSION = "1";
+    private static final String FINGERPRINT_FILE = "atlas.fingerprint";
+    private static final String SECTION_EXTENSION = ".ser";
+
+    private final File directory;
+
+    public AtlasCache(String directory) {
+        this.directory = new File(directory);
+    }
+
+    /**
+     * Returns an Atlas for the given resource paths, read from the cache if it is current for those paths. Otherwise
+     * the paths are loaded as usual and the cache is rewritten.
+     */
+    public static Atlas loadPaths(String basePath, String resourcePaths, String cachePath) {
+        return loadPaths(basePath, resourcePaths, cachePath, ThreadUtils.getDefaultThreadCount());
+    }
+
+    public static Atlas loadPaths(String basePath, String resourcePaths, String cachePath, int threadCount) {
+        AtlasCache cache = new AtlasCache(cachePath);
+        String fingerprint = fingerprint(basePath, resourcePaths);
+        if (cache.isCurrent(fingerprint)) {
+            System.out.println("Reading Conformance Resources from Atlas cache " + cachePath);
+            return new Atlas(cache);
+        }
+
+        Atlas atlas = new Atlas();
+        atlas.setThreadCount(threadCount);
+        atlas.loadPaths(basePath, resourcePaths);
+        try {
+            cache.write(atlas, fingerprint);
+            System.out.println("Wrote Atlas cache " + cachePath);
+        }
+        catch (IOException e) {
+            // the cache is an optimization only, the build can go on without it
+            System.out.println("Unable to write Atlas cache " + cachePath + ": " + e.getMessage());
+        }
+        return atlas;
+    }
+
+    public static String fingerprint(String basePath, String resourcePaths) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        update(digest, FORMAT_VERSION);
+        update(digest, VersionUtil.getVersion());
+        for (String path : resourcePaths.split(";")) {
+            update(digest, path);
+            List<File> files = new ArrayList<>(getFiles(Paths.get(basePath, path).toString()));
+            files.sort(Comparator.comparing(File::getName));
+            for (File file : files) {
+                update(digest, file.getName());
+                try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+                    update(digest, DigestUtils.sha256Hex(is));
+                }
+                catch (IOException e) {
+                    throw new RuntimeException("Error reading " + file.getAbsolutePath(), e);
+                }
+            }
+        }
+        return DigestUtils.sha256Hex(digest.digest());
+    }
+
+    public boolean isCurrent(String fingerprint) {
+        File fingerprintFile = new File(directory, FINGERPRINT_FILE);
+        if (!fingerprintFile.isFile()) {
+            return false;
+        }
+        try {
+            return fingerprint.equals(new String(Files.readAllBytes(fingerprintFile.toPath()), StandardCharsets.UTF_8).trim());
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the resources of the Atlas to the cache. The fingerprint is written last, so an interrupted write leaves
+     * a cache that is not current rather than one that is incomplete.
+     */
+    public void write(Atlas atlas, String fingerprint) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory.getAbsolutePath());
+        }
+        Files.deleteIfExists(new File(directory, FINGERPRINT_FILE).toPath());
+        for (ResourceType resourceType : Atlas.CONFORMANCE_RESOURCE_TYPES) {
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(getSectionFile(resourceType)), 1 << 16))) {
+                oos.writeObject(atlas.getResources(resourceType));
+            }
+        }
+        Files.write(new File(directory, FINGERPRINT_FILE).toPath(), fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the cached resources of the given type by canonical url, in the order they were indexed
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Resource> read(ResourceType resourceType) {
+        File sectionFile = getSectionFile(resourceType);
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(sectionFile), 1 << 16))) {
+            return (LinkedHashMap<String, Resource>)ois.readObject();
+        }
+        catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Error reading Atlas cache " + sectionFile.getAbsolutePath()
+                    + ", delete the cache directory to rebuild it", e);
+        }
+    }
+
+    private File getSectionFile(ResourceType resourceType) {
+        return new File(directory, resourceType.name() + SECTION_EXTENSION);
+    }
+
+    private static Collection<File> getFiles(String path) {
+        File folder = new File(path);
+        return FileUtils.listFiles(folder, new WildcardFileFilter("*.json"), null);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+    }
+}
@@ -17,6 +17,7 @@ import org.hl7.fhir.r4.model.Extension;
 import org.hl7.fhir.r4.model.StringType;
 import org.hl7.fhir.r4.model.StructureDefinition;
 import org.hl7.fhir.r4.model.StructureDefinition.StructureDefinitionKind;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 
 public abstract class ClassInfoBuilder {
     protected Map<String, StructureDefinition> structureDefinitions;
@@ -24,6 +25,14 @@ public abstract class ClassInfoBuilder {
     protected Map<String, String> typeTargets = new HashMap<String, String>();
     protected Set<String> requiredBindingTypeNames = new HashSet<String>();
     protected ClassInfoSettings settings;
+    protected int threadCount = 1;
+    // Set on the builders for the steps of a parallel build, see buildInParallel
+    private Map<String, TypeInfo> sharedTypeInfos;
+    // Name index for the element list of each ClassInfo, and path index for each snapshot, keyed by list identity
+    private final Map<List<ClassInfoElement>, ListIndex<ClassInfoElement>> classInfoElementIndexes = new IdentityHashMap<>();
+    private final Map<List<ElementDefinition>, ListIndex<ElementDefinition>> elementDefinitionIndexes = new IdentityHashMap<>();
+    private Set<String> cqlTypeMappingValues;
+    private Set<String> primitiveTypeMappingValues;
 
     public ClassInfoBuilder(ClassInfoSettings settings, Map<String, StructureDefinition> structureDefinitions) {
         this.structureDefinitions = structureDefinitions;
@@ -31,6 +40,13 @@ public abstract class ClassInfoBuilder {
     }
 
     protected abstract void innerBuild();
+
+    /**
+     * Returns a new builder of the same model, with the same structure definitions, for a step of a parallel build.
+     * Steps build with the overrides of the builder returned, so subclasses return an instance of their own class.
+     */
+    protected abstract ClassInfoBuilder newStepBuilder();
+
     protected void afterBuild() {
         //Clean up Content Reference Specifiers
         // Collection<TypeInfo> typeInfoValues = this.getTypeInfos().values();
@@ -47,6 +63,9 @@ public abstract class ClassInfoBuilder {
     }
 
     public Map<String, TypeInfo> build() {
+        // The settings may have been changed since the last build
+        this.cqlTypeMappingValues = null;
+        this.primitiveTypeMappingValues = null;
         this.innerBuild();
         return this.getTypeInfos();
     }
@@ -416,11 +435,8 @@ public abstract class ClassInfoBuilder {
     @SuppressWarnings("unused")
     private ElementDefinition elementForPath(List<ElementDefinition> elements, String path) {
         if (elements != null) {
-            for (ElementDefinition ed : elements) {
-                if (ed.getPath().equals(path)) {
-                    return ed;
-                }
-            }
+            return this.elementDefinitionIndexes.computeIfAbsent(elements, x -> new ListIndex<>(ElementDefinition::getPath))
+                    .get(elements, path);
         }
 
         return null;
@@ -492,11 +508,8 @@ public abstract class ClassInfoBuilder {
     // Returns the element with the given name, if it exists
     private ClassInfoElement element(List<ClassInfoElement> elements, String name) {
         if (elements != null) {
-            for (ClassInfoElement cie : elements) {
-                if (cie.getName().equals(name)) {
-                    return cie;
-                }
-            }
+            return this.classInfoElementIndexes.computeIfAbsent(elements, x -> new ListIndex<>(ClassInfoElement::getName))
+                    .get(elements, name);
         }
 
         return null;
@@ -595,8 +608,22 @@ public abstract class ClassInfoBuilder {
         return false;
     }
 
+    private Set<String> getCqlTypeMappingValues() {
+        if (this.cqlTypeMappingValues == null) {
+            this.cqlTypeMappingValues = new HashSet<>(this.settings.cqlTypeMappings.values());
+        }
+        return this.cqlTypeMappingValues;
+    }
+
+    private Set<String> getPrimitiveTypeMappingValues() {
+        if (this.primitiveTypeMappingValues == null) {
+            this.primitiveTypeMappingValues = new HashSet<>(this.settings.primitiveTypeMappings.values());
+        }
+        return this.primitiveTypeMappingValues;
+    }
+
     private boolean isMappedTypeName(String qualifiedTypeName) {
-        return this.settings.useCQLPrimitives && this.settings.cqlTypeMappings.values().contains(qualifiedTypeName);
+        return this.settings.useCQLPrimitives && getCqlTypeMappingValues().contains(qualifiedTypeName);
     }
 
     private boolean isMappedTypeName(String modelName, String typeName) {
@@ -606,7 +633,7 @@ public abstract class ClassInfoBuilder {
     private boolean isPrimitiveMappedTypeName(String modelName, String typeName) {
         String qualifiedTypeName = getTypeName(modelName, typeName);
         return this.settings.useCQLPrimitives &&
-                (this.settings.primitiveTypeMappings.values().contains(qualifiedTypeName) ||
+                (getPrimitiveTypeMappingValues().contains(qualifiedTypeName) ||
                         this.requiredBindingTypeNames.contains(qualifiedTypeName));
     }
 
@@ -822,7 +849,7 @@ public abstract class ClassInfoBuilder {
                 String qualifiedBaseTypeName = getTypeName(modelName, baseTypeName);
                 typeName = capitalizePath(ed.getPath()) + "." + ed.getSliceName();
                 String qualifiedTypeName = getTypeName(modelName, typeName);
-                if (!this.typeInfos.containsKey(qualifiedTypeName)) {
+                if (!this.typeInfos.containsKey(qualifiedTypeName) || isSharedType(qualifiedTypeName)) {
                     ClassInfo sliceType = new ClassInfo().withNamespace(modelName).withName(typeName).withBaseType(qualifiedBaseTypeName).withRetrievable(false);
                     this.typeInfos.put(qualifiedTypeName, sliceType);
                 }
@@ -1242,7 +1269,7 @@ public abstract class ClassInfoBuilder {
             // If the typeSpecifier is not a constructed type as expected, allow the slices to bubble up one level
             if (typeSpecifier instanceof NamedTypeSpecifier && !isSystemTypeName(getTypeName((NamedTypeSpecifier)typeSpecifier))) {
                 TypeInfo elementTypeInfo = resolveType(getTypeName((NamedTypeSpecifier)typeSpecifier));
-                if (elementTypeInfo instanceof ClassInfo) {
+                if (elementTypeInfo instanceof ClassInfo && !isSharedType(getTypeName((NamedTypeSpecifier)typeSpecifier))) {
                     ClassInfo elementClassInfo = (ClassInfo)elementTypeInfo;
                     for (ClassInfoElement slice : slices.getSlices()) {
                         System.out.println(String.format("Adding slice %s to constructed type %s.", slice.getName(), elementClassInfo.getName()));
@@ -1338,7 +1365,7 @@ public abstract class ClassInfoBuilder {
                     String typeName = capitalizePath(ed.getId().replace(':', '.'));
                     String qualifiedTypeName = getTypeName(modelName, typeName);
                     ClassInfo elementType = null;
-                    if (this.typeInfos.containsKey(qualifiedTypeName)) {
+                    if (this.typeInfos.containsKey(qualifiedTypeName) && !isSharedType(qualifiedTypeName)) {
                         System.out.println(String.format("WARNING: Adding slices to existing type %s.", qualifiedTypeName));
                         elementType = (ClassInfo) typeInfos.get(qualifiedTypeName);
                     } else {
@@ -1348,7 +1375,7 @@ public abstract class ClassInfoBuilder {
 
                     for (ClassInfoElement slice : slices.getSlices()) {
                         System.out.println(String.format("Adding slice %s to derived type %s", slice.getName(), qualifiedTypeName));
-                        if (elementType.getElement().stream().noneMatch(x -> x.getName().equals(slice.getName()))) {
+                        if (element(elementType.getElement(), slice.getName()) == null) {
                             elementType.getElement().add(slice);
                         } else {
                             System.out.println(String.format("WARNING: Duplicate element %s not added to derived type %s", slice.getName(), qualifiedTypeName));
@@ -1494,24 +1521,160 @@ public abstract class ClassInfoBuilder {
         }
     }
 
+    protected void buildFor(String model, List<String> ids) {
+        if (this.threadCount <= 1) {
+            for (String id : ids) {
+                this.buildFor(model, id);
+            }
+            return;
+        }
+
+        List<StructureDefinition> sds = new ArrayList<>();
+        for (String id : ids) {
+            StructureDefinition sd = structureDefinitions.get(id);
+            if (sd != null) {
+                sds.add(sd);
+            }
+            else {
+                System.out.println("Error building ClassInfo for: " + id + " - Could not find structure definition");
+            }
+        }
+        this.buildInParallel(model, sds);
+    }
+
     protected void buildFor(String model, Predicate<StructureDefinition> predicate) {
-        for (StructureDefinition sd : structureDefinitions.values()) {
-            if (predicate.test(sd)) {
-                try {
-                    this.buildClassInfo(model, sd);
+        if (this.threadCount <= 1) {
+            for (StructureDefinition sd : structureDefinitions.values()) {
+                if (predicate.test(sd)) {
+                    this.buildFor(model, sd);
                 }
-                catch (Exception e) {
-                    System.out.println("Error building ClassInfo for: " + sd.getId() + " - " + e.getMessage());
-                    e.printStackTrace();
+            }
+            return;
+        }
+
+        this.buildInParallel(model, structureDefinitions.values().stream().filter(predicate).collect(Collectors.toList()));
+    }
+
+    private void buildFor(String model, StructureDefinition sd) {
+        try {
+            this.buildClassInfo(model, sd);
+        }
+        catch (Exception e) {
+            System.out.println("Error building ClassInfo for: " + sd.getId() + " - " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Builds the ClassInfos for the given structure definitions on threadCount threads.
+    // Structure definitions with the same type are built in order by a single step, because the names of the types
+    // derived while building a profile (components, slices) come from the paths of its elements, and profiles of the
+    // same type contribute to the same derived types. Each step runs once the steps holding the base definitions of
+    // its structure definitions have been merged, on its own builder (see newStepBuilder) that sees the types built
+    // before it started.
+    // Types shared from earlier steps are not modified by a step; the results of the steps are merged back on the
+    // calling thread in input order, so the output is the same regardless of the order in which the steps finish.
+    private void buildInParallel(String model, List<StructureDefinition> sds) {
+        Map<String, List<StructureDefinition>> steps = new LinkedHashMap<>();
+        for (StructureDefinition sd : sds) {
+            steps.computeIfAbsent(sd.getType(), x -> new ArrayList<>()).add(sd);
+        }
+
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        for (Map.Entry<String, List<StructureDefinition>> step : steps.entrySet()) {
+            Set<String> stepDependencies = new HashSet<>();
+            for (StructureDefinition sd : step.getValue()) {
+                StructureDefinition baseSd = sd.getBaseDefinition() != null ? structureDefinitions.get(getTail(sd.getBaseDefinition())) : null;
+                if (baseSd != null && steps.containsKey(baseSd.getType()) && !Objects.equals(baseSd.getType(), step.getKey())) {
+                    stepDependencies.add(baseSd.getType());
                 }
             }
+            dependencies.put(step.getKey(), stepDependencies);
         }
+
+        Set<String> built = new HashSet<>();
+        while (built.size() < steps.size()) {
+            List<List<StructureDefinition>> ready = new ArrayList<>();
+            List<String> readyTypes = new ArrayList<>();
+            for (Map.Entry<String, List<StructureDefinition>> step : steps.entrySet()) {
+                if (!built.contains(step.getKey()) && built.containsAll(dependencies.get(step.getKey()))) {
+                    ready.add(step.getValue());
+                    readyTypes.add(step.getKey());
+                }
+            }
+            if (ready.isEmpty()) {
+                throw new IllegalArgumentException("Circular base definitions in " + steps.keySet());
+            }
+
+            Map<String, TypeInfo> sharedTypeInfos = new HashMap<>(this.typeInfos);
+            Map<String, String> sharedTypeTargets = new HashMap<>(this.typeTargets);
+            Set<String> sharedRequiredBindingTypeNames = new HashSet<>(this.requiredBindingTypeNames);
+            ThreadUtils.forEachOrdered(ready, this.threadCount,
+                    step -> {
+                        ClassInfoBuilder builder = this.newStepBuilder();
+                        builder.settings = this.settings;
+                        builder.sharedTypeInfos = sharedTypeInfos;
+                        builder.typeInfos = new LinkedHashMap<>(sharedTypeInfos);
+                        builder.typeTargets = new HashMap<>(sharedTypeTargets);
+                        builder.requiredBindingTypeNames = new HashSet<>(sharedRequiredBindingTypeNames);
+                        for (StructureDefinition sd : step) {
+                            builder.buildFor(model, sd);
+                        }
+                        return builder;
+                    },
+                    this::merge);
+            built.addAll(readyTypes);
+        }
+    }
+
+    // Adds the types built by a step of a parallel build. A type that an earlier step also built is kept as built by
+    // the earlier step, with any elements only the later step added (such as slices) appended, as a sequential build
+    // would have added them to the existing type.
+    private void merge(ClassInfoBuilder step) {
+        for (Map.Entry<String, TypeInfo> entry : step.typeInfos.entrySet()) {
+            TypeInfo typeInfo = entry.getValue();
+            if (typeInfo == step.sharedTypeInfos.get(entry.getKey())) {
+                continue;
+            }
+
+            TypeInfo existing = this.typeInfos.get(entry.getKey());
+            if (existing == null) {
+                this.typeInfos.put(entry.getKey(), typeInfo);
+            }
+            else if (existing != typeInfo && existing instanceof ClassInfo && typeInfo instanceof ClassInfo) {
+                ClassInfo existingClassInfo = (ClassInfo) existing;
+                for (ClassInfoElement cie : ((ClassInfo) typeInfo).getElement()) {
+                    if (element(existingClassInfo.getElement(), cie.getName()) == null) {
+                        existingClassInfo.getElement().add(cie);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, String> entry : step.typeTargets.entrySet()) {
+            this.typeTargets.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        this.requiredBindingTypeNames.addAll(step.requiredBindingTypeNames);
+    }
+
+    // Returns true if the type was built before the current step of a parallel build started. Such types are shared
+    // with the other steps, so they are not modified.
+    private boolean isSharedType(String qualifiedTypeName) {
+        return this.sharedTypeInfos != null && this.sharedTypeInfos.containsKey(qualifiedTypeName)
+                && this.typeInfos.get(qualifiedTypeName) == this.sharedTypeInfos.get(qualifiedTypeName);
     }
 
     public Map<String, TypeInfo> getTypeInfos() {
         return this.typeInfos;
     }
 
+    public int getThreadCount() {
+        return this.threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
     protected TypeSpecifier resolveContentReference(String modelName, String path) throws Exception {
         String strippedPath = this.stripRoot(path, "#");
         if (strippedPath.contains(":")) {
@@ -1623,4 +1786,32 @@ public abstract class ClassInfoBuilder {
 
         return result;
     }
-}
\ No newline at end of file
+
+    // Index over a list that is only appended to while building, returning the first element with a given key as a
+    // front-to-back scan of the list would. Elements appended since the last lookup are indexed on the next lookup.
+    private static class ListIndex<T> {
+        private final Function<T, String> keyExtractor;
+        private final Map<String, T> elementsByKey = new HashMap<>();
+        private int indexedCount;
+
+        ListIndex(Function<T, String> keyExtractor) {
+            this.keyExtractor = keyExtractor;
+        }
+
+        T get(List<T> elements, String key) {
+            if (elements.size() < indexedCount) {
+                elementsByKey.clear();
+                indexedCount = 0;
+            }
+            for (; indexedCount < elements.size(); indexedCount++) {
+                T element = elements.get(indexedCount);
+                String elementKey = keyExtractor.apply(element);
+                if (elementKey != null) {
+                    elementsByKey.putIfAbsent(elementKey, element);
+                }
+            }
+
+            return elementsByKey.get(key);
+        }
+    }
+}
@@ -1,17 +1,20 @@
 package org.opencds.cqf.tooling.modelinfo;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.google.common.io.Files;
-
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -19,12 +22,25 @@ import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.StructureDefinition;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
 
 public class ResourceLoader {
 
+    private int threadCount = ThreadUtils.getDefaultThreadCount();
+    // IParser instances are not thread safe
+    private final ThreadLocal<IParser> parsers = ThreadLocal.withInitial(() -> FhirContext.forR4Cached().newJsonParser());
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
     public Map<String, StructureDefinition> loadPaths(String basePath, String resourcePaths) {
 
         List<StructureDefinition> resources = new ArrayList<StructureDefinition>();
@@ -66,28 +82,28 @@ public class ResourceLoader {
     private List<StructureDefinition> readStructureDefFromFolder(String path) {
         Collection<File> files = getFiles(path);
 
-        IParser parser = FhirContext.forR4Cached().newJsonParser();
-
         List<StructureDefinition> objects = new ArrayList<StructureDefinition>();
 
-        for (File f : files) {
+        // Files are parsed concurrently, results are collected in file order
+        ThreadUtils.forEachOrdered(files, threadCount, this::readStructureDefs, objects::addAll);
 
-            try {
-                String content = Files.asCharSource(f, Charset.forName("UTF-8")).read();
-                IBaseResource resource = parser.parseResource(content);
+        return objects;
+    }
 
-                if (resource instanceof StructureDefinition) {
-                    objects.add((StructureDefinition) resource);
-                } else if (resource instanceof Bundle) {
-                    objects.addAll(unrollBundles((Bundle) resource));
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+    private List<StructureDefinition> readStructureDefs(File f) {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+            IBaseResource resource = parsers.get().parseResource(reader);
 
+            if (resource instanceof StructureDefinition) {
+                return Collections.singletonList((StructureDefinition) resource);
+            } else if (resource instanceof Bundle) {
+                return unrollBundles((Bundle) resource);
             }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 
-        return objects;
+        return Collections.emptyList();
     }
 
     private Collection<File> getFiles(String path) {
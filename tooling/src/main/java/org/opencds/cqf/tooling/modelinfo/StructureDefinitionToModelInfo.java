@@ -25,6 +25,7 @@ import org.opencds.cqf.tooling.modelinfo.quick.QuickClassInfoBuilder;
 import org.opencds.cqf.tooling.modelinfo.quick.QuickModelInfoBuilder;
 import org.opencds.cqf.tooling.modelinfo.uscore.USCoreClassInfoBuilder;
 import org.opencds.cqf.tooling.modelinfo.uscore.USCoreModelInfoBuilder;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -38,6 +39,9 @@ public class StructureDefinitionToModelInfo extends Operation {
     private String modelVersion;
     private boolean useCQLPrimitives = false;
     private boolean includeMetadata = true;
+    private String atlasCachePath;
+    private int threadCount = ThreadUtils.getDefaultThreadCount();
+    private int classInfoThreadCount = 1;
 
     /*
     // NOTE: This documentation is present in the Main.java class for the tooling as well, keep these in sync
@@ -51,6 +55,9 @@ public class StructureDefinitionToModelInfo extends Operation {
           (-useCqlPrimitives | ucp)
           (-includeMetadata | -im)
           (-outputpath | -op)
+          (-atlasCache | -ac)
+          (-threads | -t)
+          (-classInfoThreads | -cit)
         "
 
         Examples:
@@ -72,6 +79,13 @@ public class StructureDefinitionToModelInfo extends Operation {
         useCqlPrimitives: Determines whether the generated structures should use Cql primitives for "primitive types"
         includeMetadata: Determines whether to include additional (non-structural) information such as definitions, comments, bindings, and constraints
         outputPath: Specifies the output directory for the resulting ModelInfo
+        atlasCache: Directory in which to cache the loaded conformance resources
+            If specified, the resources are read from the cache when none of the files in the resourcePaths have changed since it was written,
+            rather than parsing every file again. Useful when iterating on the ClassInfoSettings for a model.
+        threads: Number of threads used to parse the resource definition files
+            If not specified, the resource definition files are parsed on as many threads as there are available processors
+        classInfoThreads: Number of threads used to build the ClassInfos
+            If not specified, the ClassInfos are built sequentially
 
         Arguments for producing FHIR Model Info
             -resourcePaths="4.0.1"
@@ -137,13 +151,23 @@ public class StructureDefinitionToModelInfo extends Operation {
                 case "modelversion": case "mv": modelVersion = value; break; // -modelversion (-mv)
                 case "usecqlprimitives": case "ucp": useCQLPrimitives = value.toLowerCase().equals("true") ? true : false; break;
                 case "includemetadata": case "im": includeMetadata = value.toLowerCase().equals("true") ? true : false; break;
+                case "atlascache": case "ac": atlasCachePath = value; break; // -atlascache (-ac)
+                case "threads": case "t": threadCount = Integer.parseInt(value); break; // -threads (-t)
+                case "classinfothreads": case "cit": classInfoThreadCount = Integer.parseInt(value); break; // -classinfothreads (-cit)
                 default: throw new IllegalArgumentException("Unknown flag: " + flag);
             }
         }
 
         // TODO: Need to load from NPMPackages, not directories...
-        Atlas atlas = new Atlas();
-        atlas.loadPaths(inputPath, resourcePaths);
+        Atlas atlas;
+        if (atlasCachePath != null) {
+            atlas = AtlasCache.loadPaths(inputPath, resourcePaths, atlasCachePath, threadCount);
+        }
+        else {
+            atlas = new Atlas();
+            atlas.setThreadCount(threadCount);
+            atlas.loadPaths(inputPath, resourcePaths);
+        }
 
         File outputPath = new File(getOutputPath());
         if (!outputPath.exists()) {
@@ -159,6 +183,7 @@ public class StructureDefinitionToModelInfo extends Operation {
             ClassInfoBuilder ciBuilder = new FHIRClassInfoBuilder(atlas.getStructureDefinitions());
             ciBuilder.settings.useCQLPrimitives = this.useCQLPrimitives;
             ciBuilder.settings.includeMetaData = this.includeMetadata;
+            ciBuilder.setThreadCount(classInfoThreadCount);
             Map<String, TypeInfo> typeInfos = ciBuilder.build();
             ciBuilder.afterBuild();
 
@@ -170,6 +195,7 @@ public class StructureDefinitionToModelInfo extends Operation {
             ClassInfoBuilder ciBuilder = new USCoreClassInfoBuilder(atlas.getStructureDefinitions());
             ciBuilder.settings.useCQLPrimitives = this.useCQLPrimitives;
             ciBuilder.settings.includeMetaData = this.includeMetadata;
+            ciBuilder.setThreadCount(classInfoThreadCount);
             Map<String, TypeInfo> typeInfos = ciBuilder.build();
             ciBuilder.afterBuild();
 
@@ -181,6 +207,7 @@ public class StructureDefinitionToModelInfo extends Operation {
             ClassInfoBuilder ciBuilder = new QICoreClassInfoBuilder(atlas.getStructureDefinitions());
             ciBuilder.settings.useCQLPrimitives = this.useCQLPrimitives;
             ciBuilder.settings.includeMetaData = this.includeMetadata;
+            ciBuilder.setThreadCount(classInfoThreadCount);
             Map<String, TypeInfo> typeInfos = ciBuilder.build();
             ciBuilder.afterBuild();
 
@@ -192,6 +219,7 @@ public class StructureDefinitionToModelInfo extends Operation {
             ClassInfoBuilder ciBuilder = new QuickClassInfoBuilder(atlas.getStructureDefinitions());
             ciBuilder.settings.useCQLPrimitives = this.useCQLPrimitives;
             ciBuilder.settings.includeMetaData = this.includeMetadata;
+            ciBuilder.setThreadCount(classInfoThreadCount);
             Map<String, TypeInfo> typeInfos = ciBuilder.build();
             ciBuilder.afterBuild();
 
@@ -203,6 +231,7 @@ public class StructureDefinitionToModelInfo extends Operation {
             ClassInfoBuilder ciBuilder = new FHIRClassInfoBuilder(atlas.getStructureDefinitions());
             ciBuilder.settings.useCQLPrimitives = this.useCQLPrimitives;
             ciBuilder.settings.includeMetaData = this.includeMetadata;
+            ciBuilder.setThreadCount(classInfoThreadCount);
             Map<String, TypeInfo> typeInfos = ciBuilder.build();
             miBuilder = new ModelInfoBuilder(typeInfos.values());
             mi = miBuilder.build();
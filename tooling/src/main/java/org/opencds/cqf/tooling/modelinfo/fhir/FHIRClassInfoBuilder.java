@@ -33,6 +33,11 @@ public class FHIRClassInfoBuilder extends ClassInfoBuilder {
                 && (!x.hasDerivation() || x.getDerivation() == TypeDerivationRule.SPECIALIZATION)));
     }
 
+    @Override
+    protected ClassInfoBuilder newStepBuilder() {
+        return new FHIRClassInfoBuilder(this.structureDefinitions);
+    }
+
     @Override
     public void afterBuild() {
         //Clean up Content Reference Specifiers
@@ -1,6 +1,8 @@
 package org.opencds.cqf.tooling.modelinfo.qicore;
 
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.hl7.fhir.r4.model.StructureDefinition;
@@ -8,108 +10,120 @@ import org.opencds.cqf.tooling.modelinfo.ClassInfoBuilder;
 
 public class QICoreClassInfoBuilder extends ClassInfoBuilder {
 
+    /**
+     * The ids of the QI-Core profiles that ClassInfos are built for
+     */
+    public static final List<String> PROFILES = Arrays.asList(
+            "qicore-adverseevent",
+            "qicore-allergyintolerance",
+            "qicore-bodystructure",
+            "qicore-claim",
+            "qicore-claimresponse",
+            "qicore-careplan",
+            "qicore-careteam",
+            "qicore-communication",
+            "qicore-communicationnotdone",
+            "qicore-communicationrequest",
+            //"qicore-condition", // v4.1.1
+            "qicore-condition-encounter-diagnosis", // v5.0.0
+            "qicore-condition-problems-health-concerns", // v5.0.0
+            "qicore-coverage",
+            "qicore-device",
+            "qicore-devicenotrequested",
+            "qicore-devicerequest",
+            "qicore-deviceusestatement",
+            "qicore-diagnosticreport-lab",
+            "qicore-diagnosticreport-note",
+            "qicore-encounter",
+            "qicore-familymemberhistory",
+            "qicore-flag",
+            "qicore-goal",
+            "qicore-imagingstudy",
+            "qicore-immunization",
+            "qicore-immunizationevaluation",
+            "qicore-immunizationnotdone",
+            //"qicore-immunizationrec", // v4.1.1
+            "qicore-immunizationrecommendation", // v5.0.0
+            "us-core-implantable-device",
+            "qicore-location",
+            "qicore-medication",
+            "qicore-medicationadministration",
+            // "qicore-mednotadministered", // v4.1.1
+            "qicore-medicationadministrationnotdone", // v5.0.0
+            "qicore-medicationdispense",
+            //"qicore-mednotdispensed",  // v4.1.1
+            "qicore-medicationdispensedeclined", // v5.0.0
+            //"qicore-mednotrequested", // v4.1.1
+            "qicore-medicationnotrequested", // v5.0.0
+            "qicore-medicationrequest",
+            "qicore-medicationstatement",
+            "qicore-observation",
+            //"qicore-observationnotdone", // v4.1.1
+            "qicore-observationcancelled", // v5.0.0
+            //"vitalspanel", // v4.1.1
+            "us-core-vital-signs", // v5.0.0
+
+            //"resprate", // v4.1.1
+            "us-core-respiratory-rate", // v5.0.0
+            //"heartrate", // v4.1.1
+            "us-core-heart-rate",
+            "head-occipital-frontal-circumference-percentile", // v5.0.0
+            //"oxygensat", // v4.1.1
+            "us-core-oxygen-saturation",
+            //"bodytemp", // v4.1.1
+            "us-core-body-temperature",
+            //"bodyheight", // v4.1.1
+            "us-core-body-height",
+            //"headcircum",
+            "us-core-head-circumference", // v5.0.0
+            //"bodyweight", // v4.1.1
+            "us-core-body-weight",
+            //"bmi", // v4.1.1
+            "us-core-bmi", // v5.0.0
+            //"bp", // v4.1.1
+            "us-core-blood-pressure", // v5.0.0
+            "us-core-smokingstatus",
+            "us-core-pulse-oximetry",
+            //"us-core-observation-lab", // v4.1.1
+            "qicore-observation-lab", // v5.0.0
+            "qicore-observation-clinical-test", // v5.0.0
+            "qicore-observation-imaging", // v5.0.0
+            "qicore-observation-survey", // v5.0.0
+            "pediatric-bmi-for-age",
+            "pediatric-weight-for-height",
+            "us-core-observation-sexual-orientation", // v5.0.0
+            "us-core-observation-social-history", // v5.0.0
+            "us-core-observation-sdoh-assessment", // v5.0.0
+            "qicore-organization",
+            "qicore-patient",
+            "qicore-practitioner",
+            "qicore-practitionerrole",
+            "qicore-procedure",
+            "qicore-procedurenotdone",
+            "qicore-relatedperson",
+            "qicore-servicerequest",
+            "qicore-servicenotrequested",
+            "qicore-specimen",
+            "qicore-substance",
+            "qicore-task",
+            //"qicore-tasknotdone", // v4.1.1
+            "qicore-taskrejected", // v5.0.0
+            "Questionnaire",
+            //"QuestionnaireResponse", // v4.1.1
+            "qicore-questionnaireresponse" // v5.0.0
+    );
+
     public QICoreClassInfoBuilder(Map<String, StructureDefinition> structureDefinitions) {
         super(new QICoreClassInfoSettings(), structureDefinitions);
     }
 
     @Override
     protected void innerBuild() {
-        this.buildFor("QICore", "qicore-adverseevent");
-        this.buildFor("QICore", "qicore-allergyintolerance");
-        this.buildFor("QICore", "qicore-bodystructure");
-        this.buildFor("QICore", "qicore-claim");
-        this.buildFor("QICore", "qicore-claimresponse");
-        this.buildFor("QICore", "qicore-careplan");
-        this.buildFor("QICore", "qicore-careteam");
-        this.buildFor("QICore", "qicore-communication");
-        this.buildFor("QICore", "qicore-communicationnotdone");
-        this.buildFor("QICore", "qicore-communicationrequest");
-        //this.buildFor("QICore", "qicore-condition"); // v4.1.1
-        this.buildFor("QICore", "qicore-condition-encounter-diagnosis"); // v5.0.0
-        this.buildFor("QICore", "qicore-condition-problems-health-concerns"); // v5.0.0
-        this.buildFor("QICore", "qicore-coverage");
-        this.buildFor("QICore", "qicore-device");
-        this.buildFor("QICore", "qicore-devicenotrequested");
-        this.buildFor("QICore", "qicore-devicerequest");
-        this.buildFor("QICore", "qicore-deviceusestatement");
-        this.buildFor("QICore", "qicore-diagnosticreport-lab");
-        this.buildFor("QICore", "qicore-diagnosticreport-note");
-        this.buildFor("QICore", "qicore-encounter");
-        this.buildFor("QICore", "qicore-familymemberhistory");
-        this.buildFor("QICore", "qicore-flag");
-        this.buildFor("QICore", "qicore-goal");
-        this.buildFor("QICore", "qicore-imagingstudy");
-        this.buildFor("QICore", "qicore-immunization");
-        this.buildFor("QICore", "qicore-immunizationevaluation");
-        this.buildFor("QICore", "qicore-immunizationnotdone");
-        //this.buildFor("QICore", "qicore-immunizationrec"); // v4.1.1
-        this.buildFor("QICore", "qicore-immunizationrecommendation"); // v5.0.0
-        this.buildFor("QICore", "us-core-implantable-device");
-        this.buildFor("QICore", "qicore-location");
-        this.buildFor("QICore", "qicore-medication");
-        this.buildFor("QICore", "qicore-medicationadministration");
-        // this.buildFor("QICore", "qicore-mednotadministered"); // v4.1.1
-        this.buildFor("QICore", "qicore-medicationadministrationnotdone"); // v5.0.0
-        this.buildFor("QICore", "qicore-medicationdispense");
-        //this.buildFor("QICore", "qicore-mednotdispensed");  // v4.1.1
-        this.buildFor("QICore", "qicore-medicationdispensedeclined"); // v5.0.0
-        //this.buildFor("QICore", "qicore-mednotrequested"); // v4.1.1
-        this.buildFor("QICore", "qicore-medicationnotrequested"); // v5.0.0
-        this.buildFor("QICore", "qicore-medicationrequest");
-        this.buildFor("QICore", "qicore-medicationstatement");
-        this.buildFor("QICore", "qicore-observation");
-        //this.buildFor("QICore", "qicore-observationnotdone"); // v4.1.1
-        this.buildFor("QICore", "qicore-observationcancelled"); // v5.0.0
-        //this.buildFor("QICore", "vitalspanel"); // v4.1.1
-        this.buildFor("QICore", "us-core-vital-signs"); // v5.0.0
+        this.buildFor("QICore", PROFILES);
+    }
 
-        //this.buildFor("QICore", "resprate"); // v4.1.1
-        this.buildFor("QICore", "us-core-respiratory-rate"); // v5.0.0
-        //this.buildFor("QICore", "heartrate"); // v4.1.1
-        this.buildFor("QICore", "us-core-heart-rate");
-        this.buildFor("QICore", "head-occipital-frontal-circumference-percentile"); // v5.0.0
-        //this.buildFor("QICore", "oxygensat"); // v4.1.1
-        this.buildFor("QICore", "us-core-oxygen-saturation");
-        //this.buildFor("QICore", "bodytemp"); // v4.1.1
-        this.buildFor("QICore", "us-core-body-temperature");
-        //this.buildFor("QICore", "bodyheight"); // v4.1.1
-        this.buildFor("QICore", "us-core-body-height");
-        //this.buildFor("QICore", "headcircum");
-        this.buildFor("QICore", "us-core-head-circumference"); // v5.0.0
-        //this.buildFor("QICore", "bodyweight"); // v4.1.1
-        this.buildFor("QICore", "us-core-body-weight");
-        //this.buildFor("QICore", "bmi"); // v4.1.1
-        this.buildFor("QICore", "us-core-bmi"); // v5.0.0
-        //this.buildFor("QICore", "bp"); // v4.1.1
-        this.buildFor("QICore", "us-core-blood-pressure"); // v5.0.0
-        this.buildFor("QICore", "us-core-smokingstatus");
-        this.buildFor("QICore", "us-core-pulse-oximetry");
-        //this.buildFor("QICore", "us-core-observation-lab"); // v4.1.1
-        this.buildFor("QICore", "qicore-observation-lab"); // v5.0.0
-        this.buildFor("QICore", "qicore-observation-clinical-test"); // v5.0.0
-        this.buildFor("QICore", "qicore-observation-imaging"); // v5.0.0
-        this.buildFor("QICore", "qicore-observation-survey"); // v5.0.0
-        this.buildFor("QICore", "pediatric-bmi-for-age");
-        this.buildFor("QICore", "pediatric-weight-for-height");
-        this.buildFor("QICore", "us-core-observation-sexual-orientation"); // v5.0.0
-        this.buildFor("QICore", "us-core-observation-social-history"); // v5.0.0
-        this.buildFor("QICore", "us-core-observation-sdoh-assessment"); // v5.0.0
-        this.buildFor("QICore", "qicore-organization");
-        this.buildFor("QICore", "qicore-patient");
-        this.buildFor("QICore", "qicore-practitioner");
-        this.buildFor("QICore", "qicore-practitionerrole");
-        this.buildFor("QICore", "qicore-procedure");
-        this.buildFor("QICore", "qicore-procedurenotdone");
-        this.buildFor("QICore", "qicore-relatedperson");
-        this.buildFor("QICore", "qicore-servicerequest");
-        this.buildFor("QICore", "qicore-servicenotrequested");
-        this.buildFor("QICore", "qicore-specimen");
-        this.buildFor("QICore", "qicore-substance");
-        this.buildFor("QICore", "qicore-task");
-        //this.buildFor("QICore", "qicore-tasknotdone"); // v4.1.1
-        this.buildFor("QICore", "qicore-taskrejected"); // v5.0.0
-        this.buildFor("QICore", "Questionnaire");
-        //this.buildFor("QICore", "QuestionnaireResponse"); // v4.1.1
-        this.buildFor("QICore", "qicore-questionnaireresponse"); // v5.0.0
+    @Override
+    protected ClassInfoBuilder newStepBuilder() {
+        return new QICoreClassInfoBuilder(this.structureDefinitions);
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.modelinfo.quick;
 
 
+import java.util.Arrays;
 import java.util.Map;
 
 import org.hl7.fhir.r4.model.StructureDefinition;
@@ -30,60 +31,67 @@ public class QuickClassInfoBuilder extends ClassInfoBuilder {
         );
         */
 
-        //this.buildFor("QUICK", "Resource");
-        //this.buildFor("QUICK", "DomainResource");
-        this.buildFor("QUICK", "qicore-adverseevent");
-        this.buildFor("QUICK", "qicore-patient");
-        this.buildFor("QUICK", "qicore-allergyintolerance");
-        this.buildFor("QUICK", "qicore-bodystructure");
-        this.buildFor("QUICK", "qicore-claim");
-        this.buildFor("QUICK", "qicore-communication");
-        this.buildFor("QUICK", "qicore-communicationrequest");
-        this.buildFor("QUICK", "qicore-condition");
-        this.buildFor("QUICK", "qicore-coverage");
-        this.buildFor("QUICK", "qicore-device");
-        this.buildFor("QUICK", "qicore-deviceusestatement");
-        this.buildFor("QUICK", "qicore-diagnosticreport-lab");
-        this.buildFor("QUICK", "qicore-diagnosticreport-note");
-        this.buildFor("QUICK", "qicore-encounter");
-        this.buildFor("QUICK", "qicore-familymemberhistory");
-        this.buildFor("QUICK", "qicore-flag");
-        this.buildFor("QUICK", "qicore-goal");
-        this.buildFor("QUICK", "qicore-imagingstudy");
-        this.buildFor("QUICK", "qicore-immunization");
-        this.buildFor("QUICK", "qicore-immunizationrec");
-        this.buildFor("QUICK", "qicore-location");
-        this.buildFor("QUICK", "qicore-medication");
-        this.buildFor("QUICK", "qicore-medicationadministration");
-        this.buildFor("QUICK", "qicore-medicationdispense");
-        this.buildFor("QUICK", "qicore-medicationrequest");
-        this.buildFor("QUICK", "qicore-medicationstatement");
-        this.buildFor("QUICK", "qicore-observation");
-        this.buildFor("QUICK", "vitalspanel");
-        this.buildFor("QUICK", "resprate");
-        this.buildFor("QUICK", "heartrate");
-        this.buildFor("QUICK", "oxygensat");
-        this.buildFor("QUICK", "bodytemp");
-        this.buildFor("QUICK", "bodyheight");
-        this.buildFor("QUICK", "headcircum");
-        this.buildFor("QUICK", "bodyweight");
-        this.buildFor("QUICK", "bmi");
-        this.buildFor("QUICK", "bp");
-        this.buildFor("QUICK", "us-core-smokingstatus");
-        this.buildFor("QUICK", "us-core-observation-lab");
-        this.buildFor("QUICK", "pediatric-bmi-for-age");
-        this.buildFor("QUICK", "pediatric-weight-for-height");
-        this.buildFor("QUICK", "qicore-organization");
-        this.buildFor("QUICK", "qicore-patient");
-        this.buildFor("QUICK", "qicore-practitioner");
-        this.buildFor("QUICK", "qicore-practitionerrole");
-        this.buildFor("QUICK", "qicore-procedure");
-        this.buildFor("QUICK", "qicore-relatedperson");
-        this.buildFor("QUICK", "qicore-servicerequest");
-        this.buildFor("QUICK", "qicore-specimen");
-        this.buildFor("QUICK", "qicore-substance");
-        this.buildFor("QUICK", "qicore-task");
-        this.buildFor("QUICK", "Questionnaire");
-        this.buildFor("QUICK", "QuestionnaireResponse");
+        this.buildFor("QUICK", Arrays.asList(
+                //"Resource",
+                //"DomainResource",
+                "qicore-adverseevent",
+                "qicore-patient",
+                "qicore-allergyintolerance",
+                "qicore-bodystructure",
+                "qicore-claim",
+                "qicore-communication",
+                "qicore-communicationrequest",
+                "qicore-condition",
+                "qicore-coverage",
+                "qicore-device",
+                "qicore-deviceusestatement",
+                "qicore-diagnosticreport-lab",
+                "qicore-diagnosticreport-note",
+                "qicore-encounter",
+                "qicore-familymemberhistory",
+                "qicore-flag",
+                "qicore-goal",
+                "qicore-imagingstudy",
+                "qicore-immunization",
+                "qicore-immunizationrec",
+                "qicore-location",
+                "qicore-medication",
+                "qicore-medicationadministration",
+                "qicore-medicationdispense",
+                "qicore-medicationrequest",
+                "qicore-medicationstatement",
+                "qicore-observation",
+                "vitalspanel",
+                "resprate",
+                "heartrate",
+                "oxygensat",
+                "bodytemp",
+                "bodyheight",
+                "headcircum",
+                "bodyweight",
+                "bmi",
+                "bp",
+                "us-core-smokingstatus",
+                "us-core-observation-lab",
+                "pediatric-bmi-for-age",
+                "pediatric-weight-for-height",
+                "qicore-organization",
+                "qicore-patient",
+                "qicore-practitioner",
+                "qicore-practitionerrole",
+                "qicore-procedure",
+                "qicore-relatedperson",
+                "qicore-servicerequest",
+                "qicore-specimen",
+                "qicore-substance",
+                "qicore-task",
+                "Questionnaire",
+                "QuestionnaireResponse"
+        ));
+    }
+
+    @Override
+    protected ClassInfoBuilder newStepBuilder() {
+        return new QuickClassInfoBuilder(this.structureDefinitions);
     }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package org.opencds.cqf.tooling.modelinfo.uscore;
 
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.hl7.elm_modelinfo.r1.TypeSpecifier;
@@ -9,47 +11,59 @@ import org.opencds.cqf.tooling.modelinfo.ClassInfoBuilder;
 
 public class USCoreClassInfoBuilder extends ClassInfoBuilder {
 
+    /**
+     * The ids of the US Core profiles that ClassInfos are built for
+     */
+    public static final List<String> PROFILES = Arrays.asList(
+            "us-core-patient",
+            "us-core-allergyintolerance",
+            "us-core-careplan",
+            "us-core-careteam",
+            "us-core-condition",
+            "us-core-diagnosticreport-lab",
+            "us-core-diagnosticreport-note",
+            "us-core-documentreference",
+            "us-core-encounter",
+            "us-core-goal",
+            "us-core-immunization",
+            "us-core-implantable-device",
+            "us-core-observation-lab",
+            "us-core-location",
+            "us-core-medication",
+            "us-core-medicationrequest",
+            "us-core-organization",
+            "vitalspanel",
+            "resprate",
+            "heartrate",
+            "oxygensat",
+            "bodytemp",
+            "bodyheight",
+            "headcircum",
+            "bodyweight",
+            "bmi",
+            "bp",
+            "us-core-smokingstatus",
+            "us-core-pulse-oximetry",
+            "pediatric-bmi-for-age",
+            "pediatric-weight-for-height",
+            "us-core-practitioner",
+            "us-core-practitionerrole",
+            "us-core-procedure",
+            "us-core-provenance"
+    );
+
     public USCoreClassInfoBuilder(Map<String, StructureDefinition> structureDefinitions) {
         super(new USCoreClassInfoSettings(), structureDefinitions);
     }
 
     @Override
     protected void innerBuild() {
-        this.buildFor("USCore", "us-core-patient");
-        this.buildFor("USCore", "us-core-allergyintolerance");
-        this.buildFor("USCore", "us-core-careplan");
-        this.buildFor("USCore", "us-core-careteam");
-        this.buildFor("USCore", "us-core-condition");
-        this.buildFor("USCore", "us-core-diagnosticreport-lab");
-        this.buildFor("USCore", "us-core-diagnosticreport-note");
-        this.buildFor("USCore", "us-core-documentreference");
-        this.buildFor("USCore", "us-core-encounter");
-        this.buildFor("USCore", "us-core-goal");
-        this.buildFor("USCore", "us-core-immunization");
-        this.buildFor("USCore", "us-core-implantable-device");
-        this.buildFor("USCore", "us-core-observation-lab");
-        this.buildFor("USCore", "us-core-location");
-        this.buildFor("USCore", "us-core-medication");
-        this.buildFor("USCore", "us-core-medicationrequest");
-        this.buildFor("USCore", "us-core-organization");
-        this.buildFor("USCore", "vitalspanel");
-        this.buildFor("USCore", "resprate");
-        this.buildFor("USCore", "heartrate");
-        this.buildFor("USCore", "oxygensat");
-        this.buildFor("USCore", "bodytemp");
-        this.buildFor("USCore", "bodyheight");
-        this.buildFor("USCore", "headcircum");
-        this.buildFor("USCore", "bodyweight");
-        this.buildFor("USCore", "bmi");
-        this.buildFor("USCore", "bp");
-        this.buildFor("USCore", "us-core-smokingstatus");
-        this.buildFor("USCore", "us-core-pulse-oximetry");
-        this.buildFor("USCore", "pediatric-bmi-for-age");
-        this.buildFor("USCore", "pediatric-weight-for-height");
-        this.buildFor("USCore", "us-core-practitioner");
-        this.buildFor("USCore", "us-core-practitionerrole");
-        this.buildFor("USCore", "us-core-procedure");
-        this.buildFor("USCore", "us-core-provenance");
+        this.buildFor("USCore", PROFILES);
+    }
+
+    @Override
+    protected ClassInfoBuilder newStepBuilder() {
+        return new USCoreClassInfoBuilder(this.structureDefinitions);
     }
 
     @Override
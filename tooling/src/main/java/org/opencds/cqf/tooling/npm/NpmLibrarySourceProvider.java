@@ -3,12 +3,12 @@ package org.opencds.cqf.tooling.npm;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 
 import org.cqframework.cql.cql2elm.LibrarySourceProvider;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.fhir.r5.context.IWorkerContext;
-import org.hl7.fhir.r5.model.Library;
 import org.hl7.fhir.utilities.npm.NpmPackage;
 
 /**
@@ -17,12 +17,16 @@ import org.hl7.fhir.utilities.npm.NpmPackage;
 public class NpmLibrarySourceProvider implements LibrarySourceProvider {
 
     public NpmLibrarySourceProvider(List<NpmPackage> packages, ILibraryReader reader, IWorkerContext.ILoggingService logger) {
-        this.packages = packages;
+        this(new NpmPackageIndex(packages), reader, logger);
+    }
+
+    public NpmLibrarySourceProvider(NpmPackageIndex index, ILibraryReader reader, IWorkerContext.ILoggingService logger) {
+        this.index = index;
         this.reader = reader;
         this.logger = logger;
     }
 
-    private List<NpmPackage> packages;
+    private NpmPackageIndex index;
     private ILibraryReader reader;
     private IWorkerContext.ILoggingService logger;
 
@@ -32,28 +36,29 @@ public class NpmLibrarySourceProvider implements LibrarySourceProvider {
         // VersionedIdentifier.system: Namespace for the library, as a URL
         // VersionedIdentifier.version: Version of the library
 
-        for (NpmPackage p : packages) {
-            try {
-                VersionedIdentifier libraryIdentifier = new VersionedIdentifier()
-                        .withId(identifier.getId())
-                        .withVersion(identifier.getVersion())
-                        .withSystem(identifier.getSystem());
+        if (identifier.getSystem() != null) {
+            return getLibrarySource(identifier, index.resolve(identifier.getSystem() + "/Library/" + identifier.getId(), identifier.getVersion()));
+        }
 
-                if (libraryIdentifier.getSystem() == null) {
-                    libraryIdentifier.setSystem(p.canonical());
-                }
+        // without a namespace, the library is looked up in the canonical of each package
+        for (NpmPackage p : index.getPackages()) {
+            NpmPackageIndex.Entry entry = index.resolve(p, p.canonical() + "/Library/" + identifier.getId(), identifier.getVersion());
+            InputStream source = entry == null ? null : getLibrarySource(identifier, Collections.singletonList(entry));
+            if (source != null) {
+                identifier.setSystem(p.canonical());
+                return source;
+            }
+        }
+
+        return null;
+    }
 
-                InputStream s = p.loadByCanonicalVersion(libraryIdentifier.getSystem()+"/Library/"+libraryIdentifier.getId(), libraryIdentifier.getVersion());
-                if (s != null) {
-                    Library l = reader.readLibrary(s);
-                    for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
-                        if (a.getContentType() != null && a.getContentType().equals("text/cql")) {
-                            if (identifier.getSystem() == null) {
-                                identifier.setSystem(libraryIdentifier.getSystem());
-                            }
-                            return new ByteArrayInputStream(a.getData());
-                        }
-                    }
+    private InputStream getLibrarySource(VersionedIdentifier identifier, List<NpmPackageIndex.Entry> entries) {
+        for (NpmPackageIndex.Entry entry : entries) {
+            try {
+                byte[] content = entry.getLibraryContent("text/cql", reader);
+                if (content != null) {
+                    return new ByteArrayInputStream(content);
                 }
             } catch (IOException e) {
                 logger.logDebugMessage(IWorkerContext.ILoggingService.LogCategory.PROGRESS, String.format("Exceptions occurred attempting to load npm library source for %s", identifier.toString()));
@@ -63,4 +68,3 @@ public class NpmLibrarySourceProvider implements LibrarySourceProvider {
         return null;
     }
 }
-
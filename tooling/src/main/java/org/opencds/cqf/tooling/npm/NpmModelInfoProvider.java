@@ -3,16 +3,15 @@ package org.opencds.cqf.tooling.npm;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.bind.JAXB;
 
 import org.hl7.cql.model.ModelIdentifier;
 import org.hl7.cql.model.ModelInfoProvider;
-import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 import org.hl7.fhir.r5.context.IWorkerContext;
-import org.hl7.fhir.r5.model.Library;
 import org.hl7.fhir.utilities.npm.NpmPackage;
 
 /**
@@ -21,12 +20,16 @@ import org.hl7.fhir.utilities.npm.NpmPackage;
 public class NpmModelInfoProvider implements ModelInfoProvider {
 
     public NpmModelInfoProvider(List<NpmPackage> packages, ILibraryReader reader, IWorkerContext.ILoggingService logger) {
-        this.packages = packages;
+        this(new NpmPackageIndex(packages), reader, logger);
+    }
+
+    public NpmModelInfoProvider(NpmPackageIndex index, ILibraryReader reader, IWorkerContext.ILoggingService logger) {
+        this.index = index;
         this.reader = reader;
         this.logger = logger;
     }
 
-    private List<NpmPackage> packages;
+    private NpmPackageIndex index;
     private ILibraryReader reader;
     private IWorkerContext.ILoggingService logger;
 
@@ -34,29 +37,31 @@ public class NpmModelInfoProvider implements ModelInfoProvider {
         // VersionedIdentifier.id: Name of the model
         // VersionedIdentifier.system: Namespace for the model, as a URL
         // VersionedIdentifier.version: Version of the model
-        for (NpmPackage p : packages) {
-            try {
-                VersionedIdentifier identifier = new VersionedIdentifier()
-                        .withId(modelIdentifier.getId())
-                        .withVersion(modelIdentifier.getVersion())
-                        .withSystem(modelIdentifier.getSystem());
 
-                if (identifier.getSystem() == null) {
-                    identifier.setSystem(p.canonical());
-                }
+        if (modelIdentifier.getSystem() != null) {
+            return load(modelIdentifier, index.resolve(modelIdentifier.getSystem() + "/Library/" + modelIdentifier.getId() + "-ModelInfo", modelIdentifier.getVersion()));
+        }
 
-                InputStream s = p.loadByCanonicalVersion(identifier.getSystem()+"/Library/"+identifier.getId()+"-ModelInfo", identifier.getVersion());
-                if (s != null) {
-                    Library l = reader.readLibrary(s);
-                    for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
-                        if (a.getContentType() != null && a.getContentType().equals("application/xml")) {
-                            if (modelIdentifier.getSystem() == null) {
-                                modelIdentifier.setSystem(identifier.getSystem());
-                            }
-                            InputStream is = new ByteArrayInputStream(a.getData());
-                            return JAXB.unmarshal(is, ModelInfo.class);
-                        }
-                    }
+        // without a namespace, the model info is looked up in the canonical of each package
+        for (NpmPackage p : index.getPackages()) {
+            NpmPackageIndex.Entry entry = index.resolve(p, p.canonical() + "/Library/" + modelIdentifier.getId() + "-ModelInfo", modelIdentifier.getVersion());
+            ModelInfo modelInfo = entry == null ? null : load(modelIdentifier, Collections.singletonList(entry));
+            if (modelInfo != null) {
+                modelIdentifier.setSystem(p.canonical());
+                return modelInfo;
+            }
+        }
+
+        return null;
+    }
+
+    private ModelInfo load(ModelIdentifier modelIdentifier, List<NpmPackageIndex.Entry> entries) {
+        for (NpmPackageIndex.Entry entry : entries) {
+            try {
+                byte[] content = entry.getLibraryContent("application/xml", reader);
+                if (content != null) {
+                    InputStream is = new ByteArrayInputStream(content);
+                    return JAXB.unmarshal(is, ModelInfo.class);
                 }
             } catch (IOException e) {
                 logger.logDebugMessage(IWorkerContext.ILoggingService.LogCategory.PROGRESS, String.format("Exceptions occurred attempting to load npm library for model %s", modelIdentifier.toString()));
@@ -66,4 +71,3 @@ public class NpmModelInfoProvider implements ModelInfoProvider {
         return null;
     }
 }
-
@@ -0,0 +1,198 @@
+package org.opencds.cqf.tooling.npm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r5.model.Library;
+import org.hl7.fhir.utilities.json.JSONUtil;
+import org.hl7.fhir.utilities.json.JsonTrackingParser;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A single index of the canonical resources of a list of Npm packages, built once, that maps canonical url and
+ * canonical url|version to the resources of every package, so that resolving a resource by canonical url and version
+ * is a map lookup rather than a scan of every package. Each resource entry caches the Library attachments decoded from
+ * it, so that each Library is read (and converted to R5) at most once.
+ *
+ * Lookups follow NpmPackage.loadByCanonicalVersion: a resource is resolved from the "package" folder of a package,
+ * by exact url and version, or by url alone (the first entry of the package index) when no version is given.
+ * Packages without a readable .index.json fall back to NpmPackage.loadByCanonicalVersion.
+ */
+public class NpmPackageIndex {
+
+    private static final String PACKAGE_FOLDER = "package";
+    private static final String INDEX_FILE = ".index.json";
+
+    private final List<NpmPackage> packages;
+    // canonical url -> entries and canonical url|version -> entries, in package order
+    private final Map<String, List<Entry>> entries = new HashMap<>();
+    // packages without a readable index -> entries looked up in them by canonical url|version
+    private final Map<NpmPackage, Map<String, Entry>> unindexed = new IdentityHashMap<>();
+
+    public NpmPackageIndex(List<NpmPackage> packages) {
+        this.packages = packages;
+        for (NpmPackage p : packages) {
+            if (!index(p)) {
+                unindexed.put(p, new ConcurrentHashMap<>());
+            }
+        }
+    }
+
+    /**
+     * @return the indexed packages, in resolution order
+     */
+    public List<NpmPackage> getPackages() {
+        return packages;
+    }
+
+    /**
+     * Returns the entries of the resource with the given canonical url and version, in package order, one for each
+     * package that has it. Equivalent to calling p.loadByCanonicalVersion(url, version) for each package.
+     */
+    public List<Entry> resolve(String url, String version) {
+        List<Entry> indexed = entries.getOrDefault(key(url, version), Collections.emptyList());
+        if (unindexed.isEmpty()) {
+            return indexed;
+        }
+
+        List<Entry> resolved = new ArrayList<>();
+        int i = 0;
+        for (NpmPackage p : packages) {
+            if (unindexed.containsKey(p)) {
+                resolved.add(unindexedEntry(p, url, version));
+            }
+            else {
+                while (i < indexed.size() && indexed.get(i).npmPackage == p) {
+                    resolved.add(indexed.get(i++));
+                }
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns the entry of the resource with the given canonical url and version in the given package, or null if
+     * the package does not have it. Equivalent to p.loadByCanonicalVersion(url, version).
+     */
+    public Entry resolve(NpmPackage p, String url, String version) {
+        if (unindexed.containsKey(p)) {
+            return unindexedEntry(p, url, version);
+        }
+        for (Entry entry : entries.getOrDefault(key(url, version), Collections.emptyList())) {
+            if (entry.npmPackage == p) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Entry unindexedEntry(NpmPackage p, String url, String version) {
+        return unindexed.get(p).computeIfAbsent(key(url, version), k -> new Entry(p, null, url, version));
+    }
+
+    private boolean index(NpmPackage p) {
+        NpmPackage.NpmPackageFolder folder = p.getFolders().get(PACKAGE_FOLDER);
+        // canonical url -> entry and canonical url|version -> entry, the first entry of the package index for each
+        Map<String, Entry> packageEntries = new HashMap<>();
+        try {
+            byte[] index = folder == null ? null : folder.fetchFile(INDEX_FILE);
+            if (index == null) {
+                return false;
+            }
+            Map<String, Entry> byFilename = new HashMap<>();
+            for (JsonElement element : JsonTrackingParser.parseJson(index).getAsJsonArray("files")) {
+                JsonObject file = element.getAsJsonObject();
+                String url = JSONUtil.str(file, "url");
+                String version = JSONUtil.str(file, "version");
+                String filename = JSONUtil.str(file, "filename");
+                if (url == null || filename == null) {
+                    continue;
+                }
+                Entry entry = byFilename.computeIfAbsent(filename, f -> new Entry(p, f, url, version));
+                packageEntries.putIfAbsent(url, entry);
+                if (version != null) {
+                    packageEntries.putIfAbsent(key(url, version), entry);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // fall back to the package's own lookup
+            return false;
+        }
+
+        packageEntries.forEach((key, entry) -> entries.computeIfAbsent(key, k -> new ArrayList<>()).add(entry));
+        return true;
+    }
+
+    private static String key(String url, String version) {
+        return version == null ? url : url + "|" + version;
+    }
+
+    /**
+     * A resource of an indexed package, or a canonical url and version to look up in a package without an index.
+     */
+    public static class Entry {
+        private final NpmPackage npmPackage;
+        private final String filename;
+        private final String url;
+        private final String version;
+        // content type -> attachment data
+        private final Map<String, Optional<byte[]>> contents = new ConcurrentHashMap<>();
+
+        private Entry(NpmPackage npmPackage, String filename, String url, String version) {
+            this.npmPackage = npmPackage;
+            this.filename = filename;
+            this.url = url;
+            this.version = version;
+        }
+
+        public NpmPackage getPackage() {
+            return npmPackage;
+        }
+
+        /**
+         * @return the resource, or null if a package without an index does not have it
+         */
+        public InputStream load() throws IOException {
+            return filename == null ? npmPackage.loadByCanonicalVersion(url, version) : npmPackage.load(PACKAGE_FOLDER, filename);
+        }
+
+        /**
+         * Returns the data of the first attachment with the given content type of the Library, or null if there is no
+         * such Library or attachment. The result is cached for the lifetime of the index.
+         */
+        public byte[] getLibraryContent(String contentType, ILibraryReader reader) throws IOException {
+            Optional<byte[]> content = contents.get(contentType);
+            if (content == null) {
+                content = Optional.ofNullable(readLibraryContent(contentType, reader));
+                contents.putIfAbsent(contentType, content);
+            }
+            return content.orElse(null);
+        }
+
+        private byte[] readLibraryContent(String contentType, ILibraryReader reader) throws IOException {
+            InputStream s = load();
+            if (s == null) {
+                return null;
+            }
+            Library l = reader.readLibrary(s);
+            for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
+                if (a.getContentType() != null && a.getContentType().equals(contentType)) {
+                    return a.getData();
+                }
+            }
+            return null;
+        }
+    }
+}
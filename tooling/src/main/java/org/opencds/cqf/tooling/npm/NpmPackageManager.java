@@ -7,6 +7,9 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import org.hl7.fhir.convertors.advisors.impl.BaseAdvisor_40_50;
 import org.hl7.fhir.convertors.conv40_50.VersionConvertor_40_50;
@@ -21,6 +24,7 @@ import org.hl7.fhir.utilities.npm.FilesystemPackageCacheManager;
 import org.hl7.fhir.utilities.npm.NpmPackage;
 import org.hl7.fhir.utilities.npm.ToolsVersion;
 import org.opencds.cqf.tooling.exception.NpmPackageManagerException;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +35,8 @@ public class NpmPackageManager {
 
     private static final Logger logger = LoggerFactory.getLogger(NpmPackageManager.class);
 
+    private static final Map<String, PackageLock> packageLocks = new ConcurrentHashMap<>();
+
     private FilesystemPackageCacheManager pcm;
     private List<NpmPackage> npmList = new ArrayList<>();
 
@@ -38,6 +44,15 @@ public class NpmPackageManager {
         return npmList;
     }
 
+    private NpmPackageIndex npmPackageIndex;
+
+    /**
+     * @return an index of the canonical resources of the loaded packages, built once loading has finished
+     */
+    public NpmPackageIndex getNpmPackageIndex() {
+        return npmPackageIndex;
+    }
+
     private String version; // FHIR version as a string, e.g. 4.0.1
 
     public String getVersion() {
@@ -69,7 +84,26 @@ public class NpmPackageManager {
                 (ImplementationGuide) versionConvertor_40_50.convertResource(FormatUtilities.loadFile(is)), version);
     }
 
+    /*
+     * Loads the core package of the FHIR version and the packages of the dependsOn entries of the IG. The
+     * dependencies of those packages are not loaded, so an IG lists every package its content is resolved from.
+     */
     public NpmPackageManager(ImplementationGuide sourceIg, String version) {
+        this(sourceIg, version, 1);
+    }
+
+    /*
+     * @param threadCount The maximum number of packages loaded concurrently, 1 to load them one at a time
+     */
+    public NpmPackageManager(ImplementationGuide sourceIg, String version, int threadCount) {
+        this(sourceIg, version, null, threadCount);
+    }
+
+    /*
+     * @param pcm The package cache to load packages from, or null to use the package cache in the user home
+     * @param threadCount The maximum number of packages loaded concurrently
+     */
+    NpmPackageManager(ImplementationGuide sourceIg, String version, FilesystemPackageCacheManager pcm, int threadCount) {
         if (version == null || version.equals("")) {
             throw new IllegalArgumentException("version is required");
         }
@@ -82,44 +116,63 @@ public class NpmPackageManager {
 
         this.sourceIg = sourceIg;
 
-        try {
-            // userMode indicates whether the packageCache is within the working directory
-            // or in the user home
-            pcm = new FilesystemPackageCacheManager(true, ToolsVersion.TOOLS_VERSION);
-        } catch (IOException e) {
-            throw new NpmPackageManagerException("error creating the FilesystemPackageCacheManager", e);
+        if (pcm == null) {
+            try {
+                // userMode indicates whether the packageCache is within the working directory
+                // or in the user home
+                pcm = new FilesystemPackageCacheManager(true, ToolsVersion.TOOLS_VERSION);
+            } catch (IOException e) {
+                throw new NpmPackageManagerException("error creating the FilesystemPackageCacheManager", e);
+            }
         }
-
-        loadCorePackage();
-
+        this.pcm = pcm;
+
+        // Resolve the core package and every dependency of the IG up front, so that problems with the IG are reported
+        // before anything is loaded. Only the packages the IG declares are loaded, not their own dependencies, so each
+        // package is loaded on its own and they may be loaded concurrently. They are added to the list in the order
+        // they are declared, with the core package first.
+        List<Supplier<NpmPackage>> loaders = new ArrayList<>();
+        loaders.add(resolveCorePackage());
         int i = 0;
         for (ImplementationGuide.ImplementationGuideDependsOnComponent dep : sourceIg.getDependsOn()) {
             try {
-                loadIg(dep, i);
+                loaders.add(resolveIg(dep, i));
                 i++;
             }
             catch(IOException e) {
                 throw new NpmPackageManagerException(String.format("Error loading IG dependency %s", dep.getId()), e);
             }
         }
-    }
 
-    private void loadCorePackage() {
-        NpmPackage pi = null;
+        ThreadUtils.forEachOrdered(loaders, Math.min(threadCount, loaders.size()), Supplier::get, npmList::add);
+
+        npmPackageIndex = new NpmPackageIndex(npmList);
+    }
 
+    private Supplier<NpmPackage> resolveCorePackage() {
         String v = version.equals(Constants.VERSION) ? "current" : version;
+        if (v.equals("current")) {
+            throw new IllegalArgumentException("Current core package not supported");
+        }
+
+        String packageId = VersionUtilities.packageForVersion(v);
+        return () -> withPackageLock(packageId, v, () -> loadCorePackage(packageId, v));
+    }
 
-        logger.info("Core Package {}#{}", VersionUtilities.packageForVersion(v), v);
+    private NpmPackage loadCorePackage(String packageId, String v) {
+        NpmPackage pi = null;
+
+        logger.info("Core Package {}#{}", packageId, v);
         try {
-            pi = pcm.loadPackage(VersionUtilities.packageForVersion(v), v);
+            pi = pcm.loadPackage(packageId, v);
         } catch (Exception e) {
             try {
-                logger.warn(String.format("First attempt at loading Core Package %s#%s failed", VersionUtilities.packageForVersion(v), v), e);
+                logger.warn(String.format("First attempt at loading Core Package %s#%s failed", packageId, v), e);
                 // Appears to be race condition in FHIR core where they are
                 // loading a custom cert provider.
-                pi = pcm.loadPackage(VersionUtilities.packageForVersion(v), v);
+                pi = pcm.loadPackage(packageId, v);
             } catch (Exception ex) {
-                logger.error(String.format("Second attempt at loading Core Package %s#%s failed", VersionUtilities.packageForVersion(v), v), ex);
+                logger.error(String.format("Second attempt at loading Core Package %s#%s failed", packageId, v), ex);
                 throw new NpmPackageManagerException("Error loading core package", ex);
             }
         }
@@ -127,13 +180,10 @@ public class NpmPackageManager {
         if (pi == null) {
             throw new NpmPackageManagerException("Could not load core package");
         }
-        if (v.equals("current")) {
-            throw new IllegalArgumentException("Current core package not supported");
-        }
-        npmList.add(pi);
+        return pi;
     }
 
-    private void loadIg(ImplementationGuide.ImplementationGuideDependsOnComponent dep, int index) throws IOException {
+    private Supplier<NpmPackage> resolveIg(ImplementationGuide.ImplementationGuideDependsOnComponent dep, int index) throws IOException {
         String name = dep.getId();
         if (!dep.hasId()) {
             logger.info("Dependency '{}' has no id, so can't be referred to in markdown in the IG", idForDep(dep));
@@ -156,9 +206,22 @@ public class NpmPackageManager {
             throw new IllegalArgumentException(
                     "You must specify a version for the IG " + packageId + " (" + canonical + ")");
 
+        String igName = name;
+        String igCanonical = canonical;
+        String igPackageId = packageId;
+        return () -> withPackageLock(igPackageId == null ? igCanonical : igPackageId, igver, () -> {
+            try {
+                return loadIg(dep, igName, igCanonical, igPackageId, igver);
+            }
+            catch(IOException e) {
+                throw new NpmPackageManagerException(String.format("Error loading IG dependency %s", dep.getId()), e);
+            }
+        });
+    }
+
+    private NpmPackage loadIg(ImplementationGuide.ImplementationGuideDependsOnComponent dep, String name, String canonical,
+            String packageId, String igver) throws IOException {
         NpmPackage pi = packageId == null ? null : pcm.loadPackageFromCacheOnly(packageId, igver);
-        if (pi != null)
-            npmList.add(pi);
         if (pi == null) {
             pi = resolveDependency(canonical, packageId, igver);
             if (pi == null) {
@@ -179,6 +242,36 @@ public class NpmPackageManager {
                 logger.warn("The correct canonical URL for this dependency is " + cu);
             }
         }
+
+        return pi;
+    }
+
+    /*
+     * The package cache is shared by every package manager in the process (and by other processes). Loading a
+     * package that is not yet cached downloads and extracts it into the cache, and the cache's own file lock cannot
+     * be taken twice within one process, so loads of the same package are serialized. Loads of different packages
+     * proceed concurrently. A lock is removed once no load holds or waits for it.
+     */
+    private static NpmPackage withPackageLock(String packageId, String version, Supplier<NpmPackage> load) {
+        String key = packageId + "#" + version;
+        PackageLock lock = packageLocks.compute(key, (k, l) -> {
+            PackageLock packageLock = l == null ? new PackageLock() : l;
+            packageLock.users++;
+            return packageLock;
+        });
+        try {
+            synchronized (lock) {
+                return load.get();
+            }
+        }
+        finally {
+            packageLocks.computeIfPresent(key, (k, l) -> --l.users == 0 ? null : l);
+        }
+    }
+
+    // only read and updated within the compute functions of packageLocks
+    private static class PackageLock {
+        private int users;
     }
 
     private String determineCanonical(String url, String path) throws FHIRException {
@@ -1,20 +1,32 @@
 package org.opencds.cqf.tooling.operation;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.io.FileUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.Operation;
 import org.opencds.cqf.tooling.utilities.BundleUtils;
 import org.opencds.cqf.tooling.utilities.LogUtils;
+import org.opencds.cqf.tooling.utilities.Metrics;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import ca.uhn.fhir.context.FhirContext;
 
@@ -25,20 +37,29 @@ public class ExtractMatBundleOperation extends Operation {
 	private FhirContext context;
 	private String encoding;
 	private boolean suppressNarrative = true;
-	
+	private boolean extractElm = false;
+	private boolean stream = false;
+	private int threads = ThreadUtils.getDefaultThreadCount();
+
+	private String outputDir;
+	private Path newLibraryDirectory;
+	private Path newCqlDirectory;
+	private Path newElmDirectory;
+	private Path newMeasureDirectory;
+
 	@Override
 	public void execute(String[] args) {
 
 		for (int i = 0; i < args.length;i++) {
 			if(i == 0 && args[i].equalsIgnoreCase("-ExtractMatBundle")){
 				continue;		//
-			} 
+			}
 			if(i == 1){
 				inputFile = args[i];
-                                inputFile = inputFile.replace("%20", " "); // TODO: use URI instead?
 				if (inputFile == null) {
 					throw new IllegalArgumentException("The path to a bundle file is required");
 				}
+				inputFile = inputFile.replace("%20", " "); // TODO: use URI instead?
 				continue;
 			}
 
@@ -54,12 +75,24 @@ public class ExtractMatBundleOperation extends Operation {
 				case "e":
 					encoding = value.toLowerCase();
 					break;
-				case "supressNarrative":
+				case "supressnarrative":
+				case "suppressnarrative":
 				case "sn":
 					if(value.equalsIgnoreCase("false")) {
 						suppressNarrative = false;
 					}
 					break;
+				case "elm":
+					extractElm = Boolean.parseBoolean(value);
+					break; // -elm
+				case "stream":
+				case "s":
+					stream = Boolean.parseBoolean(value);
+					break; // -stream (-s)
+				case "threads":
+				case "t":
+					threads = Integer.parseInt(value);
+					break; // -threads (-t)
 				case "outputpath":
 				case "op":
 					setOutputPath(value);
@@ -74,194 +107,306 @@ public class ExtractMatBundleOperation extends Operation {
 		LogUtils.info(String.format("Extracting MAT bundle from %s", inputFile));
 
 		// Open the file to validate it
-        File bundleFile = new File(inputFile);
-        if (bundleFile.isDirectory()) {
-        	throw new IllegalArgumentException("The path to a bundle file is required");
-        }
-        
-        // Set the FhirContext based on the version specified
-        if (version == null) {
-            context = FhirContext.forR4Cached();
-        }
-        else {
-            switch (version.toLowerCase()) {
-                case "stu3":
-                    context = FhirContext.forDstu3Cached();
-                    break;
-                case "r4":
-                    context = FhirContext.forR4Cached();
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unknown fhir version: " + version);
-            }
-        }
-        
-        // Read in the Bundle
-        IBaseResource bundle;
-        if (bundleFile.getPath().endsWith(".xml")) {
-        	encoding = "xml";
-            try {
-                bundle = context.newXmlParser().parseResource(new FileReader(bundleFile));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-                throw new RuntimeException(e.getMessage());
-            }
-        }
-        else if (bundleFile.getPath().endsWith(".json")) {
-        	encoding = "json";
-            try {
-                bundle = context.newJsonParser().parseResource(new FileReader(bundleFile));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-                throw new RuntimeException(e.getMessage());
-            }
-        }
-        else {
-        	throw new IllegalArgumentException("The path to a bundle file of type json or xml is required");
-        }
-        
-        // Now call the Bundle utilities to extract the bundle
-        String outputDir = bundleFile.getAbsoluteFile().getParent();
-        if (version == "stu3") {
-        	BundleUtils.extractStu3Resources((org.hl7.fhir.dstu3.model.Bundle)bundle, encoding, outputDir, suppressNarrative);
-        } else if (version == "r4") {
-        	BundleUtils.extractR4Resources((org.hl7.fhir.r4.model.Bundle)bundle, encoding, outputDir, suppressNarrative);
-        }
-        
-        // Now move and properly rename the files
-        moveAndRenameFiles(outputDir);
-
-
-        LogUtils.info("Extraction completed successfully");
+		File bundleFile = new File(inputFile);
+		if (bundleFile.isDirectory()) {
+			throw new IllegalArgumentException("The path to a bundle file is required");
+		}
+
+		// Set the FhirContext based on the version specified
+		if (version == null) {
+			context = FhirContext.forR4Cached();
+		}
+		else {
+			switch (version.toLowerCase()) {
+				case "stu3":
+					context = FhirContext.forDstu3Cached();
+					break;
+				case "r4":
+					context = FhirContext.forR4Cached();
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown fhir version: " + version);
+			}
+		}
+
+		if (bundleFile.getPath().endsWith(".xml")) {
+			encoding = "xml";
+		}
+		else if (bundleFile.getPath().endsWith(".json")) {
+			encoding = "json";
+		}
+		else {
+			throw new IllegalArgumentException("The path to a bundle file of type json or xml is required");
+		}
+		if (stream && !encoding.equals("json")) {
+			throw new IllegalArgumentException("Streaming extraction requires a bundle file of type json");
+		}
+
+		// The extracted resources are written next to the bundle, and the Libraries, Measures and CQL are written,
+		// named by the Library or Measure name, to the input directory that is a sibling of the bundles directory
+		outputDir = bundleFile.getAbsoluteFile().getParent();
+		int bundlesIndex = outputDir.indexOf("bundles");
+		if (bundlesIndex < 0) {
+			throw new IllegalArgumentException("The bundle file is expected to be in a bundles directory: " + inputFile);
+		}
+		Path newOutputDirectory = Paths.get(outputDir.substring(0, bundlesIndex), "input");
+		newLibraryDirectory = Paths.get(newOutputDirectory.toString(), "resources/library");
+		newLibraryDirectory.toFile().mkdirs();
+		newCqlDirectory = Paths.get(newOutputDirectory.toString(), "cql");
+		newCqlDirectory.toFile().mkdirs();
+		newMeasureDirectory = Paths.get(newOutputDirectory.toString(), "resources/measure");
+		newMeasureDirectory.toFile().mkdirs();
+		if (extractElm) {
+			newElmDirectory = Paths.get(newOutputDirectory.toString(), "elm");
+			newElmDirectory.toFile().mkdirs();
+		}
+
+		// Extract each entry of the bundle in a single pass, writing the entries concurrently
+		if (stream) {
+			extractStreamedEntries(bundleFile);
+		}
+		else {
+			ThreadUtils.forEach(readEntries(bundleFile), threads, this::extractResource);
+		}
+
+		LogUtils.info("Extraction completed successfully");
 	}
-	
+
+	private List<? extends IBaseResource> readEntries(File bundleFile) {
+		IBaseResource bundle;
+		try (Reader reader = Files.newBufferedReader(bundleFile.toPath(), StandardCharsets.UTF_8)) {
+			bundle = encoding.equals("xml")
+				? context.newXmlParser().parseResource(reader)
+				: context.newJsonParser().parseResource(reader);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException(e.getMessage());
+		}
+
+		if (bundle instanceof org.hl7.fhir.dstu3.model.Bundle) {
+			return BundleUtils.getStu3ResourcesFromBundle((org.hl7.fhir.dstu3.model.Bundle)bundle);
+		}
+		else if (bundle instanceof org.hl7.fhir.r4.model.Bundle) {
+			return BundleUtils.getR4ResourcesFromBundle((org.hl7.fhir.r4.model.Bundle)bundle);
+		}
+		throw new IllegalArgumentException("The path to a bundle file is required");
+	}
+
 	/**
-	 * Iterates through the files and properly renames and moves them to the proper place
-	 * 
-	 * @param outputDir
+	 * Reads the resources of the bundle entries one at a time, without reading the whole bundle, so that only the
+	 * entries being extracted are held in memory
+	 *
+	 * @param bundleFile
 	 */
-	private void moveAndRenameFiles(String outputDir) {
-		File[] extractedFiles = new File(outputDir).listFiles();
-        for (File extractedFile : extractedFiles) {
-        	IBaseResource theResource = null;
-        	if (extractedFile.getPath().endsWith(".xml")) {
-        		try {
-                    theResource = context.newXmlParser().parseResource(new FileReader(extractedFile));
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                    throw new RuntimeException(e.getMessage());
-                } 
-        	}
-        	else if (extractedFile.getPath().endsWith(".json")) {
-        		try {
-                    theResource = context.newJsonParser().parseResource(new FileReader(extractedFile));
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                    throw new RuntimeException(e.getMessage());
-                } 
-        	}
-        	
-        	// The extractor code names them using the resource type and ID
-        	// We want to name them without the resource type, use name, and if needed version
-        	String resourceName;
-        	Path newOutputDirectory = Paths.get(outputDir.substring(0, outputDir.indexOf("bundles")), "input");
-        	Path newLibraryDirectory = Paths.get(newOutputDirectory.toString(), "resources/library");
-        	newLibraryDirectory.toFile().mkdirs();
-        	Path newCqlDirectory = Paths.get(newOutputDirectory.toString(), "cql");
-        	newCqlDirectory.toFile().mkdirs();
-        	Path newMeasureDirectory = Paths.get(newOutputDirectory.toString(), "resources/measure");
-        	newMeasureDirectory.toFile().mkdirs();
-        	if (version == "stu3) ") {
-        		if (theResource instanceof org.hl7.fhir.dstu3.model.Library) {
-        			org.hl7.fhir.dstu3.model.Library theLibrary = (org.hl7.fhir.dstu3.model.Library)theResource;
-        			resourceName = theLibrary.getName();
-        			
-        			// Forcing the encoding to JSON here to make everything the same in input directory
-        			ResourceUtils.outputResourceByName(theResource, "json", context,
-        					newLibraryDirectory.toString(), resourceName);
-        			
-        			// Now extract the CQL from the library file
-        			String cqlFilename = Paths.get(newCqlDirectory.toString(), resourceName) + ".cql";
-        			extractStu3CQL(theLibrary, cqlFilename);
-        		}
-        		else if (theResource instanceof org.hl7.fhir.dstu3.model.Measure) {
-        			resourceName = ((org.hl7.fhir.dstu3.model.Measure)theResource).getName();
-        			
-        			// Forcing the encoding to JSON here to make everything the same in input directory
-        			ResourceUtils.outputResourceByName(theResource, "json", context,
-        					newMeasureDirectory.toString(), resourceName);
-        		}
-        	}
-        	else if (version == "r4") {
-        		if (theResource instanceof org.hl7.fhir.r4.model.Library) {
-        			org.hl7.fhir.r4.model.Library theLibrary = (org.hl7.fhir.r4.model.Library)theResource;
-        			resourceName = theLibrary.getName();
-        			
-        			// Forcing the encoding to JSON here to make everything the same in input directory
-        			ResourceUtils.outputResourceByName(theResource, "json", context,
-        					newLibraryDirectory.toString(), resourceName);
-        			
-        			// Now extract the CQL from the library file
-        			String cqlFilename = Paths.get(newCqlDirectory.toString(), resourceName) + ".cql";
-        			extractR4CQL(theLibrary, cqlFilename);
-        		}
-        		else if (theResource instanceof org.hl7.fhir.r4.model.Measure) {
-        			resourceName = ((org.hl7.fhir.r4.model.Measure)theResource).getName();
-        			
-        			// Forcing the encoding to JSON here to make everything the same in input directory
-        			ResourceUtils.outputResourceByName(theResource, "json", context,
-        					newMeasureDirectory.toString(), resourceName);
-        		}
-        	}
-        }
+	private void extractStreamedEntries(File bundleFile) {
+		try (BundleEntryIterator entries = new BundleEntryIterator(bundleFile)) {
+			ThreadUtils.forEachOrdered(() -> entries, threads, resource -> {
+				extractResource(context.newJsonParser().parseResource(resource));
+				return null;
+			}, extracted -> { });
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
-	
+
 	/**
-	 * Looks at the content of the Library passed in and if the type is texl/cql extracts it and decodes
-	 * it and writes it to the filename passed in
-	 * 
-	 * @param theLibrary
-	 * @param cqlFilename
+	 * Writes the resource of a bundle entry next to the bundle, and writes Libraries and Measures by name to the
+	 * input directory along with the CQL, and if requested the ELM, content of the Libraries
+	 *
+	 * @param theResource
 	 */
-	private void extractStu3CQL(org.hl7.fhir.dstu3.model.Library theLibrary, String cqlFilename) {
-		List<org.hl7.fhir.dstu3.model.Attachment> contents = theLibrary.getContent();
-		for (org.hl7.fhir.dstu3.model.Attachment content : contents) {
-			if (content.getContentType().equals("text/cql")) {
-				byte[] encodedBytes = content.getData();
-				String encodedString = Base64.getEncoder().encodeToString(encodedBytes);
-				byte[] decodedBytes = Base64.getDecoder().decode(encodedString);
-				try {
-					FileUtils.writeByteArrayToFile(new File(cqlFilename), decodedBytes);
-				} catch (IOException e) {
-					e.printStackTrace();
-					throw new RuntimeException(e.getMessage());
-				}
+	private void extractResource(IBaseResource theResource) {
+		if (suppressNarrative) {
+			if (theResource instanceof org.hl7.fhir.dstu3.model.Measure) {
+				((org.hl7.fhir.dstu3.model.Measure)theResource).setText(null);
+			}
+			else if (theResource instanceof org.hl7.fhir.r4.model.Measure) {
+				((org.hl7.fhir.r4.model.Measure)theResource).setText(null);
 			}
 		}
+		ResourceUtils.outputResource(theResource, encoding, context, outputDir);
+		Metrics.increment("ExtractMatBundleOperation.resourcesExtracted");
+
+		// The extractor names the resources using the resource type and ID
+		// We want to name them without the resource type, use name, and if needed version
+		String resourceName;
+		if (theResource instanceof org.hl7.fhir.dstu3.model.Library) {
+			org.hl7.fhir.dstu3.model.Library theLibrary = (org.hl7.fhir.dstu3.model.Library)theResource;
+			resourceName = theLibrary.getName();
+
+			// Forcing the encoding to JSON here to make everything the same in input directory
+			ResourceUtils.outputResourceByName(theResource, "json", context,
+					newLibraryDirectory.toString(), resourceName);
+
+			// Now extract the CQL and ELM from the library
+			for (org.hl7.fhir.dstu3.model.Attachment content : theLibrary.getContent()) {
+				extractContent(content.getContentType(), content.getData(), resourceName);
+			}
+		}
+		else if (theResource instanceof org.hl7.fhir.dstu3.model.Measure) {
+			resourceName = ((org.hl7.fhir.dstu3.model.Measure)theResource).getName();
+
+			// Forcing the encoding to JSON here to make everything the same in input directory
+			ResourceUtils.outputResourceByName(theResource, "json", context,
+					newMeasureDirectory.toString(), resourceName);
+		}
+		else if (theResource instanceof org.hl7.fhir.r4.model.Library) {
+			org.hl7.fhir.r4.model.Library theLibrary = (org.hl7.fhir.r4.model.Library)theResource;
+			resourceName = theLibrary.getName();
+
+			// Forcing the encoding to JSON here to make everything the same in input directory
+			ResourceUtils.outputResourceByName(theResource, "json", context,
+					newLibraryDirectory.toString(), resourceName);
+
+			// Now extract the CQL and ELM from the library
+			for (org.hl7.fhir.r4.model.Attachment content : theLibrary.getContent()) {
+				extractContent(content.getContentType(), content.getData(), resourceName);
+			}
+		}
+		else if (theResource instanceof org.hl7.fhir.r4.model.Measure) {
+			resourceName = ((org.hl7.fhir.r4.model.Measure)theResource).getName();
+
+			// Forcing the encoding to JSON here to make everything the same in input directory
+			ResourceUtils.outputResourceByName(theResource, "json", context,
+					newMeasureDirectory.toString(), resourceName);
+		}
+	}
+
+	/**
+	 * Writes the decoded content of a Library attachment of type text/cql to the cql directory, and of type
+	 * application/elm+xml or application/elm+json to the elm directory if ELM is being extracted
+	 *
+	 * @param contentType
+	 * @param data
+	 * @param resourceName
+	 */
+	private void extractContent(String contentType, byte[] data, String resourceName) {
+		String filename;
+		if ("text/cql".equals(contentType)) {
+			filename = Paths.get(newCqlDirectory.toString(), resourceName) + ".cql";
+		}
+		else if (extractElm && "application/elm+xml".equals(contentType)) {
+			filename = Paths.get(newElmDirectory.toString(), resourceName) + ".xml";
+		}
+		else if (extractElm && "application/elm+json".equals(contentType)) {
+			filename = Paths.get(newElmDirectory.toString(), resourceName) + ".json";
+		}
+		else {
+			return;
+		}
+
+		if (data == null) {
+			return;
+		}
+		try {
+			FileUtils.writeByteArrayToFile(new File(filename), data);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException(e.getMessage());
+		}
 	}
-	
+
 	/**
-	 * Looks at the content of the Library passed in and if the type is texl/cql extracts it and decodes
-	 * it and writes it to the filename passed in
-	 * 
-	 * @param theLibrary
-	 * @param cqlFilename
+	 * Iterates over the resources of the entries of a json bundle, as json, reading the bundle as the iteration
+	 * proceeds rather than all at once
 	 */
-	private void extractR4CQL(org.hl7.fhir.r4.model.Library theLibrary, String cqlFilename) {
-		List<org.hl7.fhir.r4.model.Attachment> contents = theLibrary.getContent();
-		for (org.hl7.fhir.r4.model.Attachment content : contents) {
-			if (content.getContentType().equals("text/cql")) {
-				byte[] encodedBytes = content.getData();
-				String encodedString = Base64.getEncoder().encodeToString(encodedBytes);
-				byte[] decodedBytes = Base64.getDecoder().decode(encodedString);
+	private static class BundleEntryIterator implements Iterator<String>, Closeable {
+
+		private static final JsonFactory jsonFactory = new JsonFactory();
+
+		private final File bundleFile;
+		private final JsonParser parser;
+		private String next;
+		private boolean inEntries;
+		private boolean done;
+
+		private BundleEntryIterator(File bundleFile) throws IOException {
+			this.bundleFile = bundleFile;
+			this.parser = jsonFactory.createParser(bundleFile);
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IllegalArgumentException("The path to a bundle file is required: " + bundleFile);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
 				try {
-					FileUtils.writeByteArrayToFile(new File(cqlFilename), decodedBytes);
+					next = readNext();
 				} catch (IOException e) {
-					e.printStackTrace();
-					throw new RuntimeException(e.getMessage());
+					throw new UncheckedIOException(e);
 				}
 			}
+			return next != null;
 		}
-	}
 
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String resource = next;
+			next = null;
+			return resource;
+		}
+
+		private String readNext() throws IOException {
+			while (true) {
+				if (!inEntries) {
+					// Find the entry array among the properties of the bundle
+					JsonToken token = parser.nextToken();
+					if (token != JsonToken.FIELD_NAME) {
+						done = true;
+						return null;
+					}
+					String name = parser.getCurrentName();
+					token = parser.nextToken();
+					if (name.equals("resourceType") && !"Bundle".equals(parser.getText())) {
+						throw new IllegalArgumentException("The path to a bundle file is required: " + bundleFile);
+					}
+					else if (name.equals("entry") && token == JsonToken.START_ARRAY) {
+						inEntries = true;
+					}
+					else {
+						parser.skipChildren();
+					}
+					continue;
+				}
+
+				JsonToken token = parser.nextToken();
+				if (token == JsonToken.END_ARRAY) {
+					inEntries = false;
+					continue;
+				}
+				if (token != JsonToken.START_OBJECT) {
+					parser.skipChildren();
+					continue;
+				}
+
+				String resource = null;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					parser.nextToken();
+					if (name.equals("resource")) {
+						StringWriter writer = new StringWriter();
+						try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+							generator.copyCurrentStructure(parser);
+						}
+						resource = writer.toString();
+					}
+					else {
+						parser.skipChildren();
+					}
+				}
+				if (resource != null) {
+					return resource;
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			parser.close();
+		}
+	}
 }
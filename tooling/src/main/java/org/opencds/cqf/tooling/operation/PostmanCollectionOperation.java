@@ -2,47 +2,58 @@ package org.opencds.cqf.tooling.operation;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
 import org.apache.commons.lang3.StringUtils;
-import org.hl7.fhir.instance.model.api.IBaseResource;
-import org.hl7.fhir.r4.model.Bundle;
-import org.hl7.fhir.r4.model.MeasureReport;
-import org.hl7.fhir.r4.model.Resource;
-import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.DateTimeType;
 import org.opencds.cqf.tooling.Operation;
 import org.opencds.cqf.tooling.utilities.CanonicalUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.R4FHIRUtils;
-
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import ca.uhn.fhir.context.FhirContext;
-
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Generates a Postman collection with a folder for each measure bundle: a request that posts the bundle and an
+ * $evaluate-measure request for each MeasureReport in it.
+ *
+ * The collection is written as each bundle is visited, with the bundle itself copied from the file into the body of
+ * its post request, so only one bundle is read at a time. Bundles are not parsed into resources, instead the entries
+ * needed to name the requests are read from the MeasureReports with a streaming scan, on -threads (-t) threads.
+ */
 public class PostmanCollectionOperation extends Operation {
 
     private static final String POSTMAN_COLLECTION_SCHEMA = "https://schema.getpostman.com/json/collection/v2.1.0/collection.json";
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
     private String pathToBundlesDir;
-    private FhirContext context;
     String version;
-    private static String protocol;
-    private static String urlBase;
-    private static String urlPath;
+    private String protocol;
+    private String urlBase;
+    private String urlPath;
     private String collectionName;
+    private int threadCount = ThreadUtils.getDefaultThreadCount();
+
+    private List<String> hostTokens;
+    private String hostNames;
+    private List<String> pathTokens;
+    private String pathNames;
 
     @Override
     public void execute(String[] args) {
@@ -79,13 +90,16 @@ public class PostmanCollectionOperation extends Operation {
                 case "name":
                     collectionName = value;
                     break;
+                case "threads": case "t":
+                    threadCount = Integer.parseInt(value);
+                    break;
                 default:
                     throw new IllegalArgumentException("Unknown flag: " + flag);
             }
         }
 
         File bundleDirectory = validateDirectory(pathToBundlesDir);
-        this.context = setContext(version);
+        validateVersion();
         validateHostAndPath();
         validateCollectionName();
         validateProtocol();
@@ -96,30 +110,29 @@ public class PostmanCollectionOperation extends Operation {
             // Expect the path directory will contain directories each of that will contain bundle json
             File[] bundleDirectories = getListOfActionableDirectories(bundleDirectory);
 
-            PostmanCollection postmanCollection = createPostmanCollection();
-            BaseItem versionItem = populateVersionItem(postmanCollection, version);
-
+            List<File> bundleFiles = new ArrayList<>();
             for (File bundleDir : bundleDirectories) {
-
-                File[] bundleFiles = bundleDir.listFiles(pathname -> pathname.isFile() && pathname.getName().endsWith(".json"));
-                if (bundleFiles == null) {
-                    continue;
+                File[] files = bundleDir.listFiles(pathname -> pathname.isFile() && pathname.getName().endsWith(".json"));
+                if (files != null) {
+                    bundleFiles.addAll(Arrays.asList(files));
                 }
-                for (File file : bundleFiles) {
-                    IBaseResource resource = parseBundle(file);
-                    if (resource != null) {
-                        String fileContent = IOUtils.getFileContent(file);
-                        populatePostmanCollection(resource, versionItem, fileContent, version);
-                    }
-                }
-
             }
-            writePostmanCollection(postmanCollection);
+            writePostmanCollection(bundleFiles);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    private void validateVersion() {
+        if (StringUtils.isEmpty(version)) {
+            version = "r4";
+        }
+        version = version.toLowerCase();
+        if (!version.equals("r4") && !version.equals("dstu3")) {
+            throw new IllegalArgumentException("Unknown fhir version: " + version);
+        }
+    }
+
     private void validateHostAndPath(){
         if(StringUtils.isEmpty(urlBase)) {
             urlBase = "{server-base}";
@@ -146,60 +159,40 @@ public class PostmanCollectionOperation extends Operation {
         }
     }
 
-    private static List<String> hostTokens;
-    private static StringBuffer hostNames;
-
-    private static List<String> generateUrlHostTokens() {
-        try {
-            if (hostTokens == null) {
-                hostTokens = new ArrayList<>();
-                hostNames = new StringBuffer();
-                if (!StringUtils.isEmpty(urlBase)) {
-                    hostTokens.addAll(Arrays.asList(urlBase.split("\\.")));
-                }
-                if (StringUtils.isNotBlank(protocol)) {
-                    hostNames.append(protocol);
-                    hostNames.append("://");
-                }
+    private void generateUrlHostTokens() {
+        hostTokens = new ArrayList<>();
+        StringBuilder names = new StringBuilder();
+        if (!StringUtils.isEmpty(urlBase)) {
+            hostTokens.addAll(Arrays.asList(urlBase.split("\\.")));
+        }
+        if (StringUtils.isNotBlank(protocol)) {
+            names.append(protocol);
+            names.append("://");
+        }
 
-                for (String token : hostTokens) {
-                    hostNames.append(token);
-                    hostNames.append(".");
-                }
-                if (!StringUtils.isEmpty(urlBase)) {
-                    hostNames.delete(hostNames.length() - 1, hostNames.length());
-                    hostNames.append("/");
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        for (String token : hostTokens) {
+            names.append(token);
+            names.append(".");
+        }
+        if (!StringUtils.isEmpty(urlBase)) {
+            names.delete(names.length() - 1, names.length());
+            names.append("/");
         }
-        return hostTokens;
+        hostNames = names.toString();
     }
 
-    private static List<String> pathTokens;
-    private static StringBuffer pathNames;
-
-    private static List<String> generateUrlPathTokens() {
-        try {
-            if (pathTokens == null) {
-                pathTokens = new ArrayList<>();
-                pathNames = new StringBuffer();
-                pathNames.append(hostNames);
-                if (!StringUtils.isEmpty(urlPath)) {
-                    pathTokens.addAll(Arrays.asList(urlPath.split("/")));
-                }
-
-                for (String token : pathTokens) {
-                    pathNames.append(token);
-                    pathNames.append("/");
-                }
+    private void generateUrlPathTokens() {
+        pathTokens = new ArrayList<>();
+        StringBuilder names = new StringBuilder(hostNames);
+        if (!StringUtils.isEmpty(urlPath)) {
+            pathTokens.addAll(Arrays.asList(urlPath.split("/")));
+        }
 
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        for (String token : pathTokens) {
+            names.append(token);
+            names.append("/");
         }
-        return pathTokens;
+        pathNames = names.toString();
     }
 
     private List<String> generatePathTokensForMeasure(String measureId) {
@@ -236,10 +229,6 @@ public class PostmanCollectionOperation extends Operation {
         return sb.toString();
     }
 
-    private String  generatePostUrl() {
-        return pathNames.toString();
-    }
-
     private File validateDirectory(String pathToDir) {
         if (pathToDir == null) {
             throw new IllegalArgumentException("The path to the bundles directory is required");
@@ -260,25 +249,6 @@ public class PostmanCollectionOperation extends Operation {
         return bundleDirectories;
     }
 
-    private FhirContext setContext(String version) {
-        FhirContext context;
-        if (StringUtils.isEmpty(version)) {
-            context = FhirContext.forR4Cached();
-        } else {
-            switch (version.toLowerCase()) {
-                case "dstu3":
-                    context = FhirContext.forDstu3Cached();
-                    break;
-                case "r4":
-                    context = FhirContext.forR4Cached();
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unknown fhir version: " + version);
-            }
-        }
-        return context;
-    }
-
     private String getVersionLebel(String version) {
         String versionLebel;
         switch (version.toUpperCase()) {
@@ -294,501 +264,303 @@ public class PostmanCollectionOperation extends Operation {
         return versionLebel;
     }
 
-    private PostmanCollection createPostmanCollection() {
-        PostmanCollection postmanCollection = new PostmanCollection();
-        PostmanCollectionInfo info = new PostmanCollectionInfo();
-        info.set_postman_id(UUID.randomUUID().toString());
-        info.setName(collectionName);
-        info.setSchema(POSTMAN_COLLECTION_SCHEMA);
-        postmanCollection.setInfo(info);
-
-        postmanCollection.setItem(generateEmptyBaseItemList());
-
-        return postmanCollection;
-    }
-
-    private BaseItem populateVersionItem(PostmanCollection postmanCollection, String version) {
-
-        if(postmanCollection.getItem() == null) {
-            postmanCollection.setItem(generateEmptyBaseItemList());
-        }
-        BaseItem itemBase = new BaseItem();
-        itemBase.setName(getVersionLebel(version));
-        itemBase.setItem(generateEmptyBaseItemList());
-
-        postmanCollection.getItem().add(itemBase);
-        return itemBase;
-    }
-
-    private List<BaseItem> generateEmptyBaseItemList() {
-        return new ArrayList<>();
-    }
-
-    private void populatePostmanCollection(IBaseResource resourceBundle, BaseItem versionItem, String content, String version) {
-
-        if(versionItem != null && versionItem.getItem() == null) {
-            versionItem.setItem(generateEmptyBaseItemList());
-        }
-
-        BaseItem itemSubFolder = new BaseItem();
-        versionItem.getItem().add(itemSubFolder);
-
-
-        if (version.equals("r4")) {
-
-            Bundle bundle = (Bundle) resourceBundle;
-            generateSubfolderItem(itemSubFolder, bundle.getId(), content);
-            List<Map<String, String>> requestMapList;
-
-            for (Bundle.BundleEntryComponent component : bundle.getEntry()) {
-                Resource resource = component.getResource();
-
-                if (resource.getResourceType().compareTo(ResourceType.MeasureReport) == 0) {
-                    MeasureReport measureReport = (MeasureReport) resource;
-
-                    String measureId = getMeasureId(measureReport);
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                    String patient = R4FHIRUtils.parseId(measureReport.getSubject().getReference());
-                    String start = sdf.format(measureReport.getPeriod().getStart());
-                    String end = sdf.format(measureReport.getPeriod().getEnd());
-                    String measureUrl = generateMeasureUrl(measureId, patient, start, end);
-                    String requestName = "measure";
-
-                    if (StringUtils.isNotBlank(patient)) {
-                        requestName = patient;
+    private void writePostmanCollection(List<File> bundleFiles) throws IOException {
+        IOUtils.ensurePath(getOutputPath());
+        File collectionFile = new File(String.format("%s/%s.json", getOutputPath(), createDefaultName()));
+        try (JsonGenerator generator = jsonFactory.createGenerator(
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(collectionFile), StandardCharsets.UTF_8)))) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("info");
+            generator.writeStringField("_postman_id", UUID.randomUUID().toString());
+            generator.writeStringField("name", collectionName);
+            generator.writeStringField("schema", POSTMAN_COLLECTION_SCHEMA);
+            generator.writeEndObject();
+
+            generator.writeArrayFieldStart("item");
+            generator.writeStartObject();
+            generator.writeStringField("name", getVersionLebel(version));
+            generator.writeArrayFieldStart("item");
+            ThreadUtils.forEachOrdered(bundleFiles, threadCount, this::scanBundle, bundle -> {
+                if (bundle != null) {
+                    try {
+                        writeBundleItem(generator, bundle);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                    populateRequestItems(itemSubFolder, measureId, requestName, measureUrl, patient, start, end);
                 }
-            }
-        } else if (version.equals("dstu3")) {
-            org.hl7.fhir.dstu3.model.Bundle bundle = (org.hl7.fhir.dstu3.model.Bundle) resourceBundle;
-            generateSubfolderItem(itemSubFolder, bundle.getId(), content);
-
+            });
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
 
-            for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent component : bundle.getEntry()) {
-                org.hl7.fhir.dstu3.model.Resource resource = component.getResource();
-
-                if (resource.getResourceType().compareTo(org.hl7.fhir.dstu3.model.ResourceType.MeasureReport) == 0) {
-                    org.hl7.fhir.dstu3.model.MeasureReport measureReport = (org.hl7.fhir.dstu3.model.MeasureReport) resource;
-
-                    String measureId = R4FHIRUtils.parseId(measureReport.getMeasure().getReference());
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                    String patient = R4FHIRUtils.parseId(measureReport.getPatient().getReference());
-                    String start = sdf.format(measureReport.getPeriod().getStart());
-                    String end = sdf.format(measureReport.getPeriod().getEnd());
-                    String measureUrl = generateMeasureUrl(measureId, patient, start, end);
-
-                    String requestName = "measure";
-                    if (StringUtils.isNotBlank(patient)) {
-                        requestName = patient;
-                    }
-                    populateRequestItems(itemSubFolder, measureId, requestName, measureUrl, patient, start, end);
-                }
-            }
+            generator.writeEndObject();
         }
     }
 
-    private String getMeasureId(MeasureReport measureReport) {
-        String id = R4FHIRUtils.parseId(measureReport.getMeasure());
-        if (StringUtils.isEmpty(id)) {
-            id = CanonicalUtils.getId(measureReport.getMeasure());
-        }
-        return id;
-    }
-
-    private void populateRequestItems( BaseItem itemSubFolder,String measureId,String requestName, String measureUrl, String patient, String start, String end) {
-
-        List<Map<String,String>> requestMapList;
-
-        requestMapList = new ArrayList<>();
-        addItemToQueryList(requestMapList,"patient", patient);
-        addItemToQueryList(requestMapList,"periodStart", start);
-        addItemToQueryList(requestMapList,"periodEnd",end);
-
-        populateItemWithRequestItem("GET",requestName, "", measureId, measureUrl, itemSubFolder, requestMapList);
-
-    }
-
-    private void generateSubfolderItem(BaseItem itemSubFolder, String id, String content) {
-        itemSubFolder.setName(id.split("-")[0]);  //EXM104-FHIR4-8.1.000-bundle  -> EXM104
-        itemSubFolder.setItem(generateEmptyBaseItemList());
-        populateItemWithRequestItem("POST","Post Bundle", content, "", generatePostUrl(), itemSubFolder, null);
-    }
-
-    private void populateItemWithRequestItem(String method, String name, String body,  String measureId, String measureUrl, BaseItem itemSubFolder, List<Map<String, String>> requestMapList) {
-        RequestItem requestItem = new RequestItem();
-        if (itemSubFolder.getItem() != null) {
-            itemSubFolder.getItem().add(requestItem);
-        }
-        populateRequestItem(requestItem, name, method, body, measureId, measureUrl, requestMapList);
-    }
-
-    private void populateRequestItem(RequestItem requestItem, String name, String method, String body, String measureId, String measureUrl, List<Map<String, String>> requestMapList) {
-
-        if(StringUtils.isNotBlank(name)) {
-            requestItem.setName(name);
-        }
-        ProtocolProfileBehavior behavior = new ProtocolProfileBehavior();
-        behavior.setDisableBodyPruning(true);
-        if(StringUtils.isEmpty(body) ) {
-            requestItem.setProtocolProfileBehavior(behavior);
-        }
-        RequestInfo requestInfo = new RequestInfo();
-        requestItem.setRequest(requestInfo);
-
-        if(StringUtils.isEmpty(body) ) {
-            requestItem.setResponse(new ArrayList<>());
-        }
-
-        populateRequestInfo(requestInfo, method, body, measureId, measureUrl, requestMapList);
-    }
-
-    private void populateRequestInfo(RequestInfo requestInfo, String method, String body, String measureId, String measureUrl, List<Map<String, String>> requestMapList) {
-
+    private void writeBundleItem(JsonGenerator generator, BundleSummary bundle) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("name", bundle.name);
+        generator.writeArrayFieldStart("item");
+        writeRequestItem(generator, "Post Bundle", "POST", bundle.file, pathNames, pathTokens, null);
+        for (MeasureReportSummary measureReport : bundle.measureReports) {
+            String requestName = "measure";
+            if (StringUtils.isNotBlank(measureReport.patient)) {
+                requestName = measureReport.patient;
+            }
+            List<String[]> query = new ArrayList<>();
+            query.add(new String[] { "patient", measureReport.patient });
+            query.add(new String[] { "periodStart", measureReport.start });
+            query.add(new String[] { "periodEnd", measureReport.end });
+            writeRequestItem(generator, requestName, "GET", null,
+                    generateMeasureUrl(measureReport.measureId, measureReport.patient, measureReport.start, measureReport.end),
+                    StringUtils.isNotBlank(measureReport.measureId) ? generatePathTokensForMeasure(measureReport.measureId) : null, query);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /*
+    Writes a request item. The body, if any, is copied from the file. A request without a body has an empty response
+    list and disables body pruning, and the query is a list of key and value pairs, with an empty entry for each pair
+    without a value.
+     */
+    private void writeRequestItem(JsonGenerator generator, String name, String method, File body, String url,
+            List<String> path, List<String[]> query) throws IOException {
+        generator.writeStartObject();
+        if (StringUtils.isNotBlank(name)) {
+            generator.writeStringField("name", name);
+        }
+
+        generator.writeObjectFieldStart("request");
         if (StringUtils.isNotBlank(method)) {
-            requestInfo.setMethod(method);
-        }
-        if (StringUtils.isNotBlank(body)) {
-            requestInfo.setBody(populateRequestBody(body));
+            generator.writeStringField("method", method);
+        }
+        generator.writeArrayFieldStart("header");
+        generator.writeStartObject();
+        generator.writeStringField("key", "Content-Type");
+        generator.writeStringField("name", "Content-Type");
+        generator.writeStringField("type", "text");
+        generator.writeStringField("value", "application/json");
+        generator.writeEndObject();
+        generator.writeEndArray();
+        if (body != null) {
+            generator.writeObjectFieldStart("body");
+            generator.writeStringField("mode", "raw");
+            generator.writeFieldName("raw");
+            try (Reader reader = Files.newBufferedReader(body.toPath(), StandardCharsets.UTF_8)) {
+                generator.writeString(reader, -1);
+            }
+            generator.writeEndObject();
         }
-        requestInfo.setHeader(generateRequestHeaderMap());
-
-        RequestUrl requestUrl = new RequestUrl();
-        requestInfo.setUrl(requestUrl);
-
-        populateRequestUrl(requestUrl, measureUrl, measureId, requestMapList);
-    }
-
 
-    private void populateRequestUrl(RequestUrl requestUrl, String measureUrl, String measureId, List<Map<String, String>> requestMapList) {
-        if (StringUtils.isNotBlank(measureUrl)) {
-            requestUrl.setRaw(measureUrl);
+        generator.writeObjectFieldStart("url");
+        if (StringUtils.isNotBlank(url)) {
+            generator.writeStringField("raw", url);
         }
-        requestUrl.setProtocol(protocol);
-        if (requestMapList != null) {
-            requestUrl.setQuery(requestMapList);
-            if (StringUtils.isNotBlank(measureId)) {
-                requestUrl.setPath(generatePathTokensForMeasure(measureId));
+        generator.writeStringField("protocol", protocol);
+        writeStringArray(generator, "host", hostTokens);
+        if (path != null) {
+            writeStringArray(generator, "path", path);
+        }
+        if (query != null) {
+            generator.writeArrayFieldStart("query");
+            for (String[] keyAndValue : query) {
+                generator.writeStartObject();
+                if (StringUtils.isNotBlank(keyAndValue[1])) {
+                    generator.writeStringField("key", keyAndValue[0]);
+                    generator.writeStringField("value", keyAndValue[1]);
+                }
+                generator.writeEndObject();
             }
-        } else {
-            requestUrl.setPath(generateUrlPathTokens());
+            generator.writeEndArray();
         }
-        requestUrl.setHost(generateUrlHostTokens());
-    }
-
+        generator.writeEndObject();
+        generator.writeEndObject();
 
-    private RequestBody populateRequestBody(String body) {
-        RequestBody requestBody = new RequestBody();
-        requestBody.setMode("raw");
-        if(body != null) {
-            requestBody.setRaw(body);
+        if (body == null) {
+            generator.writeArrayFieldStart("response");
+            generator.writeEndArray();
+            generator.writeObjectFieldStart("protocolProfileBehavior");
+            generator.writeBooleanField("disableBodyPruning", true);
+            generator.writeEndObject();
         }
-        return requestBody;
+        generator.writeEndObject();
     }
 
-    private static List<Map<String, String>> requestHeader;
-    private static List<Map<String, String>> generateRequestHeaderMap() {
-
-        if(requestHeader == null || requestHeader.isEmpty() ){
-            requestHeader = new ArrayList<>();
-            Map<String, String> map = new HashMap<>();
-            map.put("key", "Content-Type");
-            map.put("name", "Content-Type");
-            map.put("type", "text");
-            map.put("value", "application/json");
-            requestHeader.add(map);
+    private void writeStringArray(JsonGenerator generator, String fieldName, List<String> values) throws IOException {
+        generator.writeArrayFieldStart(fieldName);
+        for (String value : values) {
+            generator.writeString(value);
         }
-        return  requestHeader;
+        generator.writeEndArray();
     }
 
-    private IBaseResource parseBundle(File resource) {
-        IBaseResource theResource = null;
-        try {
-            theResource = context.newJsonParser().parseResource(new FileReader(resource));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e.getMessage());
+    /*
+    Reads the id of the bundle and the measure, patient and period of each MeasureReport entry without binding the
+    bundle to a resource. Returns null, after reporting the error, if the file is not a bundle.
+     */
+    private BundleSummary scanBundle(File file) {
+        try (JsonParser parser = jsonFactory.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Content does not appear to be FHIR JSON");
+            }
+            String resourceType = null;
+            String id = null;
+            List<MeasureReportSummary> measureReports = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (fieldName.equals("resourceType")) {
+                    resourceType = parser.getValueAsString();
+                }
+                else if (fieldName.equals("id")) {
+                    id = parser.getValueAsString();
+                }
+                else if (fieldName.equals("entry") && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        MeasureReportSummary measureReport = scanEntry(parser);
+                        if (measureReport != null) {
+                            measureReports.add(measureReport);
+                        }
+                    }
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+            if (!"Bundle".equals(resourceType)) {
+                throw new IllegalArgumentException(String.format("Expected a Bundle but found %s", resourceType));
+            }
+            //EXM104-FHIR4-8.1.000-bundle  -> Bundle/EXM104
+            String name = (resourceType + "/" + (id != null ? id : file.getName())).split("-")[0];
+            return new BundleSummary(file, name, measureReports);
         }
         catch (Exception e) {
-            e.printStackTrace();
-            String message = String.format("'%s' will not be included in the bundle because the following error occurred: '%s'", resource.getName(), e.getMessage());
+            String message = String.format("'%s' will not be included in the bundle because the following error occurred: '%s'", file.getName(), e.getMessage());
             System.out.println(message);
-        }
-        return theResource;
-    }
-
-    private void writePostmanCollection(PostmanCollection postmanCollection) {
-
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-        mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-
-
-        try {
-            String jsonString = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(postmanCollection);
-            BufferedWriter writer = new BufferedWriter(
-                    new FileWriter(String.format("%s/%s.json", getOutputPath(), createDefaultName())));
-            writer.write(jsonString);
-            writer.flush();
-            writer.close();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-
-    private void addItemToQueryList(List<Map<String, String>> list, String key, String value) {
-        Map<String, String> map = new HashMap<>();
-        if (StringUtils.isNotBlank(key) && StringUtils.isNotBlank(value)) {
-            map.put("key", key);
-            map.put("value", value);
-        }
-        list.add(map);
-    }
-
-
-    private static List<Map<String, String>> listHeader;
-
-    private static List<Map<String, String>> populateRequestHeader() {
-        if (listHeader == null) {
-            listHeader = new ArrayList<>();
-            Map<String, String> mapHeader = new HashMap<>();
-            mapHeader.put("key", "Content-Type");
-            mapHeader.put("name", "Content-Type");
-            mapHeader.put("type", "text");
-            mapHeader.put("value", "application/json");
-            listHeader.add(mapHeader);
-        }
-
-        return listHeader;
-    }
-
-
-    // try to model postman collection
-
-    class PostmanCollection {
-        private PostmanCollectionInfo info;
-        private List<BaseItem> item ;
-
-        public PostmanCollectionInfo getInfo() {
-            return info;
-        }
-
-        public void setInfo(PostmanCollectionInfo info) {
-            this.info = info;
-        }
-
-        public List<BaseItem> getItem() {
-            return item;
-        }
-
-        public void setItem(List<BaseItem> item) {
-            this.item = item;
+            return null;
         }
     }
 
-    class BaseItem {
-        private String name;
-        private List<BaseItem> item ;
-
-        public String getName() {
-            return name;
-        }
-
-        public void setName(String name) {
-            this.name = name;
-        }
-
-        public List<BaseItem> getItem() {
-            return item;
-        }
-
-        public void setItem(List<BaseItem> item) {
-            this.item = item;
-        }
-    }
-
-    class PostmanCollectionInfo {
-        private String _postman_id;
-        private String name;
-        private String schema;
-
-        public String get_postman_id() {
-            return _postman_id;
-        }
-
-        public void set_postman_id(String _postman_id) {
-            this._postman_id = _postman_id;
-        }
-
-
-        public String getName() {
-            return name;
-        }
-
-        public void setName(String name) {
-            this.name = name;
+    private MeasureReportSummary scanEntry(JsonParser parser) throws IOException {
+        MeasureReportSummary measureReport = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (fieldName.equals("resource") && token == JsonToken.START_OBJECT) {
+                measureReport = scanMeasureReport(parser);
+            }
+            else {
+                parser.skipChildren();
+            }
         }
-
-        public String getSchema() {
-            return schema;
+        return measureReport;
+    }
+
+    private MeasureReportSummary scanMeasureReport(JsonParser parser) throws IOException {
+        // The patient is the subject in R4 and the patient in DSTU3, and the measure a canonical or a Reference.
+        String patientField = version.equals("dstu3") ? "patient" : "subject";
+        String resourceType = null;
+        String measure = null;
+        String patient = null;
+        String start = null;
+        String end = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (fieldName.equals("resourceType")) {
+                resourceType = parser.getValueAsString();
+            }
+            else if (fieldName.equals("measure")) {
+                measure = token == JsonToken.START_OBJECT ? scanReference(parser) : parser.getValueAsString();
+            }
+            else if (fieldName.equals(patientField) && token == JsonToken.START_OBJECT) {
+                patient = scanReference(parser);
+            }
+            else if (fieldName.equals("period") && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String periodFieldName = parser.getCurrentName();
+                    parser.nextToken();
+                    if (periodFieldName.equals("start")) {
+                        start = parser.getValueAsString();
+                    }
+                    else if (periodFieldName.equals("end")) {
+                        end = parser.getValueAsString();
+                    }
+                    else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+            else {
+                parser.skipChildren();
+            }
         }
 
-        public void setSchema(String schema) {
-            this.schema = schema;
+        if (!"MeasureReport".equals(resourceType)) {
+            return null;
         }
+        return new MeasureReportSummary(getMeasureId(measure), patient != null ? R4FHIRUtils.parseId(patient) : null,
+                formatDate(start), formatDate(end));
     }
 
-    class RequestItem extends BaseItem{
-        private RequestInfo request;
-        private List<?> response;
-        private ProtocolProfileBehavior protocolProfileBehavior;
-
-        public RequestInfo getRequest() {
-            return request;
-        }
-
-        public void setRequest(RequestInfo request) {
-            this.request = request;
-        }
-
-        public List<?> getResponse() {
-            return response;
-        }
-
-        public void setResponse(List<?> response) {
-            this.response = response;
-        }
-
-        public ProtocolProfileBehavior getProtocolProfileBehavior() {
-            return protocolProfileBehavior;
-        }
-
-        public void setProtocolProfileBehavior(ProtocolProfileBehavior protocolProfileBehavior) {
-            this.protocolProfileBehavior = protocolProfileBehavior;
+    private String scanReference(JsonParser parser) throws IOException {
+        String reference = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if (fieldName.equals("reference")) {
+                reference = parser.getValueAsString();
+            }
+            else {
+                parser.skipChildren();
+            }
         }
+        return reference;
     }
 
-    class ProtocolProfileBehavior {
-        private boolean disableBodyPruning;
-
-        public boolean isDisableBodyPruning() {
-            return disableBodyPruning;
+    private String getMeasureId(String measure) {
+        if (measure == null) {
+            return null;
         }
-
-        public void setDisableBodyPruning(boolean disableBodyPruning) {
-            this.disableBodyPruning = disableBodyPruning;
+        String id = R4FHIRUtils.parseId(measure);
+        if (StringUtils.isEmpty(id)) {
+            id = CanonicalUtils.getId(measure);
         }
+        return id;
     }
 
-    class RequestInfo {
-        private String method;
-        private List<Map<String,String>> header;
-        private RequestBody body;
-        private RequestUrl url;
-
-        public String getMethod() {
-            return method;
-        }
-
-        public void setMethod(String method) {
-            this.method = method;
-        }
-
-        public List<Map<String, String>> getHeader() {
-            return header;
-        }
-
-        public void setHeader(List<Map<String, String>> header) {
-            this.header = header;
-        }
-
-        public RequestBody getBody() {
-            return body;
-        }
-
-        public void setBody(RequestBody body) {
-            this.body = body;
-        }
-
-        public RequestUrl getUrl() {
-            return url;
-        }
-
-        public void setUrl(RequestUrl url) {
-            this.url = url;
+    private String formatDate(String dateTime) {
+        if (dateTime == null) {
+            return null;
         }
+        return new SimpleDateFormat("yyyy-MM-dd").format(new DateTimeType(dateTime).getValue());
     }
 
-    class RequestBody {
-        private String mode;
-        private String raw;
-
-        public String getMode() {
-            return mode;
-        }
-
-        public void setMode(String mode) {
-            this.mode = mode;
-        }
+    private static class BundleSummary {
+        private final File file;
+        private final String name;
+        private final List<MeasureReportSummary> measureReports;
 
-        public String getRaw() {
-            return raw;
-        }
-
-        public void setRaw(String raw) {
-            this.raw = raw;
+        private BundleSummary(File file, String name, List<MeasureReportSummary> measureReports) {
+            this.file = file;
+            this.name = name;
+            this.measureReports = measureReports;
         }
     }
 
-    class RequestUrl {
-        private String raw;
-        private String protocol;
-        private List<String> host;
-        private List<String> path;
-        private List<Map<String,String>> query;
-
-        public String getRaw() {
-            return raw;
-        }
-
-        public void setRaw(String raw) {
-            this.raw = raw;
-        }
-
-        public String getProtocol() {
-            return protocol;
-        }
-
-        public void setProtocol(String protocol) {
-            this.protocol = protocol;
-        }
-
-        public List<String> getHost() {
-            return host;
-        }
-
-        public void setHost(List<String> host) {
-            this.host = host;
-        }
+    private static class MeasureReportSummary {
+        private final String measureId;
+        private final String patient;
+        private final String start;
+        private final String end;
 
-        public List<String> getPath() {
-            return path;
-        }
-
-        public void setPath(List<String> path) {
-            this.path = path;
-        }
-
-        public List<Map<String, String>> getQuery() {
-            return query;
-        }
-
-        public void setQuery(List<Map<String, String>> query) {
-            this.query = query;
+        private MeasureReportSummary(String measureId, String patient, String start, String end) {
+            this.measureId = measureId;
+            this.patient = patient;
+            this.start = start;
+            this.end = end;
         }
     }
-
-
 }
@@ -1,9 +1,12 @@
 package org.opencds.cqf.tooling.operation;
 
-import org.apache.poi.common.usermodel.HyperlinkType;
 import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.util.WorkbookUtil;
-import org.apache.poi.xssf.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.opencds.cqf.tooling.acceleratorkit.StructureDefinitionBindingObject;
 import org.opencds.cqf.tooling.acceleratorkit.StructureDefinitionElementBindingVisitor;
 import org.opencds.cqf.tooling.terminology.SpreadsheetCreatorHelper;
@@ -71,14 +74,13 @@ public class ProfilesToSpreadsheet extends StructureDefinitionToSpreadsheetBase
     }
 
     private void createOutput(List<StructureDefinitionBindingObject> bindingObjects) {
-        XSSFWorkbook workBook = SpreadsheetCreatorHelper.createWorkbook();
-        XSSFSheet firstSheet = workBook.createSheet(WorkbookUtil.createSafeSheetName("Profile Attribute List"));
-        helper = workBook.getCreationHelper();
-        linkStyle = SpreadsheetCreatorHelper.createLinkStyle(workBook, XSSFFont.U_SINGLE, HSSFColor.HSSFColorPredefined.BLUE.getIndex());
+        SXSSFWorkbook workBook = SpreadsheetCreatorHelper.createStreamingWorkbook();
+        Sheet firstSheet = workBook.createSheet(WorkbookUtil.createSafeSheetName("Profile Attribute List"));
+        linkStyle = SpreadsheetCreatorHelper.createLinkStyle(workBook, Font.U_SINGLE, HSSFColor.HSSFColorPredefined.BLUE.getIndex());
 
         AtomicInteger rowCount = new AtomicInteger(0);
         IntBinaryOperator ibo = (x, y) -> (x + y);
-        XSSFRow currentRow = firstSheet.createRow(rowCount.getAndAccumulate(1, ibo));
+        Row currentRow = firstSheet.createRow(rowCount.getAndAccumulate(1, ibo));
         SpreadsheetCreatorHelper.createHeaderRow(workBook, createHeaderNameList(), currentRow);
         bindingObjects.forEach((bindingObject) -> {
             addBindingObjectRowDataToCurrentSheet(firstSheet, rowCount.getAndAccumulate(1, ibo), bindingObject);
@@ -102,36 +104,25 @@ public class ProfilesToSpreadsheet extends StructureDefinitionToSpreadsheetBase
         return headerNameList;
     }
 
-    private void addBindingObjectRowDataToCurrentSheet(XSSFSheet currentSheet, int rowCount, StructureDefinitionBindingObject bo) {
-        XSSFRow currentRow = currentSheet.createRow(rowCount++);
-        XSSFHyperlink link = (XSSFHyperlink)helper.createHyperlink(HyperlinkType.URL);
+    private void addBindingObjectRowDataToCurrentSheet(Sheet currentSheet, int rowCount, StructureDefinitionBindingObject bo) {
+        Row currentRow = currentSheet.createRow(rowCount++);
         int cellCount = 0;
 
-        XSSFCell currentCell = currentRow.createCell(cellCount++);
-        currentCell.setCellValue(bo.getSdName());
-        link.setAddress(bo.getSdURL());
-        currentCell.setHyperlink(link);
-        currentCell.setCellStyle(linkStyle);
+        Cell currentCell = currentRow.createCell(cellCount++);
+        SpreadsheetCreatorHelper.setHyperlinkCellValue(currentCell, bo.getSdName(), bo.getSdURL(), linkStyle);
 
         currentCell = currentRow.createCell(cellCount++);
         currentCell.setCellValue(bo.getElementId());
 
         currentCell = currentRow.createCell(cellCount++);
-        currentCell.setCellValue(bo.getBindingStrength());
-        link = (XSSFHyperlink)helper.createHyperlink(HyperlinkType.URL);
-        link.setAddress("http://hl7.org/fhir/R4/terminologies.html#" + bo.getBindingStrength());
-        currentCell.setHyperlink(link);
-        currentCell.setCellStyle(linkStyle);
+        SpreadsheetCreatorHelper.setHyperlinkCellValue(currentCell, bo.getBindingStrength(),
+                "http://hl7.org/fhir/R4/terminologies.html#" + bo.getBindingStrength(), linkStyle);
 
         currentCell = currentRow.createCell(cellCount++);
         currentCell.setCellValue(bo.getBindingValueSetName());
 
         currentCell = currentRow.createCell(cellCount++);
-        currentCell.setCellValue(bo.getBindingValueSetURL());
-        link = (XSSFHyperlink)helper.createHyperlink(HyperlinkType.URL);
-        link.setAddress(bo.getBindingValueSetURL());
-        currentCell.setHyperlink(link);
-        currentCell.setCellStyle(linkStyle);
+        SpreadsheetCreatorHelper.setHyperlinkCellValue(currentCell, bo.getBindingValueSetURL(), bo.getBindingValueSetURL(), linkStyle);
 
         currentCell = currentRow.createCell(cellCount++);
         currentCell.setCellValue(bo.getBindingValueSetVersion());
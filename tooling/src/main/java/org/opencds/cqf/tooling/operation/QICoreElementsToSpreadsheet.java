@@ -1,10 +1,13 @@
 package org.opencds.cqf.tooling.operation;
 
-import org.apache.poi.common.usermodel.HyperlinkType;
 import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.util.WorkbookUtil;
-import org.apache.poi.xssf.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.opencds.cqf.tooling.acceleratorkit.StructureDefinitionElementObject;
 import org.opencds.cqf.tooling.acceleratorkit.StructureDefinitionElementVisitor;
 import org.opencds.cqf.tooling.terminology.SpreadsheetCreatorHelper;
@@ -22,6 +25,7 @@ public class QICoreElementsToSpreadsheet extends StructureDefinitionToSpreadshee
 
     private int ConstraintColumn = 7;
     private int ConstraintColumnWidth = 85 * 256;
+    private CellStyle wrapTextStyle;
 
     // example call: -ProfilesToSpreadsheet -ip=/Users/bryantaustin/Projects/FHIR-Spec -op=output -rp="4.0.1;US-Core/3.1.0;QI-Core/4.1.0" -sp=true -mn=QICore -mv=4.1.0
     @Override
@@ -77,17 +81,18 @@ public class QICoreElementsToSpreadsheet extends StructureDefinitionToSpreadshee
     }
 
     private void createOutput(List<StructureDefinitionElementObject> elementObjects) {
-        XSSFWorkbook workBook = SpreadsheetCreatorHelper.createWorkbook();
-        XSSFSheet firstSheet = workBook.createSheet(WorkbookUtil.createSafeSheetName("Profile Attribute List"));
-        helper = workBook.getCreationHelper();
-        linkStyle = SpreadsheetCreatorHelper.createLinkStyle(workBook, XSSFFont.U_SINGLE, HSSFColor.HSSFColorPredefined.BLUE.getIndex());
+        SXSSFWorkbook workBook = SpreadsheetCreatorHelper.createStreamingWorkbook();
+        Sheet firstSheet = workBook.createSheet(WorkbookUtil.createSafeSheetName("Profile Attribute List"));
+        linkStyle = SpreadsheetCreatorHelper.createLinkStyle(workBook, Font.U_SINGLE, HSSFColor.HSSFColorPredefined.BLUE.getIndex());
+        // Cell styles are workbook-global, so share one instead of creating a style per constraint cell
+        wrapTextStyle = SpreadsheetCreatorHelper.createWrapTextStyle(workBook);
 
         AtomicInteger rowCount = new AtomicInteger(0);
         IntBinaryOperator ibo = (x, y) -> (x + y);
-        XSSFRow currentRow = firstSheet.createRow(rowCount.getAndAccumulate(1, ibo));
+        Row currentRow = firstSheet.createRow(rowCount.getAndAccumulate(1, ibo));
         SpreadsheetCreatorHelper.createHeaderRow(workBook, createHeaderNameList(), currentRow);
         elementObjects.forEach((elementObject) -> {
-            addElementObjectRowDataToCurrentSheet(workBook, firstSheet, rowCount.getAndAccumulate(1, ibo), elementObject);
+            addElementObjectRowDataToCurrentSheet(firstSheet, rowCount.getAndAccumulate(1, ibo), elementObject);
         });
         firstSheet.setColumnWidth(ConstraintColumn, ConstraintColumnWidth);
 //        firstSheet.autoSizeColumn(ConstraintColumn);
@@ -108,16 +113,12 @@ public class QICoreElementsToSpreadsheet extends StructureDefinitionToSpreadshee
         return headerNameList;
     }
 
-    private void addElementObjectRowDataToCurrentSheet(XSSFWorkbook workBook, XSSFSheet currentSheet, int rowCount, StructureDefinitionElementObject eo) {
-        XSSFRow currentRow = currentSheet.createRow(rowCount++);
-        XSSFHyperlink link = (XSSFHyperlink) helper.createHyperlink(HyperlinkType.URL);
+    private void addElementObjectRowDataToCurrentSheet(Sheet currentSheet, int rowCount, StructureDefinitionElementObject eo) {
+        Row currentRow = currentSheet.createRow(rowCount++);
         int cellCount = 0;
 
-        XSSFCell currentCell = currentRow.createCell(cellCount++);
-        currentCell.setCellValue(eo.getSdName());
-        link.setAddress(eo.getSdURL());
-        currentCell.setHyperlink(link);
-        currentCell.setCellStyle(linkStyle);
+        Cell currentCell = currentRow.createCell(cellCount++);
+        SpreadsheetCreatorHelper.setHyperlinkCellValue(currentCell, eo.getSdName(), eo.getSdURL(), linkStyle);
 
         currentCell = currentRow.createCell(cellCount++);
         currentCell.setCellValue(eo.getElementId());
@@ -141,9 +142,7 @@ public class QICoreElementsToSpreadsheet extends StructureDefinitionToSpreadshee
 
         currentCell = currentRow.createCell(cellCount++);
         currentCell.setCellValue(eo.getConstraint());
-        CellStyle cs = workBook.createCellStyle();
-        cs.setWrapText(true);
-        currentCell.setCellStyle(cs);
+        currentCell.setCellStyle(wrapTextStyle);
     }
 
     private List<StructureDefinitionElementObject> getElementObjects() {
@@ -1,7 +1,6 @@
 package org.opencds.cqf.tooling.operation;
 
-import org.apache.poi.ss.usermodel.CreationHelper;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.opencds.cqf.tooling.Operation;
 import org.opencds.cqf.tooling.acceleratorkit.CanonicalResourceAtlas;
 
@@ -14,8 +13,7 @@ public abstract class StructureDefinitionToSpreadsheetBase extends Operation {
     protected CanonicalResourceAtlas canonicalResourceAtlas;
     protected CanonicalResourceAtlas canonicalResourceDependenciesAtlas;
 
-    protected CreationHelper helper;
-    protected XSSFCellStyle linkStyle;
+    protected CellStyle linkStyle;
 
     public static final String separator = System.getProperty("file.separator");
     protected boolean isParameterListComplete() {
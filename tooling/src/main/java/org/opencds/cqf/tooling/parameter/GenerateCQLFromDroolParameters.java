@@ -11,4 +11,6 @@ public class GenerateCQLFromDroolParameters {
     public Encoding encoding;
     public String fhirVersion;
     public CQLTYPES type;
+    public int threads = 1;
+    public boolean streamOutput = false;
 }
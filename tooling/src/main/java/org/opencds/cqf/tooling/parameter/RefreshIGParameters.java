@@ -22,4 +22,7 @@ public class RefreshIGParameters {
     public String measureToRefreshPath;
     public String libraryOutputPath;
     public String measureOutputPath;
+    public Boolean watch;
+    public Long watchDebounce;
+    public Integer packageThreadCount;
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package org.opencds.cqf.tooling.parameter;
 
+import java.util.Set;
+
 import org.opencds.cqf.tooling.processor.IProcessorContext;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
@@ -55,4 +57,9 @@ public class RefreshLibraryParameters {
     Path to write updated Libraries to
     */
     public String libraryOutputDirectory;
+
+    /*
+    The names of the libraries to refresh, all libraries are refreshed if null
+    */
+    public Set<String> libraryNames;
 }
\ No newline at end of file
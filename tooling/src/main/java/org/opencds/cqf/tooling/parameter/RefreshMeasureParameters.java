@@ -1,5 +1,7 @@
 package org.opencds.cqf.tooling.parameter;
 
+import java.util.Set;
+
 import org.opencds.cqf.tooling.processor.IProcessorContext;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
@@ -50,4 +52,9 @@ public class RefreshMeasureParameters {
     Directory target for writing output
      */
     public String measureOutputDirectory;
-}
\ No newline at end of file
+
+    /*
+    The names of the primary libraries of the measures to refresh, all measures are refreshed if null
+     */
+    public Set<String> libraryNames;
+}
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.parameter;
 
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 
 import java.util.HashSet;
 
@@ -11,4 +12,5 @@ public class TransformErsdParameters {
     public String pathToV2PlanDefinition; // -pathtoplandefinition (-ptpd)
     public HashSet<IOUtils.Encoding> outputFileEncodings; // -encoding (-e)
     public boolean prettyPrintOutput; // -prettyprintoutput (-ppo)
+    public int threadCount = ThreadUtils.getDefaultThreadCount(); // -threads (-t)
 }
\ No newline at end of file
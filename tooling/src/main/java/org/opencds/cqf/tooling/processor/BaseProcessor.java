@@ -72,6 +72,19 @@ public class BaseProcessor implements IProcessorContext, IWorkerContext.ILogging
         return packageManager;
     }
 
+    protected int packageThreadCount = 1;
+
+    public int getPackageThreadCount() {
+        return packageThreadCount;
+    }
+
+    /*
+     * @param packageThreadCount The maximum number of IG dependency packages loaded concurrently by initializeFromIg
+     */
+    public void setPackageThreadCount(int packageThreadCount) {
+        this.packageThreadCount = packageThreadCount;
+    }
+
     protected IProcessorContext parentContext;
 
     public void initialize(IProcessorContext context) {
@@ -114,7 +127,16 @@ public class BaseProcessor implements IProcessorContext, IWorkerContext.ILogging
         this.fhirVersion = sourceIg.getFhirVersion().get(0).getCode();
         packageId = sourceIg.getPackageId();
         canonicalBase = determineCanonical(sourceIg.getUrl());
-        packageManager = new NpmPackageManager(sourceIg, this.fhirVersion);
+        ProcessorStateCache stateCache = ProcessorStateCache.getCurrent();
+        if (stateCache != null) {
+            ImplementationGuide ig = sourceIg;
+            String version = this.fhirVersion;
+            int threadCount = this.packageThreadCount;
+            packageManager = stateCache.getPackageManager(igPath, version, () -> new NpmPackageManager(ig, version, threadCount));
+        }
+        else {
+            packageManager = new NpmPackageManager(sourceIg, this.fhirVersion, this.packageThreadCount);
+        }
 
         // Setup binary paths (cql source directories)
         binaryPaths = IGUtils.extractBinaryPaths(rootDir, sourceIg);
@@ -152,14 +174,16 @@ public class BaseProcessor implements IProcessorContext, IWorkerContext.ILogging
         if (cqlProcessor == null) {
             LibraryLoader reader = new LibraryLoader(fhirVersion);
             try {
-                ucumService = new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
+                ProcessorStateCache stateCache = ProcessorStateCache.getCurrent();
+                ucumService = stateCache != null ? stateCache.getUcumService()
+                        : new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
             } catch (UcumException e) {
                 throw new IGInitializationException("Could not create UCUM validation service", e);
             }
             if (packageManager == null) {
                 throw new IllegalStateException("packageManager is null. It should be initialized at this point.");
             }
-            cqlProcessor = new CqlProcessor(packageManager.getNpmList(), binaryPaths, reader, this, ucumService,
+            cqlProcessor = new CqlProcessor(packageManager.getNpmPackageIndex(), binaryPaths, reader, this, ucumService,
                     packageId, canonicalBase);
         }
 
@@ -3,11 +3,16 @@ package org.opencds.cqf.tooling.processor;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.cqframework.cql.cql2elm.CqlCompilerException;
 import org.cqframework.cql.cql2elm.CqlTranslator;
@@ -23,6 +28,7 @@ import org.cqframework.cql.elm.tracking.TrackBack;
 import org.fhir.ucum.UcumService;
 import org.hl7.cql.model.NamespaceInfo;
 import org.hl7.cql.model.NamespaceManager;
+import org.hl7.elm.r1.IncludeDef;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.context.IWorkerContext.ILoggingService;
@@ -36,6 +42,8 @@ import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
 import org.opencds.cqf.tooling.npm.ILibraryReader;
 import org.opencds.cqf.tooling.npm.NpmLibrarySourceProvider;
 import org.opencds.cqf.tooling.npm.NpmModelInfoProvider;
+import org.opencds.cqf.tooling.npm.NpmPackageIndex;
+import org.opencds.cqf.tooling.utilities.Metrics;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
 
 public class CqlProcessor {
@@ -92,6 +100,12 @@ public class CqlProcessor {
      */
     private List<NpmPackage> packages;
 
+    /**
+     * Index of the canonical resources of the packages, shared by the library source and model info providers
+     * of every folder so that a library is located and decoded from a package at most once
+     */
+    private NpmPackageIndex packageIndex;
+
     /**
      * All the file paths cql files might be found in (absolute local file paths)
      *
@@ -120,6 +134,20 @@ public class CqlProcessor {
      */
     private Map<String, CqlSourceFileInformation> fileMap;
 
+    /**
+     * The include graph of the translated files: the name of the library in each file, and the names of the
+     * libraries each file includes, by fully qualified file name.
+     * Maintained across executions, so that the files affected by a change are known without translating again
+     */
+    private Map<String, String> libraryNames = new HashMap<>();
+    private Map<String, Set<String>> includedLibraries = new HashMap<>();
+
+    /**
+     * The translation setup of each folder, by absolute folder path, kept so that changed files can be translated
+     * with the library manager of their folder, which retains the libraries that have not changed
+     */
+    private Map<String, FolderTranslation> folderTranslations = new HashMap<>();
+
     /**
      * The packageId for the implementation guide, used to construct a NamespaceInfo for the CQL translator
      * Libraries that don't specify a namespace will be built in this namespace
@@ -139,8 +167,13 @@ public class CqlProcessor {
     private NamespaceInfo namespaceInfo;
 
     public CqlProcessor(List<NpmPackage> packages, List<String> folders, ILibraryReader reader, ILoggingService logger, UcumService ucumService, String packageId, String canonicalBase) {
+        this(packages == null ? null : new NpmPackageIndex(packages), folders, reader, logger, ucumService, packageId, canonicalBase);
+    }
+
+    public CqlProcessor(NpmPackageIndex packageIndex, List<String> folders, ILibraryReader reader, ILoggingService logger, UcumService ucumService, String packageId, String canonicalBase) {
         super();
-        this.packages = packages;
+        this.packageIndex = packageIndex;
+        this.packages = packageIndex == null ? null : packageIndex.getPackages();
         this.folders = folders;
         this.reader = reader;
         this.logger = logger;
@@ -161,19 +194,116 @@ public class CqlProcessor {
      */
     public void execute() throws FHIRException {
         try {
-            logger.logMessage("Translating CQL source");
-            fileMap = new HashMap<>();
+            Metrics.time("CqlProcessor.execute", () -> {
+                logger.logMessage("Translating CQL source");
+                fileMap = new HashMap<>();
 
-            // foreach folder
-            for (String folder : folders) {
-                translateFolder(folder);
-            }
+                // foreach folder
+                for (String folder : folders) {
+                    translateFolder(folder);
+                }
+            });
         }
         catch (Exception E) {
             logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Errors occurred attempting to translate CQL content: %s", E.getMessage()));
         }
     }
 
+    /**
+     * Translates only the given files, for instance a changed file and the files returned by getDependentFiles for it,
+     * using the setup of the folder of each file. Libraries compiled from these files are evicted from the library
+     * manager of each folder, while the other libraries are reused rather than translated again. The file map is
+     * reset to the given files. Files that no longer exist are removed from the include graph.
+     *
+     * Performs a complete execute if execute has not been called.
+     */
+    public void execute(Collection<String> files) throws FHIRException {
+        if (fileMap == null) {
+            execute();
+            return;
+        }
+
+        try {
+            Metrics.time("CqlProcessor.execute", "files", String.valueOf(files.size()), () -> {
+                logger.logMessage(String.format("Translating %d changed CQL source file(s)", files.size()));
+                fileMap = new HashMap<>();
+
+                Set<String> changedLibraries = new HashSet<>();
+                for (String file : files) {
+                    if (libraryNames.containsKey(file)) {
+                        changedLibraries.add(libraryNames.get(file));
+                    }
+                }
+                for (FolderTranslation folderTranslation : folderTranslations.values()) {
+                    folderTranslation.libraryManager.getCompiledLibraries().values().removeIf(
+                            l -> l.getIdentifier() != null && changedLibraries.contains(l.getIdentifier().getId()));
+                }
+
+                for (String filename : files) {
+                    File file = new File(filename).getAbsoluteFile();
+                    if (!file.exists()) {
+                        libraryNames.remove(file.toString());
+                        includedLibraries.remove(file.toString());
+                        continue;
+                    }
+                    FolderTranslation folderTranslation = folderTranslations.get(file.getParent());
+                    if (folderTranslation == null) {
+                        logger.logMessage(String.format("Skipping CQL source %s, which is not in a CQL folder of the IG", filename));
+                        continue;
+                    }
+                    translateFile(folderTranslation.modelManager, folderTranslation.libraryManager, file, folderTranslation.options);
+                }
+            });
+        }
+        catch (Exception E) {
+            logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Errors occurred attempting to translate CQL content: %s", E.getMessage()));
+        }
+    }
+
+    /**
+     * Returns the given files together with the files that include the libraries in them, directly or indirectly,
+     * according to the include graph of the translations so far
+     * @param files Fully qualified names of source files
+     * @return
+     */
+    public Set<String> getDependentFiles(Collection<String> files) {
+        Set<String> result = new LinkedHashSet<>(files);
+        Deque<String> pending = new ArrayDeque<>(files);
+        while (!pending.isEmpty()) {
+            String libraryName = libraryNames.get(pending.pop());
+            if (libraryName == null) {
+                continue;
+            }
+            for (Map.Entry<String, Set<String>> entry : includedLibraries.entrySet()) {
+                if (entry.getValue().contains(libraryName) && result.add(entry.getKey())) {
+                    pending.push(entry.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param filename Fully qualified name of a source file
+     * @return the name of the library in the file as of its last successful translation, or null if unknown
+     */
+    public String getLibraryName(String filename) {
+        return libraryNames.get(filename);
+    }
+
+    /**
+     * @param libraryName Name of a library
+     * @return the fully qualified name of the source file of the library, or null if unknown
+     */
+    public String getLibraryFile(String libraryName) {
+        for (Map.Entry<String, String> entry : libraryNames.entrySet()) {
+            if (entry.getValue().equals(libraryName)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
     /**
      * Return CqlSourceFileInformation for the given filename
      * @param filename Fully qualified name of the source file
@@ -257,17 +387,20 @@ public class CqlProcessor {
         // Setup
         // Construct DefaultLibrarySourceProvider
         // Construct FhirLibrarySourceProvider
-        ModelManager modelManager = new ModelManager();
+        // in a long-lived process, the models are shared with the earlier translations of the folder
+        ProcessorStateCache stateCache = ProcessorStateCache.getCurrent();
+        ModelManager modelManager = stateCache == null ? new ModelManager() : new ModelManager(stateCache.getModelCache(folder, packageIndex));
         LibraryManager libraryManager = new LibraryManager(modelManager);
         if (packages != null) {
-            modelManager.getModelInfoLoader().registerModelInfoProvider(new NpmModelInfoProvider(packages, reader, logger), true);
-            libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(packages, reader, logger));
+            modelManager.getModelInfoLoader().registerModelInfoProvider(new NpmModelInfoProvider(packageIndex, reader, logger), true);
+            libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(packageIndex, reader, logger));
         }
         libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
         libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
         modelManager.getModelInfoLoader().registerModelInfoProvider(new DefaultModelInfoProvider(Paths.get(folder)));
 
         loadNamespaces(libraryManager);
+        folderTranslations.put(new File(folder).getAbsolutePath(), new FolderTranslation(modelManager, libraryManager, options));
 
         // foreach *.cql file
         boolean hadCqlFiles = false;
@@ -345,75 +478,115 @@ public class CqlProcessor {
         fileMap.put(file.getAbsoluteFile().toString(), result);
 
         try {
+            Metrics.time("CqlProcessor.translateFile", "file", file.getName(), () -> {
 
-            // translate toXML
-            CqlTranslator translator = CqlTranslator.fromFile(namespaceInfo, file, modelManager, libraryManager,
-                    options.getValidateUnits() ? ucumService : null, options);
-
-            // record errors and warnings
-            for (CqlCompilerException exception : translator.getExceptions()) {
-                result.getErrors().add(exceptionToValidationMessage(file, exception));
-            }
+                // translate toXML
+                CqlTranslator translator = CqlTranslator.fromFile(namespaceInfo, file, modelManager, libraryManager,
+                        options.getValidateUnits() ? ucumService : null, options);
+                recordIncludes(file, translator);
 
-            if (translator.getErrors().size() > 0) {
-                result.getErrors().add(new ValidationMessage(ValidationMessage.Source.Publisher, IssueType.EXCEPTION, file.getName(),
-                        String.format("CQL Processing failed with (%d) errors.", translator.getErrors().size()), IssueSeverity.ERROR));
-                logger.logMessage(String.format("Translation failed with (%d) errors; see the error log for more information.", translator.getErrors().size()));
-
-                for (CqlCompilerException error : translator.getErrors()) {
-                    logger.logMessage(String.format("Error: %s", error.getMessage()));
+                // record errors and warnings
+                for (CqlCompilerException exception : translator.getExceptions()) {
+                    result.getErrors().add(exceptionToValidationMessage(file, exception));
                 }
-            }
-            else {
-                try {
-                    // convert to base64 bytes
-                    // NOTE: Publication tooling requires XML content
-                    result.setElm(translator.toXml().getBytes());
-                    result.setIdentifier(translator.toELM().getIdentifier());
-                    if (options.getFormats().contains(CqlTranslator.Format.JSON)) {
-                        result.setJsonElm(translator.toJson().getBytes());
-                    }
-
-                    // Add the translated library to the library manager (NOTE: This should be a "cacheLibrary" call on the LibraryManager, available in 1.5.3+)
-                    // Without this, the data requirements processor will try to load the current library, resulting in a re-translation
-                    CompiledLibrary CompiledLibrary = translator.getTranslatedLibrary();
-                    String libraryPath = NamespaceManager.getPath(CompiledLibrary.getIdentifier().getSystem(), CompiledLibrary.getIdentifier().getId());
-                    libraryManager.getCompiledLibraries().put(libraryPath, CompiledLibrary);
-
-                    DataRequirementsProcessor drp = new DataRequirementsProcessor();
-                    org.hl7.fhir.r5.model.Library requirementsLibrary =
-                            drp.gatherDataRequirements(libraryManager, translator.getTranslatedLibrary(), options, null, false);
-
-                    // TODO: Report context, requires 1.5 translator (ContextDef)
-                    // NOTE: In STU3, only Patient context is supported
 
-                    // TODO: Extract direct reference code data
-                    //result.extension.addAll(requirementsLibrary.getExtensionsByUrl("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-directReferenceCode"));
+                if (translator.getErrors().size() > 0) {
+                    result.getErrors().add(new ValidationMessage(ValidationMessage.Source.Publisher, IssueType.EXCEPTION, file.getName(),
+                            String.format("CQL Processing failed with (%d) errors.", translator.getErrors().size()), IssueSeverity.ERROR));
+                    logger.logMessage(String.format("Translation failed with (%d) errors; see the error log for more information.", translator.getErrors().size()));
+                    Metrics.increment("CqlProcessor.librariesFailed");
 
-                    // Extract relatedArtifact data (models, libraries, code systems, and value sets)
-                    result.relatedArtifacts.addAll(requirementsLibrary.getRelatedArtifact());
-
-                    // Extract parameter data and validate result types are supported types
-                    result.parameters.addAll(requirementsLibrary.getParameter());
-                    for (ValidationMessage paramMessage : drp.getValidationMessages()) {
-                        result.getErrors().add(new ValidationMessage(paramMessage.getSource(), paramMessage.getType(), file.getName(),
-                                paramMessage.getMessage(), paramMessage.getLevel()));
+                    for (CqlCompilerException error : translator.getErrors()) {
+                        logger.logMessage(String.format("Error: %s", error.getMessage()));
                     }
-
-                    // Extract dataRequirement data
-                    result.dataRequirements.addAll(requirementsLibrary.getDataRequirement());
-
-                    logger.logMessage("CQL translation completed successfully.");
-                } catch (Exception ex) {
-                    logger.logMessage(String.format("CQL Translation succeeded for file: '%s', but ELM generation failed with the following error: %s", file.getAbsolutePath(), ex.getMessage()));
                 }
-            }
+                else {
+                    try {
+                        // convert to base64 bytes
+                        // NOTE: Publication tooling requires XML content
+                        result.setElm(translator.toXml().getBytes());
+                        result.setIdentifier(translator.toELM().getIdentifier());
+                        if (options.getFormats().contains(CqlTranslator.Format.JSON)) {
+                            result.setJsonElm(translator.toJson().getBytes());
+                        }
+
+                        // Add the translated library to the library manager (NOTE: This should be a "cacheLibrary" call on the LibraryManager, available in 1.5.3+)
+                        // Without this, the data requirements processor will try to load the current library, resulting in a re-translation
+                        CompiledLibrary CompiledLibrary = translator.getTranslatedLibrary();
+                        String libraryPath = NamespaceManager.getPath(CompiledLibrary.getIdentifier().getSystem(), CompiledLibrary.getIdentifier().getId());
+                        libraryManager.getCompiledLibraries().put(libraryPath, CompiledLibrary);
+
+                        DataRequirementsProcessor drp = new DataRequirementsProcessor();
+                        org.hl7.fhir.r5.model.Library requirementsLibrary =
+                                drp.gatherDataRequirements(libraryManager, translator.getTranslatedLibrary(), options, null, false);
+
+                        // TODO: Report context, requires 1.5 translator (ContextDef)
+                        // NOTE: In STU3, only Patient context is supported
+
+                        // TODO: Extract direct reference code data
+                        //result.extension.addAll(requirementsLibrary.getExtensionsByUrl("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-directReferenceCode"));
+
+                        // Extract relatedArtifact data (models, libraries, code systems, and value sets)
+                        result.relatedArtifacts.addAll(requirementsLibrary.getRelatedArtifact());
+
+                        // Extract parameter data and validate result types are supported types
+                        result.parameters.addAll(requirementsLibrary.getParameter());
+                        for (ValidationMessage paramMessage : drp.getValidationMessages()) {
+                            result.getErrors().add(new ValidationMessage(paramMessage.getSource(), paramMessage.getType(), file.getName(),
+                                    paramMessage.getMessage(), paramMessage.getLevel()));
+                        }
+
+                        // Extract dataRequirement data
+                        result.dataRequirements.addAll(requirementsLibrary.getDataRequirement());
+
+                        logger.logMessage("CQL translation completed successfully.");
+                        Metrics.increment("CqlProcessor.librariesTranslated");
+                    } catch (Exception ex) {
+                        logger.logMessage(String.format("CQL Translation succeeded for file: '%s', but ELM generation failed with the following error: %s", file.getAbsolutePath(), ex.getMessage()));
+                    }
+                }
+            });
         }
         catch (Exception e) {
             result.getErrors().add(new ValidationMessage(ValidationMessage.Source.Publisher, IssueType.EXCEPTION, file.getName(), "CQL Processing failed with exception: "+e.getMessage(), IssueSeverity.ERROR));
         }
     }
 
+    private void recordIncludes(File file, CqlTranslator translator) {
+        org.hl7.elm.r1.Library library;
+        try {
+            library = translator.toELM();
+        }
+        catch (Exception e) {
+            return;
+        }
+        if (library == null || library.getIdentifier() == null || library.getIdentifier().getId() == null) {
+            return;
+        }
+
+        Set<String> includes = new HashSet<>();
+        if (library.getIncludes() != null) {
+            for (IncludeDef include : library.getIncludes().getDef()) {
+                includes.add(NamespaceManager.getNamePart(include.getPath()));
+            }
+        }
+        String filename = file.getAbsoluteFile().toString();
+        libraryNames.put(filename, library.getIdentifier().getId());
+        includedLibraries.put(filename, includes);
+    }
+
+    private static class FolderTranslation {
+        private final ModelManager modelManager;
+        private final LibraryManager libraryManager;
+        private final CqlTranslatorOptions options;
+
+        private FolderTranslation(ModelManager modelManager, LibraryManager libraryManager, CqlTranslatorOptions options) {
+            this.modelManager = modelManager;
+            this.libraryManager = libraryManager;
+            this.options = options;
+        }
+    }
+
     private FilenameFilter getCqlFilenameFilter() {
         return new FilenameFilter() {
             @Override
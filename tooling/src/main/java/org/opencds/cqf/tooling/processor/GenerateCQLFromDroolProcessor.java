@@ -9,7 +9,7 @@ import org.opencds.cqf.tooling.utilities.IOUtils;
  */
 public class GenerateCQLFromDroolProcessor {
 	public static void generate(GenerateCQLFromDroolParameters params) {
-		CqlGenerator generator = new DroolCqlGenerator(params.type);
+		CqlGenerator generator = new DroolCqlGenerator(params.type, params.threads, params.streamOutput);
 		if (params.encoding.equals(IOUtils.Encoding.JSON)) {
 			generator.generateAndWriteToFile(params.inputFilePath, params.outputPath, params.fhirVersion);
 		} else {
@@ -0,0 +1,179 @@
+package org.opencds.cqf.tooling.processor;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the content directories of an IG (and their subdirectories) for the watch mode of RefreshIG.
+ *
+ * Changes are reported once no further events have been seen for the debounce window, so that an editor saving
+ * several files, or saving a file in several writes, results in a single refresh. A file is reported when its size
+ * or modification time differs from when it was last seen, so call {@link #synchronize(Collection)} with the files
+ * written by a refresh to keep them from being reported as changes.
+ */
+public class IGContentWatcher implements Closeable {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+
+    private static final String MISSING = "missing";
+
+    private final WatchService watchService;
+    private final long debounceMillis;
+    private final List<Path> directories = new ArrayList<>();
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Map<Path, String> fingerprints = new HashMap<>();
+
+    public IGContentWatcher(Collection<Path> directories, long debounceMillis) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.debounceMillis = debounceMillis;
+        for (Path directory : directories) {
+            Path absoluteDirectory = directory.toAbsolutePath().normalize();
+            this.directories.add(absoluteDirectory);
+            register(absoluteDirectory, null);
+        }
+    }
+
+    public List<Path> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * Blocks until files in the watched directories change, then waits until the directories have been quiet for
+     * the debounce window.
+     * @return the absolute paths of the files that were modified, added or removed
+     */
+    public Set<Path> awaitChanges() throws InterruptedException, IOException {
+        while (true) {
+            Set<Path> candidates = new HashSet<>();
+            collect(watchService.take(), candidates);
+            WatchKey key;
+            while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                collect(key, candidates);
+            }
+
+            Set<Path> changes = new TreeSet<>();
+            for (Path path : candidates) {
+                String fingerprint = fingerprint(path);
+                if (!fingerprint.equals(fingerprints.getOrDefault(path, MISSING))) {
+                    changes.add(path);
+                    if (fingerprint.equals(MISSING)) {
+                        fingerprints.remove(path);
+                    }
+                    else {
+                        fingerprints.put(path, fingerprint);
+                    }
+                }
+            }
+            if (!changes.isEmpty()) {
+                return changes;
+            }
+        }
+    }
+
+    /**
+     * Records the current state of the given files, such as the files written by a refresh, so that the changes made
+     * to them up to now are not reported. Changes to other files, including those made while the refresh ran, are
+     * still reported.
+     */
+    public void synchronize(Collection<Path> files) {
+        for (Path file : files) {
+            Path path = file.toAbsolutePath().normalize();
+            if (directories.stream().noneMatch(path::startsWith)) {
+                continue;
+            }
+            String fingerprint = fingerprint(path);
+            if (fingerprint.equals(MISSING)) {
+                fingerprints.remove(path);
+            }
+            else {
+                fingerprints.put(path, fingerprint);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void collect(WatchKey key, Set<Path> candidates) throws IOException {
+        Path directory = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                // events were lost, so consider every file
+                candidates.addAll(fingerprints.keySet());
+                for (Path watchedDirectory : directories) {
+                    register(watchedDirectory, candidates);
+                }
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path, candidates);
+            }
+            else {
+                candidates.add(path);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    /*
+    Watches the directory and its subdirectories. The files found are added to candidates if it is not null,
+    and recorded as the current state otherwise.
+     */
+    private void register(Path directory, Set<Path> candidates) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    if (!keys.containsValue(path)) {
+                        keys.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+                    }
+                }
+                else if (candidates != null) {
+                    candidates.add(path);
+                }
+                else {
+                    fingerprints.put(path, fingerprint(path));
+                }
+            }
+        }
+    }
+
+    private static String fingerprint(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes.lastModifiedTime() + ":" + attributes.size() : MISSING;
+        }
+        catch (IOException e) {
+            return MISSING;
+        }
+    }
+}
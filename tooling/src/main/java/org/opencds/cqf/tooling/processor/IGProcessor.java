@@ -4,20 +4,33 @@ import static java.util.Objects.requireNonNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import com.google.common.base.Strings;
 
 import org.apache.commons.io.FilenameUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.utilities.Utilities;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 import org.opencds.cqf.tooling.library.LibraryProcessor;
 import org.opencds.cqf.tooling.measure.MeasureProcessor;
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
+import org.opencds.cqf.tooling.utilities.CanonicalUtils;
 import org.opencds.cqf.tooling.utilities.IGUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.opencds.cqf.tooling.utilities.LogUtils;
+import org.opencds.cqf.tooling.utilities.Metrics;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
 
 import ca.uhn.fhir.context.FhirContext;
 
@@ -50,6 +63,9 @@ public class IGProcessor extends BaseProcessor {
             throw new IllegalArgumentException("Either the ini argument or both igPath and rootDir must be provided");
         }
 
+        if (params.packageThreadCount != null) {
+            setPackageThreadCount(params.packageThreadCount);
+        }
         if (params.ini != null) {
             initializeFromIni(params.ini);
         }
@@ -88,8 +104,15 @@ public class IGProcessor extends BaseProcessor {
 
         //Use case 2 while developing in Atom refresh content and run tests for either entire IG or targeted Artifact
         //refreshContent
-        LogUtils.info("IGProcessor.publishIG - refreshIG");
-        refreshIG(params);
+        // the software system Devices stamped during the refresh are written once, before the IG is bundled
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            LogUtils.info("IGProcessor.publishIG - refreshIG");
+            Metrics.time("IGProcessor.refreshIG", () -> refreshIG(params));
+        }
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
+        }
         //validate
         //ValidateProcessor.validate(ValidateParameters);
         //run all tests
@@ -98,27 +121,187 @@ public class IGProcessor extends BaseProcessor {
         //Use case 3
         //package everything
         LogUtils.info("IGProcessor.publishIG - bundleIg");
-        igBundleProcessor.bundleIg(refreshedResourcesNames, rootDir, getBinaryPaths(), encoding, includeELM, includeDependencies, includeTerminology, includePatientScenarios,
-        versioned, addBundleTimestamp, fhirContext, fhirUri);
+        Metrics.time("IGProcessor.bundleIg", () -> igBundleProcessor.bundleIg(refreshedResourcesNames, rootDir, getBinaryPaths(), encoding, includeELM, includeDependencies,
+                includeTerminology, includePatientScenarios, versioned, addBundleTimestamp, fhirContext, fhirUri));
         //test everything
         //IGTestProcessor.testIg(IGTestParameters);
         //Publish?
+
+        if (params.watch != null && params.watch) {
+            watchIG(params);
+        }
     }
 
-    public ArrayList<String> refreshedResourcesNames = new ArrayList<String>();
-    public void refreshIG(RefreshIGParameters params) {
-        if (params.ini != null) {
-            initializeFromIni(params.ini);
+    /*
+    Watch mode: once the IG has been refreshed, refreshes the content affected by each change to the cql, resource
+    and test directories until the process is stopped. Bundles are not rebuilt.
+     */
+    public void watchIG(RefreshIGParameters params) {
+        List<Path> directories = new ArrayList<>();
+        for (String binaryPath : getBinaryPaths()) {
+            directories.add(Paths.get(binaryPath));
         }
-        else {
+        try {
+            for (String resourcePath : IGUtils.extractResourcePaths(rootDir, sourceIg)) {
+                directories.add(Paths.get(resourcePath));
+            }
+        } catch (IOException e) {
+            LogUtils.putException("ig", e);
+        }
+        directories.add(Paths.get(rootDir, testCasePathElement));
+
+        long debounce = params.watchDebounce != null ? params.watchDebounce : IGContentWatcher.DEFAULT_DEBOUNCE_MILLIS;
+        try (IGContentWatcher watcher = new IGContentWatcher(directories, debounce)) {
+            LogUtils.info(String.format("IGProcessor.watchIG - watching %s for changes", watcher.getDirectories()));
+            while (true) {
+                refreshChanges(watcher, watcher.awaitChanges(), params);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new RuntimeException("Error watching IG content: " + e.getMessage(), e);
+        }
+    }
+
+    /*
+    Refreshes the content affected by changes reported by the watcher. Only the files the refresh writes are then
+    recorded as seen by the watcher, so that files changed while the refresh runs are reported by the next
+    awaitChanges.
+     */
+    List<String> refreshChanges(IGContentWatcher watcher, Set<Path> changes, RefreshIGParameters params) {
+        LogUtils.info(String.format("IGProcessor.watchIG - %d file(s) changed", changes.size()));
+        List<String> refreshedNames;
+        IOUtils.recordWrittenFiles();
+        try {
+            refreshedNames = Metrics.time("IGProcessor.refreshChangedContent", "files", String.valueOf(changes.size()),
+                    () -> refreshChangedContent(params, changes.stream().map(Path::toString).collect(Collectors.toList())));
+        }
+        finally {
+            watcher.synchronize(IOUtils.stopRecordingWrittenFiles());
+        }
+        LogUtils.info(String.format("IGProcessor.watchIG - refreshed %s", refreshedNames));
+        return refreshedNames;
+    }
+
+    /*
+    Refreshes the content affected by the given changed files (absolute paths), reusing the state of a previous
+    refreshIG:
+        * changed CQL files, and the CQL files that include them, directly or indirectly, are translated again and
+          their libraries refreshed
+        * changed Library resources are refreshed
+        * measures whose primary library was refreshed, and changed Measure resources, are refreshed
+        * changed test cases are refreshed, if includePatientScenarios is set
+    Returns the names of the refreshed libraries and measures
+     */
+    public List<String> refreshChangedContent(RefreshIGParameters params, Collection<String> changedFiles) {
+        FhirContext fhirContext = IGProcessor.getIgFhirContext(fhirVersion);
+        CqlProcessor cqlProcessor = getCqlProcessor();
+        String testsPath = new File(FilenameUtils.concat(rootDir, testCasePathElement)).getAbsolutePath();
+
+        Set<String> changedCqlFiles = new LinkedHashSet<>();
+        Set<String> changedLibraryNames = new LinkedHashSet<>();
+        Set<String> measureLibraryNames = new HashSet<>();
+        Set<String> changedTestCasePaths = new LinkedHashSet<>();
+        for (String file : changedFiles) {
+            IOUtils.clearCachedResource(file);
+            if (file.endsWith(".cql")) {
+                changedCqlFiles.add(file);
+                continue;
+            }
+            if (file.startsWith(testsPath + File.separator)) {
+                // input/tests/<resource type>/<artifact>/<test case>/...
+                String[] elements = file.substring(testsPath.length() + 1).split(Pattern.quote(File.separator));
+                if (elements.length > 3) {
+                    changedTestCasePaths.add(FilenameUtils.concat(testsPath, String.join(File.separator, elements[0], elements[1], elements[2])));
+                }
+                continue;
+            }
+
+            IBaseResource resource;
             try {
-                initializeFromIg(params.rootDir, params.igPath, null);
+                resource = IOUtils.readResource(file, fhirContext, true);
+            } catch (RuntimeException e) {
+                LogUtils.putException(file, e);
+                continue;
+            }
+            if (resource == null) {
+                continue;
+            }
+            switch (resource.fhirType()) {
+                case "Library":
+                    changedLibraryNames.add(ResourceUtils.getName(resource, fhirContext));
+                    break;
+                case "Measure":
+                    try {
+                        measureLibraryNames.add(CanonicalUtils.toVersionedIdentifier(ResourceUtils.getPrimaryLibraryUrl(resource, fhirContext)).getId());
+                    } catch (RuntimeException e) {
+                        LogUtils.putException(file, e);
+                    }
+                    break;
+                default:
+                    break;
             }
-            catch (Exception e) {
-                logMessage(String.format("Error Refreshing for File "+ params.igPath+": "+e.getMessage(), e));
+        }
+
+        Set<String> translatedFiles = cqlProcessor.getDependentFiles(changedCqlFiles);
+        for (String libraryName : changedLibraryNames) {
+            String libraryFile = cqlProcessor.getLibraryFile(libraryName);
+            if (libraryFile != null) {
+                translatedFiles.add(libraryFile);
+            }
+        }
+
+        List<String> refreshedNames = new ArrayList<>();
+        if (!translatedFiles.isEmpty()) {
+            cqlProcessor.execute(translatedFiles);
+            Set<String> libraryNames = new LinkedHashSet<>(changedLibraryNames);
+            for (String translatedFile : translatedFiles) {
+                String libraryName = cqlProcessor.getLibraryName(translatedFile);
+                if (libraryName != null) {
+                    libraryNames.add(libraryName);
+                }
             }
+            refreshedNames.addAll(libraryProcessor.refreshIgLibraryContent(this, params.outputEncoding, Strings.emptyToNull(params.libraryOutputPath),
+                    params.versioned, fhirContext, params.shouldApplySoftwareSystemStamp, libraryNames));
+            measureLibraryNames.addAll(libraryNames);
+        }
+
+        if (!measureLibraryNames.isEmpty()) {
+            refreshedNames.addAll(measureProcessor.refreshIgMeasureContent(this, params.outputEncoding, Strings.emptyToNull(params.measureOutputPath),
+                    params.versioned, fhirContext, params.measureToRefreshPath, params.shouldApplySoftwareSystemStamp, measureLibraryNames));
         }
 
+        if (params.includePatientScenarios && !changedTestCasePaths.isEmpty()) {
+            TestCaseProcessor testCaseProcessor = new TestCaseProcessor();
+            for (String changedTestCasePath : changedTestCasePaths) {
+                if (new File(changedTestCasePath).isDirectory()) {
+                    testCaseProcessor.refreshTestCase(IOUtils.getParentDirectoryPath(changedTestCasePath), changedTestCasePath, params.outputEncoding, fhirContext);
+                }
+            }
+        }
+
+        return refreshedNames;
+    }
+
+    public ArrayList<String> refreshedResourcesNames = new ArrayList<String>();
+    public void refreshIG(RefreshIGParameters params) {
+        if (params.packageThreadCount != null) {
+            setPackageThreadCount(params.packageThreadCount);
+        }
+        Metrics.time("IGProcessor.initialize", () -> {
+            if (params.ini != null) {
+                initializeFromIni(params.ini);
+            }
+            else {
+                try {
+                    initializeFromIg(params.rootDir, params.igPath, null);
+                }
+                catch (Exception e) {
+                    logMessage(String.format("Error Refreshing for File "+ params.igPath+": "+e.getMessage(), e));
+                }
+            }
+        });
+
         Encoding encoding = params.outputEncoding;
         // Boolean includeELM = params.includeELM;
         // Boolean includeDependencies = params.includeDependencies;
@@ -143,20 +326,22 @@ public class IGProcessor extends BaseProcessor {
 
         IGProcessor.ensure(rootDir, includePatientScenarios, includeTerminology, IOUtils.resourceDirectories);
 
-        List<String> refreshedLibraryNames;
-        if (Strings.isNullOrEmpty(libraryOutputPath)) {
-            refreshedLibraryNames = libraryProcessor.refreshIgLibraryContent(this, encoding, versioned, fhirContext, params.shouldApplySoftwareSystemStamp);
-        } else {
-            refreshedLibraryNames = libraryProcessor.refreshIgLibraryContent(this, encoding, libraryOutputPath, versioned, fhirContext, params.shouldApplySoftwareSystemStamp);
-        }
+        List<String> refreshedLibraryNames = Metrics.time("IGProcessor.refreshLibraries", () -> {
+            if (Strings.isNullOrEmpty(libraryOutputPath)) {
+                return libraryProcessor.refreshIgLibraryContent(this, encoding, versioned, fhirContext, params.shouldApplySoftwareSystemStamp);
+            } else {
+                return libraryProcessor.refreshIgLibraryContent(this, encoding, libraryOutputPath, versioned, fhirContext, params.shouldApplySoftwareSystemStamp);
+            }
+        });
         refreshedResourcesNames.addAll(refreshedLibraryNames);
 
-        List<String> refreshedMeasureNames;
-        if (Strings.isNullOrEmpty(measureOutputPath)) {
-            refreshedMeasureNames = measureProcessor.refreshIgMeasureContent(this, encoding, versioned, fhirContext, measureToRefreshPath, params.shouldApplySoftwareSystemStamp);
-        } else {
-            refreshedMeasureNames = measureProcessor.refreshIgMeasureContent(this, encoding, measureOutputPath, versioned, fhirContext, measureToRefreshPath, params.shouldApplySoftwareSystemStamp);
-        }
+        List<String> refreshedMeasureNames = Metrics.time("IGProcessor.refreshMeasures", () -> {
+            if (Strings.isNullOrEmpty(measureOutputPath)) {
+                return measureProcessor.refreshIgMeasureContent(this, encoding, versioned, fhirContext, measureToRefreshPath, params.shouldApplySoftwareSystemStamp);
+            } else {
+                return measureProcessor.refreshIgMeasureContent(this, encoding, measureOutputPath, versioned, fhirContext, measureToRefreshPath, params.shouldApplySoftwareSystemStamp);
+            }
+        });
         refreshedResourcesNames.addAll(refreshedMeasureNames);
 
         if (refreshedResourcesNames.isEmpty()) {
@@ -165,8 +350,10 @@ public class IGProcessor extends BaseProcessor {
         }
 
         if (includePatientScenarios) {
-            TestCaseProcessor testCaseProcessor = new TestCaseProcessor();
-            testCaseProcessor.refreshTestCases(FilenameUtils.concat(rootDir, IGProcessor.testCasePathElement), encoding, fhirContext, refreshedResourcesNames);
+            Metrics.time("IGProcessor.refreshTestCases", () -> {
+                TestCaseProcessor testCaseProcessor = new TestCaseProcessor();
+                testCaseProcessor.refreshTestCases(FilenameUtils.concat(rootDir, IGProcessor.testCasePathElement), encoding, fhirContext, refreshedResourcesNames);
+            });
         }
     }
 
@@ -1,12 +1,10 @@
 package org.opencds.cqf.tooling.processor;
 
-import java.util.List;
-import java.util.Map;
-
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.parameter.PostBundlesInDirParameters;
 import org.opencds.cqf.tooling.utilities.BundleUtils;
 import org.opencds.cqf.tooling.utilities.HttpClientUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
 import ca.uhn.fhir.context.FhirContext;
@@ -56,8 +54,10 @@ public class PostBundlesInDirProcessor {
         Encoding encoding = params.encoding;
         FhirContext fhirContext = getFhirContext(fhirVersion);
 
-        List<Map.Entry<String, IBaseResource>> resources = BundleUtils.GetBundlesInDir(params.directoryPath, fhirContext);
-        resources.forEach(entry -> postBundleToFhirUri(fhirUri, encoding, fhirContext, entry.getValue()));
+        // Each bundle is parsed as it is posted, so only one bundle is held at a time
+        for (String path : BundleUtils.getBundlePathsInDir(params.directoryPath, true)) {
+            postBundleToFhirUri(fhirUri, encoding, fhirContext, IOUtils.readResourceUncached(path, fhirContext));
+        }
     }
 
 	private static void postBundleToFhirUri(String fhirUri, Encoding encoding, FhirContext fhirContext, IBaseResource bundle) {
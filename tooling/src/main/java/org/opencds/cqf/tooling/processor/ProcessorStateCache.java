@@ -0,0 +1,178 @@
+package org.opencds.cqf.tooling.processor;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.fhir.ucum.UcumEssenceService;
+import org.fhir.ucum.UcumException;
+import org.fhir.ucum.UcumService;
+import org.hl7.cql.model.ModelIdentifier;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.opencds.cqf.tooling.npm.NpmPackageIndex;
+import org.opencds.cqf.tooling.npm.NpmPackageManager;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the processor state that is expensive to build (the UCUM service, the NPM packages of each IG and the CQL
+ * models used to translate each CQL folder) so that it can be shared by successive runs within a long-lived process,
+ * such as the Daemon operation. The cache is disabled unless enabled by such a process, in which case processors
+ * consult it rather than building their own state.
+ *
+ * The packages of an IG are reloaded when the IG resource or any of the package folders change. The models of a CQL
+ * folder are built again when the packages they may be loaded from are reloaded, or the model info files in the
+ * folder change.
+ */
+public class ProcessorStateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessorStateCache.class);
+
+    private static ProcessorStateCache current;
+
+    public static synchronized ProcessorStateCache enable() {
+        if (current == null) {
+            current = new ProcessorStateCache();
+        }
+        return current;
+    }
+
+    public static synchronized void disable() {
+        current = null;
+    }
+
+    /**
+     * @return the cache, or null if it is not enabled
+     */
+    public static synchronized ProcessorStateCache getCurrent() {
+        return current;
+    }
+
+    private final Map<String, PackageManagerEntry> packageManagers = new HashMap<>();
+    private final Map<String, ModelCacheEntry> modelCaches = new HashMap<>();
+    private UcumService ucumService;
+
+    private ProcessorStateCache() {
+    }
+
+    /**
+     * Clears the static resource and translation caches, which are not checked for changes on disk, so that the
+     * next run reads the IG content again. The state held by this cache is kept.
+     */
+    public void beginRun() {
+        IOUtils.clearCaches();
+        ResourceUtils.clearElmCache();
+        ValueSetsProcessor.clearCachedValueSets();
+    }
+
+    public synchronized UcumService getUcumService() throws UcumException {
+        if (ucumService == null) {
+            ucumService = new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
+        }
+        return ucumService;
+    }
+
+    /**
+     * Returns the package manager for the IG at igPath, loading it if it is not cached, or if the IG resource or
+     * the folder of any of its packages has changed since it was loaded.
+     */
+    public synchronized NpmPackageManager getPackageManager(String igPath, String fhirVersion, Supplier<NpmPackageManager> loader) {
+        String key = new File(igPath).getAbsolutePath() + "|" + fhirVersion;
+        String igFingerprint = fingerprint(new File(igPath));
+        PackageManagerEntry entry = packageManagers.get(key);
+        if (entry != null) {
+            if (entry.igFingerprint.equals(igFingerprint) && entry.packagesFingerprint.equals(fingerprint(entry.packageManager))) {
+                return entry.packageManager;
+            }
+            logger.info("IG or package cache changed, reloading packages for {}", igPath);
+        }
+
+        NpmPackageManager packageManager = loader.get();
+        packageManagers.put(key, new PackageManagerEntry(packageManager, igFingerprint, fingerprint(packageManager)));
+        return packageManager;
+    }
+
+    /**
+     * Returns the models built by the CQL translator for the CQL folder, for the ModelManagers of successive runs to
+     * share. The models are built again when the packageIndex is not the one the models were built with, or the model
+     * info files in the folder have changed.
+     * @param packageIndex index of the packages the models may be loaded from, or null if there are none
+     */
+    public synchronized Map<ModelIdentifier, Model> getModelCache(String folder, NpmPackageIndex packageIndex) {
+        String key = new File(folder).getAbsolutePath();
+        String modelInfoFingerprint = modelInfoFingerprint(new File(folder));
+        ModelCacheEntry entry = modelCaches.get(key);
+        if (entry == null || entry.packageIndex != packageIndex || !entry.modelInfoFingerprint.equals(modelInfoFingerprint)) {
+            entry = new ModelCacheEntry(packageIndex, modelInfoFingerprint);
+            modelCaches.put(key, entry);
+        }
+        return entry.models;
+    }
+
+    public synchronized void clear() {
+        packageManagers.clear();
+        modelCaches.clear();
+        ucumService = null;
+    }
+
+    private static String fingerprint(NpmPackageManager packageManager) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (NpmPackage p : packageManager.getNpmList()) {
+            fingerprint.append(p.name()).append('#').append(p.version());
+            if (p.getPath() != null) {
+                // the package folder changes when files are added or removed, package.json when it is reinstalled
+                File packageFolder = new File(p.getPath(), "package");
+                fingerprint.append('|').append(fingerprint(packageFolder)).append('|').append(fingerprint(new File(packageFolder, "package.json")));
+            }
+            fingerprint.append(';');
+        }
+        return fingerprint.toString();
+    }
+
+    private static String modelInfoFingerprint(File folder) {
+        File[] modelInfoFiles = folder.listFiles((dir, name) -> name.toLowerCase().contains("modelinfo") && name.toLowerCase().endsWith(".xml"));
+        if (modelInfoFiles == null) {
+            return "missing";
+        }
+        Arrays.sort(modelInfoFiles);
+        StringBuilder fingerprint = new StringBuilder();
+        for (File file : modelInfoFiles) {
+            fingerprint.append(file.getName()).append('|').append(fingerprint(file)).append(';');
+        }
+        return fingerprint.toString();
+    }
+
+    private static String fingerprint(File file) {
+        return file.exists() ? file.lastModified() + ":" + file.length() : "missing";
+    }
+
+    private static class PackageManagerEntry {
+        private final NpmPackageManager packageManager;
+        private final String igFingerprint;
+        private final String packagesFingerprint;
+
+        private PackageManagerEntry(NpmPackageManager packageManager, String igFingerprint, String packagesFingerprint) {
+            this.packageManager = Objects.requireNonNull(packageManager);
+            this.igFingerprint = igFingerprint;
+            this.packagesFingerprint = packagesFingerprint;
+        }
+    }
+
+    private static class ModelCacheEntry {
+        private final NpmPackageIndex packageIndex;
+        private final String modelInfoFingerprint;
+        private final Map<ModelIdentifier, Model> models = new ConcurrentHashMap<>();
+
+        private ModelCacheEntry(NpmPackageIndex packageIndex, String modelInfoFingerprint) {
+            this.packageIndex = packageIndex;
+            this.modelInfoFingerprint = modelInfoFingerprint;
+        }
+    }
+}
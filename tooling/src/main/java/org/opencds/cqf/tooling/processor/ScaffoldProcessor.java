@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.opencds.cqf.tooling.common.CqfmSoftwareSystem;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 import org.opencds.cqf.tooling.parameter.ScaffoldParameters;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.LogUtils;
@@ -30,22 +31,28 @@ public class ScaffoldProcessor extends BaseProcessor {
         EnsureMeasurePath();
         fhirContext = ResourceUtils.getFhirContext(ResourceUtils.FhirVersion.parse(params.igVersion));
 
-        for (Map.Entry<String, List<String>> resourceEntry : params.resourcesToScaffold.entrySet()) {
-            String resourceName = resourceEntry.getKey();
-            List<String> typesToCreateForResource = resourceEntry.getValue();
-            for (String resourceType : typesToCreateForResource) {
-                switch (resourceType.toLowerCase()) {
-                    case "library":
-                        createLibrary(resourceName);
-                        break;
-                    case "measure":
-                        createMeasure(resourceName);
-                        break;
-                    default:
-
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            for (Map.Entry<String, List<String>> resourceEntry : params.resourcesToScaffold.entrySet()) {
+                String resourceName = resourceEntry.getKey();
+                List<String> typesToCreateForResource = resourceEntry.getValue();
+                for (String resourceType : typesToCreateForResource) {
+                    switch (resourceType.toLowerCase()) {
+                        case "library":
+                            createLibrary(resourceName);
+                            break;
+                        case "measure":
+                            createMeasure(resourceName);
+                            break;
+                        default:
+
+                    }
                 }
             }
         }
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
+        }
     }
 
     private void EnsureLibraryPath() {
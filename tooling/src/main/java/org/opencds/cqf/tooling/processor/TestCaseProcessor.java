@@ -32,23 +32,31 @@ public class TestCaseProcessor
             for (String testArtifactPath : testArtifactPaths) {
                 List<String> testCasePaths = IOUtils.getDirectoryPaths(testArtifactPath, false);
                 for (String testCasePath : testCasePaths) {
-                    try {
-                        List<String> paths = IOUtils.getFilePaths(testCasePath, true);
-                        List<IBaseResource> resources = IOUtils.readResources(paths, fhirContext);
-                        ensureIds(testCasePath, resources);
-                        Object bundle = BundleUtils.bundleArtifacts(getId(FilenameUtils.getName(testCasePath)), resources, fhirContext, false);
-                        IOUtils.writeBundle(bundle, testArtifactPath, encoding, fhirContext);
-                    } catch (Exception e) {
-                        LogUtils.putException(testCasePath, e);
-                    }
-                    finally {
-                        LogUtils.warn(testCasePath);
-                    }
+                    refreshTestCase(testArtifactPath, testCasePath, encoding, fhirContext);
                 }
             }
         }
     }
 
+    /*
+    Refreshes the bundle of the test case in testCasePath, which is written to testArtifactPath
+     */
+    public void refreshTestCase(String testArtifactPath, String testCasePath, IOUtils.Encoding encoding, FhirContext fhirContext)
+    {
+        try {
+            List<String> paths = IOUtils.getFilePaths(testCasePath, true);
+            List<IBaseResource> resources = IOUtils.readResources(paths, fhirContext);
+            ensureIds(testCasePath, resources);
+            Object bundle = BundleUtils.bundleArtifacts(getId(FilenameUtils.getName(testCasePath)), resources, fhirContext, false);
+            IOUtils.writeBundle(bundle, testArtifactPath, encoding, fhirContext);
+        } catch (Exception e) {
+            LogUtils.putException(testCasePath, e);
+        }
+        finally {
+            LogUtils.warn(testCasePath);
+        }
+    }
+
     public static List<IBaseResource> getTestCaseResources(String path, FhirContext fhirContext)
     {
         List<IBaseResource> resources = new ArrayList<IBaseResource>();
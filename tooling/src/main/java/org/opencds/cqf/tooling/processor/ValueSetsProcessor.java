@@ -66,6 +66,10 @@ public class ValueSetsProcessor {
         return cachedValueSets;
     }
 
+    public static void clearCachedValueSets() {
+        cachedValueSets = null;
+    }
+
     private static void IntitializeCachedValueSets(FhirContext fhirContext) {
         List<String> allValueSetPaths = IOUtils.getTerminologyPaths(fhirContext).stream().collect(Collectors.toList());
         List<IBaseResource> allValueSets = IOUtils.readResources(allValueSetPaths, fhirContext); 
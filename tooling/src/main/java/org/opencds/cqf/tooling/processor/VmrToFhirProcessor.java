@@ -1,16 +1,23 @@
 package org.opencds.cqf.tooling.processor;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.UUID;
 
 import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.r4.model.IdType;
@@ -18,6 +25,7 @@ import org.hl7.fhir.r4.model.Patient;
 import org.opencds.cqf.tooling.parameter.VmrToFhirParameters;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 import org.opencds.cqf.tooling.vmrToFhir.VmrToFhirTransformer;
 import org.opencds.vmr.v1_0.schema.CDSOutput;
 import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
@@ -31,19 +39,66 @@ import ca.uhn.fhir.util.BundleBuilder;
 
 /**
  * Provides Transformation processing from vMR to Fhir.
- * 
+ *
  * @author Joshua Reynolds
  * @since 2021-04-05
  */
 public class VmrToFhirProcessor {
+    private static final String CDS_OUTPUT_ELEMENT = "cdsOutput";
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+    private static JAXBContext jaxbContext;
+    // Unmarshallers are not thread safe, so each worker gets its own from the shared JAXBContext
+    private static final ThreadLocal<Unmarshaller> unmarshaller = ThreadLocal.withInitial(() -> {
+        try {
+            return getJaxbContext().createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new RuntimeException("Error creating vMR unmarshaller: " + e.getMessage(), e);
+        }
+    });
+
     /**
-     * Transforms Vmr CDSOutput data to FHIR equivalent
+     * Transforms Vmr CDSOutput data to FHIR equivalent.
+     * The vMR data path may be a single file or a directory of files, and each file may hold one or more cdsOutput
+     * documents (e.g. a concatenation of documents wrapped in a single root element). Documents are read as a stream
+     * and transformed on params.threads workers, and the output for each patient is written as soon as it is
+     * transformed, so the number of documents held in memory does not grow with the size of the input.
      * @param params the {@link VmrToFhirParameters VmrToFhirParameters}
      */
     public static void transform(VmrToFhirParameters params) {
-        FhirContext context = FhirVersionEnum.forVersionString(params.fhirVersion).newContext();
-        File file = new File(params.vmrDataPath);
-        CDSOutput cdsOutput = unmarshallCdsOutput(file);
+        FhirContext context = FhirContext.forCached(FhirVersionEnum.forVersionString(params.fhirVersion));
+        File input = new File(params.vmrDataPath);
+        int[] documentCount = { 0 };
+        if (input.isDirectory()) {
+            File[] files = input.listFiles(file -> file.isFile() && file.getName().endsWith(".xml"));
+            if (files == null) {
+                throw new IllegalArgumentException("Unable to list vMR data directory: " + input.getAbsolutePath());
+            }
+            Arrays.sort(files);
+            // each worker reads and transforms whole files
+            ThreadUtils.forEachOrdered(Arrays.asList(files), params.threads, file -> {
+                int count = 0;
+                try (CdsOutputReader reader = new CdsOutputReader(file)) {
+                    while (reader.hasNext()) {
+                        transform(reader.next(), params.fhirOutputPath, context);
+                        count++;
+                    }
+                }
+                return count;
+            }, count -> documentCount[0] += count);
+        }
+        else {
+            // the documents of a single file are read on this thread and transformed by the workers
+            try (CdsOutputReader reader = new CdsOutputReader(input)) {
+                ThreadUtils.forEachOrdered(() -> reader, params.threads, cdsOutput -> {
+                    transform(cdsOutput, params.fhirOutputPath, context);
+                    return 1;
+                }, count -> documentCount[0] += count);
+            }
+        }
+        System.out.println(String.format("Transformed %d vMR document(s) from %s", documentCount[0], input.getAbsolutePath()));
+    }
+
+    private static void transform(CDSOutput cdsOutput, String fhirOutputPath, FhirContext context) {
         VMR vmrOutput = cdsOutput.getVmrOutput();
         EvaluatedPerson evaluatedPerson = vmrOutput.getPatient();
         Demographics deomographics = evaluatedPerson.getDemographics();
@@ -53,47 +108,86 @@ public class VmrToFhirProcessor {
         List<IAnyResource> resources = transformer.transform(clinicalStatements);
         BundleBuilder bundleBuilder = new BundleBuilder(context);
         bundleBuilder.setBundleField("id", new IdType(UUID.randomUUID().toString()).getIdPart());
-        writeOutput(params.fhirOutputPath, context, patient, resources, bundleBuilder);
+        writeOutput(fhirOutputPath, context, patient, resources, bundleBuilder);
     }
 
     private static void writeOutput(String fhirOutputPath, FhirContext context, Patient patient, List<IAnyResource> resources,
             BundleBuilder bundleBuilder) {
         File outputDirectory = new File(fhirOutputPath + "/" + patient.getIdElement().getIdPart());
-        if (!outputDirectory.isDirectory()) {
-            outputDirectory.mkdirs();
-        }
-        File patientDirectory = new File(outputDirectory, "Patient");
-        if (!patientDirectory.isDirectory()) {
-            patientDirectory.mkdirs();
-        }
-        IOUtils.writeResource(patient, patientDirectory.getAbsolutePath(), Encoding.JSON, context);
-        File dataDirectory = new File(outputDirectory, "Data");
-        if (!dataDirectory.isDirectory()) {
-            dataDirectory.mkdirs();
-        }
+        IOUtils.writeResource(patient, new File(outputDirectory, "Patient").getAbsolutePath(), Encoding.JSON, context);
         resources.stream().forEach(resource -> bundleBuilder.addCollectionEntry(resource));
-        IOUtils.writeBundle(bundleBuilder.getBundle(), dataDirectory.getAbsolutePath(), Encoding.JSON, context);
+        IOUtils.writeBundle(bundleBuilder.getBundle(), new File(outputDirectory, "Data").getAbsolutePath(), Encoding.JSON, context);
     }
 
-    @SuppressWarnings("rawtypes")
-    private static CDSOutput unmarshallCdsOutput(File file) {
-        CDSOutput cdsOutput = null;
-        String cdsCanonical = CDSOutput.class.getCanonicalName();
-        String classPackageName = cdsCanonical.substring(0, cdsCanonical.lastIndexOf("."));
-        try {
-            Unmarshaller unmarshaller = JAXBContext.newInstance(classPackageName).createUnmarshaller();
-            InputStream inputStream = new FileInputStream(file);
-            Object unmarshalledObject = unmarshaller.unmarshal(inputStream);
-            if (unmarshalledObject instanceof JAXBElement) {
-                cdsOutput = (CDSOutput) ((JAXBElement) unmarshalledObject).getValue();
-            } else {
-                cdsOutput = (CDSOutput) unmarshalledObject;
+    private static synchronized JAXBContext getJaxbContext() throws JAXBException {
+        if (jaxbContext == null) {
+            String cdsCanonical = CDSOutput.class.getCanonicalName();
+            String classPackageName = cdsCanonical.substring(0, cdsCanonical.lastIndexOf("."));
+            jaxbContext = JAXBContext.newInstance(classPackageName);
+        }
+        return jaxbContext;
+    }
+
+    /**
+     * Reads the cdsOutput documents of a file one at a time, unmarshalling each element as it is reached.
+     */
+    private static class CdsOutputReader implements Iterator<CDSOutput>, AutoCloseable {
+        private final File file;
+        private final InputStream inputStream;
+        private final XMLStreamReader xmlReader;
+        private CDSOutput next;
+
+        private CdsOutputReader(File file) {
+            this.file = file;
+            try {
+                inputStream = new BufferedInputStream(new FileInputStream(file));
+                xmlReader = xmlInputFactory.createXMLStreamReader(inputStream);
+            } catch (IOException | XMLStreamException e) {
+                e.printStackTrace();
+                throw new RuntimeException("Error reading vMR data file " + file.getAbsolutePath() + ": " + e.getMessage());
             }
-        } catch (JAXBException e) {
-            e.printStackTrace();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
         }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            try {
+                while (xmlReader.hasNext()) {
+                    if (xmlReader.getEventType() == XMLStreamConstants.START_ELEMENT
+                            && xmlReader.getLocalName().equals(CDS_OUTPUT_ELEMENT)) {
+                        // leaves the reader on the event following the end of the element
+                        next = unmarshaller.get().unmarshal(xmlReader, CDSOutput.class).getValue();
+                        return true;
+                    }
+                    xmlReader.next();
+                }
+            } catch (JAXBException | XMLStreamException e) {
+                e.printStackTrace();
+                throw new RuntimeException("Error reading vMR data file " + file.getAbsolutePath() + ": " + e.getMessage());
+            }
+            return false;
+        }
+
+        @Override
+        public CDSOutput next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CDSOutput cdsOutput = next;
+            next = null;
             return cdsOutput;
         }
+
+        @Override
+        public void close() {
+            try {
+                xmlReader.close();
+                inputStream.close();
+            } catch (IOException | XMLStreamException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
@@ -23,6 +23,8 @@ public class GenerateCQLFromDroolArgumentProcessor {
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhirVersion"};
     public static final String[] INPUT_FILE_PATH_OPTIONS = {"ip", "inputPath", "input-path", "ifp", "inputFilePath", "input-file-path", "input-filePath"};
     public static final String[] CQLTYPES_OPTIONS = {"type", "t"};
+    public static final String[] THREADS_OPTIONS = {"threads", "th"};
+    public static final String[] STREAM_OUTPUT_OPTIONS = {"stream", "so", "streamOutput"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -33,12 +35,15 @@ public class GenerateCQLFromDroolArgumentProcessor {
         OptionSpecBuilder inputFilePathBuilder = parser.acceptsAll(asList(INPUT_FILE_PATH_OPTIONS),"Must be a path to encoded logic export required for cql generation.");
         OptionSpecBuilder fhirVersionBuilder = parser.acceptsAll(asList(FHIR_VERSION_OPTIONS),"If omitted, defualt version will be 4.0.0");
         OptionSpecBuilder cqlTypeBuilder = parser.acceptsAll(asList(CQLTYPES_OPTIONS),"If omitted, defualt granularity will be CONDITION");
+        OptionSpecBuilder threadsBuilder = parser.acceptsAll(asList(THREADS_OPTIONS),"If omitted, conditions will be visited sequentially");
+        OptionSpecBuilder streamOutputBuilder = parser.acceptsAll(asList(STREAM_OUTPUT_OPTIONS),"Write each library as soon as it is generated rather than once generation completes");
 
         OptionSpec<String> outputPath = outputBuilder.withRequiredArg().describedAs("path to desired cql generation output");
         OptionSpec<String> encoding = encodingBuilder.withOptionalArg().describedAs("input encoding (as of now can only be json)").defaultsTo("json"); 
         OptionSpec<String> inputFilePath = inputFilePathBuilder.withRequiredArg().describedAs("input encoded file path");
         OptionSpec<String> fhirVersion = fhirVersionBuilder.withOptionalArg().describedAs("FHIR Model Version to map elm to.");
         OptionSpec<String> cqlType = cqlTypeBuilder.withOptionalArg().describedAs("Elm Granularity Option.");
+        OptionSpec<String> threads = threadsBuilder.withOptionalArg().describedAs("number of threads used to generate libraries");
 
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
 
@@ -73,12 +78,25 @@ public class GenerateCQLFromDroolArgumentProcessor {
             default: throw new IllegalArgumentException("Unknown cql type: " + cqlTypeString);
         }
     
+        String threadsString = (String)options.valueOf(THREADS_OPTIONS[0]);
+        int threads = 1;
+        if (threadsString != null) {
+            try {
+                threads = Integer.parseInt(threadsString);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid thread count: " + threadsString);
+            }
+        }
+        boolean streamOutput = options.has(STREAM_OUTPUT_OPTIONS[0]);
+
         GenerateCQLFromDroolParameters gcdp = new GenerateCQLFromDroolParameters();
         gcdp.outputPath = outputPath;
         gcdp.encoding = encodingEnum;
         gcdp.inputFilePath = inputFilePath;
         gcdp.fhirVersion = fhirVersion;
         gcdp.type = cqlType;
+        gcdp.threads = threads;
+        gcdp.streamOutput = streamOutput;
        
         return gcdp;
 	}
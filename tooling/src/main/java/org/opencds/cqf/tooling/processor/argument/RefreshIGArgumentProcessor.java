@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
+import org.opencds.cqf.tooling.processor.IGContentWatcher;
 import org.opencds.cqf.tooling.utilities.ArgUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
@@ -35,6 +36,9 @@ public class RefreshIGArgumentProcessor {
     public static final String[] MEASURE_OUTPUT_PATH_OPTIONS = {"measureOutput", "measureOutputPath", "mop"};
     public static final String[] SHOULD_APPLY_SOFTWARE_SYSTEM_STAMP_OPTIONS = { "ss", "stamp" };
     public static final String[] SHOULD_ADD_TIMESTAMP_OPTIONS = { "ts", "timestamp" };
+    public static final String[] WATCH_OPTIONS = { "w", "watch" };
+    public static final String[] WATCH_DEBOUNCE_OPTIONS = { "wd", "watch-debounce" };
+    public static final String[] PACKAGE_THREADS_OPTIONS = { "pt", "package-threads" };
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -51,6 +55,8 @@ public class RefreshIGArgumentProcessor {
         OptionSpecBuilder measureOutputPathBuilder = parser.acceptsAll(asList(MEASURE_OUTPUT_PATH_OPTIONS),"If omitted, the measures will overwrite any existing measures");
         OptionSpecBuilder shouldApplySoftwareSystemStampBuilder = parser.acceptsAll(asList(SHOULD_APPLY_SOFTWARE_SYSTEM_STAMP_OPTIONS),"Indicates whether refreshed Measure and Library resources should be stamped with the 'cqf-tooling' stamp via the cqfm-softwaresystem Extension.");
         OptionSpecBuilder shouldAddTimestampBuilder = parser.acceptsAll(asList(SHOULD_ADD_TIMESTAMP_OPTIONS),"Indicates whether refreshed Bundle should attach timestamp of creation.");
+        OptionSpecBuilder watchDebounceBuilder = parser.acceptsAll(asList(WATCH_DEBOUNCE_OPTIONS),"If omitted, changes are refreshed once no further changes have been seen for " + IGContentWatcher.DEFAULT_DEBOUNCE_MILLIS + " milliseconds.");
+        OptionSpecBuilder packageThreadsBuilder = parser.acceptsAll(asList(PACKAGE_THREADS_OPTIONS),"If omitted, the packages the IG depends on are loaded one at a time.");
 
         OptionSpec<String> ini = iniBuilder.withRequiredArg().describedAs("Path to the IG ini file");
         OptionSpec<String> rootDir = rootDirBuilder.withOptionalArg().describedAs("Root directory of the IG");
@@ -62,6 +68,8 @@ public class RefreshIGArgumentProcessor {
         OptionSpec<String> measureOutputPath = measureOutputPathBuilder.withOptionalArg().describedAs("path to the output directory for updated measures");
         OptionSpec<String> shouldApplySoftwareSystemStamp = shouldApplySoftwareSystemStampBuilder.withOptionalArg().describedAs("Indicates whether refreshed Measure and Library resources should be stamped with the 'cqf-tooling' stamp via the cqfm-softwaresystem Extension");
         OptionSpec<String> shouldAddTimestampOptions = shouldAddTimestampBuilder.withOptionalArg().describedAs("Indicates whether refreshed Bundle should attach timestamp of creation");
+        OptionSpec<String> watchDebounce = watchDebounceBuilder.withRequiredArg().describedAs("milliseconds without changes before a refresh in watch mode");
+        OptionSpec<String> packageThreads = packageThreadsBuilder.withRequiredArg().describedAs("maximum number of packages the IG depends on loaded concurrently");
 
         //TODO: FHIR user / password (and other auth options)
         OptionSpec<String> fhirUri = fhirUriBuilder.withOptionalArg().describedAs("uri of fhir server");  
@@ -72,6 +80,7 @@ public class RefreshIGArgumentProcessor {
         parser.acceptsAll(asList(INCLUDE_TERMINOLOGY_OPTIONS),"If omitted terminology will not be packaged.");
         parser.acceptsAll(asList(INCLUDE_PATIENT_SCENARIOS_OPTIONS),"If omitted patient scenario information will not be packaged.");
         parser.acceptsAll(asList(VERSIONED_OPTIONS),"If omitted resources must be uniquely named.");
+        parser.acceptsAll(asList(WATCH_OPTIONS),"If present, keeps running after the refresh and refreshes the content affected by changes to the cql, resource and test directories.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
 
@@ -128,6 +137,32 @@ public class RefreshIGArgumentProcessor {
             addBundleTimestamp = true;
         }
 
+        Boolean watch = options.has(WATCH_OPTIONS[0]);
+        Long watchDebounce = IGContentWatcher.DEFAULT_DEBOUNCE_MILLIS;
+        String watchDebounceValue = (String)options.valueOf(WATCH_DEBOUNCE_OPTIONS[0]);
+        if (watchDebounceValue != null) {
+            try {
+                watchDebounce = Long.parseLong(watchDebounceValue);
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid watch debounce: " + watchDebounceValue);
+            }
+        }
+
+        Integer packageThreadCount = 1;
+        String packageThreadsValue = (String)options.valueOf(PACKAGE_THREADS_OPTIONS[0]);
+        if (packageThreadsValue != null) {
+            try {
+                packageThreadCount = Integer.parseInt(packageThreadsValue);
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid package threads: " + packageThreadsValue);
+            }
+            if (packageThreadCount < 1) {
+                throw new IllegalArgumentException("Invalid package threads: " + packageThreadsValue);
+            }
+        }
+
         ArrayList<String> paths = new ArrayList<String>();
         if (resourcePaths != null && !resourcePaths.isEmpty()) {
             paths.addAll(resourcePaths);
@@ -150,6 +185,9 @@ public class RefreshIGArgumentProcessor {
         ip.measureToRefreshPath = measureToRefreshPath;
         ip.libraryOutputPath = libraryOutputPath;
         ip.measureOutputPath = measureOutputPath;
+        ip.watch = watch;
+        ip.watchDebounce = watchDebounce;
+        ip.packageThreadCount = packageThreadCount;
        
         return ip;
     }
@@ -20,6 +20,7 @@ public class VmrToFhirArgumentProcessor {
     public static final String[] ENCODING_OPTIONS = {"e", "encoding"};
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhirVersion"};
     public static final String[] INPUT_FILE_PATH_OPTIONS = {"ip", "inputPath", "input-path", "ifp", "inputFilePath", "input-file-path", "input-filePath"};
+    public static final String[] THREADS_OPTIONS = {"threads", "th"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -27,13 +28,15 @@ public class VmrToFhirArgumentProcessor {
 
         OptionSpecBuilder outputBuilder = parser.acceptsAll(asList(OUTPUT_PATH_OPTIONS),"Will be created if file path does not currently exist.");
         OptionSpecBuilder encodingBuilder = parser.acceptsAll(asList(ENCODING_OPTIONS), "If omitted, encoding input will be expected to be xml.");
-        OptionSpecBuilder inputFilePathBuilder = parser.acceptsAll(asList(INPUT_FILE_PATH_OPTIONS),"Must be a path to Vmr Data File.");
+        OptionSpecBuilder inputFilePathBuilder = parser.acceptsAll(asList(INPUT_FILE_PATH_OPTIONS),"Must be a path to Vmr Data File or to a directory of Vmr Data Files.");
         OptionSpecBuilder fhirVersionBuilder = parser.acceptsAll(asList(FHIR_VERSION_OPTIONS),"If omitted, defualt version will be 4.0.0");
+        OptionSpecBuilder threadsBuilder = parser.acceptsAll(asList(THREADS_OPTIONS),"If omitted, documents will be transformed sequentially");
 
         OptionSpec<String> outputPath = outputBuilder.withRequiredArg().describedAs("path to fhir data output");
         OptionSpec<String> encoding = encodingBuilder.withOptionalArg().describedAs("input encoding (as of now can only be xml)").defaultsTo("xml"); 
         OptionSpec<String> inputFilePath = inputFilePathBuilder.withRequiredArg().describedAs("input vmr file path");
         OptionSpec<String> fhirVersion = fhirVersionBuilder.withOptionalArg().describedAs("FHIR Model Version to map elm to.");
+        OptionSpec<String> threads = threadsBuilder.withOptionalArg().describedAs("number of threads used to transform documents");
 
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
 
@@ -56,12 +59,22 @@ public class VmrToFhirArgumentProcessor {
         }
         String encoding = (String)options.valueOf(ENCODING_OPTIONS[0]);
         Encoding encodingEnum = Encoding.parse(encoding.toLowerCase());
+        String threadsString = (String)options.valueOf(THREADS_OPTIONS[0]);
+        int threads = 1;
+        if (threadsString != null) {
+            try {
+                threads = Integer.parseInt(threadsString);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid thread count: " + threadsString);
+            }
+        }
     
         VmrToFhirParameters vtfp = new VmrToFhirParameters();
         vtfp.vmrDataPath = inputFilePath;
         vtfp.encoding = encodingEnum;
         vtfp.fhirOutputPath = outputPath;
         vtfp.fhirVersion = fhirVersion;
+        vtfp.threads = threads;
        
         return vtfp;
 	}
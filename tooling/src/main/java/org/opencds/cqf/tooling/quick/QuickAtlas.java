@@ -2,13 +2,18 @@ package org.opencds.cqf.tooling.quick;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.StructureDefinition;
 
@@ -34,6 +39,12 @@ public class QuickAtlas {
         return qicoreUrlToType;
     }
 
+    // Container for the content hashes of the QiCore profile files (StructureDefinition.type -> sha256 of the file)
+    private Map<String, String> qicoreProfileHashes = new HashMap<>();
+    public Map<String, String> getQicoreProfileHashes() {
+        return qicoreProfileHashes;
+    }
+
     // Container for the FHIR types (StructureDefinition.type -> StructureDefinition)
     private Map<String, StructureDefinition> fhirTypes = new TreeMap<>();
     public Map<String, StructureDefinition> getFhirTypes() {
@@ -52,14 +63,16 @@ public class QuickAtlas {
         return fhirExtensions;
     }
 
+    // The link, profile and complex type maps are written while the profile pages are generated, possibly in parallel
+
     // Container for links (StructureDefinition.type -> html file name)
-    private Map<String, String> linkMap = new HashMap<>();
+    private Map<String, String> linkMap = new ConcurrentHashMap<>();
     public Map<String, String> getLinkMap() {
         return linkMap;
     }
 
     // Container for profile links (StructureDefinition.type -> html file name)
-    private Map<String, String> profileMap = new TreeMap<>();
+    private Map<String, String> profileMap = new ConcurrentSkipListMap<>();
     public Map<String, String> getProfileMap() {
         return profileMap;
     }
@@ -71,7 +84,7 @@ public class QuickAtlas {
     }
 
     // Container for complex type links (type -> html file name)
-    private Map<String, String> complexMap = new TreeMap<>();
+    private Map<String, String> complexMap = new ConcurrentSkipListMap<>();
     public Map<String, String> getComplexMap() {
         return complexMap;
     }
@@ -142,6 +155,7 @@ public class QuickAtlas {
 
     /**
      * Read and store all the QiCore profiles from the provided directory. Expects profile file names to start with "StructureDefinition-".
+     * The content hash of each profile file is kept so that page generation can skip profiles that have not changed.
      * @throws FileNotFoundException - this Exception will not be raised as written, but must be accounted for when using FileReader
      */
     private void resolveQiCoreProfiles() throws FileNotFoundException {
@@ -157,13 +171,21 @@ public class QuickAtlas {
         );
         if (qicoreSds != null) {
             for (File file : qicoreSds) {
-                StructureDefinition sd = context.newXmlParser().parseResource(StructureDefinition.class, new FileReader(file));
+                byte[] content;
+                try {
+                    content = Files.readAllBytes(file.toPath());
+                }
+                catch (IOException e) {
+                    throw new IllegalArgumentException("Error reading QiCore profile " + file.getAbsolutePath(), e);
+                }
+                StructureDefinition sd = context.newXmlParser().parseResource(StructureDefinition.class, new String(content, StandardCharsets.UTF_8));
                 if (sd.getType().equals("Extension")) {
                     qicoreExtensions.put(sd.getUrl(), sd);
                 }
                 else {
                     qicoreProfiles.put(sd.getType(), sd);
                     qicoreUrlToType.put(sd.getUrl(), sd.getType());
+                    qicoreProfileHashes.put(sd.getType(), DigestUtils.sha256Hex(content));
                 }
             }
         }
@@ -1,14 +1,24 @@
 package org.opencds.cqf.tooling.quick;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r4.model.CanonicalType;
@@ -18,16 +28,30 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 
 import ca.uhn.fhir.context.FhirContext;
 
 public class QuickPageGenerator extends Operation {
 
+    // Bump when a change to the generator changes the pages it writes, so that -incremental runs regenerate them
+    private static final String GENERATOR_VERSION = "1";
+    private static final String MANIFEST_FILE = "quick-pages.properties";
+
     // Assuming R4
     private FhirContext context = FhirContext.forR4Cached();
     private String qicoreDirPath;
     private QuickAtlas atlas;
+    private int threadCount = ThreadUtils.getDefaultThreadCount();
+    private boolean incremental;
+
+    /*
+        args[1]: path to the QiCore output directory
+        args[2..]: (output directory path) (-threads | -t) (-incremental | -inc)
 
+        threads: Number of threads used to generate the profile pages (default is the number of available processors)
+        incremental: Only regenerate the pages of profiles that changed since the last incremental run into the output directory
+    */
     @Override
     public void execute(String[] args) {
         // some validation and basic setup
@@ -35,12 +59,22 @@ public class QuickPageGenerator extends Operation {
             throw new IllegalArgumentException("The path to the QiCore output directory must be provided!");
         }
         qicoreDirPath = args[1];
-        if (args.length > 2) {
-            setOutputPath(args[2]);
-        }
-        else {
-            // default
-            setOutputPath("src/main/resources/org/opencds/cqf/tooling/quick/output");
+        // default
+        setOutputPath("src/main/resources/org/opencds/cqf/tooling/quick/output");
+        for (int i = 2; i < args.length; i++) {
+            if (!args[i].startsWith("-")) {
+                setOutputPath(args[i]);
+                continue;
+            }
+            String[] flagAndValue = args[i].split("=");
+            String flag = flagAndValue[0];
+            String value = flagAndValue.length < 2 ? null : flagAndValue[1];
+
+            switch (flag.replace("-", "").toLowerCase()) {
+                case "threads": case "t": threadCount = Integer.parseInt(value); break; // -threads (-t)
+                case "incremental": case "inc": incremental = value == null || value.toLowerCase().equals("true"); break; // -incremental (-inc)
+                default: throw new IllegalArgumentException("Unknown flag: " + flag);
+            }
         }
 
         // resolving and processing definitions for the operation
@@ -63,165 +97,213 @@ public class QuickPageGenerator extends Operation {
     }
 
     /**
-     *
+     * Generates the pages of the QiCore profiles, using threadCount workers. In incremental mode, profiles whose
+     * source and context are unchanged since the last run (per the page manifest in the output directory) and whose
+     * pages still exist are skipped, and the link and complex type entries recorded for them are restored instead.
      * @throws IOException
      */
     private void processQiCoreProfiles() throws IOException, FHIRException {
+        // register every profile page up front so that links between profiles do not depend on the order the pages are generated in
+        for (String profile : atlas.getQicoreProfiles().keySet()) {
+            String fileName = new HtmlBuilder(profile, atlas).getFileName();
+            atlas.getLinkMap().put(profile, fileName);
+            atlas.getProfileMap().put(profile, fileName);
+        }
+
+        String contextHash = getContextHash();
+        Properties manifest = incremental ? readManifest() : new Properties();
+        Map<String, ProfilePages> generated = new ConcurrentHashMap<>();
+        List<Map.Entry<String, StructureDefinition>> pending = new ArrayList<>();
         for (Map.Entry<String, StructureDefinition> entrySet : atlas.getQicoreProfiles().entrySet()) {
-            System.out.println("Processing the " + entrySet.getKey() + " profile...");
+            String hash = getProfileHash(contextHash, entrySet.getKey());
+            ProfilePages pages = incremental ? ProfilePages.fromManifest(manifest, entrySet.getKey(), hash) : null;
+            if (pages != null && pages.fileNames.stream().allMatch(fileName -> new File(getOutputPath(), fileName).isFile())) {
+                System.out.println("Skipping the unchanged " + entrySet.getKey() + " profile...");
+                generated.put(entrySet.getKey(), pages);
+            }
+            else {
+                pending.add(entrySet);
+            }
+        }
 
-            // Initialize HTML page
-            HtmlBuilder html = new HtmlBuilder(entrySet.getKey(), atlas);
+        ThreadUtils.forEach(pending, threadCount, entrySet -> {
+            ProfilePages pages = processQiCoreProfile(entrySet);
+            pages.hash = getProfileHash(contextHash, entrySet.getKey());
+            generated.put(entrySet.getKey(), pages);
+        });
 
-            // store relative URL in QuickAtlas maps
-            atlas.getLinkMap().put(entrySet.getKey(), html.getFileName());
-            atlas.getProfileMap().put(entrySet.getKey(), html.getFileName());
+        Properties updated = new Properties();
+        for (Map.Entry<String, ProfilePages> entry : generated.entrySet()) {
+            atlas.getComplexMap().putAll(entry.getValue().complexTypes);
+            entry.getValue().toManifest(updated, entry.getKey());
+        }
+        if (incremental) {
+            try (Writer writer = Files.newBufferedWriter(Paths.get(getOutputPath(), MANIFEST_FILE), StandardCharsets.UTF_8)) {
+                updated.store(writer, "QUICK page manifest, used by -incremental runs");
+            }
+        }
+    }
 
-            try {
+    /**
+     *
+     * @param entrySet
+     * @return the pages written for the profile and the complex types it references
+     */
+    private ProfilePages processQiCoreProfile(Map.Entry<String, StructureDefinition> entrySet) {
+        System.out.println("Processing the " + entrySet.getKey() + " profile...");
 
-                // Each QiCore profile must have a differential and a snapshot with elements
-                if (entrySet.getValue().hasDifferential() && entrySet.getValue().getDifferential().hasElement()
-                        && entrySet.getValue().hasSnapshot() && entrySet.getValue().getSnapshot().hasElement()) {
-                    html.buildHeader(entrySet.getKey());
-                    Map<String, ElementDefinition> snapshotMap = resolveSnapshotElements(entrySet.getValue().getSnapshot());
-                    Map<String, String> backboneElements = new HashMap<>();
-                    Map<String, HtmlBuilder> backboneHtml = new HashMap<>();
+        // Initialize HTML page
+        HtmlBuilder html = new HtmlBuilder(entrySet.getKey(), atlas);
 
-                    // Get the profile definition - check the differential first
-                    if (entrySet.getValue().getDifferential().getElementFirstRep().hasDefinition()) {
-                        html.buildParagraph(entrySet.getValue().getDifferential().getElementFirstRep().getDefinition());
-                    } else {
-                        html.buildParagraph(entrySet.getValue().getSnapshot().getElementFirstRep().getDefinition());
-                    }
+        ProfilePages pages = new ProfilePages();
 
-                    // Begin building the table of profile elements
-                    html.buildLegend().buildTableStart();
+        try {
 
-                    // Walk-through each element in the differential
-                    for (ElementDefinition element : entrySet.getValue().getDifferential().getElement()) {
-                        // get the differential ElementDefinition
-                        ElementDefinition snapshotElement = snapshotMap.get(element.getPath());
-                        // If the differential is null, check to see if the path is for a choice type
-                        if (snapshotElement == null) {
-                            String path = element.getPath();
+            // Each QiCore profile must have a differential and a snapshot with elements
+            if (entrySet.getValue().hasDifferential() && entrySet.getValue().getDifferential().hasElement()
+                    && entrySet.getValue().hasSnapshot() && entrySet.getValue().getSnapshot().hasElement()) {
+                html.buildHeader(entrySet.getKey());
+                Map<String, ElementDefinition> snapshotMap = resolveSnapshotElements(entrySet.getValue().getSnapshot());
+                Map<String, String> backboneElements = new HashMap<>();
+                Map<String, HtmlBuilder> backboneHtml = new HashMap<>();
+
+                // Get the profile definition - check the differential first
+                if (entrySet.getValue().getDifferential().getElementFirstRep().hasDefinition()) {
+                    html.buildParagraph(entrySet.getValue().getDifferential().getElementFirstRep().getDefinition());
+                } else {
+                    html.buildParagraph(entrySet.getValue().getSnapshot().getElementFirstRep().getDefinition());
+                }
 
-                            if (path.endsWith("[x]")) {
-                                path = path.replace("[x]", "");
-                            }
-                            for (Map.Entry<String, ElementDefinition> set : snapshotMap.entrySet()) {
-                                if (set.getValue().getPath().startsWith(path)
-                                        && atlas.getFhirTypes().containsKey((set.getValue().getPath().replace(path, "")))) {
-                                    snapshotElement = set.getValue();
-                                }
-                            }
+                // Begin building the table of profile elements
+                html.buildLegend().buildTableStart();
 
-                            // If the differential is still null, we will assume the differential element does not exist
-                            if (snapshotElement == null) {
-                                throw new IllegalArgumentException("Could not resolve snapshot element for path: " + element.getPath());
-                            }
-                        }
+                // Walk-through each element in the differential
+                for (ElementDefinition element : entrySet.getValue().getDifferential().getElement()) {
+                    // get the differential ElementDefinition
+                    ElementDefinition snapshotElement = snapshotMap.get(element.getPath());
+                    // If the differential is null, check to see if the path is for a choice type
+                    if (snapshotElement == null) {
+                        String path = element.getPath();
 
-                        // Resolve the required table elements - always preferring use of the differential element
-                        boolean mustSupport = element.hasMustSupport() ? element.getMustSupport() : snapshotElement.getMustSupport();
-                        // TODO - for some reason all the modifier values for qicore profile differential elements default to false
-                        boolean isModifier = snapshotElement.getIsModifier();
-                        // Default to false ... will check later
-                        boolean qicoreExtension = false;
-                        String field = element.hasSliceName() ? element.getSliceName() : element.getPath().replace(entrySet.getKey() + ".", "");
-                        if (field.equals(entrySet.getKey()) || field.equals("id") || field.equals("extension")) {
-                            continue;
+                        if (path.endsWith("[x]")) {
+                            path = path.replace("[x]", "");
                         }
-                        String min = element.hasMin() ? Integer.toString(element.getMin()) : Integer.toString(snapshotElement.getMin());
-                        String max = element.hasMax() ? element.getMax() : snapshotElement.getMax();
-                        String card = min + ".." + max;
-
-                        String description = element.hasDefinition() ? element.getDefinition() : snapshotElement.getDefinition();
-                        String binding = "";
-                        if (element.hasBinding() && element.getBinding().hasValueSet()) {
-                            binding += HtmlBuilder.buildBinding(
-                                    element.getBinding().getValueSet(),
-                                    element.getBinding().hasDescription()
-                                            ? element.getBinding().getDescription()
-                                            : element.getBinding().getValueSet(),
-                                    element.getBinding().getStrength().toCode()
-                            );
-                        } else if (snapshotElement.hasBinding() && snapshotElement.getBinding().hasValueSet()) {
-                            binding += HtmlBuilder.buildBinding(
-                                    snapshotElement.getBinding().getValueSet(),
-                                    snapshotElement.getBinding().hasDescription()
-                                            ? snapshotElement.getBinding().getDescription()
-                                            : snapshotElement.getBinding().getValueSet(),
-                                    snapshotElement.getBinding().getStrength().toCode()
-                            );
-                        }
-                        //TODO: check html3 is right
-                        description = StringEscapeUtils.escapeHtml3(description) + binding;
-
-                        String type;
-                        if (element.hasType()) {
-                            type = resolveType(element);
-                        } else if (snapshotElement.hasType()) {
-                            type = resolveType(snapshotElement);
-                        } else {
-                            String[] pathSplit = field.split("\\.");
-                            String path = pathSplit[pathSplit.length - 1];
-                            if (backboneElements.containsKey(path)) {
-                                type = HtmlBuilder.buildLink(atlas.getLinkMap().get(backboneElements.get(path)), path);
-                            } else {
-                                throw new IllegalArgumentException("Could not resolve type declaration for field " + field + " for the profile " + entrySet.getKey());
+                        for (Map.Entry<String, ElementDefinition> set : snapshotMap.entrySet()) {
+                            if (set.getValue().getPath().startsWith(path)
+                                    && atlas.getFhirTypes().containsKey((set.getValue().getPath().replace(path, "")))) {
+                                snapshotElement = set.getValue();
                             }
                         }
-                        // Backbone elements need their own page
-                        if (type.contains("BackboneElement")) {
-                            HtmlBuilder backboneHtmlPage = new HtmlBuilder(element.getPath(), atlas)
-                                    .buildHeader(element.getPath())
-                                    .buildParagraph(description)
-                                    .buildLegend()
-                                    .buildTableStart();
-                            atlas.getLinkMap().put(element.getPath(), backboneHtmlPage.getFileName());
-                            backboneElements.put(field, element.getPath());
-                            type = type.replace("''", atlas.getLinkMap().get(element.getPath())).replace("BackboneElement", field);
-                            backboneHtml.put(field, backboneHtmlPage);
-                        }
 
-                        // Check for max cardinality of many - represent as a List
-                        if (max.equals("*")) {
-                            type = "List&lt;" + type + "&gt;";
+                        // If the differential is still null, we will assume the differential element does not exist
+                        if (snapshotElement == null) {
+                            throw new IllegalArgumentException("Could not resolve snapshot element for path: " + element.getPath());
                         }
+                    }
 
-                        // Empty href are removed (this is for compound extensions)
-                        if (type.contains("href=''")) {
-                            type = type.replace("<a href=''>", "").replace("</a>", "");
-                        }
-                        // Check for QiCore defined extension
-                        if (type.contains("StructureDefinition-qicore")) {
-                            qicoreExtension = true;
-                        }
-                        if (field.contains(".")) {
-                            String base = field.substring(0, field.lastIndexOf("."));
-                            if (backboneHtml.containsKey(base)) {
-                                backboneHtml.get(base)
-                                        .buildRow(mustSupport, isModifier, qicoreExtension, field.replace(base + ".", ""), card, type, description);
-                            }
+                    // Resolve the required table elements - always preferring use of the differential element
+                    boolean mustSupport = element.hasMustSupport() ? element.getMustSupport() : snapshotElement.getMustSupport();
+                    // TODO - for some reason all the modifier values for qicore profile differential elements default to false
+                    boolean isModifier = snapshotElement.getIsModifier();
+                    // Default to false ... will check later
+                    boolean qicoreExtension = false;
+                    String field = element.hasSliceName() ? element.getSliceName() : element.getPath().replace(entrySet.getKey() + ".", "");
+                    if (field.equals(entrySet.getKey()) || field.equals("id") || field.equals("extension")) {
+                        continue;
+                    }
+                    String min = element.hasMin() ? Integer.toString(element.getMin()) : Integer.toString(snapshotElement.getMin());
+                    String max = element.hasMax() ? element.getMax() : snapshotElement.getMax();
+                    String card = min + ".." + max;
+
+                    String description = element.hasDefinition() ? element.getDefinition() : snapshotElement.getDefinition();
+                    String binding = "";
+                    if (element.hasBinding() && element.getBinding().hasValueSet()) {
+                        binding += HtmlBuilder.buildBinding(
+                                element.getBinding().getValueSet(),
+                                element.getBinding().hasDescription()
+                                        ? element.getBinding().getDescription()
+                                        : element.getBinding().getValueSet(),
+                                element.getBinding().getStrength().toCode()
+                        );
+                    } else if (snapshotElement.hasBinding() && snapshotElement.getBinding().hasValueSet()) {
+                        binding += HtmlBuilder.buildBinding(
+                                snapshotElement.getBinding().getValueSet(),
+                                snapshotElement.getBinding().hasDescription()
+                                        ? snapshotElement.getBinding().getDescription()
+                                        : snapshotElement.getBinding().getValueSet(),
+                                snapshotElement.getBinding().getStrength().toCode()
+                        );
+                    }
+                    //TODO: check html3 is right
+                    description = StringEscapeUtils.escapeHtml3(description) + binding;
+
+                    String type;
+                    if (element.hasType()) {
+                        type = resolveType(element, pages.complexTypes);
+                    } else if (snapshotElement.hasType()) {
+                        type = resolveType(snapshotElement, pages.complexTypes);
+                    } else {
+                        String[] pathSplit = field.split("\\.");
+                        String path = pathSplit[pathSplit.length - 1];
+                        if (backboneElements.containsKey(path)) {
+                            type = HtmlBuilder.buildLink(atlas.getLinkMap().get(backboneElements.get(path)), path);
                         } else {
-                            html.buildRow(mustSupport, isModifier, qicoreExtension, field, card, type, description);
+                            throw new IllegalArgumentException("Could not resolve type declaration for field " + field + " for the profile " + entrySet.getKey());
                         }
+                    }
+                    // Backbone elements need their own page
+                    if (type.contains("BackboneElement")) {
+                        HtmlBuilder backboneHtmlPage = new HtmlBuilder(element.getPath(), atlas)
+                                .buildHeader(element.getPath())
+                                .buildParagraph(description)
+                                .buildLegend()
+                                .buildTableStart();
+                        atlas.getLinkMap().put(element.getPath(), backboneHtmlPage.getFileName());
+                        backboneElements.put(field, element.getPath());
+                        type = type.replace("''", atlas.getLinkMap().get(element.getPath())).replace("BackboneElement", field);
+                        backboneHtml.put(field, backboneHtmlPage);
+                    }
 
-                        System.out.println(
-                                String.format("Field: %s, Card: %s, Type: %s, Description: %s", field, card, type, description)
-                        );
+                    // Check for max cardinality of many - represent as a List
+                    if (max.equals("*")) {
+                        type = "List&lt;" + type + "&gt;";
                     }
-                    html.buildTableEnd();
 
-                    for (Map.Entry<String, HtmlBuilder> backboneEntry : backboneHtml.entrySet()) {
-                        writeHtmlFile(backboneEntry.getValue().getFileName(), backboneEntry.getValue().buildTableEnd().build());
+                    // Empty href are removed (this is for compound extensions)
+                    if (type.contains("href=''")) {
+                        type = type.replace("<a href=''>", "").replace("</a>", "");
+                    }
+                    // Check for QiCore defined extension
+                    if (type.contains("StructureDefinition-qicore")) {
+                        qicoreExtension = true;
+                    }
+                    if (field.contains(".")) {
+                        String base = field.substring(0, field.lastIndexOf("."));
+                        if (backboneHtml.containsKey(base)) {
+                            backboneHtml.get(base)
+                                    .buildRow(mustSupport, isModifier, qicoreExtension, field.replace(base + ".", ""), card, type, description);
+                        }
+                    } else {
+                        html.buildRow(mustSupport, isModifier, qicoreExtension, field, card, type, description);
                     }
+
+                    System.out.println(
+                            String.format("Field: %s, Card: %s, Type: %s, Description: %s", field, card, type, description)
+                    );
+                }
+                html.buildTableEnd();
+
+                for (Map.Entry<String, HtmlBuilder> backboneEntry : backboneHtml.entrySet()) {
+                    writeHtmlFile(backboneEntry.getValue().getFileName(), backboneEntry.getValue().buildTableEnd().build());
+                    pages.fileNames.add(backboneEntry.getValue().getFileName());
                 }
-                writeHtmlFile(html.getFileName(), html.build());
-            } catch (Exception e) {
-                e.printStackTrace();
-                throw new IllegalArgumentException("QUICK generation failed in processQiCoreProfiles due to the following error: " + e.getMessage());
             }
+            writeHtmlFile(html.getFileName(), html.build());
+            pages.fileNames.add(html.getFileName());
+            return pages;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("QUICK generation failed in processQiCoreProfiles due to the following error: " + e.getMessage());
         }
     }
 
@@ -254,7 +336,7 @@ public class QuickPageGenerator extends Operation {
                 String description = element.getDefinition();
                 //TODO: check html3 is right
                 description = StringEscapeUtils.escapeHtml3(description);
-                String type = resolveType(element);
+                String type = resolveType(element, atlas.getComplexMap());
                 if (type.contains("href=''")) {
                     type = type.replace("<a href=''>", "").replace("</a>", "");
                 }
@@ -363,9 +445,10 @@ public class QuickPageGenerator extends Operation {
     /**
      *
      * @param element
+     * @param complexTypes the complex FHIR types referenced by the element are added here
      * @return
      */
-    private String resolveType(ElementDefinition element) {
+    private String resolveType(ElementDefinition element, Map<String, String> complexTypes) {
         List<String> types = new ArrayList<>();
         try {
             for (ElementDefinition.TypeRefComponent typeRef : element.getType()) {
@@ -424,8 +507,8 @@ public class QuickPageGenerator extends Operation {
                     if (href != null && href.contains("QUICK-Quantity")) {
                         href = "http://cql.hl7.org/02-authorsguide.html#quantities";
                     }
-                    if (atlas.getFhirTypes().containsKey(elementCQLType)) {
-                        atlas.getComplexMap().put(elementCQLType, href);
+                    if (atlas.getFhirTypes().containsKey(elementCQLType) && href != null) {
+                        complexTypes.put(elementCQLType, href);
                     }
 
                     if (href != null && href.contains("qicore")) {
@@ -491,9 +574,77 @@ public class QuickPageGenerator extends Operation {
      * @throws IOException
      */
     private void writeHtmlFile(String fileName, String html) throws IOException {
-        try (FileOutputStream writer = new FileOutputStream(getOutputPath() + "/" + fileName)) {
-            writer.write(html.getBytes());
-            writer.flush();
+        try (Writer writer = Files.newBufferedWriter(Paths.get(getOutputPath(), fileName), StandardCharsets.UTF_8)) {
+            writer.write(html);
+        }
+    }
+
+    /**
+     * The pages of a profile also link to the other QiCore profiles and extensions, so a change to the set of those
+     * changes every page.
+     * @return a hash over the generator version and the QiCore profile and extension urls
+     */
+    private String getContextHash() {
+        StringBuilder context = new StringBuilder(GENERATOR_VERSION);
+        for (Map.Entry<String, String> entry : new TreeMap<>(atlas.getQicoreUrlToType()).entrySet()) {
+            context.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        for (String url : atlas.getQicoreExtensions().keySet()) {
+            context.append('\n').append(url);
+        }
+        return DigestUtils.sha256Hex(context.toString());
+    }
+
+    private String getProfileHash(String contextHash, String profile) {
+        return DigestUtils.sha256Hex(contextHash + atlas.getQicoreProfileHashes().get(profile));
+    }
+
+    private Properties readManifest() throws IOException {
+        Properties manifest = new Properties();
+        Path manifestPath = Paths.get(getOutputPath(), MANIFEST_FILE);
+        if (Files.isRegularFile(manifestPath)) {
+            try (Reader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+                manifest.load(reader);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * The outcome of generating the pages of a profile: the file names written and the complex FHIR types referenced
+     * (type -> html file name), recorded in the page manifest so that an incremental run can skip the profile.
+     */
+    private static class ProfilePages {
+        private String hash;
+        private final List<String> fileNames = new ArrayList<>();
+        private final Map<String, String> complexTypes = new TreeMap<>();
+
+        private static ProfilePages fromManifest(Properties manifest, String profile, String hash) {
+            if (!hash.equals(manifest.getProperty(profile + ".hash"))) {
+                return null;
+            }
+            ProfilePages pages = new ProfilePages();
+            pages.hash = hash;
+            for (String fileName : manifest.getProperty(profile + ".pages", "").split(",")) {
+                if (!fileName.isEmpty()) {
+                    pages.fileNames.add(fileName);
+                }
+            }
+            String complexTypePrefix = profile + ".complexType.";
+            for (String key : manifest.stringPropertyNames()) {
+                if (key.startsWith(complexTypePrefix)) {
+                    pages.complexTypes.put(key.substring(complexTypePrefix.length()), manifest.getProperty(key));
+                }
+            }
+            return pages;
+        }
+
+        private void toManifest(Properties manifest, String profile) {
+            manifest.setProperty(profile + ".hash", hash);
+            manifest.setProperty(profile + ".pages", String.join(",", fileNames));
+            for (Map.Entry<String, String> entry : complexTypes.entrySet()) {
+                manifest.setProperty(profile + ".complexType." + entry.getKey(), entry.getValue());
+            }
         }
     }
 }
@@ -0,0 +1,180 @@
+package org.opencds.cqf.tooling.terminology;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view over a value set expansion database produced by {@link BinaryValueSetDbWriter}.
+ *
+ * The file is memory-mapped and queried in place: opening a database only validates the header, and each
+ * lookup is a handful of binary searches (strings, then value sets, then codes), so nothing is materialized
+ * up front. Lookups only use absolute reads against the buffer, so a single instance can be shared across threads.
+ */
+public class BinaryValueSetDb {
+
+    static final int MAGIC = 0x56534442; // "VSDB"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 7 * 4;
+    static final int NULL_ID = -1;
+    private static final int NOT_FOUND = -2;
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int valueSetCount;
+    private final int stringTableOffset;
+    private final int indexOffset;
+
+    public BinaryValueSetDb(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a binary value set database");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalArgumentException(String.format("Unsupported binary value set database version %d", buffer.getInt(4)));
+        }
+        this.stringCount = buffer.getInt(8);
+        this.valueSetCount = buffer.getInt(12);
+        this.stringTableOffset = buffer.getInt(16);
+        this.indexOffset = buffer.getInt(20);
+    }
+
+    public static BinaryValueSetDb open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping remains valid after the channel is closed
+            return new BinaryValueSetDb(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int getValueSetCount() {
+        return valueSetCount;
+    }
+
+    /**
+     * Returns true if the database contains the given value set. A null version matches any version of the value set.
+     */
+    public boolean hasValueSet(String valueSetUrl, String version) {
+        return findValueSet(valueSetUrl, version, null, null);
+    }
+
+    /**
+     * Returns true if the expansion of the given value set contains the given code. A null version matches any version
+     * of the value set. Code system versions are not considered.
+     */
+    public boolean contains(String valueSetUrl, String version, String system, String code) {
+        if (system == null || code == null) {
+            return false;
+        }
+        return findValueSet(valueSetUrl, version, system, code);
+    }
+
+    private boolean findValueSet(String valueSetUrl, String version, String system, String code) {
+        int urlId = findString(valueSetUrl);
+        if (urlId < 0) {
+            return false;
+        }
+        int versionId = version == null ? NULL_ID : findString(version);
+        if (version != null && versionId < 0) {
+            return false;
+        }
+        int systemId = NULL_ID;
+        int codeId = NULL_ID;
+        if (code != null) {
+            systemId = findString(system);
+            codeId = findString(code);
+            if (systemId < 0 || codeId < 0) {
+                return false;
+            }
+        }
+
+        // lower bound on (url, version), or on url alone when any version matches
+        int low = 0;
+        int high = valueSetCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int entry = indexOffset + mid * 12;
+            int result = Integer.compare(buffer.getInt(entry), urlId);
+            if (result == 0 && version != null) {
+                result = Integer.compare(buffer.getInt(entry + 4), versionId);
+            }
+            if (result < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        for (int i = low; i < valueSetCount; i++) {
+            int entry = indexOffset + i * 12;
+            if (buffer.getInt(entry) != urlId || (version != null && buffer.getInt(entry + 4) != versionId)) {
+                break;
+            }
+            if (code == null || containsCode(buffer.getInt(entry + 8), systemId, codeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean containsCode(int recordOffset, int systemId, int codeId) {
+        int codeCount = buffer.getInt(recordOffset);
+        int codesOffset = recordOffset + 4;
+        int low = 0;
+        int high = codeCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int triple = codesOffset + mid * 12;
+            int result = Integer.compare(buffer.getInt(triple), systemId);
+            if (result == 0) {
+                result = Integer.compare(buffer.getInt(triple + 4), codeId);
+            }
+            if (result < 0) {
+                low = mid + 1;
+            }
+            else if (result > 0) {
+                high = mid - 1;
+            }
+            else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the id of the given string, or NOT_FOUND if the string does not occur in the database
+    private int findString(String value) {
+        if (value == null) {
+            return NOT_FOUND;
+        }
+        int low = 0;
+        int high = stringCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = getString(mid).compareTo(value);
+            if (result < 0) {
+                low = mid + 1;
+            }
+            else if (result > 0) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    String getString(int id) {
+        int offset = buffer.getInt(stringTableOffset + id * 4);
+        int length = buffer.getInt(offset);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
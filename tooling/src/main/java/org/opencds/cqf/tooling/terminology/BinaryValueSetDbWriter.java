@@ -0,0 +1,186 @@
+package org.opencds.cqf.tooling.terminology;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.ValueSet;
+
+/**
+ * Builds the compact binary value set expansion database read by {@link BinaryValueSetDb}.
+ *
+ * All value set urls and versions and all code systems, codes and code versions are interned into a single
+ * string table sorted in natural String order, so that comparing two string ids is the same as comparing the
+ * strings. Each value set expansion is stored as an array of (system, code, version) id triples sorted by id,
+ * and value sets are indexed by (url, version) id pairs, which lets the reader answer membership questions with
+ * binary searches directly against the mapped file.
+ *
+ * Layout (all values are big-endian 32-bit integers, offsets are absolute):
+ * <pre>
+ * header:  magic, format version, string count, value set count, string table offset, index offset, record offset
+ * strings: string count offsets into the string data, followed by [length, UTF-8 bytes] for each string
+ * index:   value set count entries of [url id, version id, record offset], sorted by (url id, version id)
+ * records: [code count, code count triples of [system id, code id, version id]] for each value set
+ * </pre>
+ * A missing value (e.g. a value set without a version) is stored as {@link BinaryValueSetDb#NULL_ID}.
+ */
+public class BinaryValueSetDbWriter {
+
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    // keyed by (url, version) so a later value set with the same identity replaces the earlier one
+    private final Map<String, int[]> valueSets = new LinkedHashMap<>();
+
+    public synchronized void addValueSet(ValueSet valueSet) {
+        int urlId = intern(valueSet.getUrl());
+        int versionId = intern(valueSet.getVersion());
+
+        List<ValueSet.ValueSetExpansionContainsComponent> contains = valueSet.hasExpansion()
+                ? valueSet.getExpansion().getContains() : new ArrayList<>();
+        int[] record = new int[2 + contains.size() * 3];
+        record[0] = urlId;
+        record[1] = versionId;
+        int i = 2;
+        for (ValueSet.ValueSetExpansionContainsComponent cc : contains) {
+            record[i++] = intern(cc.hasSystem() ? cc.getSystem() : null);
+            record[i++] = intern(cc.hasCode() ? cc.getCode() : null);
+            record[i++] = intern(cc.hasVersion() ? cc.getVersion() : null);
+        }
+
+        valueSets.put(urlId + "|" + versionId, record);
+    }
+
+    public synchronized int getValueSetCount() {
+        return valueSets.size();
+    }
+
+    public synchronized void write(String path) throws IOException {
+        // Assign final ids in sorted string order
+        Integer[] order = new Integer[strings.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(strings::get));
+        int[] remap = new int[order.length];
+        byte[][] encoded = new byte[order.length][];
+        for (int newId = 0; newId < order.length; newId++) {
+            remap[order[newId]] = newId;
+            encoded[newId] = strings.get(order[newId]).getBytes(StandardCharsets.UTF_8);
+        }
+
+        List<int[]> records = new ArrayList<>(valueSets.size());
+        for (int[] record : valueSets.values()) {
+            records.add(remapRecord(record, remap));
+        }
+        records.sort((x, y) -> x[0] != y[0] ? Integer.compare(x[0], y[0]) : Integer.compare(x[1], y[1]));
+
+        long stringTableOffset = BinaryValueSetDb.HEADER_SIZE;
+        long stringDataOffset = stringTableOffset + 4L * encoded.length;
+        long indexOffset = stringDataOffset;
+        for (byte[] bytes : encoded) {
+            indexOffset += 4L + bytes.length;
+        }
+        long recordOffset = indexOffset + 12L * records.size();
+        long size = recordOffset;
+        for (int[] record : records) {
+            size += 4L + 4L * (record.length - 2);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Value set database would be %d bytes, which exceeds the maximum supported size", size));
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(BinaryValueSetDb.MAGIC);
+            out.writeInt(BinaryValueSetDb.FORMAT_VERSION);
+            out.writeInt(encoded.length);
+            out.writeInt(records.size());
+            out.writeInt((int) stringTableOffset);
+            out.writeInt((int) indexOffset);
+            out.writeInt((int) recordOffset);
+
+            long offset = stringDataOffset;
+            for (byte[] bytes : encoded) {
+                out.writeInt((int) offset);
+                offset += 4L + bytes.length;
+            }
+            for (byte[] bytes : encoded) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            offset = recordOffset;
+            for (int[] record : records) {
+                out.writeInt(record[0]);
+                out.writeInt(record[1]);
+                out.writeInt((int) offset);
+                offset += 4L + 4L * (record.length - 2);
+            }
+            for (int[] record : records) {
+                out.writeInt((record.length - 2) / 3);
+                for (int i = 2; i < record.length; i++) {
+                    out.writeInt(record[i]);
+                }
+            }
+        }
+    }
+
+    private int intern(String value) {
+        if (value == null) {
+            return BinaryValueSetDb.NULL_ID;
+        }
+        return stringIds.computeIfAbsent(value, x -> {
+            strings.add(x);
+            return strings.size() - 1;
+        });
+    }
+
+    // Translates provisional ids to sorted ids and sorts and de-duplicates the code triples
+    private static int[] remapRecord(int[] record, int[] remap) {
+        int codeCount = (record.length - 2) / 3;
+        int[][] codes = new int[codeCount][];
+        for (int i = 0; i < codeCount; i++) {
+            int base = 2 + i * 3;
+            codes[i] = new int[] { remapId(record[base], remap), remapId(record[base + 1], remap), remapId(record[base + 2], remap) };
+        }
+        Arrays.sort(codes, BinaryValueSetDbWriter::compareTriples);
+
+        int[] result = new int[2 + codeCount * 3];
+        result[0] = remapId(record[0], remap);
+        result[1] = remapId(record[1], remap);
+        int length = 2;
+        int[] previous = null;
+        for (int[] code : codes) {
+            if (previous != null && compareTriples(previous, code) == 0) {
+                continue;
+            }
+            result[length++] = code[0];
+            result[length++] = code[1];
+            result[length++] = code[2];
+            previous = code;
+        }
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
+
+    private static int remapId(int id, int[] remap) {
+        return id == BinaryValueSetDb.NULL_ID ? id : remap[id];
+    }
+
+    private static int compareTriples(int[] x, int[] y) {
+        for (int i = 0; i < 3; i++) {
+            int result = Integer.compare(x[i], y[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+}
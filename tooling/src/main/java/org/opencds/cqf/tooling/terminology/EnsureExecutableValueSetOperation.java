@@ -1,12 +1,19 @@
 package org.opencds.cqf.tooling.terminology;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.BooleanType;
@@ -17,8 +24,10 @@ import org.hl7.fhir.r4.model.StringType;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.opencds.cqf.tooling.Operation;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
 
 public class EnsureExecutableValueSetOperation extends Operation {
     private static final String USAGE_WARNING = "CAUTION: The compose element in this ValueSet resource was inferred from the expansion element. It is NOT an authoritative definition of the value set and is provided only for convenience for systems that assume a compose will be present.";
@@ -29,8 +38,15 @@ public class EnsureExecutableValueSetOperation extends Operation {
     private boolean ensureComputable = false;
     private boolean force = false;
     private boolean skipVersion = false;
+    private boolean batch = false;
+    private int threadCount = ThreadUtils.getDefaultThreadCount();
     private FhirContext fhirContext;
 
+    // Batch mode counters
+    private final AtomicInteger refreshedCount = new AtomicInteger();
+    private final AtomicInteger inferredCount = new AtomicInteger();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+
     public FhirContext getFhirContext() {
         if (fhirContext == null) {
             fhirContext = FhirContext.forR4Cached();
@@ -67,6 +83,8 @@ public class EnsureExecutableValueSetOperation extends Operation {
                 case "declarecpg": case "cpg": declareCPGProfiles = value.toLowerCase().equals("true") ? true : false; break;
                 case "force": case "f": force = value.toLowerCase().equals("true") ? true : false; break;
                 case "skipversion": case "sv": skipVersion = value.toLowerCase().equals("true") ? true : false; break;
+                case "batch": case "b": batch = value.toLowerCase().equals("true") ? true : false; break;
+                case "threads": case "t": threadCount = Integer.parseInt(value); break;
                 default: throw new IllegalArgumentException("Unknown flag: " + flag);
             }
             if (null == getOutputPath() || getOutputPath().equals("")) {
@@ -78,6 +96,11 @@ public class EnsureExecutableValueSetOperation extends Operation {
             throw new IllegalArgumentException("The path to the value set directory is required");
         }
 
+        if (batch) {
+            executeBatch();
+            return;
+        }
+
         for (File file : new File(valueSetPath).listFiles()) {
             if (file.getName().endsWith(".json") || file.getName().endsWith(".xml")) {
                 IBaseResource resource = IOUtils.readResource(file.getAbsolutePath(), getFhirContext());
@@ -91,6 +114,91 @@ public class EnsureExecutableValueSetOperation extends Operation {
         }
     }
 
+    // Processes the value sets concurrently, writing only the value sets whose content was changed
+    private void executeBatch() {
+        File[] files = new File(valueSetPath).listFiles((dir, name) -> name.endsWith(".json") || name.endsWith(".xml"));
+        if (files == null) {
+            throw new IllegalArgumentException("The value set path is not a directory: " + valueSetPath);
+        }
+        try {
+            // Create the output directory up front rather than racing to create it from the workers
+            IOUtils.ensurePath(getOutputPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating output directory: " + e.getMessage(), e);
+        }
+
+        refreshedCount.set(0);
+        inferredCount.set(0);
+        skippedCount.set(0);
+        ThreadUtils.forEach(Arrays.asList(files), threadCount, this::processValueSetFile);
+
+        System.out.println(String.format("EnsureExecutableValueSet: %d value sets refreshed, %d inferred, %d skipped",
+                refreshedCount.get(), inferredCount.get(), skippedCount.get()));
+    }
+
+    private void processValueSetFile(File file) {
+        IParser parser = file.getName().endsWith(".json") ? getFhirContext().newJsonParser() : getFhirContext().newXmlParser();
+        IBaseResource resource;
+        try (Reader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            resource = parser.parseResource(reader);
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Error reading resource from path %s: %s", file.getAbsolutePath(), e.getMessage()), e);
+        }
+        if (!(resource instanceof ValueSet)) {
+            return;
+        }
+
+        ValueSet valueSet = (ValueSet)resource;
+        ValueSet original = valueSet.copy();
+        if (ensureExecutable && refreshExpansion(valueSet)) {
+            if (isUnchanged(original, valueSet)) {
+                skippedCount.incrementAndGet();
+            }
+            else {
+                refreshedCount.incrementAndGet();
+                IOUtils.writeResource(valueSet, getOutputPath(), IOUtils.Encoding.parse(encoding), getFhirContext());
+            }
+        }
+        else if (ensureComputable && inferCompose(valueSet)) {
+            if (isUnchanged(original, valueSet)) {
+                skippedCount.incrementAndGet();
+            }
+            else {
+                inferredCount.incrementAndGet();
+                IOUtils.writeResource(valueSet, getOutputPath(), IOUtils.Encoding.parse(encoding), getFhirContext());
+            }
+        }
+        else {
+            skippedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns true if refreshing or inferring left the value set as it was read, apart from the timestamp of a
+     * refreshed expansion, in which case writing it would only change that timestamp. This is the case when a refresh
+     * is forced on a value set whose compose and expansion already agree.
+     */
+    private boolean isUnchanged(ValueSet original, ValueSet processed) {
+        if (original.hasExpansion() && processed.hasExpansion()) {
+            ValueSet compared = processed.copy();
+            compared.getExpansion().setTimestampElement(original.getExpansion().getTimestampElement());
+            return compared.equalsDeep(original);
+        }
+        return processed.equalsDeep(original);
+    }
+
+    public int getRefreshedCount() {
+        return refreshedCount.get();
+    }
+
+    public int getInferredCount() {
+        return inferredCount.get();
+    }
+
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
     public boolean refreshExpansion(ValueSet valueSet) {
         if (hasSimpleCompose(valueSet) && (!valueSet.hasExpansion() || force)) {
             ValueSet.ValueSetExpansionComponent expansion = new ValueSet.ValueSetExpansionComponent();
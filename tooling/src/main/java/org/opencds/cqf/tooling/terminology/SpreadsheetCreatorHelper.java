@@ -1,49 +1,78 @@
 package org.opencds.cqf.tooling.terminology;
 
-import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.*;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class SpreadsheetCreatorHelper {
 
+    // Number of rows kept in memory by streaming workbooks before they are flushed to the temp file
+    public static final int DEFAULT_ROW_ACCESS_WINDOW_SIZE = 100;
+    // Excel rejects string literals longer than this inside a formula
+    private static final int MAX_FORMULA_STRING_LENGTH = 255;
+
     public static XSSFWorkbook createWorkbook() {
         XSSFWorkbook workBook = null;
         workBook = new XSSFWorkbook();
         return workBook;
     }
 
-    public static void createHeaderRow(XSSFWorkbook workBook, List<String> headerNames, XSSFRow currentRow) {
+    public static SXSSFWorkbook createStreamingWorkbook() {
+        return createStreamingWorkbook(DEFAULT_ROW_ACCESS_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a workbook that only keeps the last rowAccessWindowSize rows in memory. Rows that fall out of
+     * the window are flushed to a temporary file and can no longer be accessed, so rows must be written in order.
+     * The temporary files are removed by writeSpreadSheet.
+     */
+    public static SXSSFWorkbook createStreamingWorkbook(int rowAccessWindowSize) {
+        SXSSFWorkbook workBook = new SXSSFWorkbook(rowAccessWindowSize);
+        workBook.setCompressTempFiles(true);
+        return workBook;
+    }
+
+    public static void createHeaderRow(Workbook workBook, List<String> headerNames, Row currentRow) {
         AtomicInteger cellCount = new AtomicInteger();
-        XSSFCellStyle boldStyle = createBoldStyle(workBook, XSSFFont.U_SINGLE);
+        CellStyle boldStyle = createBoldStyle(workBook, Font.U_SINGLE);
         headerNames.forEach(headerName -> {
-            XSSFCell currentCell = currentRow.createCell(cellCount.getAndIncrement());
+            Cell currentCell = currentRow.createCell(cellCount.getAndIncrement());
             currentCell.setCellStyle(boldStyle);
             currentCell.setCellValue(headerName);
         });
     }
 
-    public static void writeSpreadSheet(XSSFWorkbook workBook, String workbookPath) {
+    public static void writeSpreadSheet(Workbook workBook, String workbookPath) {
         File outputFile = new File(workbookPath);
-        try {
-            FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
+        try (OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
             workBook.write(fileOutputStream);
-            fileOutputStream.close();
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (workBook instanceof SXSSFWorkbook) {
+                ((SXSSFWorkbook) workBook).dispose();
+            }
         }
     }
 
-    public static XSSFCellStyle createLinkStyle(XSSFWorkbook workBook, byte xssFontEnum, short hsfColorValue){
-        XSSFCellStyle linkStyle = workBook.createCellStyle();
-        XSSFFont linkFont = workBook.createFont();
+    public static CellStyle createLinkStyle(Workbook workBook, byte xssFontEnum, short hsfColorValue){
+        CellStyle linkStyle = workBook.createCellStyle();
+        Font linkFont = workBook.createFont();
         linkFont.setUnderline(xssFontEnum);
         linkFont.setColor(hsfColorValue);
         linkStyle.setFont(linkFont);
@@ -51,12 +80,39 @@ public class SpreadsheetCreatorHelper {
         return linkStyle;
     }
 
-    public static XSSFCellStyle createBoldStyle(XSSFWorkbook workBook, byte xssFontEnum){
-        XSSFCellStyle style = workBook.createCellStyle();
-        XSSFFont font = workBook.createFont();
+    public static CellStyle createBoldStyle(Workbook workBook, byte xssFontEnum){
+        CellStyle style = workBook.createCellStyle();
+        Font font = workBook.createFont();
         font.setFontHeightInPoints((short) 15);
         font.setBold(true);
         style.setFont(font);
         return style;
     }
+
+    public static CellStyle createWrapTextStyle(Workbook workBook) {
+        CellStyle style = workBook.createCellStyle();
+        style.setWrapText(true);
+        return style;
+    }
+
+    /**
+     * Writes a link as a HYPERLINK formula with a cached display value. Unlike Cell.setHyperlink, this does not
+     * keep a hyperlink object per cell for the lifetime of the workbook, so it is safe to use with streaming workbooks.
+     * Falls back to the plain label when the address is missing or too long to be used in a formula.
+     */
+    public static void setHyperlinkCellValue(Cell cell, String label, String address, CellStyle linkStyle) {
+        String displayValue = label == null ? address : label;
+        if (address == null || address.isEmpty() || address.length() > MAX_FORMULA_STRING_LENGTH
+                || displayValue.length() > MAX_FORMULA_STRING_LENGTH) {
+            cell.setCellValue(label);
+            return;
+        }
+        cell.setCellFormula("HYPERLINK(" + toFormulaString(address) + "," + toFormulaString(displayValue) + ")");
+        cell.setCellValue(displayValue);
+        cell.setCellStyle(linkStyle);
+    }
+
+    private static String toFormulaString(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
 }
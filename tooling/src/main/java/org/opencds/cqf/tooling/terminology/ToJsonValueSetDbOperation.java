@@ -1,25 +1,40 @@
 package org.opencds.cqf.tooling.terminology;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.opencds.cqf.tooling.Operation;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
 
 public class ToJsonValueSetDbOperation extends Operation {
     private String valueSetPath;
 
     @SuppressWarnings("unused")
     private String encoding = IOUtils.Encoding.JSON.toString();
+    private String format = "json";
+    private int threadCount = ThreadUtils.getDefaultThreadCount();
     private FhirContext fhirContext;
 
     public FhirContext getFhirContext() {
@@ -47,6 +62,8 @@ public class ToJsonValueSetDbOperation extends Operation {
                 case "outputpath": case "op": setOutputPath(value); break; // -outputpath (-op)
                 case "valuesetpath": case "path": case "vsp": valueSetPath = value; break; // -valuesetpath (-vsp, -path)
                 case "encoding": case "e": encoding = value.toLowerCase(); break;
+                case "format": case "f": format = value.toLowerCase(); break; // -format (-f) json | binary
+                case "threads": case "t": threadCount = Integer.parseInt(value); break; // -threads (-t)
                 default: throw new IllegalArgumentException("Unknown flag: " + flag);
             }
         }
@@ -55,39 +72,79 @@ public class ToJsonValueSetDbOperation extends Operation {
             throw new IllegalArgumentException("The path to the value set directory is required");
         }
 
-        JsonObject valueSetDb = new JsonObject();
+        if (!format.equals("json") && !format.equals("binary")) {
+            throw new IllegalArgumentException("Unknown format: " + format + ". Supported formats are json and binary");
+        }
 
-        for (File file : new File(valueSetPath).listFiles()) {
-            if (file.getName().endsWith(".json") || file.getName().endsWith(".xml")) {
-                try {
-                    IBaseResource resource = IOUtils.readResource(file.getAbsolutePath(), getFhirContext());
-                    if (resource instanceof org.hl7.fhir.r4.model.ValueSet) {
-                        org.hl7.fhir.r4.model.ValueSet valueSet = (ValueSet)resource;
-                        addValueSetToDb(valueSetDb, valueSet);
-                    }
-                }
-                catch (Exception e) {
-                    e.printStackTrace();
-                    // Ignore errors that occur, some files in output directories are json or xml but not FHIR resources...
+        File[] files = new File(valueSetPath).listFiles((dir, name) -> name.endsWith(".json") || name.endsWith(".xml"));
+        if (files == null) {
+            throw new IllegalArgumentException("The value set path is not a directory: " + valueSetPath);
+        }
+        // Sorted so that output is deterministic regardless of the order in which workers complete
+        Arrays.sort(files);
+
+        if (format.equals("binary")) {
+            BinaryValueSetDbWriter binaryValueSetDb = new BinaryValueSetDbWriter();
+            ThreadUtils.forEachOrdered(Arrays.asList(files), threadCount, this::readValueSet, valueSet -> {
+                if (valueSet != null) {
+                    binaryValueSetDb.addValueSet(valueSet);
                 }
+            });
+            try {
+                binaryValueSetDb.write(getOutputPath() + "/valueset-db.bin");
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new IllegalArgumentException("Error writing ValueSet database to file: " + e.getMessage());
             }
+            return;
         }
 
-        try {
-            FileWriter fw = new FileWriter(getOutputPath() + "/valueset-db.json");
-            new GsonBuilder()
-                    .setPrettyPrinting()
-                    .create()
-                    .toJson(valueSetDb, fw);
-            fw.close();
-        } catch (IOException e) {
+        // Value sets are written as they are parsed, so only the value sets in flight are held in memory
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (JsonWriter writer = gson.newJsonWriter(new BufferedWriter(new FileWriter(getOutputPath() + "/valueset-db.json")))) {
+            Set<String> writtenUrls = new HashSet<>();
+            writer.beginObject();
+            ThreadUtils.forEachOrdered(Arrays.asList(files), threadCount, this::readValueSet, valueSet -> {
+                if (valueSet == null) {
+                    return;
+                }
+                if (valueSet.getUrl() == null || valueSet.getVersion() == null) {
+                    System.out.println(String.format("Skipping ValueSet %s: url and version are required", valueSet.getIdElement().getIdPart()));
+                    return;
+                }
+                if (!writtenUrls.add(valueSet.getUrl())) {
+                    System.out.println(String.format("Skipping ValueSet %s: a ValueSet with url %s has already been written", valueSet.getIdElement().getIdPart(), valueSet.getUrl()));
+                    return;
+                }
+                try {
+                    writer.name(valueSet.getUrl());
+                    gson.toJson(toValueSetVersionExpansion(valueSet), writer);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.endObject();
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("Error writing ValueSet to file: " + e.getMessage());
         }
     }
 
-    private void addValueSetToDb(JsonObject valueSetDb, ValueSet valueSet) {
-        valueSetDb.add(valueSet.getUrl(), toValueSetVersionExpansion(valueSet));
+    // Parses a single value set file on a worker thread. Files are parsed directly rather than through
+    // IOUtils.readResource so that value sets are not retained in the resource cache once they have been written.
+    private ValueSet readValueSet(File file) {
+        IParser parser = file.getName().endsWith(".json") ? getFhirContext().newJsonParser() : getFhirContext().newXmlParser();
+        try (Reader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            IBaseResource resource = parser.parseResource(reader);
+            if (resource instanceof ValueSet) {
+                return (ValueSet) resource;
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            // Ignore errors that occur, some files in output directories are json or xml but not FHIR resources...
+        }
+        return null;
     }
 
     private JsonObject toValueSetVersionExpansion(ValueSet valueSet) {
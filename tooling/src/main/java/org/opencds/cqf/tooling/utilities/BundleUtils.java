@@ -2,7 +2,6 @@ package org.opencds.cqf.tooling.utilities;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -14,9 +13,9 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Resource;
 import org.opencds.cqf.tooling.common.CqfmSoftwareSystem;
+import org.opencds.cqf.tooling.common.SoftwareSystemDeviceRegistry;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.context.RuntimeResourceDefinition;
 
 public class BundleUtils {
 
@@ -109,7 +108,25 @@ public class BundleUtils {
         return GetBundlesInDir(directoryPath, fhirContext, true);
     }
 
+    /*
+    Returns an entry for each Bundle in the directory, keyed by its path. The type of each file is determined without
+    parsing it, and a bundle is parsed when the value of its entry is first requested, so that callers that process
+    bundles one at a time, such as PostBundlesInDir, only hold the bundle being processed. Bundles are not added to
+    the IOUtils resource cache.
+     */
     public static List<Map.Entry<String, IBaseResource>> GetBundlesInDir(String directoryPath, FhirContext fhirContext, Boolean recursive) {
+        List<Map.Entry<String, IBaseResource>> bundleMap = new ArrayList<>();
+        for (String path : getBundlePathsInDir(directoryPath, recursive)) {
+            bundleMap.add(new LazyBundleEntry(path, fhirContext));
+        }
+        return bundleMap;
+    }
+
+    /*
+    Returns the paths of the files in the directory that contain a Bundle, determined from the resourceType of JSON
+    files and the root element of XML files without parsing them
+     */
+    public static List<String> getBundlePathsInDir(String directoryPath, Boolean recursive) {
         File dir = new File(directoryPath);
         if (!dir.isDirectory()) {
             throw new IllegalArgumentException("path to directory must be an existing directory.");
@@ -117,46 +134,76 @@ public class BundleUtils {
 
         List<String> filePaths = IOUtils.getFilePaths(directoryPath, recursive).stream().filter(x -> !x.endsWith(".cql")).collect(Collectors.toList());
 
-        List<Map.Entry<String, IBaseResource>> bundleMap = new ArrayList<>();
-        RuntimeResourceDefinition bundleDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Bundle");
-        String bundleClassName = bundleDefinition.getImplementingClass().getName();
+        List<String> bundlePaths = new ArrayList<>();
         for (String path : filePaths) {
-            IBaseResource resource = IOUtils.readResource(path, fhirContext);
-            if (resource != null) {
-                if (bundleClassName.equals(resource.getClass().getName())) {
-                    Map.Entry<String, IBaseResource> bundleEntry = new AbstractMap.SimpleEntry<>(path, resource);
-                    bundleMap.add(bundleEntry);
-                }
+            if ("Bundle".equals(IOUtils.getResourceType(path))) {
+                bundlePaths.add(path);
             }
         }
+        return bundlePaths;
+    }
 
-        return bundleMap;
-//        List<IBaseResource> resources = IOUtils.readResources(filePaths, fhirContext);
-//
-//        return resources.stream()
-//            .filter(entry -> entry != null)
-//            .filter(entry ->  bundleClassName.equals(entry.getClass().getName()))
-//            .collect(Collectors.toList());
+    private static class LazyBundleEntry implements Map.Entry<String, IBaseResource> {
+        private final String path;
+        private final FhirContext fhirContext;
+        private IBaseResource bundle;
+
+        private LazyBundleEntry(String path, FhirContext fhirContext) {
+            this.path = path;
+            this.fhirContext = fhirContext;
+        }
+
+        @Override
+        public String getKey() {
+            return path;
+        }
+
+        @Override
+        public IBaseResource getValue() {
+            if (bundle == null) {
+                bundle = IOUtils.readResourceUncached(path, fhirContext);
+            }
+            return bundle;
+        }
+
+        @Override
+        public IBaseResource setValue(IBaseResource value) {
+            IBaseResource previous = bundle;
+            bundle = value;
+            return previous;
+        }
     }
 
     public static void stampDstu3BundleEntriesWithSoftwareSystems(org.hl7.fhir.dstu3.model.Bundle bundle, List<CqfmSoftwareSystem> softwareSystems, FhirContext fhirContext, String rootDir) {
-        for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry: bundle.getEntry()) {
-            org.hl7.fhir.dstu3.model.Resource resource = entry.getResource();
-            if ((resource.fhirType().equals("Library")) || ((resource.fhirType().equals("Measure")))) {
-                org.opencds.cqf.tooling.common.stu3.CqfmSoftwareSystemHelper cqfmSoftwareSystemHelper = new org.opencds.cqf.tooling.common.stu3.CqfmSoftwareSystemHelper(rootDir);
-                cqfmSoftwareSystemHelper.ensureSoftwareSystemExtensionAndDevice((org.hl7.fhir.dstu3.model.DomainResource)resource, softwareSystems, fhirContext);
+        org.opencds.cqf.tooling.common.stu3.CqfmSoftwareSystemHelper cqfmSoftwareSystemHelper = new org.opencds.cqf.tooling.common.stu3.CqfmSoftwareSystemHelper(rootDir);
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry: bundle.getEntry()) {
+                org.hl7.fhir.dstu3.model.Resource resource = entry.getResource();
+                if ((resource.fhirType().equals("Library")) || ((resource.fhirType().equals("Measure")))) {
+                    cqfmSoftwareSystemHelper.ensureSoftwareSystemExtensionAndDevice((org.hl7.fhir.dstu3.model.DomainResource)resource, softwareSystems, fhirContext);
+                }
             }
         }
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
+        }
     }
 
     public static void stampR4BundleEntriesWithSoftwareSystems(org.hl7.fhir.r4.model.Bundle bundle, List<CqfmSoftwareSystem> softwareSystems, FhirContext fhirContext, String rootDir) {
-        for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry: bundle.getEntry()) {
-            org.hl7.fhir.r4.model.Resource resource = entry.getResource();
-            if ((resource.fhirType().equals("Library")) || ((resource.fhirType().equals("Measure")))) {
-                org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper cqfmSoftwareSystemHelper = new org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper(rootDir);
-                cqfmSoftwareSystemHelper.ensureSoftwareSystemExtensionAndDevice((org.hl7.fhir.r4.model.DomainResource)resource, softwareSystems, fhirContext);
+        org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper cqfmSoftwareSystemHelper = new org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper(rootDir);
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry: bundle.getEntry()) {
+                org.hl7.fhir.r4.model.Resource resource = entry.getResource();
+                if ((resource.fhirType().equals("Library")) || ((resource.fhirType().equals("Measure")))) {
+                    cqfmSoftwareSystemHelper.ensureSoftwareSystemExtensionAndDevice((org.hl7.fhir.r4.model.DomainResource)resource, softwareSystems, fhirContext);
+                }
             }
         }
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
+        }
     }
 
     public static void extractStu3Resources(org.hl7.fhir.dstu3.model.Bundle bundle, String encoding, String outputPath, boolean suppressNarrative) {
@@ -1,10 +1,16 @@
 package org.opencds.cqf.tooling.utilities;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -15,6 +21,7 @@ import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -23,10 +30,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.cqframework.cql.cql2elm.CqlCompilerException;
 import org.cqframework.cql.cql2elm.CqlTranslator;
 import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
@@ -42,6 +57,9 @@ import ca.uhn.fhir.context.RuntimeCompositeDatatypeDefinition;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.parser.IParser;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
 public class IOUtils 
 {        
     
@@ -117,6 +135,33 @@ public class IOUtils
         return parser.setPrettyPrint(true).encodeResourceToString(resource).toString();
     }
 
+    // files written by writeResource and copyFile, while recording, see IGProcessor.watchIG
+    private static volatile Set<Path> writtenFiles;
+
+    /**
+     * Starts recording the files written by writeResource, writeBundle and copyFile, on any thread.
+     */
+    public static void recordWrittenFiles() {
+        writtenFiles = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Stops recording written files.
+     * @return the absolute paths of the files written since recordWrittenFiles was called
+     */
+    public static Set<Path> stopRecordingWrittenFiles() {
+        Set<Path> written = writtenFiles;
+        writtenFiles = null;
+        return written == null ? Collections.emptySet() : written;
+    }
+
+    private static void recordWrittenFile(String path) {
+        Set<Path> written = writtenFiles;
+        if (written != null) {
+            written.add(Paths.get(path).toAbsolutePath().normalize());
+        }
+    }
+
     // Issue 96 - adding second signature to allow for passing versioned
     public static <T extends IBaseResource> void writeResource(T resource, String path, Encoding encoding, FhirContext fhirContext) 
     {
@@ -167,10 +212,15 @@ public class IOUtils
             outputPath = FilenameUtils.concat(path, formatFileName(baseName, encoding, fhirContext));
         }
 
-        try (FileOutputStream writer = new FileOutputStream(outputPath))
+        recordWrittenFile(outputPath);
+        // Encoded straight to the file, so that large resources such as bundles are not also held encoded in memory
+        try (CountingOutputStream output = new CountingOutputStream(new FileOutputStream(outputPath)))
         {
-            writer.write(encodeResource(resource, encoding, fhirContext, prettyPrintOutput));
-            writer.flush();
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                writeResource(resource, writer, encoding, fhirContext, prettyPrintOutput);
+            }
+            Metrics.increment("IOUtils.resourcesWritten");
+            Metrics.add("IOUtils.bytesWritten", output.getByteCount());
         }
         catch (IOException e)
         {
@@ -179,6 +229,17 @@ public class IOUtils
         }
     }
 
+    /**
+     * Encodes the resource to the writer as it is encoded, without building the encoded resource in memory. Nothing
+     * is written for Encoding.UNKNOWN.
+     */
+    public static <T extends IBaseResource> void writeResource(T resource, Writer writer, Encoding encoding, FhirContext fhirContext, boolean prettyPrintOutput) throws IOException {
+        if (encoding == Encoding.UNKNOWN) {
+            return;
+        }
+        getParser(encoding, fhirContext).setPrettyPrint(prettyPrintOutput).encodeResourceToWriter(resource, writer);
+    }
+
     public static <T extends IBaseResource> void writeResources(Map<String, T> resources, String path, Encoding encoding, FhirContext fhirContext)
     {        
         for (Map.Entry<String, T> set : resources.entrySet())
@@ -217,6 +278,7 @@ public class IOUtils
         try  {
             Path src = Paths.get(inputPath);
             Path dest = Paths.get(outputPath);
+            recordWrittenFile(outputPath);
             Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
         }
         catch (IOException e) {
@@ -268,6 +330,7 @@ public class IOUtils
 
         IBaseResource resource = cachedResources.get(path);     
         if (resource != null) {
+            Metrics.increment("IOUtils.resourceCacheHits");
             return resource;
         } 
 
@@ -293,6 +356,7 @@ public class IOUtils
             try (FileReader reader = new FileReader(file)){
                 resource = parser.parseResource(reader);
             }
+            Metrics.increment("IOUtils.resourcesParsed");
             cachedResources.put(path, resource);
         }
         catch (Exception e)
@@ -302,6 +366,11 @@ public class IOUtils
         return resource;
     }
 
+    public static void clearCachedResource(String path) {
+        String absolutePath = new File(path).getAbsolutePath();
+        cachedResources.keySet().removeIf(key -> new File(key).getAbsolutePath().equals(absolutePath));
+    }
+
     public static void updateCachedResource(IBaseResource updatedResource, String path){
         if(null != cachedResources.get(path)){
             cachedResources.put(path, updatedResource);
@@ -322,6 +391,81 @@ public class IOUtils
         return resources;
     }
 
+    /**
+     * Reads the resource in the file without adding it to the resource cache, for content that is only needed once,
+     * such as bundles that are posted to a server.
+     * @return the resource, or null if the file is not a JSON or XML file
+     */
+    public static IBaseResource readResourceUncached(String path, FhirContext fhirContext) {
+        Encoding encoding = getEncoding(path);
+        if (encoding != Encoding.JSON && encoding != Encoding.XML) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            IBaseResource resource = getParser(encoding, fhirContext).parseResource(reader);
+            Metrics.increment("IOUtils.resourcesParsed");
+            return resource;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e.getMessage()), e);
+        }
+    }
+
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Determines the type of the resource in the file without parsing it, from the resourceType property of a JSON
+     * resource or the root element of an XML resource. Only the start of the file is read when, as usual,
+     * resourceType is the first property; other properties are skipped without being materialized.
+     * @return the resource type, or null if the file is not a JSON or XML FHIR resource
+     */
+    public static String getResourceType(String path) {
+        Encoding encoding = getEncoding(path);
+        try {
+            if (encoding == Encoding.JSON) {
+                try (JsonReader reader = new JsonReader(Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8))) {
+                    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        return null;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("resourceType") && reader.peek() == JsonToken.STRING) {
+                            return reader.nextString();
+                        }
+                        reader.skipValue();
+                    }
+                }
+            }
+            else if (encoding == Encoding.XML) {
+                try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(Paths.get(path)))) {
+                    XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(inputStream);
+                    try {
+                        while (reader.hasNext()) {
+                            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                                return "http://hl7.org/fhir".equals(reader.getNamespaceURI()) ? reader.getLocalName() : null;
+                            }
+                        }
+                    }
+                    finally {
+                        reader.close();
+                    }
+                }
+            }
+        }
+        catch (IOException | XMLStreamException | RuntimeException e) {
+            // not a resource, e.g. malformed content or a JSON array
+            return null;
+        }
+        return null;
+    }
+
     public static List<String> getFilePaths(String directoryPath, Boolean recursive)
     {
         List<String> filePaths = new ArrayList<String>();
@@ -506,40 +650,43 @@ public class IOUtils
   
     private static Map<String, CqlTranslator> cachedTranslator = new LinkedHashMap<String, CqlTranslator>();
     public static CqlTranslator translate(String cqlContentPath, ModelManager modelManager, LibraryManager libraryManager, CqlTranslatorOptions options) {
-        CqlTranslator translator = cachedTranslator.get(cqlContentPath);
-        if (translator != null) {
-            return translator;
+        CqlTranslator cached = cachedTranslator.get(cqlContentPath);
+        if (cached != null) {
+            Metrics.increment("IOUtils.translatorCacheHits");
+            return cached;
         }
         try {
-          File cqlFile = new File(cqlContentPath);
-          if(!cqlFile.getName().endsWith(".cql")) {
-            throw new IllegalArgumentException("cqlContentPath must be a path to a .cql file");
-          }
-          
-            // ArrayList<CqlTranslatorOptions.Options> options = new ArrayList<>();
-            // options.add(CqlTranslatorOptions.Options.EnableDateRangeOptimization);
+            return Metrics.time("IOUtils.translate", "file", FilenameUtils.getName(cqlContentPath), () -> {
+                File cqlFile = new File(cqlContentPath);
+                if(!cqlFile.getName().endsWith(".cql")) {
+                    throw new IllegalArgumentException("cqlContentPath must be a path to a .cql file");
+                }
+
+                // ArrayList<CqlTranslatorOptions.Options> options = new ArrayList<>();
+                // options.add(CqlTranslatorOptions.Options.EnableDateRangeOptimization);
   
-            translator =
-                    CqlTranslator.fromFile(
-                            cqlFile,
-                            modelManager,
-                            libraryManager,
-                            null, options);
-
-            if (translator.getErrors().size() > 0) {
-                //System.err.println("Translation failed due to errors:");
-                ArrayList<String> errors = new ArrayList<>();
-                for (CqlCompilerException error : translator.getErrors()) {
-                    TrackBack tb = error.getLocator();
-                    String lines = tb == null ? "[n/a]" : String.format("[%d:%d, %d:%d]",
-                            tb.getStartLine(), tb.getStartChar(), tb.getEndLine(), tb.getEndChar());
-                    //System.err.printf("%s %s%n", lines, error.getMessage());
-                    errors.add(lines + error.getMessage());
+                CqlTranslator translator =
+                        CqlTranslator.fromFile(
+                                cqlFile,
+                                modelManager,
+                                libraryManager,
+                                null, options);
+
+                if (translator.getErrors().size() > 0) {
+                    //System.err.println("Translation failed due to errors:");
+                    ArrayList<String> errors = new ArrayList<>();
+                    for (CqlCompilerException error : translator.getErrors()) {
+                        TrackBack tb = error.getLocator();
+                        String lines = tb == null ? "[n/a]" : String.format("[%d:%d, %d:%d]",
+                                tb.getStartLine(), tb.getStartChar(), tb.getEndLine(), tb.getEndChar());
+                        //System.err.printf("%s %s%n", lines, error.getMessage());
+                        errors.add(lines + error.getMessage());
+                    }
+                    throw new IllegalArgumentException(errors.toString());
                 }
-                throw new IllegalArgumentException(errors.toString());
-            }
-            cachedTranslator.put(cqlContentPath, translator);
-            return translator;
+                cachedTranslator.put(cqlContentPath, translator);
+                return translator;
+            });
         } catch (IOException e) {
             //e.printStackTrace();
             //throw new IllegalArgumentException("Error encountered during CQL translation: " + e.getMessage());
@@ -1001,27 +1148,44 @@ public class IOUtils
         devicePaths = null;
     }
 
+    /**
+     * Clears the resource directories and every resource, path and translator cache, so that a subsequent run within
+     * the same process (e.g. the Daemon operation) reads the content from disk again.
+     */
+    public static void clearCaches() {
+        resourceDirectories.clear();
+        cachedResources.clear();
+        cachedTranslator.clear();
+        cqlLibraryPaths.clear();
+        terminologyPaths.clear();
+        libraryPaths.clear();
+        libraryUrlMap.clear();
+        libraryPathMap.clear();
+        libraries.clear();
+        measurePaths.clear();
+        measurePathMap.clear();
+        measures.clear();
+        measureReportPaths.clear();
+        planDefinitionPaths.clear();
+        planDefinitionPathMap.clear();
+        planDefinitions.clear();
+        questionnairePaths.clear();
+        questionnairePathMap.clear();
+        questionnaires.clear();
+        activityDefinitionPaths.clear();
+        clearDevicePaths();
+    }
+
     private static void setupDevicePaths(FhirContext fhirContext) {
         devicePaths = new LinkedHashSet<String>();
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<String, IBaseResource>();
         for(String dir : resourceDirectories) {
             for(String path : IOUtils.getFilePaths(dir, true))
             {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("device")) {
-                        System.out.println("Error reading in Device from path: " + path + "\n" + e);
-                    }
+                // Devices are identified without parsing every resource in the IG, see getResourceType
+                if ("Device".equals(getResourceType(path))) {
+                    devicePaths.add(path);
                 }
             }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition deviceDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Device");
-            String deviceClassName = deviceDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                .filter(entry -> entry.getValue() != null)
-                .filter(entry ->  deviceClassName.equals(entry.getValue().getClass().getName()))
-                .forEach(entry -> devicePaths.add(entry.getKey()));
         }
     }
 
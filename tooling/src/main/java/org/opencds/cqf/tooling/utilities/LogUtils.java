@@ -2,23 +2,43 @@
 package org.opencds.cqf.tooling.utilities;
 
 import java.time.LocalDateTime;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FilenameUtils;
 
 public class LogUtils {
     private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(LogUtils.class);
-    private static final Map<String, String> resourceWarnings = new LinkedHashMap<String, String>();
+
+    /**
+     * The maximum number of warnings held until they are logged by warn. Further warnings are dropped and counted.
+     */
+    public static final int MAX_RESOURCE_WARNINGS = 1000;
+
+    // Warnings are put from worker threads, so the buffer is a lock-free queue bounded by a separate count
+    private static final Queue<Map.Entry<String, String>> resourceWarnings = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger resourceWarningCount = new AtomicInteger();
+    private static final AtomicInteger droppedWarningCount = new AtomicInteger();
 
     public static void putException(String id, Exception e) {
         e.printStackTrace();
-        resourceWarnings.put(LocalDateTime.now().toString() + ": " + id,
-                e.getMessage() == null ? e.toString() : e.getMessage());
+        putWarning(id, e.getMessage() == null ? e.toString() : e.getMessage());
     }
 
     public static void putException(String id, String warning) {
-        resourceWarnings.put(LocalDateTime.now().toString() + ": " + id, warning);
+        putWarning(id, warning);
+    }
+
+    private static void putWarning(String id, String warning) {
+        if (resourceWarningCount.incrementAndGet() > MAX_RESOURCE_WARNINGS) {
+            resourceWarningCount.decrementAndGet();
+            droppedWarningCount.incrementAndGet();
+            Metrics.increment("LogUtils.warningsDropped");
+            return;
+        }
+        resourceWarnings.add(Map.entry(LocalDateTime.now().toString() + ": " + id, warning == null ? "null message" : warning));
     }
 
     public static void info(String message) {
@@ -43,15 +63,20 @@ public class LogUtils {
         if (resourceWarnings.isEmpty()) {
             return;
         }
-        String exceptionMessage = "";
-        for (Map.Entry<String, String> resourceException : resourceWarnings.entrySet()) {
+        StringBuilder exceptionMessage = new StringBuilder();
+        Map.Entry<String, String> resourceException;
+        while ((resourceException = resourceWarnings.poll()) != null) {
+            resourceWarningCount.decrementAndGet();
             String resourceExceptionMessage = truncateMessage(resourceException.getValue());
             String resource = FilenameUtils.getBaseName(stripTimestamp(resourceException.getKey()));
-            exceptionMessage += "\r\n          Resource could not be processed: " + resource
-                    + "\r\n                    " + resourceExceptionMessage;
+            exceptionMessage.append("\r\n          Resource could not be processed: ").append(resource)
+                    .append("\r\n                    ").append(resourceExceptionMessage);
+        }
+        int dropped = droppedWarningCount.getAndSet(0);
+        if (dropped > 0) {
+            exceptionMessage.append("\r\n          ").append(dropped).append(" more warning(s) were dropped");
         }
         ourLog.warn(libraryName + " could not be processed: " + exceptionMessage);
-        resourceWarnings.clear();
     }
 
     private static String truncateMessage(String message) {
@@ -0,0 +1,269 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records timing spans and counters of a run, e.g. the phases of a RefreshIG, the translation of each CQL library,
+ * the number of resources parsed and the number of bytes written, and writes them as a timeline in the Chrome trace
+ * event format (viewable with chrome://tracing or https://ui.perfetto.dev).
+ *
+ * Nothing is recorded until metrics are enabled, and spans and counters are then recorded without locking, so
+ * instrumented code can be called from several threads. Code is timed with time, which records a span around it:
+ *
+ * Metrics.time("CqlProcessor.translateFile", "file", name, () -> { ... });
+ *
+ * Only the most recent MAX_SPANS spans are kept, so that a long running watch or daemon process does not hold every
+ * span it has recorded; the number of spans dropped is the Metrics.spansDropped counter.
+ */
+public class Metrics {
+
+    public static final int MAX_SPANS = 100000;
+
+    private static volatile Recording recording;
+
+    /**
+     * Starts recording, discarding anything recorded so far
+     */
+    public static void enable() {
+        recording = new Recording();
+    }
+
+    public static void disable() {
+        recording = null;
+    }
+
+    public static boolean isEnabled() {
+        return recording != null;
+    }
+
+    public static Span span(String name) {
+        return span(name, null, null);
+    }
+
+    /**
+     * Starts a span, which ends when it is closed
+     * @param name the name of the span, e.g. IGProcessor.refreshIG
+     * @param argName the name of an argument shown with the span, e.g. library, or null
+     * @param argValue the value of the argument
+     */
+    public static Span span(String name, String argName, String argValue) {
+        Recording current = recording;
+        if (current == null) {
+            return Span.NONE;
+        }
+        return new Span(current, name, argName, argValue);
+    }
+
+    public static <E extends Exception> void time(String name, Action<E> action) throws E {
+        time(name, null, null, action);
+    }
+
+    /**
+     * Runs the action in a span
+     * @see #span(String, String, String)
+     */
+    public static <E extends Exception> void time(String name, String argName, String argValue, Action<E> action) throws E {
+        Span span = span(name, argName, argValue);
+        try {
+            action.run();
+        }
+        finally {
+            span.close();
+        }
+    }
+
+    public static <T, E extends Exception> T time(String name, Task<T, E> task) throws E {
+        return time(name, null, null, task);
+    }
+
+    /**
+     * Runs the task in a span
+     * @see #span(String, String, String)
+     * @return the result of the task
+     */
+    public static <T, E extends Exception> T time(String name, String argName, String argValue, Task<T, E> task) throws E {
+        Span span = span(name, argName, argValue);
+        try {
+            return task.call();
+        }
+        finally {
+            span.close();
+        }
+    }
+
+    public static void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public static void add(String counter, long amount) {
+        Recording current = recording;
+        if (current != null) {
+            current.counters.computeIfAbsent(counter, c -> new LongAdder()).add(amount);
+        }
+    }
+
+    /**
+     * @return the value of the counter, or 0 if it has not been incremented or metrics are not enabled
+     */
+    public static long getCounter(String counter) {
+        Recording current = recording;
+        LongAdder value = current == null ? null : current.counters.get(counter);
+        return value == null ? 0 : value.sum();
+    }
+
+    /**
+     * Writes the spans and counters recorded since metrics were enabled in the Chrome trace event format. Spans are
+     * complete (X) events and the final value of each counter is a counter (C) event at the end of the timeline.
+     * The final counter values are also written as a counters object. Does nothing if metrics are not enabled.
+     */
+    public static void writeTrace(String path) throws IOException {
+        Recording current = recording;
+        if (current == null) {
+            return;
+        }
+
+        long end = System.nanoTime();
+        File file = new File(path).getAbsoluteFile();
+        if (file.getParentFile() != null) {
+            Files.createDirectories(file.getParentFile().toPath());
+        }
+        Map<String, Long> counters = new TreeMap<>();
+        current.counters.forEach((name, value) -> counters.put(name, value.sum()));
+
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("{\"traceEvents\":[\n");
+            writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"tid\":0,\"args\":{\"name\":\"cqf-tooling\"}}");
+            for (Map.Entry<Long, String> thread : current.threadNames.entrySet()) {
+                writer.write(String.format(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":%s}}",
+                        thread.getKey(), quote(thread.getValue())));
+            }
+            for (Span span : current.spans) {
+                writer.write(String.format(",\n{\"name\":%s,\"ph\":\"X\",\"ts\":%s,\"dur\":%s,\"pid\":1,\"tid\":%d",
+                        quote(span.name), micros(span.start - current.start), micros(span.end - span.start), span.threadId));
+                if (span.argName != null) {
+                    writer.write(String.format(",\"args\":{%s:%s}", quote(span.argName), quote(span.argValue)));
+                }
+                writer.write("}");
+            }
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                writer.write(String.format(",\n{\"name\":%s,\"ph\":\"C\",\"ts\":%s,\"pid\":1,\"tid\":0,\"args\":{\"value\":%d}}",
+                        quote(counter.getKey()), micros(end - current.start), counter.getValue()));
+            }
+            writer.write("\n],\n\"displayTimeUnit\":\"ms\",\n\"counters\":{");
+            String separator = "\n";
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                writer.write(String.format("%s%s:%d", separator, quote(counter.getKey()), counter.getValue()));
+                separator = ",\n";
+            }
+            writer.write("\n}}\n");
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Code timed by time, which may throw a checked exception
+     */
+    @FunctionalInterface
+    public interface Action<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * Code timed by time that returns a result, which may throw a checked exception
+     */
+    @FunctionalInterface
+    public interface Task<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private static class Recording {
+        private final long start = System.nanoTime();
+        private final Queue<Span> spans = new ConcurrentLinkedQueue<>();
+        // the size of spans, which ConcurrentLinkedQueue does not track
+        private final AtomicInteger spanCount = new AtomicInteger();
+        private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+        private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+    }
+
+    public static class Span implements AutoCloseable {
+        private static final Span NONE = new Span(null, null, null, null);
+
+        private final Recording recording;
+        private final String name;
+        private final String argName;
+        private final String argValue;
+        private final long threadId;
+        private final long start;
+        private long end;
+
+        private Span(Recording recording, String name, String argName, String argValue) {
+            this.recording = recording;
+            this.name = name;
+            this.argName = argName;
+            this.argValue = argValue;
+            this.threadId = Thread.currentThread().getId();
+            this.start = recording == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * @return the duration of the span in milliseconds, 0 if it has not ended or metrics are not enabled
+         */
+        public long getMillis() {
+            return end == 0 ? 0 : (end - start) / 1000000;
+        }
+
+        @Override
+        public void close() {
+            if (recording == null || end != 0) {
+                return;
+            }
+            end = System.nanoTime();
+            recording.threadNames.putIfAbsent(threadId, Thread.currentThread().getName());
+            recording.spans.add(this);
+            if (recording.spanCount.incrementAndGet() > MAX_SPANS && recording.spans.poll() != null) {
+                recording.spanCount.decrementAndGet();
+                recording.counters.computeIfAbsent("Metrics.spansDropped", c -> new LongAdder()).increment();
+            }
+        }
+    }
+}
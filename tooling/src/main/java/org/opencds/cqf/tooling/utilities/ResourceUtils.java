@@ -437,6 +437,10 @@ public class ResourceUtils
       return elm;
     }
 
+    public static void clearElmCache() {
+      cachedElm.clear();
+    }
+
     public static Boolean safeAddResource(String path, Map<String, IBaseResource> resources, FhirContext fhirContext) {
       Boolean added = true;
       try {
@@ -0,0 +1,120 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class ThreadUtils {
+
+    public static int getDefaultThreadCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static ExecutorService newFixedThreadPool(int threadCount, String name) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(Math.max(1, threadCount), threadFactory);
+    }
+
+    /**
+     * Applies task to each input on a pool of threadCount workers and passes the results to consumer on the calling
+     * thread, in input order. At most twice threadCount tasks are in flight at any time, so only that many results are
+     * held in memory regardless of the number of inputs. With a threadCount of 1 everything runs on the calling thread.
+     * The first exception thrown by a task is rethrown and the remaining tasks are cancelled.
+     */
+    public static <T, R> void forEachOrdered(Iterable<T> inputs, int threadCount, Function<T, R> task, Consumer<R> consumer) {
+        if (threadCount <= 1) {
+            for (T input : inputs) {
+                consumer.accept(task.apply(input));
+            }
+            return;
+        }
+
+        ExecutorService executor = newFixedThreadPool(threadCount, "cqf-tooling-worker");
+        try {
+            int maxInFlight = threadCount * 2;
+            Deque<Future<R>> inFlight = new ArrayDeque<>();
+            for (T input : inputs) {
+                inFlight.add(executor.submit(() -> task.apply(input)));
+                if (inFlight.size() >= maxInFlight) {
+                    consumer.accept(getResult(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                consumer.accept(getResult(inFlight.poll()));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs task for each input on a pool of threadCount workers and waits for all of them to complete.
+     * The first exception thrown by a task is rethrown once every task has finished.
+     */
+    public static <T> void forEach(Collection<T> inputs, int threadCount, Consumer<T> task) {
+        if (threadCount <= 1 || inputs.size() <= 1) {
+            inputs.forEach(task);
+            return;
+        }
+
+        ExecutorService executor = newFixedThreadPool(Math.min(threadCount, inputs.size()), "cqf-tooling-worker");
+        try {
+            List<Future<?>> futures = new ArrayList<>(inputs.size());
+            for (T input : inputs) {
+                futures.add(executor.submit(() -> task.accept(input)));
+            }
+            RuntimeException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    getResult(future);
+                }
+                catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <R> R getResult(Future<R> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a worker thread", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
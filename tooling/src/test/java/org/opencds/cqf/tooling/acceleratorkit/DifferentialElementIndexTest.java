@@ -0,0 +1,64 @@
+package org.opencds.cqf.tooling.acceleratorkit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import org.hl7.fhir.r4.model.ElementDefinition;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.testng.annotations.Test;
+
+public class DifferentialElementIndexTest {
+
+    @Test
+    public void testLookupAfterAdd() {
+        StructureDefinition sd = new StructureDefinition();
+        DifferentialElementIndex index = new DifferentialElementIndex(sd);
+        ElementDefinition root = element("Observation", "Observation");
+        ElementDefinition code = element("Observation.code", "Observation.code");
+        index.add(root);
+        index.add(code);
+
+        assertSame(index.getElementById("Observation.code"), code);
+        assertSame(index.getElementByPath("Observation"), root);
+        assertNull(index.getElementById("Observation.value[x]"));
+        assertEquals(index.indexOfPath("Observation.code"), 1);
+        assertEquals(sd.getDifferential().getElement().size(), 2);
+    }
+
+    @Test
+    public void testInsertKeepsFirstMatch() {
+        StructureDefinition sd = new StructureDefinition();
+        DifferentialElementIndex index = new DifferentialElementIndex(sd);
+        index.add(element("Immunization", "Immunization"));
+        ElementDefinition later = element("Immunization.statusReason:b", "Immunization.statusReason");
+        index.add(later);
+        ElementDefinition earlier = element("Immunization.statusReason:a", "Immunization.statusReason");
+        index.add(1, earlier);
+
+        assertSame(index.getElementByPath("Immunization.statusReason"), earlier);
+        assertEquals(index.indexOfPath("Immunization.statusReason"), 1);
+        assertSame(index.getElementById("Immunization.statusReason:b"), later);
+    }
+
+    @Test
+    public void testDirectModificationIsPickedUp() {
+        StructureDefinition sd = new StructureDefinition();
+        DifferentialElementIndex index = new DifferentialElementIndex(sd);
+        index.add(element("Procedure", "Procedure"));
+        ElementDefinition code = element("Procedure.code", "Procedure.code");
+        sd.getDifferential().addElement(code);
+
+        assertSame(index.getElementById("Procedure.code"), code);
+
+        sd.setDifferential(new StructureDefinition.StructureDefinitionDifferentialComponent());
+        assertNull(index.getElementById("Procedure.code"));
+    }
+
+    private ElementDefinition element(String id, String path) {
+        ElementDefinition ed = new ElementDefinition();
+        ed.setId(id);
+        ed.setPath(path);
+        return ed;
+    }
+}
@@ -0,0 +1,133 @@
+package org.opencds.cqf.tooling.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Device;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.opencds.cqf.tooling.utilities.BundleUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.Metrics;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class SoftwareSystemDeviceRegistryTest {
+
+    private static final int ENTRIES = 50;
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private File rootDir;
+    private File deviceDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        IOUtils.clearCaches();
+        SoftwareSystemDeviceRegistry.clear();
+        rootDir = Files.createTempDirectory("device-registry").toFile();
+        deviceDir = new File(rootDir, "input/resources/device");
+        deviceDir.mkdirs();
+        IOUtils.resourceDirectories.add(deviceDir.getAbsolutePath());
+
+        Device existing = new org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper(rootDir.getAbsolutePath())
+                .createSoftwareSystemDevice(new CqfmSoftwareSystem("cqf-ruler", "0.1.0", "CQFramework"));
+        IOUtils.writeResource(existing, deviceDir.getAbsolutePath(), IOUtils.Encoding.JSON, fhirContext);
+        Metrics.enable();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        Metrics.disable();
+        SoftwareSystemDeviceRegistry.clear();
+        IOUtils.clearCaches();
+        FileUtils.deleteQuietly(rootDir);
+    }
+
+    @Test
+    public void testStampingReadsAndWritesEachDeviceOnce() {
+        Bundle bundle = createContentBundle();
+
+        BundleUtils.stampR4BundleEntriesWithSoftwareSystems(bundle, getSoftwareSystems("0.2.0"), fhirContext, rootDir.getAbsolutePath());
+
+        assertEquals(Metrics.getCounter("IOUtils.resourcesParsed"), 1);
+        assertEquals(Metrics.getCounter("IOUtils.resourcesWritten"), 2);
+        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            assertEquals(((org.hl7.fhir.r4.model.DomainResource) entry.getResource()).getExtension().size(), 2);
+        }
+        assertEquals(readDevice("cqf-ruler").getVersionFirstRep().getValue(), "0.2.0");
+        assertEquals(readDevice("cqf-tooling").getVersionFirstRep().getValue(), "0.2.0");
+    }
+
+    @Test
+    public void testDevicesAreWrittenAtTheEndOfTheOutermostRun() {
+        SoftwareSystemDeviceRegistry.beginRun();
+        try {
+            BundleUtils.stampR4BundleEntriesWithSoftwareSystems(createContentBundle(), getSoftwareSystems("0.2.0"), fhirContext, rootDir.getAbsolutePath());
+            BundleUtils.stampR4BundleEntriesWithSoftwareSystems(createContentBundle(), getSoftwareSystems("0.3.0"), fhirContext, rootDir.getAbsolutePath());
+
+            assertEquals(Metrics.getCounter("IOUtils.resourcesParsed"), 1);
+            assertEquals(Metrics.getCounter("IOUtils.resourcesWritten"), 0);
+            assertEquals(readDevice("cqf-ruler").getVersionFirstRep().getValue(), "0.1.0");
+            assertFalse(new File(deviceDir, "cqf-tooling.json").exists());
+        }
+        finally {
+            SoftwareSystemDeviceRegistry.endRun();
+        }
+
+        assertEquals(Metrics.getCounter("IOUtils.resourcesWritten"), 2);
+        assertEquals(readDevice("cqf-ruler").getVersionFirstRep().getValue(), "0.3.0");
+        assertEquals(readDevice("cqf-tooling").getVersionFirstRep().getValue(), "0.3.0");
+    }
+
+    @Test
+    public void testHelperOutsideRunWritesImmediately() {
+        Library library = new Library();
+        library.setId("library");
+        new org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper(rootDir.getAbsolutePath())
+                .ensureSoftwareSystemExtensionAndDevice(library, new CqfmSoftwareSystem("cqf-ruler", "0.4.0", "CQFramework"), fhirContext);
+
+        assertTrue(library.hasExtension());
+        assertEquals(Metrics.getCounter("IOUtils.resourcesWritten"), 1);
+        assertEquals(readDevice("cqf-ruler").getVersionFirstRep().getValue(), "0.4.0");
+    }
+
+    private Bundle createContentBundle() {
+        Bundle bundle = new Bundle();
+        for (int i = 0; i < ENTRIES; i++) {
+            if (i % 2 == 0) {
+                Library library = new Library();
+                library.setId("library-" + i);
+                bundle.addEntry().setResource(library);
+            }
+            else {
+                Measure measure = new Measure();
+                measure.setId("measure-" + i);
+                bundle.addEntry().setResource(measure);
+            }
+        }
+        return bundle;
+    }
+
+    private List<CqfmSoftwareSystem> getSoftwareSystems(String version) {
+        List<CqfmSoftwareSystem> softwareSystems = new ArrayList<>();
+        softwareSystems.add(new CqfmSoftwareSystem("cqf-ruler", version, "CQFramework"));
+        softwareSystems.add(new CqfmSoftwareSystem("cqf-tooling", version, "CQFramework"));
+        return softwareSystems;
+    }
+
+    private Device readDevice(String id) {
+        return (Device) IOUtils.readResourceUncached(new File(deviceDir, id + ".json").getAbsolutePath(), fhirContext);
+    }
+}
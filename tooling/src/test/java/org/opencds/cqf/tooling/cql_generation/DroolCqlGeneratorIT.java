@@ -1,11 +1,28 @@
 package org.opencds.cqf.tooling.cql_generation;
 
+import static org.testng.Assert.assertEquals;
+
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.ObjectFactory;
 import org.testng.annotations.Test;
 import org.opencds.cqf.tooling.cql_generation.drool.DroolCqlGenerator;
+import org.opencds.cqf.tooling.cql_generation.drool.serialization.Serializer;
 import org.opencds.cqf.tooling.cql_generation.drool.visitor.DroolToElmVisitor.CQLTYPES;
 
 public class DroolCqlGeneratorIT {
@@ -21,4 +38,47 @@ public class DroolCqlGeneratorIT {
         CqlGenerator droolIshCqlGenerator = new DroolCqlGenerator(cqlType);
         droolIshCqlGenerator.generateAndWriteToFile(encodingUri, outputUri, fhirVersion);
     }
+
+    @Test
+    public void test_parallelMatchesSequential() throws URISyntaxException, JAXBException {
+        URI encodingUri = DroolCqlGeneratorIT.class.getResource("default.json").toURI();
+        assertParallelMatchesSequential(encodingUri, CQLTYPES.CONDITION);
+        assertParallelMatchesSequential(encodingUri, CQLTYPES.CONDITIONREL);
+    }
+
+    @Test
+    public void test_parallelMatchesSequentialWithDuplicateLibraryNames() throws URISyntaxException, IOException, JAXBException {
+        // every condition appears twice, so the inferred library names repeat across batches
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode conditions = mapper.readTree(new File(DroolCqlGeneratorIT.class.getResource("default.json").toURI()));
+        ArrayNode duplicated = mapper.createArrayNode();
+        duplicated.addAll((ArrayNode) conditions);
+        duplicated.addAll((ArrayNode) conditions);
+        Path input = Files.createTempFile("drool-duplicates", ".json");
+        try {
+            mapper.writeValue(input.toFile(), duplicated);
+            assertParallelMatchesSequential(input.toUri(), CQLTYPES.CONDITION);
+            assertParallelMatchesSequential(input.toUri(), CQLTYPES.CONDITIONREL);
+        } finally {
+            Files.deleteIfExists(input);
+        }
+    }
+
+    private void assertParallelMatchesSequential(URI encodingUri, CQLTYPES cqlType) throws JAXBException {
+        Map<String, String> sequential = toElm(new DroolCqlGenerator(cqlType).generate(encodingUri, "4.0.0"));
+        Map<String, String> parallel = toElm(new DroolCqlGenerator(cqlType, 4, false).generate(encodingUri, "4.0.0"));
+        assertEquals(parallel.keySet(), sequential.keySet());
+        sequential.forEach((name, elm) -> assertEquals(parallel.get(name), elm, name));
+    }
+
+    private Map<String, String> toElm(Map<String, Library> libraries) throws JAXBException {
+        Serializer serializer = new Serializer(Library.class);
+        JAXBContext jaxbContext = serializer.getJaxbContext();
+        ObjectFactory of = new ObjectFactory();
+        Map<String, String> elm = new TreeMap<String, String>();
+        for (Map.Entry<String, Library> entry : libraries.entrySet()) {
+            elm.put(entry.getKey(), serializer.convertToXml(of.createLibrary(entry.getValue()), jaxbContext));
+        }
+        return elm;
+    }
 }
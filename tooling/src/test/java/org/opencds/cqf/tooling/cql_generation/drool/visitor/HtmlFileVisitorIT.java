@@ -1,7 +1,14 @@
 package org.opencds.cqf.tooling.cql_generation.drool.visitor;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.cdsframework.dto.ConditionDTO;
 import org.testng.annotations.Test;
@@ -17,6 +24,24 @@ public class HtmlFileVisitorIT {
         readAndGenerateCQL(file);
     }
 
+    @Test
+    public void test_incremental() throws IOException {
+        String encodingPath = HtmlFileVisitorIT.class.getResource("default.json").getPath();
+        File file = new File(encodingPath);
+        File incrementalOutput = Files.createTempDirectory("html-from-drool-incremental").toFile();
+        File listOutput = Files.createTempDirectory("html-from-drool-list").toFile();
+
+        Deserializer deserializer = new Deserializer(file);
+        Visitor visitor = new HtmlFileVisitor(incrementalOutput.getPath());
+        DroolTraverser<Visitor> traverser = new DepthFirstDroolTraverser<Visitor>(visitor);
+        traverser.traverse(deserializer.iterator());
+        doVisit(listOutput.getPath(), new Deserializer(file).deserialize());
+
+        Map<String, String> incremental = readFiles(incrementalOutput);
+        assertFalse(incremental.isEmpty());
+        assertEquals(incremental, readFiles(listOutput));
+    }
+
     private void readAndGenerateCQL(File file) {
         Deserializer deserializer = new Deserializer(file);
         List<ConditionDTO> conditions = deserializer.deserialize();
@@ -28,4 +53,12 @@ public class HtmlFileVisitorIT {
         DroolTraverser<Visitor> traverser = new DepthFirstDroolTraverser<Visitor>(visitor);
         traverser.traverse(rootNode);
     }
+
+    private Map<String, String> readFiles(File directory) throws IOException {
+        Map<String, String> contents = new TreeMap<String, String>();
+        for (File file : directory.listFiles()) {
+            contents.put(file.getName(), new String(Files.readAllBytes(file.toPath())));
+        }
+        return contents;
+    }
 }
@@ -0,0 +1,93 @@
+package org.opencds.cqf.tooling.modelinfo;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class AtlasCacheTest {
+
+    @Test
+    public void testCacheRoundTrip() throws IOException {
+        Path basePath = Files.createTempDirectory("atlas-cache-test");
+        Path specPath = Files.createDirectories(basePath.resolve("spec"));
+        writeResource(specPath.resolve("StructureDefinition-Patient.json"), structureDefinition("Patient"));
+        writeResource(specPath.resolve("StructureDefinition-Observation.json"), structureDefinition("Observation"));
+        Bundle bundle = new Bundle().setType(Bundle.BundleType.COLLECTION);
+        bundle.addEntry().setResource(new ValueSet().setUrl("http://hl7.org/fhir/ValueSet/administrative-gender"));
+        bundle.addEntry().setResource(structureDefinition("Patient"));
+        writeResource(specPath.resolve("bundle.json"), bundle);
+        String cachePath = basePath.resolve("cache").toString();
+
+        Atlas loaded = AtlasCache.loadPaths(basePath.toString(), "spec", cachePath);
+        String fingerprint = AtlasCache.fingerprint(basePath.toString(), "spec");
+        assertTrue(new AtlasCache(cachePath).isCurrent(fingerprint));
+
+        Atlas cached = AtlasCache.loadPaths(basePath.toString(), "spec", cachePath);
+        assertEquals(cached.getStructureDefinitions().keySet(), loaded.getStructureDefinitions().keySet());
+        assertEquals(cached.getStructureDefinitions().get("Patient").getUrl(), "http://hl7.org/fhir/StructureDefinition/Patient");
+        assertEquals(cached.getValueSets().keySet(), loaded.getValueSets().keySet());
+        assertEquals(cached.getResources().keySet(), loaded.getResources().keySet());
+
+        writeResource(specPath.resolve("StructureDefinition-Observation.json"), structureDefinition("Observation").setVersion("4.0.1"));
+        String changed = AtlasCache.fingerprint(basePath.toString(), "spec");
+        assertNotEquals(changed, fingerprint);
+        assertFalse(new AtlasCache(cachePath).isCurrent(changed));
+    }
+
+    @Test
+    public void testParallelLoadMatchesSequential() throws IOException {
+        Path basePath = Files.createTempDirectory("atlas-load-test");
+        Path specPath = Files.createDirectories(basePath.resolve("spec"));
+        Bundle bundle = new Bundle().setType(Bundle.BundleType.COLLECTION);
+        for (int i = 0; i < 20; i++) {
+            writeResource(specPath.resolve("StructureDefinition-Type" + i + ".json"), structureDefinition("Type" + i));
+            bundle.addEntry().setResource(structureDefinition("Type" + (i * 2)));
+        }
+        writeResource(specPath.resolve("bundle.json"), bundle);
+
+        Atlas sequential = new Atlas();
+        sequential.setThreadCount(1);
+        sequential.loadPaths(basePath.toString(), "spec");
+        Atlas parallel = new Atlas();
+        parallel.setThreadCount(4);
+        parallel.loadPaths(basePath.toString(), "spec");
+
+        assertEquals(parallel.getStructureDefinitions().size(), 30);
+        assertEquals(parallel.getResources().keySet(), sequential.getResources().keySet());
+        for (String id : sequential.getStructureDefinitions().keySet()) {
+            // the first file to define a url wins in both cases
+            assertTrue(parallel.getStructureDefinitions().get(id).equalsDeep(sequential.getStructureDefinitions().get(id)));
+        }
+    }
+
+    private StructureDefinition structureDefinition(String type) {
+        StructureDefinition sd = new StructureDefinition();
+        sd.setUrl("http://hl7.org/fhir/StructureDefinition/" + type);
+        sd.setName(type);
+        sd.setType(type);
+        sd.setStatus(Enumerations.PublicationStatus.ACTIVE);
+        sd.setKind(StructureDefinition.StructureDefinitionKind.RESOURCE);
+        sd.getSnapshot().addElement().setPath(type).setId(type);
+        return sd;
+    }
+
+    private void writeResource(Path path, Resource resource) throws IOException {
+        String json = FhirContext.forR4Cached().newJsonParser().encodeResourceToString(resource);
+        Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,39 @@
+package org.opencds.cqf.tooling.modelinfo;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.hl7.elm_modelinfo.r1.TypeInfo;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ClassInfoBuilderTest {
+
+    @DataProvider
+    public Object[][] models() {
+        return TestModels.MODELS.stream().map(model -> new Object[] { model }).toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "models")
+    public void testParallelBuildMatchesSequential(String model) {
+        Map<String, StructureDefinition> structureDefinitions = TestModels.loadStructureDefinitions(model);
+
+        Map<String, TypeInfo> sequential = build(model, structureDefinitions, 1);
+        Map<String, TypeInfo> parallel = build(model, structureDefinitions, 4);
+
+        assertTrue(sequential.size() > 100);
+        assertEquals(parallel.keySet(), sequential.keySet());
+        for (Map.Entry<String, TypeInfo> entry : sequential.entrySet()) {
+            assertEquals(parallel.get(entry.getKey()), entry.getValue(), entry.getKey());
+        }
+    }
+
+    private Map<String, TypeInfo> build(String model, Map<String, StructureDefinition> structureDefinitions, int threadCount) {
+        ClassInfoBuilder builder = TestModels.newClassInfoBuilder(model, structureDefinitions);
+        builder.setThreadCount(threadCount);
+        return TestModels.build(builder);
+    }
+}
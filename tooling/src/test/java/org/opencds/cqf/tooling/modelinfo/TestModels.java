@@ -0,0 +1,141 @@
+package org.opencds.cqf.tooling.modelinfo;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.elm_modelinfo.r1.TypeInfo;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.opencds.cqf.tooling.modelinfo.fhir.FHIRClassInfoBuilder;
+import org.opencds.cqf.tooling.modelinfo.qicore.QICoreClassInfoBuilder;
+import org.opencds.cqf.tooling.modelinfo.uscore.USCoreClassInfoBuilder;
+import org.opencds.cqf.tooling.utilities.CanonicalUtils;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+
+/**
+ * The structure definitions of the FHIR, USCore and QICore models, for building their ClassInfos without the
+ * published packages.
+ *
+ * FHIR is the R4 structure definitions bundled with HAPI. USCore and QICore are those and a synthetic profile for each
+ * profile id of the builder that is not a base structure definition: a constraint on the base resource whose name the
+ * id names (Observation otherwise), with the snapshot of that resource. The first profile of each resource is named
+ * after the resource, as in the published IGs, so that content references resolve. The synthetic profiles have none
+ * of the slices and extensions of the published profiles, so they exercise the traversal of the profiles rather than
+ * reproduce the published model info.
+ */
+public class TestModels {
+
+    public static final List<String> MODELS = List.of("FHIR", "USCore", "QICore");
+
+    // the names of the published profiles that the builders refer to
+    private static final Map<String, String> PROFILE_NAMES = Map.of("us-core-observation-lab", "LaboratoryResultObservationProfile");
+
+    private TestModels() {
+    }
+
+    /**
+     * @return the structure definitions of the model, keyed by the tail of their url
+     */
+    public static Map<String, StructureDefinition> loadStructureDefinitions(String model) {
+        Map<String, StructureDefinition> structureDefinitions = new LinkedHashMap<>();
+        for (IBaseResource resource : new DefaultProfileValidationSupport(FhirContext.forR4Cached()).fetchAllStructureDefinitions()) {
+            StructureDefinition sd = (StructureDefinition) resource;
+            structureDefinitions.putIfAbsent(CanonicalUtils.getTail(sd.getUrl()), sd);
+        }
+        switch (model) {
+            case "FHIR": break;
+            case "USCore": addSyntheticProfiles(structureDefinitions, USCoreClassInfoBuilder.PROFILES, "USCore"); break;
+            case "QICore": addSyntheticProfiles(structureDefinitions, QICoreClassInfoBuilder.PROFILES, "QICore"); break;
+            default: throw new IllegalArgumentException("Unknown model: " + model);
+        }
+        return structureDefinitions;
+    }
+
+    public static ClassInfoBuilder newClassInfoBuilder(String model, Map<String, StructureDefinition> structureDefinitions) {
+        switch (model) {
+            case "FHIR": return new FHIRClassInfoBuilder(structureDefinitions);
+            case "USCore": return new USCoreClassInfoBuilder(structureDefinitions);
+            case "QICore": return new QICoreClassInfoBuilder(structureDefinitions);
+            default: throw new IllegalArgumentException("Unknown model: " + model);
+        }
+    }
+
+    /**
+     * Builds the ClassInfos the way StructureDefinitionToModelInfo does, build followed by afterBuild, without the
+     * output the builders log for every element they visit.
+     */
+    public static Map<String, TypeInfo> build(ClassInfoBuilder builder) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Map<String, TypeInfo> typeInfos = builder.build();
+            builder.afterBuild();
+            return typeInfos;
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+
+    private static void addSyntheticProfiles(Map<String, StructureDefinition> structureDefinitions, List<String> profileIds, String modelPrefix) {
+        List<StructureDefinition> resources = new ArrayList<>();
+        for (StructureDefinition sd : structureDefinitions.values()) {
+            if (sd.getKind() == StructureDefinition.StructureDefinitionKind.RESOURCE
+                    && sd.getDerivation() == StructureDefinition.TypeDerivationRule.SPECIALIZATION && !sd.getAbstract()) {
+                resources.add(sd);
+            }
+        }
+
+        Set<String> profiledTypes = new HashSet<>();
+        for (String id : profileIds) {
+            if (structureDefinitions.containsKey(id)) {
+                continue;
+            }
+            StructureDefinition base = getBaseResource(structureDefinitions, id, resources);
+            String name = PROFILE_NAMES.getOrDefault(id, profiledTypes.add(base.getType())
+                    ? modelPrefix + base.getType() : modelPrefix + toName(id.replaceFirst("^(us-core|qicore)-", "")));
+            StructureDefinition profile = base.copy();
+            String canonicalBase = id.startsWith("qicore-") ? "http://hl7.org/fhir/us/qicore" : "http://hl7.org/fhir/us/core";
+            profile.setId(id);
+            profile.setUrl(canonicalBase + "/StructureDefinition/" + id);
+            profile.setName(name);
+            profile.setDerivation(StructureDefinition.TypeDerivationRule.CONSTRAINT);
+            profile.setBaseDefinition(base.getUrl());
+            profile.getDifferential().getElement().clear();
+            structureDefinitions.put(id, profile);
+        }
+    }
+
+    // The resource with the longest name that the id (without the prefix of its IG) starts with, e.g.
+    // DiagnosticReport for qicore-diagnosticreport-lab, and Observation for vital signs profiles such as bmi
+    private static StructureDefinition getBaseResource(Map<String, StructureDefinition> structureDefinitions, String id,
+            List<StructureDefinition> resources) {
+        String name = id.replaceFirst("^(us-core|qicore)-", "").replace("-", "");
+        StructureDefinition base = structureDefinitions.get("Observation");
+        int length = 0;
+        for (StructureDefinition sd : resources) {
+            String type = sd.getType().toLowerCase();
+            if (name.startsWith(type) && type.length() > length) {
+                base = sd;
+                length = type.length();
+            }
+        }
+        return base;
+    }
+
+    private static String toName(String id) {
+        StringBuilder name = new StringBuilder();
+        for (String part : id.split("-")) {
+            name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package org.opencds.cqf.tooling.npm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.cql.model.ModelIdentifier;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class NpmPackageIndexTest implements IWorkerContext.ILoggingService {
+
+    private static final String CANONICAL = "http://example.org/fhir/uv/test";
+
+    @Test
+    public void testLibrarySourceProvider() throws IOException {
+        NpmPackage p = createPackage(true);
+        CountingLibraryReader reader = new CountingLibraryReader();
+        NpmPackageIndex index = new NpmPackageIndex(Collections.singletonList(p));
+        NpmLibrarySourceProvider sp = new NpmLibrarySourceProvider(index, reader, this);
+
+        assertEquals(read(sp.getLibrarySource(new VersionedIdentifier().withSystem(CANONICAL).withId("Example").withVersion("1.0.0"))), "library Example version '1.0.0'");
+        assertEquals(read(sp.getLibrarySource(new VersionedIdentifier().withSystem(CANONICAL).withId("Example").withVersion("2.0.0"))), "library Example version '2.0.0'");
+        assertNull(sp.getLibrarySource(new VersionedIdentifier().withSystem(CANONICAL).withId("Example").withVersion("3.0.0")));
+        assertNull(sp.getLibrarySource(new VersionedIdentifier().withSystem(CANONICAL).withId("Missing")));
+
+        // without a version or system, the first indexed entry in the package's canonical is resolved
+        VersionedIdentifier identifier = new VersionedIdentifier().withId("Example");
+        String expected = read(p.loadByCanonicalVersion(CANONICAL + "/Library/Example", null)).contains("1.0.0")
+                ? "library Example version '1.0.0'" : "library Example version '2.0.0'";
+        assertEquals(read(sp.getLibrarySource(identifier)), expected);
+        assertEquals(identifier.getSystem(), CANONICAL);
+
+        // resolving the same libraries again, from a provider sharing the index, does not read them again
+        int reads = reader.count.get();
+        NpmLibrarySourceProvider other = new NpmLibrarySourceProvider(index, reader, this);
+        assertNotNull(other.getLibrarySource(new VersionedIdentifier().withSystem(CANONICAL).withId("Example").withVersion("1.0.0")));
+        assertNotNull(other.getLibrarySource(new VersionedIdentifier().withSystem(CANONICAL).withId("Example").withVersion("2.0.0")));
+        assertEquals(reader.count.get(), reads);
+    }
+
+    @Test
+    public void testModelInfoProvider() throws IOException {
+        NpmPackage p = createPackage(true);
+        NpmModelInfoProvider mp = new NpmModelInfoProvider(Collections.singletonList(p), new LibraryLoader("4.0.1"), this);
+
+        ModelIdentifier identifier = new ModelIdentifier().withId("Test");
+        ModelInfo modelInfo = mp.load(identifier);
+        assertNotNull(modelInfo);
+        assertEquals(modelInfo.getName(), "Test");
+        assertEquals(modelInfo.getVersion(), "1.0.0");
+        assertEquals(identifier.getSystem(), CANONICAL);
+        assertNull(mp.load(new ModelIdentifier().withSystem(CANONICAL).withId("Missing")));
+    }
+
+    @Test
+    public void testGeneratedPackageIndex() throws IOException {
+        // NpmPackage.fromFolder indexes a folder that has no .index.json
+        NpmPackage p = createPackage(false);
+        NpmLibrarySourceProvider sp = new NpmLibrarySourceProvider(Collections.singletonList(p), new LibraryLoader("4.0.1"), this);
+
+        assertEquals(read(sp.getLibrarySource(new VersionedIdentifier().withSystem(CANONICAL).withId("Example").withVersion("2.0.0"))), "library Example version '2.0.0'");
+        assertNull(sp.getLibrarySource(new VersionedIdentifier().withSystem(CANONICAL).withId("Example").withVersion("3.0.0")));
+    }
+
+    @Test
+    public void testResolveAcrossPackages() throws IOException {
+        NpmPackage indexed = createPackage(true);
+        NpmPackage unindexed = createPackage(false);
+        String url = CANONICAL + "/Library/Example";
+
+        // every package that has the resource, in package order, whether or not it has an index
+        NpmPackageIndex index = new NpmPackageIndex(Arrays.asList(unindexed, indexed));
+        List<NpmPackageIndex.Entry> entries = index.resolve(url, "2.0.0");
+        assertEquals(entries.size(), 2);
+        assertSame(entries.get(0).getPackage(), unindexed);
+        assertSame(entries.get(1).getPackage(), indexed);
+        assertEquals(read(entries.get(1).load()), read(indexed.loadByCanonicalVersion(url, "2.0.0")));
+        assertSame(index.resolve(indexed, url, "2.0.0"), entries.get(1));
+
+        NpmPackage other = createPackage(true);
+        index = new NpmPackageIndex(Arrays.asList(indexed, other));
+        entries = index.resolve(url, "1.0.0");
+        assertEquals(entries.size(), 2);
+        assertSame(entries.get(0).getPackage(), indexed);
+        assertSame(entries.get(1).getPackage(), other);
+        assertTrue(index.resolve(url, "3.0.0").isEmpty());
+        assertNull(index.resolve(other, url, "3.0.0"));
+    }
+
+    private NpmPackage createPackage(boolean withIndex) throws IOException {
+        Path packagePath = Files.createDirectories(Files.createTempDirectory("npm-package-index-test").resolve("package"));
+        write(packagePath.resolve("package.json"), "{\"name\":\"example.fhir.uv.test\",\"version\":\"1.0.0\",\"canonical\":\"" + CANONICAL
+                + "\",\"fhirVersions\":[\"4.0.1\"],\"dependencies\":{}}");
+
+        StringBuilder index = new StringBuilder("{\"index-version\":1,\"files\":[");
+        index.append(writeLibrary(packagePath, "Library-Example-1.json", "Example", "1.0.0", "text/cql", "library Example version '1.0.0'")).append(",");
+        index.append(writeLibrary(packagePath, "Library-Example-2.json", "Example", "2.0.0", "text/cql", "library Example version '2.0.0'")).append(",");
+        index.append(writeLibrary(packagePath, "Library-Test-ModelInfo.json", "Test-ModelInfo", "1.0.0", "application/xml",
+                "<modelInfo xmlns=\"urn:hl7-org:elm-modelinfo:r1\" name=\"Test\" version=\"1.0.0\" url=\"urn:test\"/>"));
+        index.append("]}");
+        if (withIndex) {
+            write(packagePath.resolve(".index.json"), index.toString());
+        }
+        return NpmPackage.fromFolder(packagePath.getParent().toString());
+    }
+
+    private String writeLibrary(Path packagePath, String fileName, String name, String version, String contentType, String content) throws IOException {
+        Library library = new Library();
+        library.setId(name + "-" + version.replace(".", "-"));
+        library.setUrl(CANONICAL + "/Library/" + name);
+        library.setName(name);
+        library.setVersion(version);
+        library.addContent().setContentType(contentType).setData(content.getBytes(StandardCharsets.UTF_8));
+        write(packagePath.resolve(fileName), FhirContext.forR4Cached().newJsonParser().encodeResourceToString(library));
+        return String.format("{\"filename\":\"%s\",\"resourceType\":\"Library\",\"id\":\"%s\",\"url\":\"%s\",\"version\":\"%s\"}",
+                fileName, library.getId(), library.getUrl(), version);
+    }
+
+    private void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(InputStream is) throws IOException {
+        assertNotNull(is);
+        try (InputStream in = is) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class CountingLibraryReader extends LibraryLoader {
+        private final AtomicInteger count = new AtomicInteger();
+
+        private CountingLibraryReader() {
+            super("4.0.1");
+        }
+
+        @Override
+        public org.hl7.fhir.r5.model.Library readLibrary(InputStream stream) throws IOException {
+            count.incrementAndGet();
+            return super.readLibrary(stream);
+        }
+    }
+
+    @Override
+    public void logMessage(String msg) {
+    }
+
+    @Override
+    public void logDebugMessage(LogCategory category, String msg) {
+    }
+}
@@ -1,12 +1,17 @@
 package org.opencds.cqf.tooling.npm;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.model.ImplementationGuide;
+import org.hl7.fhir.utilities.npm.NpmPackage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.Ignore;
@@ -75,6 +80,55 @@ public class NpmPackageManagerTests implements IWorkerContext.ILoggingService {
         assertTrue(is != null);
     }
 
+    @Test
+    public void TestConcurrentDependencyLoading() throws Exception {
+        // A local package cache with the core package and packages that depend on one another. The IG declares all
+        // of them, as only the packages the IG declares are loaded.
+        TestPackageCache cache = new TestPackageCache();
+        cache.cachePackage("hl7.fhir.r4.core", "4.0.1", "http://hl7.org/fhir");
+        cache.cachePackage("example.fhir.a", "1.0.0", "http://example.org/fhir/a", "hl7.fhir.r4.core");
+        cache.cachePackage("example.fhir.b", "1.0.0", "http://example.org/fhir/b", "hl7.fhir.r4.core", "example.fhir.a");
+        cache.cachePackage("example.fhir.c", "1.0.0", "http://example.org/fhir/c", "hl7.fhir.r4.core", "example.fhir.a", "example.fhir.b");
+        cache.cachePackage("example.fhir.d", "2.0.0", "http://example.org/fhir/d", "hl7.fhir.r4.core", "example.fhir.c");
+
+        ImplementationGuide ig = new ImplementationGuide();
+        for (String id : new String[] { "d", "a", "c", "b" }) {
+            ImplementationGuide.ImplementationGuideDependsOnComponent dep = ig.addDependsOn();
+            dep.setId(id);
+            dep.setPackageId("example.fhir." + id).setUri("http://example.org/fhir/" + id + "/ImplementationGuide/" + id)
+                    .setVersion(id.equals("d") ? "2.0.0" : "1.0.0");
+        }
+
+        NpmPackageManager sequential = cache.createPackageManager(ig, "4.0.1", 1);
+        NpmPackageManager concurrent = cache.createPackageManager(ig, "4.0.1", 4);
+
+        // the core package comes first, followed by the dependencies in declaration order
+        List<String> expected = List.of("hl7.fhir.r4.core#4.0.1", "example.fhir.d#2.0.0", "example.fhir.a#1.0.0", "example.fhir.c#1.0.0", "example.fhir.b#1.0.0");
+        assertEquals(packageIds(sequential.getNpmList()), expected);
+        assertEquals(packageIds(concurrent.getNpmList()), expected);
+        assertEquals(concurrent.getNpmPackageIndex().getPackages(), concurrent.getNpmList());
+    }
+
+    @Test
+    public void TestDependenciesOfDependenciesNotLoaded() throws Exception {
+        TestPackageCache cache = new TestPackageCache();
+        cache.cachePackage("hl7.fhir.r4.core", "4.0.1", "http://hl7.org/fhir");
+        cache.cachePackage("example.fhir.a", "1.0.0", "http://example.org/fhir/a", "hl7.fhir.r4.core");
+        cache.cachePackage("example.fhir.b", "1.0.0", "http://example.org/fhir/b", "hl7.fhir.r4.core", "example.fhir.a");
+
+        ImplementationGuide ig = new ImplementationGuide();
+        ImplementationGuide.ImplementationGuideDependsOnComponent dep = ig.addDependsOn();
+        dep.setId("b");
+        dep.setPackageId("example.fhir.b").setUri("http://example.org/fhir/b/ImplementationGuide/b").setVersion("1.0.0");
+
+        NpmPackageManager pm = cache.createPackageManager(ig, "4.0.1", 4);
+        assertEquals(packageIds(pm.getNpmList()), List.of("hl7.fhir.r4.core#4.0.1", "example.fhir.b#1.0.0"));
+    }
+
+    private List<String> packageIds(List<NpmPackage> packages) {
+        return packages.stream().map(p -> p.name() + "#" + p.version()).collect(Collectors.toList());
+    }
+
     @Override
     public void logMessage(String msg) {
       logger.info(msg);
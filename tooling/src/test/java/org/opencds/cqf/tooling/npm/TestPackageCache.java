@@ -0,0 +1,90 @@
+package org.opencds.cqf.tooling.npm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r5.model.ImplementationGuide;
+import org.hl7.fhir.utilities.npm.FilesystemPackageCacheManager;
+import org.hl7.fhir.utilities.npm.ToolsVersion;
+
+/**
+ * A package cache in a temporary user home, holding the packages a test loads, so that tests never reach the network
+ * or the package cache of the user running them.
+ *
+ * FilesystemPackageCacheManager places its cache in the user home, so the user.home system property points at the
+ * temporary user home only while the cache manager is created, or while an action given to withUserHome runs. Every
+ * such change is made under one lock and undone before the lock is released.
+ */
+public class TestPackageCache {
+
+    private static final Object userHomeLock = new Object();
+
+    private final Path userHome;
+    private final FilesystemPackageCacheManager packageCacheManager;
+
+    public TestPackageCache() throws Exception {
+        userHome = Files.createTempDirectory("npm-package-cache");
+        packageCacheManager = withUserHome(() -> new FilesystemPackageCacheManager(true, ToolsVersion.TOOLS_VERSION));
+    }
+
+    public Path getUserHome() {
+        return userHome;
+    }
+
+    public FilesystemPackageCacheManager getPackageCacheManager() {
+        return packageCacheManager;
+    }
+
+    /**
+     * Caches the core package.
+     * @return the package folder
+     */
+    public Path cacheCorePackage() throws IOException {
+        return cachePackage("hl7.fhir.r4.core", "4.0.1", null);
+    }
+
+    /**
+     * Caches a package with a package.json only. Dependencies are on version 4.0.1 of the core package, and on
+     * version 1.0.0 of any other package.
+     * @param canonical the canonical of the package, or null for none
+     * @return the package folder
+     */
+    public Path cachePackage(String id, String version, String canonical, String... dependencies) throws IOException {
+        Path packagePath = Files.createDirectories(Path.of(packageCacheManager.getFolder()).resolve(id + "#" + version).resolve("package"));
+        String dependsOn = List.of(dependencies).stream().map(d -> "\"" + d + "\":\"" + (d.equals("hl7.fhir.r4.core") ? "4.0.1" : "1.0.0") + "\"")
+                .collect(Collectors.joining(","));
+        String packageJson = String.format("{\"name\":\"%s\",\"version\":\"%s\",%s\"fhirVersions\":[\"4.0.1\"],\"dependencies\":{%s}}",
+                id, version, canonical == null ? "" : "\"canonical\":\"" + canonical + "\",", dependsOn);
+        Files.write(packagePath.resolve("package.json"), packageJson.getBytes(StandardCharsets.UTF_8));
+        return packagePath;
+    }
+
+    /**
+     * Loads the packages of the IG from this cache.
+     */
+    public NpmPackageManager createPackageManager(ImplementationGuide sourceIg, String version, int threadCount) {
+        return new NpmPackageManager(sourceIg, version, packageCacheManager, threadCount);
+    }
+
+    /**
+     * Runs the action with the user home set to the temporary user home, for code that creates its own package cache
+     * manager.
+     */
+    public <T> T withUserHome(Callable<T> action) throws Exception {
+        synchronized (userHomeLock) {
+            String original = System.getProperty("user.home");
+            System.setProperty("user.home", userHome.toString());
+            try {
+                return action.call();
+            }
+            finally {
+                System.setProperty("user.home", original);
+            }
+        }
+    }
+}
@@ -6,13 +6,19 @@ import org.opencds.cqf.tooling.terminology.EnsureExecutableValueSetOperation;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.testng.annotations.Test;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import org.hl7.fhir.r4.model.ValueSet;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class EnsureExecutableValueSetNaiveTest {
     @Test
@@ -42,4 +48,123 @@ public class EnsureExecutableValueSetNaiveTest {
             }
         }
     }
+
+    @Test
+    public void testEnsureExecutableValueSetBatch() throws IOException {
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        String inputPath = "target/test/resources/org/opencds/cqf/tooling/terminology/batch-input";
+        String outputPath = "target/test/resources/org/opencds/cqf/tooling/terminology/batch-output";
+        FileUtils.deleteDirectory(new File(inputPath));
+        FileUtils.deleteDirectory(new File(outputPath));
+
+        // Already consistent value sets from the refreshIG test IG
+        File manual = new File("src/test/resources/org/opencds/cqf/tooling/testfiles/refreshIG/input/vocabulary/valueset/manual");
+        FileUtils.copyDirectory(manual, new File(inputPath));
+        int consistentCount = manual.listFiles().length;
+
+        // Value sets with a compose and no expansion
+        for (int i = 0; i < 5; i++) {
+            ValueSet valueSet = new ValueSet();
+            valueSet.setId("batch-compose-" + i);
+            valueSet.setUrl("http://example.org/fhir/ValueSet/batch-compose-" + i);
+            valueSet.getCompose().addInclude().setSystem("http://snomed.info/sct").addConcept().setCode("4405400" + i);
+            IOUtils.writeResource(valueSet, inputPath, IOUtils.Encoding.JSON, fhirContext);
+        }
+
+        EnsureExecutableValueSetOperation executableValueSetOperation = new EnsureExecutableValueSetOperation();
+        executableValueSetOperation.execute(new String[]{
+                "-EnsureExecutableValueSet",
+                "-vsp=" + inputPath,
+                "-op=" + outputPath,
+                "-force=false",
+                "-batch=true",
+                "-threads=4"
+        });
+
+        assertEquals(executableValueSetOperation.getRefreshedCount(), 5);
+        assertEquals(executableValueSetOperation.getSkippedCount(), consistentCount);
+        // Only the refreshed value sets are written
+        assertEquals(IOUtils.getFilePaths(outputPath, false).size(), 5);
+
+        // A forced refresh of the refreshed value sets would only change the expansion timestamps, so a second pass
+        // over the output skips all of them and leaves the files as they were
+        Map<String, String> firstPassFiles = readFiles(outputPath);
+        EnsureExecutableValueSetOperation secondPass = new EnsureExecutableValueSetOperation();
+        secondPass.execute(new String[]{
+                "-EnsureExecutableValueSet",
+                "-vsp=" + outputPath,
+                "-op=" + outputPath,
+                "-batch=true"
+        });
+        assertEquals(secondPass.getRefreshedCount(), 0);
+        assertEquals(secondPass.getSkippedCount(), 5);
+        assertEquals(readFiles(outputPath), firstPassFiles);
+    }
+
+    @Test
+    public void testEnsureExecutableValueSetBatchMatchesSequential() throws IOException {
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        String inputPath = "target/test/resources/org/opencds/cqf/tooling/terminology/parity-input";
+        FileUtils.deleteDirectory(new File(inputPath));
+
+        // Consistent value sets, with and without the CPG declarations, and a value set with no expansion
+        File manual = new File("src/test/resources/org/opencds/cqf/tooling/testfiles/refreshIG/input/vocabulary/valueset/manual");
+        FileUtils.copyDirectory(manual, new File(inputPath));
+        ValueSet undeclared = (ValueSet) IOUtils.readResource(manual.listFiles()[0].getAbsolutePath(), fhirContext, true);
+        undeclared.setId("parity-undeclared");
+        undeclared.getMeta().getProfile().clear();
+        undeclared.getExtension().clear();
+        IOUtils.writeResource(undeclared, inputPath, IOUtils.Encoding.JSON, fhirContext);
+        ValueSet compose = new ValueSet();
+        compose.setId("parity-compose");
+        compose.getCompose().addInclude().setSystem("http://snomed.info/sct").addConcept().setCode("44054006");
+        IOUtils.writeResource(compose, inputPath, IOUtils.Encoding.JSON, fhirContext);
+
+        for (String[] flags : Arrays.asList(new String[0], new String[]{ "-force=false" }, new String[]{ "-force=false", "-cpg=false" })) {
+            String sequentialPath = "target/test/resources/org/opencds/cqf/tooling/terminology/parity-sequential";
+            String batchPath = "target/test/resources/org/opencds/cqf/tooling/terminology/parity-batch";
+            FileUtils.deleteDirectory(new File(sequentialPath));
+            FileUtils.deleteDirectory(new File(batchPath));
+
+            List<String> sequentialArgs = new ArrayList<>(Arrays.asList("-EnsureExecutableValueSet", "-vsp=" + inputPath, "-op=" + sequentialPath));
+            sequentialArgs.addAll(Arrays.asList(flags));
+            // the sequential path reads through the resource cache, and updates the cached value sets in place
+            IOUtils.clearCaches();
+            new EnsureExecutableValueSetOperation().execute(sequentialArgs.toArray(new String[0]));
+            List<String> batchArgs = new ArrayList<>(Arrays.asList("-EnsureExecutableValueSet", "-vsp=" + inputPath, "-op=" + batchPath, "-batch=true", "-threads=4"));
+            batchArgs.addAll(Arrays.asList(flags));
+            new EnsureExecutableValueSetOperation().execute(batchArgs.toArray(new String[0]));
+
+            // The value sets the batch mode writes have the same content as the sequential path writes, apart from
+            // the expansion timestamp. Those it skips are written by the sequential path with the content they had.
+            Map<String, String> input = readValueSets(inputPath, fhirContext);
+            Map<String, String> sequential = readValueSets(sequentialPath, fhirContext);
+            Map<String, String> batch = readValueSets(batchPath, fhirContext);
+            assertTrue(sequential.keySet().containsAll(batch.keySet()), Arrays.toString(flags));
+            for (Map.Entry<String, String> entry : sequential.entrySet()) {
+                assertEquals(batch.getOrDefault(entry.getKey(), input.get(entry.getKey())), entry.getValue(), Arrays.toString(flags) + " " + entry.getKey());
+            }
+        }
+    }
+
+    private static Map<String, String> readValueSets(String path, FhirContext fhirContext) {
+        Map<String, String> valueSets = new TreeMap<>();
+        if (!new File(path).exists()) {
+            return valueSets;
+        }
+        for (String valueSetPath : IOUtils.getFilePaths(path, false)) {
+            ValueSet valueSet = (ValueSet) IOUtils.readResource(valueSetPath, fhirContext, true);
+            valueSet.getExpansion().setTimestamp(null);
+            valueSets.put(valueSet.getIdElement().getIdPart(), fhirContext.newJsonParser().encodeResourceToString(valueSet));
+        }
+        return valueSets;
+    }
+
+    private static Map<String, String> readFiles(String path) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        for (File file : new File(path).listFiles()) {
+            files.put(file.getName(), FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+        }
+        return files;
+    }
 }
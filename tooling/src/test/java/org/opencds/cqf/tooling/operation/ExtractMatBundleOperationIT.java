@@ -0,0 +1,97 @@
+package org.opencds.cqf.tooling.operation;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ExtractMatBundleOperationIT {
+
+    private static final int LARGE_LIBRARIES = 100;
+    private static final int LARGE_CONTENT_CHARS = 1024 * 1024;
+    // well below the size of the bundle, let alone the size of the bundle once parsed
+    private static final String MAX_HEAP = "-Xmx64m";
+
+    private Path rootDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        rootDir = Files.createTempDirectory("extract-mat-bundle");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(rootDir.toFile());
+    }
+
+    /**
+     * Extracts a bundle in a JVM whose heap is smaller than the bundle, which only succeeds if the entries are not
+     * all held at once. Unlike measuring the heap in use, this does not depend on when or how the garbage collector
+     * runs.
+     */
+    @Test
+    public void test_streamLargeBundle() throws Exception {
+        Path bundlePath = rootDir.resolve("large/bundles/bundle.json");
+        Files.createDirectories(bundlePath.getParent());
+        try (Writer writer = Files.newBufferedWriter(bundlePath, StandardCharsets.UTF_8)) {
+            writer.write("{ \"resourceType\": \"Bundle\", \"type\": \"transaction\", \"entry\": [");
+            for (int i = 0; i < LARGE_LIBRARIES; i++) {
+                writer.write(i == 0 ? "" : ",");
+                writer.write("{ \"fullUrl\": \"Library/library-" + i + "\", \"resource\": { \"resourceType\": \"Library\", \"id\": \"library-" + i
+                        + "\", \"name\": \"Library" + i + "\", \"content\": [ { \"contentType\": \"text/cql\", \"data\": \"");
+                writeData(writer);
+                writer.write("\" } ] }, \"request\": { \"method\": \"PUT\", \"url\": \"Library/library-" + i + "\" } }");
+            }
+            writer.write("] }");
+        }
+
+        assertEquals(extract(bundlePath.toString(), "-stream=true", "-t=1"), 0, "Streaming the bundle did not complete in " + MAX_HEAP);
+
+        for (int i = 0; i < LARGE_LIBRARIES; i++) {
+            assertEquals(rootDir.resolve("large/input/cql/Library" + i + ".cql").toFile().length(), LARGE_CONTENT_CHARS / 4 * 3);
+        }
+    }
+
+    /**
+     * Runs ExtractMatBundle in a separate JVM with a heap of MAX_HEAP
+     * @return the exit code of the JVM
+     */
+    private int extract(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add(MAX_HEAP);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ExtractMatBundleOperationIT.class.getName());
+        command.add("-ExtractMatBundle");
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(rootDir.resolve("extract.log").toFile())
+                .start();
+        return process.waitFor();
+    }
+
+    public static void main(String[] args) {
+        new ExtractMatBundleOperation().execute(args);
+    }
+
+    private static void writeData(Writer writer) throws IOException {
+        // "QUFB" is the base64 encoding of "AAA"
+        String chunk = "QUFB".repeat(4 * 1024);
+        for (int written = 0; written < LARGE_CONTENT_CHARS; written += chunk.length()) {
+            writer.write(chunk);
+        }
+    }
+}
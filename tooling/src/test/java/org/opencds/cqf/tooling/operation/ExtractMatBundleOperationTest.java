@@ -0,0 +1,176 @@
+package org.opencds.cqf.tooling.operation;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.Narrative;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.tooling.utilities.Metrics;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class ExtractMatBundleOperationTest {
+
+    private static final String CQL = "library EXM124 version '1.0.0'\n\nusing FHIR version '4.0.1'\n";
+    private static final String ELM_XML = "<library xmlns=\"urn:hl7-org:elm:r1\"/>";
+    private static final String ELM_JSON = "{ \"library\" : { } }";
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private Path rootDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        rootDir = Files.createTempDirectory("extract-mat-bundle");
+        Metrics.enable();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        Metrics.disable();
+        FileUtils.deleteQuietly(rootDir.toFile());
+    }
+
+    @Test
+    public void test_extract() throws IOException {
+        String bundlePath = writeBundle("content", fhirContext.newJsonParser().encodeResourceToString(createBundle()), "json");
+        new ExtractMatBundleOperation().execute(new String[] { "-ExtractMatBundle", bundlePath });
+
+        Path contentDir = rootDir.resolve("content");
+        assertEquals(Metrics.getCounter("ExtractMatBundleOperation.resourcesExtracted"), 3);
+        assertEquals(listFiles(contentDir), List.of(
+                "bundles/Library-library-EXM124.json", "bundles/Measure-measure-EXM124.json", "bundles/ValueSet-valueset.json",
+                "bundles/bundle.json", "input/cql/EXM124.cql", "input/resources/library/EXM124.json", "input/resources/measure/EXM124.json"));
+        assertEquals(readString(contentDir.resolve("input/cql/EXM124.cql")), CQL);
+
+        Library library = (Library) readResource(contentDir.resolve("input/resources/library/EXM124.json"));
+        assertEquals(library.getIdElement().getIdPart(), "library-EXM124");
+        assertEquals(library.getContent().size(), 3);
+        Measure measure = (Measure) readResource(contentDir.resolve("input/resources/measure/EXM124.json"));
+        assertFalse(measure.hasText());
+        assertFalse(((Measure) readResource(contentDir.resolve("bundles/Measure-measure-EXM124.json"))).hasText());
+    }
+
+    @Test
+    public void test_extractElm() throws IOException {
+        String bundlePath = writeBundle("content", fhirContext.newJsonParser().encodeResourceToString(createBundle()), "json");
+        new ExtractMatBundleOperation().execute(new String[] { "-ExtractMatBundle", bundlePath, "-elm=true", "-sn=false" });
+
+        Path inputDir = rootDir.resolve("content/input");
+        assertEquals(readString(inputDir.resolve("cql/EXM124.cql")), CQL);
+        assertEquals(readString(inputDir.resolve("elm/EXM124.xml")), ELM_XML);
+        assertEquals(readString(inputDir.resolve("elm/EXM124.json")), ELM_JSON);
+        assertTrue(((Measure) readResource(inputDir.resolve("resources/measure/EXM124.json"))).hasText());
+    }
+
+    @Test
+    public void test_streamMatchesFullExtraction() throws IOException {
+        String content = fhirContext.newJsonParser().encodeResourceToString(createBundle());
+        String fullPath = writeBundle("full", content, "json");
+        String streamPath = writeBundle("stream", content, "json");
+        new ExtractMatBundleOperation().execute(new String[] { "-ExtractMatBundle", fullPath, "-elm=true", "-t=1" });
+        new ExtractMatBundleOperation().execute(new String[] { "-ExtractMatBundle", streamPath, "-elm=true", "-stream=true", "-t=4" });
+
+        Path fullDir = rootDir.resolve("full");
+        Path streamDir = rootDir.resolve("stream");
+        List<String> files = listFiles(fullDir);
+        assertEquals(listFiles(streamDir), files);
+        for (String file : files) {
+            assertEquals(readString(streamDir.resolve(file)), readString(fullDir.resolve(file)), file);
+        }
+    }
+
+    @Test
+    public void test_extractStu3Xml() throws IOException {
+        FhirContext stu3Context = FhirContext.forDstu3Cached();
+        org.hl7.fhir.dstu3.model.Library library = new org.hl7.fhir.dstu3.model.Library();
+        library.setId("library-EXM124");
+        library.setName("EXM124");
+        library.addContent().setContentType("text/cql").setData(CQL.getBytes(StandardCharsets.UTF_8));
+        org.hl7.fhir.dstu3.model.Bundle bundle = new org.hl7.fhir.dstu3.model.Bundle();
+        bundle.setType(org.hl7.fhir.dstu3.model.Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(library);
+
+        String bundlePath = writeBundle("stu3", stu3Context.newXmlParser().encodeResourceToString(bundle), "xml");
+        new ExtractMatBundleOperation().execute(new String[] { "-ExtractMatBundle", bundlePath, "-v=stu3" });
+
+        Path contentDir = rootDir.resolve("stu3");
+        assertTrue(contentDir.resolve("bundles/Library-library-EXM124.xml").toFile().exists());
+        assertTrue(contentDir.resolve("input/resources/library/EXM124.json").toFile().exists());
+        assertEquals(readString(contentDir.resolve("input/cql/EXM124.cql")), CQL);
+    }
+
+    private Bundle createBundle() {
+        Library library = new Library();
+        library.setId("library-EXM124");
+        library.setName("EXM124");
+        library.addContent().setContentType("text/cql").setData(CQL.getBytes(StandardCharsets.UTF_8));
+        library.addContent().setContentType("application/elm+xml").setData(ELM_XML.getBytes(StandardCharsets.UTF_8));
+        library.addContent().setContentType("application/elm+json").setData(ELM_JSON.getBytes(StandardCharsets.UTF_8));
+
+        Measure measure = new Measure();
+        measure.setId("measure-EXM124");
+        measure.setName("EXM124");
+        Narrative text = new Narrative().setStatus(Narrative.NarrativeStatus.GENERATED);
+        text.setDivAsString("<div>EXM124</div>");
+        measure.setText(text);
+        measure.addLibrary("Library/library-EXM124");
+
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId("valueset");
+
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setFullUrl("Library/library-EXM124").setResource(library);
+        bundle.addEntry().setFullUrl("Measure/measure-EXM124").setResource(measure);
+        bundle.addEntry().setFullUrl("ValueSet/valueset").setResource(valueSet);
+        return bundle;
+    }
+
+    private String writeBundle(String directory, String content, String extension) throws IOException {
+        Path path = rootDir.resolve(directory).resolve("bundles").resolve("bundle." + extension);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toString();
+    }
+
+    private IBaseResource readResource(Path path) {
+        return fhirContext.newJsonParser().parseResource(readString(path));
+    }
+
+    private static String readString(Path path) {
+        try {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<String> listFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile)
+                    .map(path -> directory.relativize(path).toString().replace(File.separatorChar, '/'))
+                    .sorted()
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+}
@@ -1,10 +1,29 @@
 package org.opencds.cqf.tooling.operation;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.utilities.ThreadUtils;
 import org.testng.annotations.Test;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 public class PostmanCollectionOperationTest {
 
     @Test
@@ -22,4 +41,88 @@ public class PostmanCollectionOperationTest {
         Operation postmanCollectionOperation = new PostmanCollectionOperation();
         postmanCollectionOperation.execute(args);
     }
+
+    @Test
+    public void test_collectionContents() throws URISyntaxException, IOException {
+        String inputFilePath = PostmanCollectionOperationTest.class.getResource("postman-collection.resources").toURI().getPath();
+        Path outputPath = Files.createTempDirectory("postman-collection");
+        try {
+            JsonObject collection = createCollection(inputFilePath, outputPath, "cqm-sandbox.alphora.com", 2);
+            assertEquals(collection.getAsJsonObject("info").get("name").getAsString(), "Postman Collection");
+
+            JsonObject versionItem = collection.getAsJsonArray("item").get(0).getAsJsonObject();
+            assertEquals(versionItem.get("name").getAsString(), "FHIR4");
+            List<String> folderNames = new ArrayList<>();
+            for (JsonElement folder : versionItem.getAsJsonArray("item")) {
+                String folderName = folder.getAsJsonObject().get("name").getAsString();
+                folderNames.add(folderName);
+                String measure = folderName.substring("Bundle/".length());
+                JsonArray requests = folder.getAsJsonObject().getAsJsonArray("item");
+
+                // the bundle is posted as it is on disk
+                JsonObject post = requests.get(0).getAsJsonObject();
+                assertEquals(post.get("name").getAsString(), "Post Bundle");
+                File bundleFile = new File(inputFilePath, measure + "_FHIR4-8.1.000/" + measure + "_FHIR4-8.1.000-bundle.json");
+                assertEquals(post.getAsJsonObject("request").getAsJsonObject("body").get("raw").getAsString(),
+                        FileUtils.readFileToString(bundleFile, StandardCharsets.UTF_8));
+                assertEquals(post.getAsJsonObject("request").getAsJsonObject("url").get("raw").getAsString(),
+                        "http://cqm-sandbox.alphora.com/cqf-ruler-r4/fhir/");
+
+                // followed by an $evaluate-measure request for each MeasureReport
+                assertEquals(requests.size(), 3);
+                JsonObject evaluate = requests.get(1).getAsJsonObject();
+                String patient = "numer-" + measure + "-FHIR4";
+                assertEquals(evaluate.get("name").getAsString(), patient);
+                JsonObject url = evaluate.getAsJsonObject("request").getAsJsonObject("url");
+                assertEquals(url.get("raw").getAsString(),
+                        "http://cqm-sandbox.alphora.com/cqf-ruler-r4/fhir/Measure/measure-" + measure + "-FHIR4-8.1.000/$evaluate-measure?patient="
+                                + patient + "&periodStart=2019-01-01&periodEnd=2019-12-31");
+                assertEquals(url.getAsJsonArray("path").get(3).getAsString(), "measure-" + measure + "-FHIR4-8.1.000");
+                assertEquals(url.getAsJsonArray("query").get(0).getAsJsonObject().get("value").getAsString(), patient);
+                assertTrue(evaluate.getAsJsonObject("protocolProfileBehavior").get("disableBodyPruning").getAsBoolean());
+            }
+            folderNames.sort(null);
+            assertEquals(folderNames, Arrays.asList("Bundle/EXM104", "Bundle/EXM105"));
+        }
+        finally {
+            FileUtils.deleteQuietly(outputPath.toFile());
+        }
+    }
+
+    @Test
+    public void test_concurrentOperations() throws URISyntaxException, IOException {
+        String inputFilePath = PostmanCollectionOperationTest.class.getResource("postman-collection.resources").toURI().getPath();
+        List<String> hosts = Arrays.asList("first.example.org", "second.example.org", "third.example.org");
+        Path outputPath = Files.createTempDirectory("postman-collections");
+        try {
+            ThreadUtils.forEach(hosts, hosts.size(), host -> {
+                JsonObject collection = createCollection(inputFilePath, outputPath.resolve(host), host, 1);
+                JsonObject versionItem = collection.getAsJsonArray("item").get(0).getAsJsonObject();
+                for (JsonElement folder : versionItem.getAsJsonArray("item")) {
+                    for (JsonElement request : folder.getAsJsonObject().getAsJsonArray("item")) {
+                        String url = request.getAsJsonObject().getAsJsonObject("request").getAsJsonObject("url").get("raw").getAsString();
+                        assertTrue(url.startsWith("http://" + host + "/cqf-ruler-r4/fhir/"), url);
+                    }
+                }
+            });
+        }
+        finally {
+            FileUtils.deleteQuietly(outputPath.toFile());
+        }
+    }
+
+    private static JsonObject createCollection(String inputFilePath, Path outputPath, String host, int threads) {
+        String[] args = { "-PostmanCollection", "-ptbd=" + inputFilePath, "-op=" + outputPath, "-v=r4", "-host=" + host,
+                "-path=cqf-ruler-r4/fhir/", "-protocol=http", "-name=Postman Collection", "-t=" + threads };
+        new PostmanCollectionOperation().execute(args);
+
+        File[] collections = outputPath.toFile().listFiles((dir, name) -> name.endsWith(".json"));
+        assertEquals(collections.length, 1);
+        try (Reader reader = Files.newBufferedReader(collections[0].toPath(), StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -1,6 +1,13 @@
 package org.opencds.cqf.tooling.operation;
 
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import org.testng.annotations.Test;
 
@@ -17,4 +24,24 @@ public class VmrToFhirOperationTest {
         VmrToFhirOperation vmr = new VmrToFhirOperation();
         vmr.execute(args);
     }
+
+    @Test
+    public void vmrOperationDirectoryTest() throws URISyntaxException, IOException {
+        Path inputFile = Paths.get(VmrToFhirOperationTest.class.getResource(vmrFilePath).toURI());
+        Path inputDirectory = Files.createTempDirectory("vmr-to-fhir");
+        for (int i = 0; i < 3; i++) {
+            Files.copy(inputFile, inputDirectory.resolve("vMROutput" + i + ".xml"));
+        }
+        Path outputPath = Files.createTempDirectory("vmr-to-fhir-output");
+        String[] args = { "-VmrToFhir", "-ifp=" + inputDirectory, "-op=" + outputPath, "-e=xml", "-th=2" };
+        new VmrToFhirOperation().execute(args);
+
+        // each document gets its own patient directory, holding the patient and a bundle of its data
+        File[] patients = outputPath.toFile().listFiles();
+        assertEquals(patients.length, 3);
+        for (File patient : patients) {
+            assertEquals(new File(patient, "Patient").listFiles().length, 1);
+            assertEquals(new File(patient, "Data").listFiles().length, 1);
+        }
+    }
 }
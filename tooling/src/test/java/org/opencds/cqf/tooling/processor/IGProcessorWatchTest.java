@@ -0,0 +1,202 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.opencds.cqf.tooling.library.LibraryProcessor;
+import org.opencds.cqf.tooling.measure.MeasureProcessor;
+import org.opencds.cqf.tooling.npm.TestPackageCache;
+import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class IGProcessorWatchTest {
+
+    private static final long OLD = 946684800000L;
+
+    private TestPackageCache packageCache;
+    private Path igPath;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        IOUtils.clearCaches();
+        Path tempDirectory = Files.createTempDirectory("refresh-ig-watch");
+        igPath = tempDirectory.resolve("ig");
+        FileUtils.copyDirectory(new File(IGProcessorWatchTest.class.getResource("/org/opencds/cqf/tooling/testfiles/refreshIGWatch").toURI()), igPath.toFile());
+
+        // The IG only depends on the core package, which is served from a package cache in a temporary user home
+        packageCache = new TestPackageCache();
+        packageCache.cacheCorePackage();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        IOUtils.clearCaches();
+    }
+
+    @Test
+    public void testRefreshChangedContent() throws Exception {
+        RefreshIGParameters params = createParameters();
+
+        LibraryProcessor libraryProcessor = new LibraryProcessor();
+        MeasureProcessor measureProcessor = new MeasureProcessor();
+        IGProcessor processor = new IGProcessor(null, libraryProcessor, measureProcessor);
+        packageCache.withUserHome(() -> {
+            processor.refreshIG(params);
+            return null;
+        });
+
+        Path common = igPath.resolve("input/resources/library/Common.json");
+        Path screening = igPath.resolve("input/resources/library/Screening.json");
+        Path standalone = igPath.resolve("input/resources/library/Standalone.json");
+        Path measure = igPath.resolve("input/resources/measure/Screening.json");
+        Path testCaseBundle = igPath.resolve("input/tests/measure/Screening/tests-screening-1-bundle.json");
+        for (Path refreshed : Arrays.asList(common, screening, standalone, measure, testCaseBundle)) {
+            assertTrue(Files.exists(refreshed), refreshed.toString());
+        }
+        assertTrue(new String(Files.readAllBytes(screening), StandardCharsets.UTF_8).contains("Library/Common"));
+
+        try (IGContentWatcher watcher = createWatcher()) {
+            // several writes within the debounce window are a single change
+            Path commonCql = igPath.resolve("input/cql/Common.cql");
+            Files.write(commonCql, "library Common version '1.0.0'\n\ndefine \"Threshold\": 11\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(commonCql, "library Common version '1.0.0'\n\ndefine \"Threshold\": 12\n".getBytes(StandardCharsets.UTF_8));
+            Set<Path> changes = watcher.awaitChanges();
+            assertEquals(changes, new HashSet<>(Arrays.asList(commonCql)));
+
+            // Common and the library and measure that depend on it are rewritten, the other artifacts are not
+            // (the measure refresh always stamps the software system Device)
+            Map<Path, Long> before = resetModificationTimes(watcher);
+            List<String> refreshed = refreshChanges(processor, watcher, params, changes);
+            assertEquals(new HashSet<>(refreshed), new HashSet<>(Arrays.asList("Common", "Screening")));
+            assertEquals(getRewritten(before), new HashSet<>(Arrays.asList(common, screening, measure,
+                    igPath.resolve("input/resources/device/cqf-tooling.json"))));
+            assertTrue(new String(Files.readAllBytes(common), StandardCharsets.UTF_8).contains(
+                    Base64.getEncoder().encodeToString("library Common version '1.0.0'\n\ndefine \"Threshold\": 12\n".getBytes(StandardCharsets.UTF_8))));
+
+            // the files written by the refresh are not reported, only the changed test case
+            Path patient = igPath.resolve("input/tests/measure/Screening/screening-1/Patient/screening-1.json");
+            Files.write(patient, "{ \"resourceType\": \"Patient\", \"id\": \"screening-1\", \"gender\": \"male\" }".getBytes(StandardCharsets.UTF_8));
+            changes = watcher.awaitChanges();
+            assertEquals(changes, new HashSet<>(Arrays.asList(patient)));
+
+            before = resetModificationTimes(watcher);
+            refreshed = refreshChanges(processor, watcher, params, changes);
+            assertTrue(refreshed.isEmpty());
+            assertEquals(getRewritten(before), new HashSet<>(Arrays.asList(testCaseBundle)));
+            assertTrue(new String(Files.readAllBytes(testCaseBundle), StandardCharsets.UTF_8).contains("male"));
+        }
+    }
+
+    // the next awaitChanges blocks if the edit is lost
+    @Test(timeOut = 120000)
+    public void testChangeDuringRefresh() throws Exception {
+        RefreshIGParameters params = createParameters();
+        Path commonCql = igPath.resolve("input/cql/Common.cql");
+        Path standaloneCql = igPath.resolve("input/cql/Standalone.cql");
+        String standaloneContent = new String(Files.readAllBytes(standaloneCql), StandardCharsets.UTF_8);
+
+        // the user saves Standalone.cql while the refresh of Common.cql runs
+        IGProcessor processor = new IGProcessor(null, new LibraryProcessor(), new MeasureProcessor()) {
+            @Override
+            public List<String> refreshChangedContent(RefreshIGParameters params, Collection<String> changedPaths) {
+                List<String> refreshedNames = super.refreshChangedContent(params, changedPaths);
+                if (changedPaths.contains(commonCql.toString())) {
+                    try {
+                        Files.write(standaloneCql, (standaloneContent + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                    catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return refreshedNames;
+            }
+        };
+        packageCache.withUserHome(() -> {
+            processor.refreshIG(params);
+            return null;
+        });
+
+        try (IGContentWatcher watcher = createWatcher()) {
+            Files.write(commonCql, "library Common version '1.0.0'\n\ndefine \"Threshold\": 11\n".getBytes(StandardCharsets.UTF_8));
+            Set<Path> changes = watcher.awaitChanges();
+            assertEquals(changes, new HashSet<>(Arrays.asList(commonCql)));
+            assertEquals(new HashSet<>(refreshChanges(processor, watcher, params, changes)), new HashSet<>(Arrays.asList("Common", "Screening")));
+
+            changes = watcher.awaitChanges();
+            assertEquals(changes, new HashSet<>(Arrays.asList(standaloneCql)));
+            assertEquals(refreshChanges(processor, watcher, params, changes), Arrays.asList("Standalone"));
+        }
+    }
+
+    private RefreshIGParameters createParameters() {
+        RefreshIGParameters params = new RefreshIGParameters();
+        params.ini = igPath.resolve("ig.ini").toString();
+        params.outputEncoding = IOUtils.Encoding.JSON;
+        params.includeELM = false;
+        params.includeDependencies = false;
+        params.includeTerminology = false;
+        params.includePatientScenarios = true;
+        params.versioned = false;
+        params.shouldApplySoftwareSystemStamp = false;
+        params.resourceDirs = new ArrayList<>();
+        params.packageThreadCount = 2;
+        return params;
+    }
+
+    private IGContentWatcher createWatcher() throws IOException {
+        List<Path> directories = Arrays.asList(igPath.resolve("input/cql"), igPath.resolve("input/resources"), igPath.resolve("input/tests"));
+        return new IGContentWatcher(directories, 200);
+    }
+
+    private List<String> refreshChanges(IGProcessor processor, IGContentWatcher watcher, RefreshIGParameters params, Set<Path> changes) throws Exception {
+        return packageCache.withUserHome(() -> processor.refreshChanges(watcher, changes, params));
+    }
+
+    // the reset is not a change the watcher should report
+    private Map<Path, Long> resetModificationTimes(IGContentWatcher watcher) throws IOException {
+        Map<Path, Long> modificationTimes = new HashMap<>();
+        try (Stream<Path> paths = Files.walk(igPath)) {
+            for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                assertTrue(path.toFile().setLastModified(OLD));
+                modificationTimes.put(path, path.toFile().lastModified());
+            }
+        }
+        watcher.synchronize(modificationTimes.keySet());
+        return modificationTimes;
+    }
+
+    private Set<Path> getRewritten(Map<Path, Long> before) throws IOException {
+        Set<Path> rewritten = new HashSet<>();
+        try (Stream<Path> paths = Files.walk(igPath)) {
+            for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                if (!before.containsKey(path) || before.get(path) != path.toFile().lastModified()) {
+                    rewritten.add(path);
+                }
+            }
+        }
+        assertNotEquals(rewritten.size(), 0);
+        return rewritten;
+    }
+}
@@ -0,0 +1,115 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.cql.model.ModelIdentifier;
+import org.hl7.fhir.r5.model.ImplementationGuide;
+import org.opencds.cqf.tooling.npm.NpmPackageIndex;
+import org.opencds.cqf.tooling.npm.NpmPackageManager;
+import org.opencds.cqf.tooling.npm.TestPackageCache;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class ProcessorStateCacheTest {
+
+    @AfterMethod
+    public void disable() {
+        ProcessorStateCache.disable();
+    }
+
+    @Test
+    public void testEnable() {
+        assertNull(ProcessorStateCache.getCurrent());
+        ProcessorStateCache cache = ProcessorStateCache.enable();
+        assertSame(ProcessorStateCache.getCurrent(), cache);
+        assertSame(ProcessorStateCache.enable(), cache);
+        ProcessorStateCache.disable();
+        assertNull(ProcessorStateCache.getCurrent());
+    }
+
+    @Test
+    public void testPackageManagerInvalidation() throws Exception {
+        TestPackageCache packageCache = new TestPackageCache();
+        packageCache.cacheCorePackage();
+        Path dependencyPath = packageCache.cachePackage("example.fhir.a", "1.0.0", null);
+
+        ImplementationGuide ig = new ImplementationGuide();
+        ImplementationGuide.ImplementationGuideDependsOnComponent dep = ig.addDependsOn();
+        dep.setId("a");
+        dep.setPackageId("example.fhir.a").setUri("http://example.org/fhir/a/ImplementationGuide/a").setVersion("1.0.0");
+        Path igPath = packageCache.getUserHome().resolve("ig.json");
+        Files.write(igPath, "{}".getBytes(StandardCharsets.UTF_8));
+
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<NpmPackageManager> loader = () -> {
+            loads.incrementAndGet();
+            return packageCache.createPackageManager(ig, "4.0.1", 1);
+        };
+
+        ProcessorStateCache cache = ProcessorStateCache.enable();
+        NpmPackageManager first = cache.getPackageManager(igPath.toString(), "4.0.1", loader);
+        assertEquals(first.getNpmList().size(), 2);
+        assertSame(cache.getPackageManager(igPath.toString(), "4.0.1", loader), first);
+        assertEquals(loads.get(), 1);
+
+        // a change to the IG resource reloads the packages
+        Files.write(igPath, "{ }".getBytes(StandardCharsets.UTF_8));
+        NpmPackageManager second = cache.getPackageManager(igPath.toString(), "4.0.1", loader);
+        assertNotSame(second, first);
+        assertEquals(loads.get(), 2);
+
+        // as does a change to a package in the cache
+        File packageJson = dependencyPath.resolve("package.json").toFile();
+        assertTrue(packageJson.setLastModified(packageJson.lastModified() + 10000));
+        assertNotSame(cache.getPackageManager(igPath.toString(), "4.0.1", loader), second);
+        assertEquals(loads.get(), 3);
+
+        assertNotNull(cache.getUcumService());
+        assertSame(cache.getUcumService(), cache.getUcumService());
+    }
+
+    @Test
+    public void testModelCacheInvalidation() throws Exception {
+        Path folder = Files.createTempDirectory("processor-state-cache-cql");
+        NpmPackageIndex packageIndex = new NpmPackageIndex(Collections.emptyList());
+
+        ProcessorStateCache cache = ProcessorStateCache.enable();
+        Map<ModelIdentifier, Model> models = cache.getModelCache(folder.toString(), packageIndex);
+        assertSame(cache.getModelCache(folder.toString(), packageIndex), models);
+
+        // the models are built again when the packages are reloaded
+        NpmPackageIndex reloaded = new NpmPackageIndex(Collections.emptyList());
+        Map<ModelIdentifier, Model> reloadedModels = cache.getModelCache(folder.toString(), reloaded);
+        assertNotSame(reloadedModels, models);
+        assertSame(cache.getModelCache(folder.toString(), reloaded), reloadedModels);
+
+        // or a model info in the folder changes, but not when other files change
+        Files.write(folder.resolve("Example.cql"), "library Example".getBytes(StandardCharsets.UTF_8));
+        assertSame(cache.getModelCache(folder.toString(), reloaded), reloadedModels);
+        Files.write(folder.resolve("Test-modelinfo.xml"), "<modelInfo/>".getBytes(StandardCharsets.UTF_8));
+        assertNotSame(cache.getModelCache(folder.toString(), reloaded), reloadedModels);
+    }
+
+    @Test
+    public void testBeginRunClearsResourceCaches() {
+        IOUtils.resourceDirectories.add("input/resources");
+        ProcessorStateCache.enable().beginRun();
+        assertTrue(IOUtils.resourceDirectories.isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package org.opencds.cqf.tooling.terminology;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.Test;
+
+public class BinaryValueSetDbTest {
+
+    private static final String SNOMED = "http://snomed.info/sct";
+    private static final String LOINC = "http://loinc.org";
+
+    @Test
+    public void testMembership() throws IOException {
+        BinaryValueSetDb db = writeAndOpen(
+                valueSet("http://example.org/ValueSet/a", "1.0.0",
+                        SNOMED, "44054006", LOINC, "4548-4", SNOMED, "73211009"),
+                valueSet("http://example.org/ValueSet/a", "2.0.0", SNOMED, "46635009"),
+                valueSet("http://example.org/ValueSet/b", null, LOINC, "17856-6"),
+                valueSet("http://example.org/ValueSet/empty", "1.0.0"));
+
+        assertEquals(db.getValueSetCount(), 4);
+
+        assertTrue(db.contains("http://example.org/ValueSet/a", "1.0.0", SNOMED, "44054006"));
+        assertTrue(db.contains("http://example.org/ValueSet/a", "1.0.0", LOINC, "4548-4"));
+        assertTrue(db.contains("http://example.org/ValueSet/a", "1.0.0", SNOMED, "73211009"));
+        assertFalse(db.contains("http://example.org/ValueSet/a", "1.0.0", SNOMED, "46635009"));
+        assertFalse(db.contains("http://example.org/ValueSet/a", "1.0.0", LOINC, "44054006"));
+
+        assertTrue(db.contains("http://example.org/ValueSet/a", "2.0.0", SNOMED, "46635009"));
+        assertTrue(db.contains("http://example.org/ValueSet/a", null, SNOMED, "46635009"));
+        assertTrue(db.contains("http://example.org/ValueSet/a", null, SNOMED, "44054006"));
+        assertFalse(db.contains("http://example.org/ValueSet/a", "3.0.0", SNOMED, "46635009"));
+
+        assertTrue(db.contains("http://example.org/ValueSet/b", null, LOINC, "17856-6"));
+        assertFalse(db.contains("http://example.org/ValueSet/b", null, LOINC, "unknown"));
+        assertFalse(db.contains("http://example.org/ValueSet/unknown", null, LOINC, "17856-6"));
+
+        assertTrue(db.hasValueSet("http://example.org/ValueSet/empty", "1.0.0"));
+        assertFalse(db.contains("http://example.org/ValueSet/empty", "1.0.0", LOINC, "17856-6"));
+        assertFalse(db.hasValueSet("http://example.org/ValueSet/empty", "2.0.0"));
+    }
+
+    @Test
+    public void testLaterValueSetReplacesEarlier() throws IOException {
+        BinaryValueSetDb db = writeAndOpen(
+                valueSet("http://example.org/ValueSet/a", "1.0.0", SNOMED, "44054006"),
+                valueSet("http://example.org/ValueSet/a", "1.0.0", SNOMED, "73211009", SNOMED, "73211009"));
+
+        assertEquals(db.getValueSetCount(), 1);
+        assertFalse(db.contains("http://example.org/ValueSet/a", "1.0.0", SNOMED, "44054006"));
+        assertTrue(db.contains("http://example.org/ValueSet/a", "1.0.0", SNOMED, "73211009"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        Path path = Files.createTempFile("valueset-db", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, "{ \"not\": \"a database\" }".getBytes());
+        BinaryValueSetDb.open(path);
+    }
+
+    private BinaryValueSetDb writeAndOpen(ValueSet... valueSets) throws IOException {
+        BinaryValueSetDbWriter writer = new BinaryValueSetDbWriter();
+        for (ValueSet valueSet : valueSets) {
+            writer.addValueSet(valueSet);
+        }
+        File file = File.createTempFile("valueset-db", ".bin");
+        file.deleteOnExit();
+        writer.write(file.getAbsolutePath());
+        return BinaryValueSetDb.open(file.toPath());
+    }
+
+    private ValueSet valueSet(String url, String version, String... systemsAndCodes) {
+        ValueSet valueSet = new ValueSet().setUrl(url).setVersion(version);
+        for (int i = 0; i < systemsAndCodes.length; i += 2) {
+            valueSet.getExpansion().addContains().setSystem(systemsAndCodes[i]).setCode(systemsAndCodes[i + 1]);
+        }
+        return valueSet;
+    }
+}
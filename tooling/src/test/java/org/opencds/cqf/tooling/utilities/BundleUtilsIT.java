@@ -0,0 +1,90 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class BundleUtilsIT {
+
+    private static final int LARGE_RESOURCES = 12;
+    private static final int LARGE_RESOURCE_CHARS = 4 * 1024 * 1024;
+
+    private Path directory;
+    private Path bundlePath;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("bundles-in-dir");
+
+        // large non-bundle resources, in which resourceType is not always the first property
+        for (int i = 0; i < LARGE_RESOURCES; i++) {
+            Path path = directory.resolve("binary-" + i + ".json");
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                if (i % 2 == 0) {
+                    writer.write("{ \"id\": \"binary-" + i + "\", \"data\": \"");
+                    writeData(writer);
+                    writer.write("\", \"contentType\": \"text/plain\", \"resourceType\": \"Binary\" }");
+                }
+                else {
+                    writer.write("{ \"resourceType\": \"Binary\", \"id\": \"binary-" + i + "\", \"contentType\": \"text/plain\", \"data\": \"");
+                    writeData(writer);
+                    writer.write("\" }");
+                }
+            }
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.setId("bundle");
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundlePath = directory.resolve("bundle.json");
+        Files.write(bundlePath, FhirContext.forR4Cached().newJsonParser().encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterClass
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory.toFile());
+    }
+
+    @Test
+    public void testGetBundlePathsInDirAllocation() {
+        // the bytes allocated by this thread, which do not depend on when or how the garbage collector runs
+        ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        List<String> bundlePaths = BundleUtils.getBundlePathsInDir(directory.toString(), false);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(bundlePaths, Arrays.asList(bundlePath.toString()));
+
+        // reading the large resources as strings would allocate at least twice their size on disk
+        long resourceBytes = (long) LARGE_RESOURCES * LARGE_RESOURCE_CHARS;
+        assertTrue(allocated < resourceBytes / 8,
+                String.format("Allocated %,d bytes while finding the bundles among %,d bytes of other resources", allocated, resourceBytes));
+    }
+
+    private static void writeData(Writer writer) throws IOException {
+        char[] chunk = new char[64 * 1024];
+        Arrays.fill(chunk, 'A');
+        for (int written = 0; written < LARGE_RESOURCE_CHARS; written += chunk.length) {
+            writer.write(chunk);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class BundleUtilsTest {
+
+    private static final int RESOURCES = 6;
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private Path directory;
+    private List<String> bundlePaths;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("bundles-in-dir");
+        bundlePaths = new ArrayList<>();
+
+        // non-bundle resources, in which resourceType is not always the first property
+        for (int i = 0; i < RESOURCES; i++) {
+            Path path = directory.resolve(i % 2 == 0 ? "binary-" + i + ".json" : "nested/binary-" + i + ".json");
+            Files.createDirectories(path.getParent());
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                if (i % 3 == 0) {
+                    writer.write("{ \"id\": \"binary-" + i + "\", \"data\": \"QUJD\", \"contentType\": \"text/plain\", \"resourceType\": \"Binary\" }");
+                }
+                else {
+                    writer.write("{ \"resourceType\": \"Binary\", \"id\": \"binary-" + i + "\", \"contentType\": \"text/plain\", \"data\": \"QUJD\" }");
+                }
+            }
+        }
+        Files.write(directory.resolve("patient.xml"),
+                "<?xml version=\"1.0\"?>\n<Patient xmlns=\"http://hl7.org/fhir\"><id value=\"p\"/></Patient>".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("notes.txt"), "not a resource".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("array.json"), "[ { \"resourceType\": \"Bundle\" } ]".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("Library.cql"), "library Test".getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < 3; i++) {
+            Bundle bundle = new Bundle();
+            bundle.setId("bundle-" + i);
+            bundle.setType(Bundle.BundleType.TRANSACTION);
+            boolean xml = i == 2;
+            Path path = directory.resolve(i == 1 ? "nested/bundle-" + i + ".json" : "bundle-" + i + (xml ? ".xml" : ".json"));
+            String content = xml ? fhirContext.newXmlParser().encodeResourceToString(bundle) : fhirContext.newJsonParser().encodeResourceToString(bundle);
+            Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+            bundlePaths.add(path.toString());
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtils.clearCaches();
+        FileUtils.deleteQuietly(directory.toFile());
+    }
+
+    @Test
+    public void testGetResourceType() {
+        assertEquals(IOUtils.getResourceType(directory.resolve("binary-0.json").toString()), "Binary");
+        assertEquals(IOUtils.getResourceType(directory.resolve("nested/binary-1.json").toString()), "Binary");
+        assertEquals(IOUtils.getResourceType(directory.resolve("patient.xml").toString()), "Patient");
+        assertEquals(IOUtils.getResourceType(bundlePaths.get(2)), "Bundle");
+        assertNull(IOUtils.getResourceType(directory.resolve("notes.txt").toString()));
+        assertNull(IOUtils.getResourceType(directory.resolve("array.json").toString()));
+    }
+
+    @Test
+    public void testGetBundlesInDir() {
+        IOUtils.clearCaches();
+        List<Map.Entry<String, IBaseResource>> bundles = BundleUtils.GetBundlesInDir(directory.toString(), fhirContext);
+        List<String> bundleIds = new ArrayList<>();
+        for (Map.Entry<String, IBaseResource> entry : bundles) {
+            bundleIds.add(entry.getValue().getIdElement().getIdPart());
+        }
+
+        assertEquals(bundles.stream().map(Map.Entry::getKey).sorted().collect(Collectors.toList()),
+                bundlePaths.stream().sorted().collect(Collectors.toList()));
+        assertEquals(bundleIds.stream().sorted().collect(Collectors.toList()), List.of("bundle-0", "bundle-1", "bundle-2"));
+        for (Map.Entry<String, IBaseResource> entry : bundles) {
+            assertTrue(entry.getValue() instanceof Bundle);
+        }
+    }
+}
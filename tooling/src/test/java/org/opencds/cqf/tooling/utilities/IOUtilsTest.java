@@ -0,0 +1,68 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class IOUtilsTest {
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    @AfterMethod
+    public void tearDown() {
+        Metrics.disable();
+        IOUtils.stopRecordingWrittenFiles();
+    }
+
+    @Test
+    public void testWriteBundle() throws IOException {
+        Bundle bundle = createBundle();
+        Path directory = Files.createTempDirectory("write-bundle");
+        Metrics.enable();
+        IOUtils.recordWrittenFiles();
+        IOUtils.writeBundle(bundle, directory.toString(), IOUtils.Encoding.XML, fhirContext, "specification", true);
+
+        // the file is recorded for watch mode and counted as it is written
+        Path file = directory.resolve("specification.xml");
+        assertEquals(IOUtils.stopRecordingWrittenFiles(), Set.of(file.toAbsolutePath().normalize()));
+        assertEquals(Metrics.getCounter("IOUtils.resourcesWritten"), 1);
+        assertEquals(Metrics.getCounter("IOUtils.bytesWritten"), Files.size(file));
+        assertEquals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                fhirContext.newXmlParser().setPrettyPrint(true).encodeResourceToString(bundle));
+    }
+
+    @Test
+    public void testWriteResourceToWriter() throws IOException {
+        Bundle bundle = createBundle();
+        StringWriter writer = new StringWriter();
+        IOUtils.writeResource(bundle, writer, IOUtils.Encoding.JSON, fhirContext, false);
+        assertEquals(writer.toString(), fhirContext.newJsonParser().encodeResourceToString(bundle));
+
+        writer = new StringWriter();
+        IOUtils.writeResource(bundle, writer, IOUtils.Encoding.UNKNOWN, fhirContext, false);
+        assertEquals(writer.toString(), "");
+    }
+
+    private Bundle createBundle() {
+        Bundle bundle = new Bundle();
+        bundle.setId("bundle");
+        bundle.setType(Bundle.BundleType.COLLECTION);
+        Patient patient = new Patient();
+        patient.setId("patient");
+        patient.addName().setFamily("Ångström");
+        bundle.addEntry().setResource(patient);
+        return bundle;
+    }
+}
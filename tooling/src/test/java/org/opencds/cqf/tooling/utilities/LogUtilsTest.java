@@ -0,0 +1,44 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class LogUtilsTest {
+
+    @AfterMethod
+    public void tearDown() {
+        LogUtils.warn("LogUtilsTest");
+        Metrics.disable();
+    }
+
+    @Test
+    public void testWarningsAreBounded() throws Exception {
+        Metrics.enable();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int thread = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 500; j++) {
+                    LogUtils.putException("thread-" + thread + "-resource-" + j, "warning " + j);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Metrics.getCounter("LogUtils.warningsDropped"), 8 * 500 - LogUtils.MAX_RESOURCE_WARNINGS);
+
+        // logging the warnings empties the buffer
+        LogUtils.warn("LogUtilsTest");
+        LogUtils.putException("resource", "warning");
+        assertEquals(Metrics.getCounter("LogUtils.warningsDropped"), 8 * 500 - LogUtils.MAX_RESOURCE_WARNINGS);
+    }
+}
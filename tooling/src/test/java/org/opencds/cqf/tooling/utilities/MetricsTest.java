@@ -0,0 +1,164 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class MetricsTest {
+
+    @AfterMethod
+    public void disable() {
+        Metrics.disable();
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        assertFalse(Metrics.isEnabled());
+        try (Metrics.Span span = Metrics.span("disabled")) {
+            Metrics.increment("counter");
+        }
+        assertEquals(Metrics.getCounter("counter"), 0);
+
+        Path path = Files.createTempDirectory("metrics").resolve("trace.json");
+        Metrics.writeTrace(path.toString());
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testWriteTrace() throws Exception {
+        Metrics.enable();
+        try (Metrics.Span span = Metrics.span("outer")) {
+            try (Metrics.Span inner = Metrics.span("inner", "file", "Library \"A\".cql")) {
+                Thread.sleep(5);
+            }
+            Metrics.increment("parsed");
+            Metrics.add("bytes", 100);
+        }
+        Thread worker = new Thread(() -> {
+            try (Metrics.Span span = Metrics.span("worker")) {
+                Metrics.add("bytes", 20);
+            }
+        }, "metrics-worker");
+        worker.start();
+        worker.join();
+        assertEquals(Metrics.getCounter("bytes"), 120);
+
+        Path path = Files.createTempDirectory("metrics").resolve("output/trace.json");
+        Metrics.writeTrace(path.toString());
+
+        JsonObject trace;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            trace = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+        Map<String, JsonObject> spans = new HashMap<>();
+        Map<String, Long> counterEvents = new HashMap<>();
+        Map<Long, String> threadNames = new HashMap<>();
+        for (JsonElement element : trace.getAsJsonArray("traceEvents")) {
+            JsonObject event = element.getAsJsonObject();
+            switch (event.get("ph").getAsString()) {
+                case "X": spans.put(event.get("name").getAsString(), event); break;
+                case "C": counterEvents.put(event.get("name").getAsString(), event.getAsJsonObject("args").get("value").getAsLong()); break;
+                case "M":
+                    if (event.get("name").getAsString().equals("thread_name")) {
+                        threadNames.put(event.get("tid").getAsLong(), event.getAsJsonObject("args").get("name").getAsString());
+                    }
+                    break;
+                default: break;
+            }
+        }
+
+        assertEquals(spans.keySet().size(), 3);
+        JsonObject outer = spans.get("outer");
+        JsonObject inner = spans.get("inner");
+        assertEquals(inner.getAsJsonObject("args").get("file").getAsString(), "Library \"A\".cql");
+        assertTrue(inner.get("dur").getAsDouble() >= 5000);
+        assertTrue(inner.get("ts").getAsDouble() >= outer.get("ts").getAsDouble());
+        assertTrue(outer.get("dur").getAsDouble() >= inner.get("dur").getAsDouble());
+        assertEquals(threadNames.get(spans.get("worker").get("tid").getAsLong()), "metrics-worker");
+
+        assertEquals(counterEvents.get("parsed").longValue(), 1);
+        assertEquals(counterEvents.get("bytes").longValue(), 120);
+        assertEquals(trace.getAsJsonObject("counters").get("bytes").getAsLong(), 120);
+    }
+
+    @Test
+    public void testTime() throws Exception {
+        Metrics.enable();
+        assertEquals(Metrics.time("task", "file", "A.cql", () -> "result"), "result");
+        IOException failure = new IOException("failed");
+        try {
+            Metrics.time("action", () -> {
+                throw failure;
+            });
+            fail();
+        }
+        catch (IOException e) {
+            assertSame(e, failure);
+        }
+
+        List<String> names = getSpanNames(writeTrace());
+        assertEquals(names, Arrays.asList("task", "action"));
+    }
+
+    @Test
+    public void testMaxSpans() throws Exception {
+        Metrics.enable();
+        for (int i = 0; i < Metrics.MAX_SPANS + 10; i++) {
+            Metrics.time("span-" + i, () -> { });
+        }
+
+        // the oldest spans are dropped
+        JsonObject trace = writeTrace();
+        List<String> names = getSpanNames(trace);
+        assertEquals(names.size(), Metrics.MAX_SPANS);
+        assertEquals(names.get(0), "span-10");
+        assertEquals(trace.getAsJsonObject("counters").get("Metrics.spansDropped").getAsLong(), 10);
+    }
+
+    @Test
+    public void testEnableResets() {
+        Metrics.enable();
+        Metrics.increment("counter");
+        Metrics.enable();
+        assertEquals(Metrics.getCounter("counter"), 0);
+    }
+
+    private JsonObject writeTrace() throws IOException {
+        Path path = Files.createTempDirectory("metrics").resolve("trace.json");
+        Metrics.writeTrace(path.toString());
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        }
+    }
+
+    private static List<String> getSpanNames(JsonObject trace) {
+        List<String> names = new ArrayList<>();
+        for (JsonElement element : trace.getAsJsonArray("traceEvents")) {
+            JsonObject event = element.getAsJsonObject();
+            if (event.get("ph").getAsString().equals("X")) {
+                names.add(event.get("name").getAsString());
+            }
+        }
+        return names;
+    }
+}